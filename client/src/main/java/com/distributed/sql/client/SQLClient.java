@@ -5,8 +5,14 @@ import com.distributed.sql.common.proto.QueryProto.*;
 import com.distributed.sql.common.utils.AppLogger;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-
-import java.util.Scanner;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,9 +22,11 @@ public class SQLClient {
 
     private static final String DEFAULT_COORDINATOR_HOST = "localhost";
     private static final int DEFAULT_COORDINATOR_PORT = 50051;
+    private static final int BULK_LOAD_BATCH_ROWS = 5000;
 
     private ManagedChannel channel;
     private CoordinatorServiceGrpc.CoordinatorServiceBlockingStub coordinatorStub;
+    private CoordinatorServiceGrpc.CoordinatorServiceStub asyncStub;
 
     public static void main(String[] args) {
         String host = DEFAULT_COORDINATOR_HOST;
@@ -56,6 +64,7 @@ public class SQLClient {
                 .build();
 
         coordinatorStub = CoordinatorServiceGrpc.newBlockingStub(channel);
+        asyncStub = CoordinatorServiceGrpc.newStub(channel);
 
         AppLogger.info("Connected to coordinator at {}:{}", host, port);
     }
@@ -89,6 +98,11 @@ public class SQLClient {
                 continue;
             }
 
+            if (input.toLowerCase().startsWith("load ")) {
+                loadFile(input.split("\\s+"));
+                continue;
+            }
+
             // Execute SQL query
             executeQuery(input);
         }
@@ -124,11 +138,121 @@ public class SQLClient {
         }
     }
 
+    private void loadFile(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: load <table> <csv file>");
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[2]))) {
+            String header = reader.readLine();
+            if (header == null) {
+                System.err.println("File is empty: " + args[2]);
+                return;
+            }
+            List<String> columns = Arrays.asList(header.split(","));
+
+            Iterator<List<String>> rows = reader.lines()
+                    .map(line -> {
+                        List<String> values = new ArrayList<>(Arrays.asList(line.split(",", -1)));
+                        values.replaceAll(value -> value.isEmpty() ? null : value);
+                        return values;
+                    })
+                    .iterator();
+
+            BulkLoadResponse response = bulkLoad(args[1], columns, rows);
+            if (response.getSuccess()) {
+                double seconds = Math.max(response.getElapsedMs(), 1) / 1000.0;
+                System.out.printf("Loaded %d rows (%d rejected) in %dms, %.0f rows/s%n",
+                        response.getRowsLoaded(), response.getRowsRejected(), response.getElapsedMs(),
+                        response.getRowsLoaded() / seconds);
+            } else {
+                System.err.println("Load failed: " + response.getMessage());
+            }
+
+        } catch (Exception e) {
+            System.err.println("Error loading file: " + e.getMessage());
+            AppLogger.error("Error loading file", e);
+        }
+    }
+
+    /**
+     * Streams rows to the coordinator's bulk load in batches, waiting whenever
+     * the stream is not ready so the rows are never buffered in memory. A null
+     * value is loaded as SQL NULL.
+     */
+    public BulkLoadResponse bulkLoad(String tableName, List<String> columns, Iterator<List<String>> rows)
+            throws Exception {
+        CompletableFuture<BulkLoadResponse> result = new CompletableFuture<>();
+        CompletableFuture<ClientCallStreamObserver<BulkLoadRequest>> stream = new CompletableFuture<>();
+
+        asyncStub.bulkLoad(new ClientResponseObserver<BulkLoadRequest, BulkLoadResponse>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<BulkLoadRequest> requestStream) {
+                stream.complete(requestStream);
+            }
+
+            @Override
+            public void onNext(BulkLoadResponse response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        ClientCallStreamObserver<BulkLoadRequest> requestStream = stream.get();
+        BulkLoadRequest.Builder batch = BulkLoadRequest.newBuilder()
+                .setTableName(tableName)
+                .addAllColumns(columns);
+
+        while (rows.hasNext() && !result.isDone()) {
+            List<String> values = rows.next();
+            Row.Builder row = Row.newBuilder();
+            StringJoiner nulls = new StringJoiner(",");
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) == null) {
+                    nulls.add(String.valueOf(i));
+                }
+                row.addValues(values.get(i) != null ? values.get(i) : "");
+            }
+            if (nulls.length() > 0) {
+                row.putMetadata("nulls", nulls.toString());
+            }
+            batch.addRows(row);
+
+            if (batch.getRowsCount() >= BULK_LOAD_BATCH_ROWS) {
+                while (!requestStream.isReady() && !result.isDone()) {
+                    Thread.sleep(1);
+                }
+                requestStream.onNext(batch.build());
+                batch = BulkLoadRequest.newBuilder();
+            }
+        }
+
+        if (batch.getRowsCount() > 0) {
+            requestStream.onNext(batch.build());
+        }
+        requestStream.onCompleted();
+        return result.get();
+    }
+
     private void displayQueryResult(QueryResult result) {
         System.out.println("Query ID: " + result.getQueryId());
         System.out.println("Execution Time: " + result.getExecutionTimeMs() + "ms");
         System.out.println("Rows Returned: " + result.getRowsReturned());
         System.out.println("Status: " + result.getStatus());
+        for (RuntimeFilterStats stats : result.getRuntimeFilterStatsList()) {
+            System.out.println("Runtime Filter " + stats.getFilterId() + ": pruned " + stats.getShardsPruned()
+                    + " shards and " + stats.getRowsPruned() + " of " + stats.getRowsChecked() + " rows on "
+                    + stats.getColumn());
+        }
         System.out.println();
 
         if (result.getRowsReturned() > 0) {
@@ -189,6 +313,7 @@ public class SQLClient {
         System.out.println("Available commands:");
         System.out.println("  help     - Show this help message");
         System.out.println("  status   - Show system status");
+        System.out.println("  load <table> <csv file> - Bulk load a CSV file with a header row");
         System.out.println("  exit     - Exit the client");
         System.out.println();
         System.out.println("SQL Queries:");
@@ -196,6 +321,7 @@ public class SQLClient {
         System.out.println("  SELECT name, age FROM users WHERE age > 30");
         System.out.println("  SELECT COUNT(*) FROM users");
         System.out.println("  SELECT u.name, o.order_id FROM users u JOIN orders o ON u.user_id = o.user_id");
+        System.out.println("  INSERT INTO orders (user_id, product_name, amount, order_date) VALUES (42, 'Lamp', 9.99, '2024-01-05'), (7, 'Desk', 120.00, '2024-01-06')");
         System.out.println();
     }
 
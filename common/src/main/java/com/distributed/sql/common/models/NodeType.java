@@ -5,6 +5,7 @@ package com.distributed.sql.common.models;
  */
 public enum NodeType {
     SCAN,
+    INDEX_LOOKUP,
     FILTER,
     JOIN,
     PROJECT,
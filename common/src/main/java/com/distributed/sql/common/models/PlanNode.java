@@ -13,6 +13,7 @@ public class PlanNode {
     private List<Condition> conditions;
     private List<PlanNode> children;
     private int estimatedRows;
+    private String indexName;
 
     public PlanNode() {
         this.columns = new ArrayList<>();
@@ -87,6 +88,17 @@ public class PlanNode {
         this.children = children;
     }
 
+    /**
+     * Index an INDEX_LOOKUP node reads through
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
+    }
+
     public int getEstimatedRows() {
         return estimatedRows;
     }
@@ -14,6 +14,18 @@ public class Query {
     private List<String> fromTables;
     private List<Condition> whereConditions;
     private List<Join> joins;
+    private List<String> groupByColumns;
+    private List<String> insertColumns;
+    private List<List<String>> insertRows;
+    private Map<String, String> updateValues;
+    private String indexName;
+    private List<String> indexColumns;
+    private boolean globalIndex;
+    private String viewName;
+    private Query viewQuery;
+    private boolean disjunctive;
+    private double sampleFraction;
+    private SampleMethod sampleMethod = SampleMethod.BERNOULLI;
     private Map<String, String> metadata;
 
     public Query() {
@@ -21,6 +33,11 @@ public class Query {
         this.fromTables = new ArrayList<>();
         this.whereConditions = new ArrayList<>();
         this.joins = new ArrayList<>();
+        this.groupByColumns = new ArrayList<>();
+        this.insertColumns = new ArrayList<>();
+        this.insertRows = new ArrayList<>();
+        this.updateValues = new LinkedHashMap<>();
+        this.indexColumns = new ArrayList<>();
         this.metadata = new HashMap<>();
     }
 
@@ -50,6 +67,14 @@ public class Query {
         return queryType == QueryType.SELECT;
     }
 
+    public boolean isInsert() {
+        return queryType == QueryType.INSERT;
+    }
+
+    public boolean isWrite() {
+        return queryType == QueryType.INSERT || queryType == QueryType.UPDATE || queryType == QueryType.DELETE;
+    }
+
     public boolean hasConditions() {
         return !whereConditions.isEmpty();
     }
@@ -115,6 +140,139 @@ public class Query {
         this.joins = joins;
     }
 
+    /**
+     * Columns of the GROUP BY clause, qualified like the SELECT columns
+     */
+    public List<String> getGroupByColumns() {
+        return groupByColumns;
+    }
+
+    public void setGroupByColumns(List<String> groupByColumns) {
+        this.groupByColumns = groupByColumns;
+    }
+
+    public List<String> getInsertColumns() {
+        return insertColumns;
+    }
+
+    public void setInsertColumns(List<String> insertColumns) {
+        this.insertColumns = insertColumns;
+    }
+
+    /**
+     * Value tuples of an INSERT, in {@link #getInsertColumns()} order; SQL NULL is null
+     */
+    public List<List<String>> getInsertRows() {
+        return insertRows;
+    }
+
+    public void setInsertRows(List<List<String>> insertRows) {
+        this.insertRows = insertRows;
+    }
+
+    /**
+     * SET column -> value of an UPDATE
+     */
+    public Map<String, String> getUpdateValues() {
+        return updateValues;
+    }
+
+    public void setUpdateValues(Map<String, String> updateValues) {
+        this.updateValues = updateValues;
+    }
+
+    /**
+     * Name of the index a CREATE INDEX creates
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public void setIndexName(String indexName) {
+        this.indexName = indexName;
+    }
+
+    /**
+     * Columns of a CREATE INDEX, leading column first
+     */
+    public List<String> getIndexColumns() {
+        return indexColumns;
+    }
+
+    public void setIndexColumns(List<String> indexColumns) {
+        this.indexColumns = indexColumns;
+    }
+
+    /**
+     * True for CREATE GLOBAL INDEX, which indexes the whole table in a table
+     * of its own instead of each shard locally
+     */
+    public boolean isGlobalIndex() {
+        return globalIndex;
+    }
+
+    public void setGlobalIndex(boolean globalIndex) {
+        this.globalIndex = globalIndex;
+    }
+
+    /**
+     * Name of the view a CREATE MATERIALIZED VIEW creates
+     */
+    public String getViewName() {
+        return viewName;
+    }
+
+    public void setViewName(String viewName) {
+        this.viewName = viewName;
+    }
+
+    /**
+     * The SELECT defining a CREATE MATERIALIZED VIEW
+     */
+    public Query getViewQuery() {
+        return viewQuery;
+    }
+
+    public void setViewQuery(Query viewQuery) {
+        this.viewQuery = viewQuery;
+    }
+
+    /**
+     * True if the WHERE clause contains OR, in which case its conditions cannot
+     * be used to narrow down the shards to read or write
+     */
+    public boolean isDisjunctive() {
+        return disjunctive;
+    }
+
+    public void setDisjunctive(boolean disjunctive) {
+        this.disjunctive = disjunctive;
+    }
+
+    /**
+     * Fraction (0 to 1) of the rows a TABLESAMPLE query reads, or 0 to read
+     * every row
+     */
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    public boolean isSampled() {
+        return sampleFraction > 0;
+    }
+
+    public SampleMethod getSampleMethod() {
+        return sampleMethod;
+    }
+
+    public void setSampleMethod(SampleMethod sampleMethod) {
+        this.sampleMethod = sampleMethod;
+    }
+
     public Map<String, String> getMetadata() {
         return metadata;
     }
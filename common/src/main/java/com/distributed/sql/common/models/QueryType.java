@@ -7,5 +7,7 @@ public enum QueryType {
     SELECT,
     INSERT,
     UPDATE,
-    DELETE
+    DELETE,
+    CREATE_INDEX,
+    CREATE_MATERIALIZED_VIEW
 }
@@ -0,0 +1,10 @@
+package com.distributed.sql.common.models;
+
+/**
+ * How TABLESAMPLE chooses rows: each row on its own, or whole blocks of
+ * consecutive rows
+ */
+public enum SampleMethod {
+    BERNOULLI,
+    SYSTEM
+}
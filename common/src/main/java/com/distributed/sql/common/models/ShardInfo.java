@@ -1,7 +1,13 @@
 package com.distributed.sql.common.models;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
- * Represents shard information for data distribution
+ * Represents shard information for data distribution. Once frozen, for
+ * example when published in a routing snapshot, it can no longer change;
+ * changes go to a copy made with the copy constructor.
  */
 public class ShardInfo {
     private String shardId;
@@ -10,8 +16,11 @@ public class ShardInfo {
     private String keyRangeStart;
     private String keyRangeEnd;
     private long rowCount;
+    private List<String> replicaWorkerIds;
+    private boolean frozen;
 
     public ShardInfo() {
+        this.replicaWorkerIds = new ArrayList<>();
     }
 
     public ShardInfo(String shardId, String workerId, String tableName, String keyRangeStart, String keyRangeEnd,
@@ -22,6 +31,54 @@ public class ShardInfo {
         this.keyRangeStart = keyRangeStart;
         this.keyRangeEnd = keyRangeEnd;
         this.rowCount = rowCount;
+        this.replicaWorkerIds = new ArrayList<>();
+        this.replicaWorkerIds.add(workerId);
+    }
+
+    public ShardInfo(ShardInfo other) {
+        this.shardId = other.shardId;
+        this.workerId = other.workerId;
+        this.tableName = other.tableName;
+        this.keyRangeStart = other.keyRangeStart;
+        this.keyRangeEnd = other.keyRangeEnd;
+        this.rowCount = other.rowCount;
+        this.replicaWorkerIds = new ArrayList<>(other.replicaWorkerIds);
+    }
+
+    /**
+     * Makes the shard read-only: setters throw and the replica list cannot be
+     * changed. Copies made from it are not frozen.
+     */
+    public ShardInfo freeze() {
+        if (!frozen) {
+            replicaWorkerIds = Collections.unmodifiableList(new ArrayList<>(replicaWorkerIds));
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Shard " + shardId + " is frozen; change a copy instead");
+        }
+    }
+
+    /**
+     * Adds a worker holding a read-only copy of this shard
+     */
+    public void addReplica(String replicaWorkerId) {
+        checkMutable();
+        if (!replicaWorkerIds.contains(replicaWorkerId)) {
+            replicaWorkerIds.add(replicaWorkerId);
+        }
+    }
+
+    public boolean hasReplicas() {
+        return replicaWorkerIds.size() > 1;
     }
 
     // Getters and Setters
@@ -30,6 +87,7 @@ public class ShardInfo {
     }
 
     public void setShardId(String shardId) {
+        checkMutable();
         this.shardId = shardId;
     }
 
@@ -38,6 +96,7 @@ public class ShardInfo {
     }
 
     public void setWorkerId(String workerId) {
+        checkMutable();
         this.workerId = workerId;
     }
 
@@ -46,6 +105,7 @@ public class ShardInfo {
     }
 
     public void setTableName(String tableName) {
+        checkMutable();
         this.tableName = tableName;
     }
 
@@ -54,6 +114,7 @@ public class ShardInfo {
     }
 
     public void setKeyRangeStart(String keyRangeStart) {
+        checkMutable();
         this.keyRangeStart = keyRangeStart;
     }
 
@@ -62,6 +123,7 @@ public class ShardInfo {
     }
 
     public void setKeyRangeEnd(String keyRangeEnd) {
+        checkMutable();
         this.keyRangeEnd = keyRangeEnd;
     }
 
@@ -70,6 +132,20 @@ public class ShardInfo {
     }
 
     public void setRowCount(long rowCount) {
+        checkMutable();
         this.rowCount = rowCount;
     }
+
+    /**
+     * Returns every worker that can serve reads for this shard, primary first;
+     * read-only once the shard is frozen
+     */
+    public List<String> getReplicaWorkerIds() {
+        return replicaWorkerIds;
+    }
+
+    public void setReplicaWorkerIds(List<String> replicaWorkerIds) {
+        checkMutable();
+        this.replicaWorkerIds = replicaWorkerIds;
+    }
 }
@@ -0,0 +1,301 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.proto.QueryProto.AggregateSpec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Partial state of one aggregate over one group of rows. Workers fold their
+ * rows into states and send their bytes; the coordinator merges the states of
+ * every worker and reads the result off the merged state. Every state is
+ * bounded in size, whatever the number of rows.
+ */
+public abstract class AggregateState {
+
+    /**
+     * Creates the empty state of an aggregate
+     */
+    public static AggregateState create(AggregateSpec spec) {
+        return switch (spec.getFunction()) {
+            case APPROX_COUNT_DISTINCT -> new DistinctSketch(new HyperLogLog(spec.getPrecision()));
+            case APPROX_PERCENTILE -> new QuantileDigest(new TDigest(spec.getPrecision()));
+            case COUNT -> new Count();
+            case SUM -> new Sum();
+            case MIN -> new Extreme(-1);
+            case MAX -> new Extreme(1);
+            default -> throw new IllegalArgumentException("Unknown aggregate function " + spec.getFunction());
+        };
+    }
+
+    /**
+     * Restores a state of the aggregate from the bytes of {@link #toByteArray()}
+     */
+    public static AggregateState fromBytes(AggregateSpec spec, byte[] bytes) {
+        AggregateState state = create(spec);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            state.read(in);
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + spec.getFunction() + " state", e);
+        }
+        return state;
+    }
+
+    /**
+     * Adds a value of a row; nulls are never added
+     */
+    public abstract void add(String value);
+
+    /**
+     * Adds the values another state of the same aggregate saw
+     */
+    public abstract void merge(AggregateState other);
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    abstract void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Replaces the state with the one {@link #write} wrote
+     */
+    abstract void read(DataInputStream in) throws IOException;
+
+    /**
+     * Orders values numerically if both are numbers, else as strings
+     */
+    static int compareValues(String left, String right) {
+        try {
+            return new BigDecimal(left.trim()).compareTo(new BigDecimal(right.trim()));
+        } catch (NumberFormatException e) {
+            return left.compareTo(right);
+        }
+    }
+
+    private static BigDecimal toNumber(String value) {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * HyperLogLog sketch of the distinct values
+     */
+    public static final class DistinctSketch extends AggregateState {
+        private HyperLogLog sketch;
+
+        private DistinctSketch(HyperLogLog sketch) {
+            this.sketch = sketch;
+        }
+
+        @Override
+        public void add(String value) {
+            sketch.add(value);
+        }
+
+        @Override
+        public void merge(AggregateState other) {
+            sketch.merge(((DistinctSketch) other).sketch);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.write(sketch.toByteArray());
+        }
+
+        @Override
+        void read(DataInputStream in) throws IOException {
+            sketch = HyperLogLog.fromBytes(in.readAllBytes());
+        }
+
+        public HyperLogLog getSketch() {
+            return sketch;
+        }
+    }
+
+    /**
+     * t-digest of the numeric values; values that are not numbers are skipped
+     */
+    public static final class QuantileDigest extends AggregateState {
+        private TDigest digest;
+
+        private QuantileDigest(TDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void add(String value) {
+            BigDecimal number = toNumber(value);
+            if (number != null) {
+                digest.add(number.doubleValue());
+            }
+        }
+
+        @Override
+        public void merge(AggregateState other) {
+            digest.merge(((QuantileDigest) other).digest);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.write(digest.toByteArray());
+        }
+
+        @Override
+        void read(DataInputStream in) throws IOException {
+            digest = TDigest.fromBytes(in.readAllBytes());
+        }
+
+        public TDigest getDigest() {
+            return digest;
+        }
+    }
+
+    /**
+     * Count of the non-null values
+     */
+    public static final class Count extends AggregateState {
+        private long count;
+
+        @Override
+        public void add(String value) {
+            count++;
+        }
+
+        @Override
+        public void merge(AggregateState other) {
+            count += ((Count) other).count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+        }
+
+        @Override
+        void read(DataInputStream in) throws IOException {
+            count = in.readLong();
+        }
+    }
+
+    /**
+     * Exact sum and count of the numeric values, enough for SUM and AVG, and
+     * their sum of squares for the variance of an estimate from a sample
+     */
+    public static final class Sum extends AggregateState {
+        private long count;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private double sumOfSquares;
+
+        @Override
+        public void add(String value) {
+            BigDecimal number = toNumber(value);
+            if (number != null) {
+                sum = sum.add(number);
+                sumOfSquares += number.doubleValue() * number.doubleValue();
+                count++;
+            }
+        }
+
+        @Override
+        public void merge(AggregateState other) {
+            count += ((Sum) other).count;
+            sum = sum.add(((Sum) other).sum);
+            sumOfSquares += ((Sum) other).sumOfSquares;
+        }
+
+        /**
+         * Number of values summed
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public BigDecimal getSum() {
+            return sum;
+        }
+
+        public double getSumOfSquares() {
+            return sumOfSquares;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeUTF(sum.toString());
+            out.writeDouble(sumOfSquares);
+        }
+
+        @Override
+        void read(DataInputStream in) throws IOException {
+            count = in.readLong();
+            sum = new BigDecimal(in.readUTF());
+            sumOfSquares = in.readDouble();
+        }
+    }
+
+    /**
+     * Smallest (sign -1) or largest (sign 1) value, compared numerically if
+     * both values are numbers
+     */
+    public static final class Extreme extends AggregateState {
+        private final int sign;
+        private String value;
+
+        private Extreme(int sign) {
+            this.sign = sign;
+        }
+
+        @Override
+        public void add(String candidate) {
+            if (value == null || Integer.signum(compareValues(candidate, value)) == sign) {
+                value = candidate;
+            }
+        }
+
+        @Override
+        public void merge(AggregateState other) {
+            String otherValue = ((Extreme) other).value;
+            if (otherValue != null) {
+                add(otherValue);
+            }
+        }
+
+        /**
+         * Returns the value, or null if there were none
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        @Override
+        void read(DataInputStream in) throws IOException {
+            value = in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
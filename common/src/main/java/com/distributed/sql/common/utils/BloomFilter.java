@@ -0,0 +1,85 @@
+package com.distributed.sql.common.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over string keys. The coordinator builds it and the workers
+ * probe it, so both hash through {@link Hashing#hash64}, whose halves are
+ * used for double hashing.
+ */
+public class BloomFilter {
+
+    // Cap on the bit array so a filter always fits comfortably in one request
+    private static final int MAX_BITS = 8 * 1024 * 1024;
+
+    private final long[] words;
+    private final int bitCount;
+    private final int hashCount;
+
+    private BloomFilter(long[] words, int hashCount) {
+        this.words = words;
+        this.bitCount = words.length * 64;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates an empty filter sized for the expected number of keys at the
+     * given false positive rate
+     */
+    public static BloomFilter create(int expectedKeys, double falsePositiveRate) {
+        int keys = Math.max(1, expectedKeys);
+        double bits = -keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        int bitCount = (int) Math.min(MAX_BITS, Math.max(64, Math.ceil(bits)));
+        int hashCount = (int) Math.max(1, Math.round((double) bitCount / keys * Math.log(2)));
+        return new BloomFilter(new long[(bitCount + 63) / 64], hashCount);
+    }
+
+    /**
+     * Restores a filter from the bytes of {@link #toByteArray()}
+     */
+    public static BloomFilter fromBytes(byte[] bytes, int hashCount) {
+        if (bytes.length == 0 || bytes.length % 8 != 0 || hashCount <= 0) {
+            throw new IllegalArgumentException("Invalid Bloom filter");
+        }
+        long[] words = new long[bytes.length / 8];
+        ByteBuffer.wrap(bytes).asLongBuffer().get(words);
+        return new BloomFilter(words, hashCount);
+    }
+
+    public void put(String key) {
+        long hash = Hashing.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = Hashing.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * 8);
+        buffer.asLongBuffer().put(words);
+        return buffer.array();
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+}
@@ -0,0 +1,196 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.proto.QueryProto.ColumnBatch;
+import com.distributed.sql.common.proto.QueryProto.ColumnChunk;
+import com.distributed.sql.common.proto.QueryProto.ColumnEncoding;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.Row;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Decodes columns stored in a {@link ColumnEncoding}. Workers write this
+ * layout to their segment files and send it as is in column chunks, so the
+ * coordinator and the workers must read it the same way. Numbers are
+ * big-endian; strings are an int byte length and UTF-8 bytes; long arrays
+ * are an int length and the longs.
+ * <ul>
+ * <li>DICTIONARY: dictionary, bit width (byte), codes bit-packed as longs</li>
+ * <li>RLE: dictionary, run count, then (code, length) int pairs</li>
+ * <li>BIT_PACKED: base (long), bit width (byte), null bitmap longs, offsets
+ * from the base bit-packed as longs</li>
+ * </ul>
+ * A dictionary is a count and that many strings; code 0 is null.
+ */
+public final class ColumnChunks {
+
+    // Proto rows cannot hold nulls, so their positions are listed under this key
+    public static final String NULLS_METADATA_KEY = "nulls";
+
+    private ColumnChunks() {
+    }
+
+    /**
+     * A decoded column: a dictionary whose entry 0 is null and a code per row
+     */
+    public static final class Column {
+        public final String[] dictionary;
+        public final int[] codes;
+
+        Column(String[] dictionary, int[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        public String value(int row) {
+            return dictionary[codes[row]];
+        }
+    }
+
+    /**
+     * Decodes a column of rowCount values starting at the buffer's position
+     */
+    public static Column decode(ColumnEncoding encoding, ByteBuffer in, int rowCount) {
+        int[] codes = new int[rowCount];
+        switch (encoding) {
+            case DICTIONARY: {
+                String[] dictionary = readDictionary(in);
+                int bitWidth = in.get();
+                long[] packed = readLongs(in);
+                for (int row = 0; row < rowCount; row++) {
+                    codes[row] = (int) unpack(packed, row, bitWidth);
+                }
+                return new Column(dictionary, codes);
+            }
+            case RLE: {
+                String[] dictionary = readDictionary(in);
+                int runs = in.getInt();
+                int row = 0;
+                for (int run = 0; run < runs; run++) {
+                    int code = in.getInt();
+                    int length = in.getInt();
+                    for (int end = row + length; row < end; row++) {
+                        codes[row] = code;
+                    }
+                }
+                return new Column(dictionary, codes);
+            }
+            case BIT_PACKED: {
+                long base = in.getLong();
+                int bitWidth = in.get();
+                long[] nulls = readLongs(in);
+                long[] offsets = readLongs(in);
+                Map<Long, Integer> dictionaryCodes = new HashMap<>();
+                List<String> dictionary = new ArrayList<>();
+                dictionary.add(null);
+                for (int row = 0; row < rowCount; row++) {
+                    if ((nulls[row >>> 6] & (1L << row)) != 0) {
+                        continue;
+                    }
+                    long value = base + unpack(offsets, row, bitWidth);
+                    Integer code = dictionaryCodes.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionaryCodes.put(value, code);
+                        dictionary.add(Long.toString(value));
+                    }
+                    codes[row] = code;
+                }
+                return new Column(dictionary.toArray(new String[0]), codes);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown column encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Returns the result with its column batches expanded into result rows,
+     * or the result itself if it has none
+     */
+    public static QueryResult expand(QueryResult result) {
+        if (result.getColumnBatchesCount() == 0) {
+            return result;
+        }
+        QueryResult.Builder builder = result.toBuilder().clearColumnBatches();
+        for (ColumnBatch batch : result.getColumnBatchesList()) {
+            builder.addAllResults(toRows(batch));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decodes a batch into proto rows, with nulls as empty strings listed
+     * under {@link #NULLS_METADATA_KEY}. Rows left out of the batch's
+     * selection are skipped.
+     */
+    public static List<Row> toRows(ColumnBatch batch) {
+        List<Column> columns = new ArrayList<>();
+        for (ColumnChunk chunk : batch.getColumnsList()) {
+            columns.add(decode(chunk.getEncoding(), chunk.getData().asReadOnlyByteBuffer(), batch.getRowCount()));
+        }
+
+        byte[] selection = batch.getSelection().toByteArray();
+        List<Row> rows = new ArrayList<>(batch.getRowCount());
+        for (int row = 0; row < batch.getRowCount(); row++) {
+            if (selection.length > 0 && (selection[row >>> 3] & (1 << (row & 7))) == 0) {
+                continue;
+            }
+            Row.Builder builder = Row.newBuilder();
+            StringJoiner nulls = new StringJoiner(",");
+            for (int i = 0; i < columns.size(); i++) {
+                String value = columns.get(i).value(row);
+                if (value == null) {
+                    nulls.add(String.valueOf(i));
+                }
+                builder.addValues(value != null ? value : "");
+            }
+            if (nulls.length() > 0) {
+                builder.putMetadata(NULLS_METADATA_KEY, nulls.toString());
+            }
+            rows.add(builder.build());
+        }
+        return rows;
+    }
+
+    public static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static String[] readDictionary(ByteBuffer in) {
+        String[] dictionary = new String[in.getInt() + 1];
+        for (int code = 1; code < dictionary.length; code++) {
+            dictionary[code] = readString(in);
+        }
+        return dictionary;
+    }
+
+    public static long[] readLongs(ByteBuffer in) {
+        long[] values = new long[in.getInt()];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + values.length * 8);
+        return values;
+    }
+
+    /**
+     * Reads value number index from values of bitWidth bits packed
+     * little-end first into longs
+     */
+    public static long unpack(long[] packed, int index, int bitWidth) {
+        long bitIndex = (long) index * bitWidth;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        long value = packed[word] >>> shift;
+        if (shift + bitWidth > 64) {
+            value |= packed[word + 1] << (64 - shift);
+        }
+        return bitWidth == 64 ? value : value & ((1L << bitWidth) - 1);
+    }
+}
@@ -0,0 +1,104 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.models.ShardInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable consistent-hash ring mapping shard keys to shards. Each shard owns
+ * several virtual nodes so keys spread evenly, and adding a shard only takes
+ * over roughly 1/N of the key space from the existing ones.
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final long[] positions;
+    private final ShardInfo[] owners;
+
+    public ConsistentHashRing(List<ShardInfo> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(List<ShardInfo> shards, int virtualNodes) {
+        int size = shards.size() * virtualNodes;
+        long[][] nodes = new long[size][2];
+
+        int n = 0;
+        for (int shardIndex = 0; shardIndex < shards.size(); shardIndex++) {
+            String shardId = shards.get(shardIndex).getShardId();
+            for (int i = 0; i < virtualNodes; i++) {
+                nodes[n][0] = Hashing.hash64(shardId + "#" + i);
+                nodes[n][1] = shardIndex;
+                n++;
+            }
+        }
+        Arrays.sort(nodes, Comparator.comparingLong(node -> node[0]));
+
+        this.positions = new long[size];
+        this.owners = new ShardInfo[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = nodes[i][0];
+            owners[i] = shards.get((int) nodes[i][1]);
+        }
+    }
+
+    /**
+     * Returns the shard owning the key: the first virtual node at or after the
+     * key's hash, wrapping around the ring. Returns null for an empty ring.
+     */
+    public ShardInfo route(String key) {
+        if (positions.length == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(positions, Hashing.hash64(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == positions.length ? 0 : index];
+    }
+
+    /**
+     * Returns the hash ranges routed to the given shards as inclusive
+     * {low, high} pairs in ascending order, adjacent ranges merged. A key
+     * belongs to one of the shards exactly when its hash falls in a range.
+     */
+    public List<long[]> hashRanges(Collection<String> shardIds) {
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = 0; i < positions.length; i++) {
+            if (!shardIds.contains(owners[i].getShardId())) {
+                continue;
+            }
+            // The virtual node owns the hashes after the previous node's, up to its own
+            long low = i == 0 ? Long.MIN_VALUE : positions[i - 1] + 1;
+            addRange(ranges, low, positions[i]);
+        }
+        // Hashes past the last node wrap around to the first
+        if (positions.length > 0 && shardIds.contains(owners[0].getShardId())
+                && positions[positions.length - 1] < Long.MAX_VALUE) {
+            addRange(ranges, positions[positions.length - 1] + 1, Long.MAX_VALUE);
+        }
+        return ranges;
+    }
+
+    private static void addRange(List<long[]> ranges, long low, long high) {
+        if (low > high) {
+            return;
+        }
+        long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && last[1] != Long.MAX_VALUE && last[1] + 1 == low) {
+            last[1] = high;
+        } else {
+            ranges.add(new long[] { low, high });
+        }
+    }
+
+    public int size() {
+        return positions.length;
+    }
+}
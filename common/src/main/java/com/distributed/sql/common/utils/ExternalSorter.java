@@ -0,0 +1,267 @@
+package com.distributed.sql.common.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts rows that may not fit in memory. Rows are buffered up to a limit;
+ * each full buffer is sorted and written to a temporary file as a run, and
+ * the runs are merged while the sorted rows are read back, at most
+ * MAX_MERGE_WIDTH files at a time. Rows are lists of values, any of which
+ * may be null. Closing the sorter deletes its files.
+ */
+public class ExternalSorter implements Closeable {
+
+    // Runs merged in one pass; more are first merged into longer runs
+    static final int MAX_MERGE_WIDTH = 64;
+
+    private final Comparator<List<String>> order;
+    private final Path spillDirectory;
+    private final int maxRowsInMemory;
+    private final List<List<String>> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Closeable> readers = new ArrayList<>();
+    private int spilledRuns;
+
+    public ExternalSorter(Comparator<List<String>> order, Path spillDirectory, int maxRowsInMemory) {
+        if (maxRowsInMemory < 1) {
+            throw new IllegalArgumentException("A sort needs room for at least one row in memory");
+        }
+        this.order = order;
+        this.spillDirectory = spillDirectory;
+        this.maxRowsInMemory = maxRowsInMemory;
+    }
+
+    public void add(List<String> row) throws IOException {
+        buffer.add(row);
+        if (buffer.size() >= maxRowsInMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * Returns the rows added so far in order. Rows still in memory are
+     * merged with the runs on disk without being written.
+     */
+    public Iterator<List<String>> sorted() throws IOException {
+        buffer.sort(order);
+        if (runs.isEmpty()) {
+            return buffer.iterator();
+        }
+        while (runs.size() >= MAX_MERGE_WIDTH) {
+            // Leave room among the open files for the rows still in memory
+            List<Path> merged = new ArrayList<>(runs.subList(0, MAX_MERGE_WIDTH - 1));
+            runs.subList(0, MAX_MERGE_WIDTH - 1).clear();
+            runs.add(mergeRuns(merged));
+        }
+        List<Iterator<List<String>>> sources = new ArrayList<>();
+        for (Path run : runs) {
+            sources.add(open(run));
+        }
+        sources.add(buffer.iterator());
+        return new MergeIterator(sources, order);
+    }
+
+    /**
+     * Number of runs written to disk, counting those merged into longer ones
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Closeable reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(order);
+        Path run = Files.createTempFile(spillDirectory, "sort-run", ".tmp");
+        try (DataOutputStream out = openOutput(run)) {
+            for (List<String> row : buffer) {
+                writeRow(out, row);
+            }
+        }
+        runs.add(run);
+        spilledRuns++;
+        buffer.clear();
+    }
+
+    private Path mergeRuns(List<Path> merged) throws IOException {
+        Path run = Files.createTempFile(spillDirectory, "sort-run", ".tmp");
+        List<Iterator<List<String>>> sources = new ArrayList<>();
+        List<RunReader> mergedReaders = new ArrayList<>();
+        try (DataOutputStream out = openOutput(run)) {
+            for (Path source : merged) {
+                RunReader reader = new RunReader(source);
+                mergedReaders.add(reader);
+                sources.add(reader);
+            }
+            Iterator<List<String>> rows = new MergeIterator(sources, order);
+            while (rows.hasNext()) {
+                writeRow(out, rows.next());
+            }
+        } finally {
+            for (RunReader reader : mergedReaders) {
+                reader.close();
+            }
+        }
+        for (Path source : merged) {
+            Files.deleteIfExists(source);
+        }
+        spilledRuns++;
+        return run;
+    }
+
+    private RunReader open(Path run) throws IOException {
+        RunReader reader = new RunReader(run);
+        readers.add(reader);
+        return reader;
+    }
+
+    static DataOutputStream openOutput(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    }
+
+    static void writeRow(DataOutputStream out, List<String> row) throws IOException {
+        out.writeInt(row.size());
+        for (String value : row) {
+            if (value == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            // Not writeUTF, which is limited to 64 KB
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the next row, or returns null at the end of the file
+     */
+    static List<String> readRow(DataInputStream in) throws IOException {
+        int size;
+        try {
+            size = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        List<String> row = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                row.add(null);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            row.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return row;
+    }
+
+    /**
+     * Reads the rows of a file written by writeRow, one at a time
+     */
+    static final class RunReader implements Iterator<List<String>>, Closeable {
+        private final DataInputStream in;
+        private List<String> next;
+
+        RunReader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            this.next = readRow(in);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public List<String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            List<String> row = next;
+            try {
+                next = readRow(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Merges sorted sources, holding one row of each
+     */
+    private static final class MergeIterator implements Iterator<List<String>> {
+        private final PriorityQueue<Head> heads;
+
+        MergeIterator(List<Iterator<List<String>>> sources, Comparator<List<String>> order) {
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                    (a, b) -> order.compare(a.row, b.row));
+            for (Iterator<List<String>> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head(source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public List<String> next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            if (head.source.hasNext()) {
+                heads.add(new Head(head.source.next(), head.source));
+            }
+            return head.row;
+        }
+    }
+
+    private static final class Head {
+        final List<String> row;
+        final Iterator<List<String>> source;
+
+        Head(List<String> row, Iterator<List<String>> source) {
+            this.row = row;
+            this.source = source;
+        }
+    }
+}
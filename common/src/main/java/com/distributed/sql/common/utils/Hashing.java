@@ -0,0 +1,32 @@
+package com.distributed.sql.common.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The string hash shared by the coordinator and the workers. Sketches,
+ * filters and rings built on one side are read on the other, so every
+ * caller must hash through here.
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3
+     * fmix64 step so that every output bit depends on every input byte
+     */
+    public static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
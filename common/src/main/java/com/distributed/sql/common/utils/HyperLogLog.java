@@ -0,0 +1,112 @@
+package com.distributed.sql.common.utils;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct strings added to it.
+ * Workers build one per group and the coordinator merges them, so both
+ * sides hash through {@link Hashing#hash64}. A sketch of 2^precision
+ * registers takes that many bytes and estimates within about
+ * 1.04 / sqrt(2^precision) of the exact count (one standard error), however
+ * many values it saw.
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between " + MIN_PRECISION + " and "
+                    + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Restores a sketch from the bytes of {@link #toByteArray()}
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] < MIN_PRECISION || bytes[0] > MAX_PRECISION
+                || bytes.length != 1 + (1 << bytes[0])) {
+            throw new IllegalArgumentException("Invalid HyperLogLog sketch");
+        }
+        HyperLogLog sketch = new HyperLogLog(bytes[0]);
+        System.arraycopy(bytes, 1, sketch.registers, 0, sketch.registers.length);
+        return sketch;
+    }
+
+    public void add(String value) {
+        long hash = Hashing.hash64(value);
+        int register = (int) (hash >>> (64 - precision));
+        // Rank of the first set bit after the register bits; the guard bit caps it
+        int rank = Long.numberOfLeadingZeros(hash << precision | 1L << (precision - 1)) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Adds the values another sketch of the same precision saw
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of precision " + precision
+                    + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        // Linear counting is more accurate while many registers are still empty
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Standard error of the estimate relative to the exact count
+     */
+    public double relativeStandardError() {
+        return relativeStandardError(precision);
+    }
+
+    public static double relativeStandardError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[1 + registers.length];
+        bytes[0] = (byte) precision;
+        System.arraycopy(registers, 0, bytes, 1, registers.length);
+        return bytes;
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+}
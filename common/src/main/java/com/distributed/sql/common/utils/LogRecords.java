@@ -0,0 +1,119 @@
+package com.distributed.sql.common.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Record framing shared by the coordinator's durable logs and the workers'
+ * write-ahead logs. Each record is [int length][int crc32][payload]. A torn
+ * or corrupt record (a crash mid-append) ends a replay, and everything after
+ * it is ignored.
+ */
+public final class LogRecords {
+
+    // Large enough for a bulk-load batch in a worker's write-ahead log
+    public static final int MAX_RECORD_BYTES = 64 << 20;
+
+    private LogRecords() {
+    }
+
+    public static void write(OutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payload.length);
+        data.writeInt((int) crc.getValue());
+        data.write(payload);
+    }
+
+    /**
+     * Appends one record at the channel's position and fsyncs it
+     */
+    public static void append(FileChannel channel, byte[] payload) throws IOException {
+        appendWithoutSync(channel, payload);
+        channel.force(false);
+    }
+
+    /**
+     * Appends one record at the channel's position, leaving the fsync to the
+     * caller so that several records can share one
+     */
+    public static void appendWithoutSync(FileChannel channel, byte[] payload) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 8);
+        write(record, payload);
+        ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Passes every valid record of the file to the handler, in order. Returns
+     * the number of records and the length of the valid prefix of the file.
+     */
+    public static ReplayResult replay(Path file, RecordHandler handler) throws IOException {
+        ReplayResult result = new ReplayResult();
+        if (!Files.exists(file)) {
+            return result;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        AppLogger.warn("Invalid record in {} after {} records, ignoring the rest", file, result.records);
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        AppLogger.warn("Corrupt record in {} after {} records, ignoring the rest", file, result.records);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                handler.apply(payload);
+                result.validLength += 8 + payload.length;
+                result.records++;
+            }
+        }
+        return result;
+    }
+
+    public static byte[] encode(RecordWriter writer) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writer.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class ReplayResult {
+        public int records;
+        public long validLength;
+    }
+
+    public interface RecordHandler {
+        void apply(byte[] payload) throws IOException;
+    }
+
+    public interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
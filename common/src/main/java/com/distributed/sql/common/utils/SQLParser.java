@@ -0,0 +1,460 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.models.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Simple SQL parser for basic query parsing
+ */
+public class SQLParser {
+
+    private static final Pattern SELECT_PATTERN = Pattern.compile(
+            "SELECT\\s+(.*?)\\s+FROM\\s+(.*?)(?:\\s+WHERE\\s+(.*?))?(?:\\s+GROUP\\s+BY\\s+(.*?))?"
+                    + "(?:\\s+ORDER\\s+BY\\s+(.*?))?(?:\\s+LIMIT\\s+(\\d+))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern INSERT_PATTERN = Pattern.compile(
+            "INSERT\\s+INTO\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*VALUES\\s*(.*?);?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern UPDATE_PATTERN = Pattern.compile(
+            "UPDATE\\s+(\\w+)\\s+SET\\s+(.*?)(?:\\s+WHERE\\s+(.*?))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern DELETE_PATTERN = Pattern.compile(
+            "DELETE\\s+FROM\\s+(\\w+)(?:\\s+WHERE\\s+(.*?))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern CREATE_INDEX_PATTERN = Pattern.compile(
+            "CREATE\\s+(GLOBAL\\s+)?INDEX\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)\\s+ON\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern CREATE_VIEW_PATTERN = Pattern.compile(
+            "CREATE\\s+MATERIALIZED\\s+VIEW\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)\\s+AS\\s+(SELECT\\s.*)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // "t1 [alias] [INNER|LEFT|RIGHT|FULL [OUTER]] JOIN t2 [alias] ON a.x = b.y"
+    private static final Pattern JOIN_PATTERN = Pattern.compile(
+            "(\\w+)(?:\\s+(?:AS\\s+)?(?!(?:INNER|LEFT|RIGHT|FULL|JOIN)\\b)(\\w+))?"
+                    + "\\s+(?:(INNER|LEFT|RIGHT|FULL)\\s+(?:OUTER\\s+)?)?JOIN"
+                    + "\\s+(\\w+)(?:\\s+(?:AS\\s+)?(?!ON\\b)(\\w+))?"
+                    + "\\s+ON\\s+([\\w.]+)\\s*=\\s*([\\w.]+)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // "FROM t [alias] TABLESAMPLE BERNOULLI|SYSTEM (percent)"
+    private static final Pattern TABLESAMPLE_PATTERN = Pattern.compile(
+            "(\\bFROM\\s+\\w+(?:\\s+(?:AS\\s+)?\\w+)?)\\s+TABLESAMPLE\\s+(BERNOULLI|SYSTEM)\\s*\\(\\s*(\\d+(?:\\.\\d+)?)\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WHERE_CONDITION_PATTERN = Pattern.compile(
+            "([\\w.]+)\\s*(<=|>=|!=|<>|=|<|>|\\bLIKE\\b|\\bIN\\b)\\s*(.+)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    public Query parse(String sql) {
+        AppLogger.info("Parsing SQL query: {}", sql);
+
+        String trimmed = sql.trim();
+        if (trimmed.regionMatches(true, 0, "INSERT", 0, 6)) {
+            return parseInsert(sql);
+        }
+        if (trimmed.regionMatches(true, 0, "UPDATE", 0, 6)) {
+            return parseUpdate(sql);
+        }
+        if (trimmed.regionMatches(true, 0, "DELETE", 0, 6)) {
+            return parseDelete(sql);
+        }
+        if (CREATE_VIEW_PATTERN.matcher(trimmed).matches()) {
+            return parseCreateView(sql);
+        }
+        if (trimmed.regionMatches(true, 0, "CREATE", 0, 6)) {
+            return parseCreateIndex(sql);
+        }
+
+        Query query = new Query(sql, QueryType.SELECT);
+
+        // TABLESAMPLE only marks the query as sampled; the rest parses as if it were not there
+        Matcher sample = TABLESAMPLE_PATTERN.matcher(trimmed);
+        if (sample.find()) {
+            query.setSampleMethod(SampleMethod.valueOf(sample.group(2).toUpperCase()));
+            query.setSampleFraction(Double.parseDouble(sample.group(3)) / 100);
+            trimmed = withoutTableSample(trimmed);
+        }
+
+        Matcher matcher = SELECT_PATTERN.matcher(trimmed);
+        if (matcher.matches()) {
+            String selectClause = matcher.group(1);
+            String fromClause = matcher.group(2);
+            String whereClause = matcher.group(3);
+            String groupByClause = matcher.group(4);
+
+            // Parse FROM tables, noting aliases so columns can be qualified by table name
+            Map<String, String> aliases = parseFromTables(fromClause, query);
+
+            // Parse SELECT columns
+            parseSelectColumns(selectClause, query, aliases);
+
+            // Parse WHERE conditions
+            if (whereClause != null && !whereClause.trim().isEmpty()) {
+                parseWhereConditions(whereClause, query, aliases);
+            }
+
+            if (groupByClause != null) {
+                List<String> groupByColumns = new ArrayList<>();
+                for (String column : groupByClause.split(",")) {
+                    groupByColumns.add(qualify(column.trim(), aliases));
+                }
+                query.setGroupByColumns(groupByColumns);
+            }
+        } else {
+            AppLogger.warn("Could not parse SQL query: {}", sql);
+        }
+
+        return query;
+    }
+
+    private Query parseInsert(String sql) {
+        Query query = new Query(sql, QueryType.INSERT);
+
+        Matcher matcher = INSERT_PATTERN.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse INSERT statement: " + sql);
+        }
+
+        query.setFromTables(List.of(matcher.group(1)));
+        List<String> columns = new ArrayList<>();
+        for (String column : matcher.group(2).split(",")) {
+            columns.add(column.trim());
+        }
+        query.setInsertColumns(columns);
+        query.setInsertRows(parseValueTuples(matcher.group(3), columns.size()));
+        return query;
+    }
+
+    private Query parseUpdate(String sql) {
+        Query query = new Query(sql, QueryType.UPDATE);
+
+        Matcher matcher = UPDATE_PATTERN.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse UPDATE statement: " + sql);
+        }
+
+        query.setFromTables(List.of(matcher.group(1)));
+        for (String assignment : splitOutsideQuotes(matcher.group(2), ",")) {
+            int equals = assignment.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Invalid SET clause: " + assignment.trim());
+            }
+            query.getUpdateValues().put(assignment.substring(0, equals).trim(),
+                    assignment.substring(equals + 1).trim());
+        }
+        if (matcher.group(3) != null) {
+            parseWhereConditions(matcher.group(3), query, Map.of());
+        }
+        return query;
+    }
+
+    private Query parseDelete(String sql) {
+        Query query = new Query(sql, QueryType.DELETE);
+
+        Matcher matcher = DELETE_PATTERN.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse DELETE statement: " + sql);
+        }
+
+        query.setFromTables(List.of(matcher.group(1)));
+        if (matcher.group(2) != null) {
+            parseWhereConditions(matcher.group(2), query, Map.of());
+        }
+        return query;
+    }
+
+    private Query parseCreateView(String sql) {
+        Query query = new Query(sql, QueryType.CREATE_MATERIALIZED_VIEW);
+
+        Matcher matcher = CREATE_VIEW_PATTERN.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse CREATE MATERIALIZED VIEW statement: " + sql);
+        }
+
+        Query viewQuery = parse(matcher.group(2).trim());
+        query.setViewName(matcher.group(1));
+        query.setViewQuery(viewQuery);
+        query.setFromTables(viewQuery.getFromTables());
+        return query;
+    }
+
+    private Query parseCreateIndex(String sql) {
+        Query query = new Query(sql, QueryType.CREATE_INDEX);
+
+        Matcher matcher = CREATE_INDEX_PATTERN.matcher(sql.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse CREATE INDEX statement: " + sql);
+        }
+
+        query.setGlobalIndex(matcher.group(1) != null);
+        query.setIndexName(matcher.group(2));
+        query.setFromTables(List.of(matcher.group(3)));
+        List<String> columns = new ArrayList<>();
+        for (String column : matcher.group(4).split(",")) {
+            if (!column.trim().matches("\\w+")) {
+                throw new IllegalArgumentException("Invalid index column: " + column.trim());
+            }
+            columns.add(column.trim());
+        }
+        if (query.isGlobalIndex() && columns.size() != 1) {
+            throw new IllegalArgumentException("A global index covers exactly one column");
+        }
+        query.setIndexColumns(columns);
+        return query;
+    }
+
+    /**
+     * Returns the query without its TABLESAMPLE clause, if it has one
+     */
+    public static String withoutTableSample(String sql) {
+        return TABLESAMPLE_PATTERN.matcher(sql).replaceFirst("$1");
+    }
+
+    /**
+     * Splits text on a separator (a character or a keyword such as AND) that
+     * is outside single-quoted strings. Keywords match case-insensitively and
+     * only as whole words.
+     */
+    public static List<String> splitOutsideQuotes(String text, String separator) {
+        List<String> parts = new ArrayList<>();
+        boolean keyword = Character.isLetter(separator.charAt(0));
+        boolean quoted = false;
+        int start = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && text.regionMatches(true, i, separator, 0, separator.length())
+                    && (!keyword || isWordBoundary(text, i - 1) && isWordBoundary(text, i + separator.length()))) {
+                parts.add(text.substring(start, i));
+                start = i + separator.length();
+                i = start - 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private static boolean isWordBoundary(String text, int index) {
+        return index < 0 || index >= text.length()
+                || !(Character.isLetterOrDigit(text.charAt(index)) || text.charAt(index) == '_');
+    }
+
+    /**
+     * Parses "(v1, 'v2', NULL), (...)" into rows. Quoted values may contain
+     * commas and parentheses, with '' escaping a quote; unquoted NULL is SQL NULL.
+     */
+    private List<List<String>> parseValueTuples(String valuesClause, int columnCount) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = null;
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        for (int i = 0; i < valuesClause.length(); i++) {
+            char c = valuesClause.charAt(i);
+            if (quoted) {
+                if (c == '\'' && i + 1 < valuesClause.length() && valuesClause.charAt(i + 1) == '\'') {
+                    value.append('\'');
+                    i++;
+                } else if (c == '\'') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '\'' && row != null) {
+                quoted = true;
+                wasQuoted = true;
+                value.setLength(0);
+            } else if (c == '(' && row == null) {
+                row = new ArrayList<>();
+            } else if ((c == ',' || c == ')') && row != null) {
+                String text = value.toString().trim();
+                row.add(!wasQuoted && text.equalsIgnoreCase("NULL") ? null : wasQuoted ? value.toString() : text);
+                value.setLength(0);
+                wasQuoted = false;
+                if (c == ')') {
+                    if (row.size() != columnCount) {
+                        throw new IllegalArgumentException("Expected " + columnCount + " values but got "
+                                + row.size() + " in row " + (rows.size() + 1));
+                    }
+                    rows.add(row);
+                    row = null;
+                }
+            } else if (row != null && !(wasQuoted && Character.isWhitespace(c))) {
+                value.append(c);
+            }
+        }
+
+        if (quoted || row != null) {
+            throw new IllegalArgumentException("Unterminated VALUES clause");
+        }
+        return rows;
+    }
+
+    private void parseSelectColumns(String selectClause, Query query, Map<String, String> aliases) {
+        if (selectClause == null || selectClause.trim().isEmpty()) {
+            return;
+        }
+
+        String trimmed = selectClause.trim();
+        if ("*".equals(trimmed)) {
+            query.setSelectColumns(List.of("*"));
+        } else {
+            List<String> columnList = new ArrayList<>();
+            for (String column : splitSelectItems(trimmed)) {
+                columnList.add(qualify(column.trim(), aliases));
+            }
+            query.setSelectColumns(columnList);
+        }
+    }
+
+    /**
+     * Splits a SELECT list at the commas outside quotes and parentheses, so
+     * calls such as APPROX_PERCENTILE(amount, 0.95) stay one item
+     */
+    private static List<String> splitSelectItems(String selectClause) {
+        List<String> items = new ArrayList<>();
+        boolean quoted = false;
+        int depth = 0;
+        int start = 0;
+
+        for (int i = 0; i < selectClause.length(); i++) {
+            char c = selectClause.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+            } else if (!quoted && depth == 0 && c == ',') {
+                items.add(selectClause.substring(start, i));
+                start = i + 1;
+            }
+        }
+        items.add(selectClause.substring(start));
+        return items;
+    }
+
+    /**
+     * Parses the FROM clause into tables, and a single equi-join into a Join
+     * whose columns are unqualified. Returns the aliases of the tables.
+     */
+    private Map<String, String> parseFromTables(String fromClause, Query query) {
+        Map<String, String> aliases = new HashMap<>();
+        if (fromClause == null || fromClause.trim().isEmpty()) {
+            return aliases;
+        }
+
+        Matcher join = JOIN_PATTERN.matcher(fromClause.trim());
+        if (join.matches()) {
+            String leftTable = join.group(1);
+            String rightTable = join.group(4);
+            aliases.put(leftTable.toLowerCase(), leftTable);
+            aliases.put(rightTable.toLowerCase(), rightTable);
+            if (join.group(2) != null) {
+                aliases.put(join.group(2).toLowerCase(), leftTable);
+            }
+            if (join.group(5) != null) {
+                aliases.put(join.group(5).toLowerCase(), rightTable);
+            }
+            query.setFromTables(List.of(leftTable, rightTable));
+
+            // ON may name the columns in either order; unqualified ones are taken in FROM order
+            String first = qualify(join.group(6), aliases);
+            String second = qualify(join.group(7), aliases);
+            if (first.regionMatches(true, 0, rightTable + ".", 0, rightTable.length() + 1)
+                    || second.regionMatches(true, 0, leftTable + ".", 0, leftTable.length() + 1)) {
+                String swap = first;
+                first = second;
+                second = swap;
+            }
+            JoinType joinType = join.group(3) != null ? JoinType.valueOf(join.group(3).toUpperCase()) : JoinType.INNER;
+            query.addJoin(new Join(leftTable, rightTable, unqualified(first), unqualified(second), joinType));
+            return aliases;
+        }
+
+        String[] tables = fromClause.split(",");
+        List<String> tableList = new ArrayList<>();
+        for (String table : tables) {
+            tableList.add(table.trim());
+        }
+        query.setFromTables(tableList);
+        return aliases;
+    }
+
+    /**
+     * Replaces a table alias prefix ("u.name") with the table name ("users.name")
+     */
+    private static String qualify(String column, Map<String, String> aliases) {
+        int dot = column.indexOf('.');
+        if (dot < 0) {
+            return column;
+        }
+        String table = aliases.get(column.substring(0, dot).toLowerCase());
+        return table != null ? table + column.substring(dot) : column;
+    }
+
+    private static String unqualified(String column) {
+        return column.substring(column.indexOf('.') + 1);
+    }
+
+    private void parseWhereConditions(String whereClause, Query query, Map<String, String> aliases) {
+        query.setDisjunctive(splitOutsideQuotes(whereClause, "OR").size() > 1);
+
+        for (String part : splitOutsideQuotes(whereClause, "AND")) {
+            Matcher matcher = WHERE_CONDITION_PATTERN.matcher(part.trim());
+            if (!matcher.matches()) {
+                continue;
+            }
+            String column = qualify(matcher.group(1), aliases);
+            String operatorStr = matcher.group(2);
+            String value = matcher.group(3).trim().replaceAll("['\"]", ""); // Remove quotes
+
+            Operator operator = parseOperator(operatorStr);
+            DataType dataType = inferDataType(value);
+
+            Condition condition = new Condition(column, operator, value, dataType);
+            query.addCondition(condition);
+        }
+    }
+
+    private Operator parseOperator(String opStr) {
+        return switch (opStr.toUpperCase()) {
+            case "=" -> Operator.EQUALS;
+            case "!=", "<>" -> Operator.NOT_EQUALS;
+            case ">" -> Operator.GREATER_THAN;
+            case "<" -> Operator.LESS_THAN;
+            case ">=" -> Operator.GREATER_THAN_EQUALS;
+            case "<=" -> Operator.LESS_THAN_EQUALS;
+            case "LIKE" -> Operator.LIKE;
+            case "IN" -> Operator.IN;
+            default -> throw new IllegalArgumentException("Unknown operator: " + opStr);
+        };
+    }
+
+    private DataType inferDataType(String value) {
+        if (value.matches("-?\\d+")) {
+            return DataType.INTEGER;
+        } else if (value.matches("-?\\d+\\.\\d+")) {
+            return DataType.DOUBLE;
+        } else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return DataType.BOOLEAN;
+        } else if (value.matches("\\d{4}-\\d{2}-\\d{2}")) { // YYYY-MM-DD
+            return DataType.DATE;
+        }
+        return DataType.STRING;
+    }
+}
\ No newline at end of file
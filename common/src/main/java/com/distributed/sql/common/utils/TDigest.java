@@ -0,0 +1,253 @@
+package com.distributed.sql.common.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest estimating quantiles of the numbers added to it. Values are
+ * buffered and periodically folded into centroids (a mean and a weight). A
+ * centroid may span the quantiles q0 to q1 only while k(q1) - k(q0) <= 1, for
+ * the scale k(q) = compression / (2 pi) * asin(2q - 1), which is steep near
+ * 0 and 1. Centroids near the tails therefore stay small, which keeps p99 and
+ * p1 accurate, and there are never more than compression of them. Digests
+ * built on different workers merge into one that answers as if it had seen
+ * every value.
+ */
+public class TDigest {
+
+    public static final int MIN_COMPRESSION = 20;
+    public static final int MAX_COMPRESSION = 1000;
+
+    private final int compression;
+    private double[] means;
+    private double[] weights;
+    private int centroidCount;
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int bufferCount;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(int compression) {
+        if (compression < MIN_COMPRESSION || compression > MAX_COMPRESSION) {
+            throw new IllegalArgumentException("t-digest compression must be between " + MIN_COMPRESSION + " and "
+                    + MAX_COMPRESSION);
+        }
+        this.compression = compression;
+        this.means = new double[2 * compression];
+        this.weights = new double[2 * compression];
+        this.bufferMeans = new double[5 * compression];
+        this.bufferWeights = new double[5 * compression];
+    }
+
+    /**
+     * Restores a digest from the bytes of {@link #toByteArray()}
+     */
+    public static TDigest fromBytes(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            TDigest digest = new TDigest(buffer.getInt());
+            digest.min = buffer.getDouble();
+            digest.max = buffer.getDouble();
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 16) {
+                throw new IllegalArgumentException("Invalid t-digest");
+            }
+            for (int i = 0; i < count; i++) {
+                digest.add(buffer.getDouble(), buffer.getDouble());
+            }
+            return digest;
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("Invalid t-digest", e);
+        }
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds the values another digest saw
+     */
+    public void merge(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long size() {
+        return Math.round(totalWeight + bufferWeight());
+    }
+
+    /**
+     * Estimates the value below which the given fraction (0 to 1) of the
+     * values fall, interpolating between centroids; NaN if the digest is empty
+     */
+    public double quantile(double q) {
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+
+        double index = q * totalWeight;
+        // Each centroid's mean sits at the middle of its weight; the ends are the exact min and max
+        double previousCenter = 0;
+        double previousMean = min;
+        double cumulative = 0;
+        for (int i = 0; i < centroidCount; i++) {
+            double center = cumulative + weights[i] / 2;
+            if (index <= center) {
+                return interpolate(index, previousCenter, previousMean, center, means[i]);
+            }
+            previousCenter = center;
+            previousMean = means[i];
+            cumulative += weights[i];
+        }
+        return interpolate(index, previousCenter, previousMean, totalWeight, max);
+    }
+
+    public int getCompression() {
+        return compression;
+    }
+
+    /**
+     * Number of centroids, bounded by the compression however many values were added
+     */
+    public int getCentroidCount() {
+        compress();
+        return centroidCount;
+    }
+
+    public byte[] toByteArray() {
+        compress();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 8 + 4 + 16 * centroidCount);
+        buffer.putInt(compression).putDouble(min).putDouble(max).putInt(centroidCount);
+        for (int i = 0; i < centroidCount; i++) {
+            buffer.putDouble(means[i]).putDouble(weights[i]);
+        }
+        return buffer.array();
+    }
+
+    private void add(double mean, double weight) {
+        if (Double.isNaN(mean)) {
+            throw new IllegalArgumentException("Cannot add NaN to a t-digest");
+        }
+        if (bufferCount == bufferMeans.length) {
+            compress();
+        }
+        bufferMeans[bufferCount] = mean;
+        bufferWeights[bufferCount] = weight;
+        bufferCount++;
+        min = Math.min(min, mean);
+        max = Math.max(max, mean);
+    }
+
+    /**
+     * Folds the buffer into the centroids, merging neighbours while the
+     * merged centroid spans at most one unit of the scale
+     */
+    private void compress() {
+        if (bufferCount == 0) {
+            return;
+        }
+        sortBuffer();
+
+        // Centroids are kept sorted, so a merge of the two runs visits every point in order
+        double total = totalWeight + bufferWeight();
+        int count = centroidCount + bufferCount;
+        double[] merged = new double[Math.min(count, 2 * compression)];
+        double[] mergedWeights = new double[merged.length];
+        int mergedCount = 0;
+        double cumulative = 0;
+        // Quantile the last centroid may grow to
+        double limit = 0;
+        int centroid = 0;
+        int buffered = 0;
+        while (centroid < centroidCount || buffered < bufferCount) {
+            boolean fromBuffer = centroid == centroidCount
+                    || buffered < bufferCount && bufferMeans[buffered] < means[centroid];
+            double mean = fromBuffer ? bufferMeans[buffered] : means[centroid];
+            double weight = fromBuffer ? bufferWeights[buffered++] : weights[centroid++];
+            if (mergedCount > 0 && (cumulative + weight) / total <= limit) {
+                int last = mergedCount - 1;
+                mergedWeights[last] += weight;
+                merged[last] += (mean - merged[last]) * weight / mergedWeights[last];
+                cumulative += weight;
+                continue;
+            }
+            if (mergedCount == merged.length) {
+                merged = Arrays.copyOf(merged, 2 * merged.length);
+                mergedWeights = Arrays.copyOf(mergedWeights, merged.length);
+            }
+            merged[mergedCount] = mean;
+            mergedWeights[mergedCount] = weight;
+            mergedCount++;
+            limit = limitFrom(cumulative / total);
+            cumulative += weight;
+        }
+
+        means = merged;
+        weights = mergedWeights;
+        centroidCount = mergedCount;
+        totalWeight = total;
+        bufferCount = 0;
+    }
+
+    /**
+     * Sorts the buffer by mean; single values, the common case, sort as plain doubles
+     */
+    private void sortBuffer() {
+        boolean unitWeights = true;
+        for (int i = 0; i < bufferCount && unitWeights; i++) {
+            unitWeights = bufferWeights[i] == 1;
+        }
+        if (unitWeights) {
+            Arrays.sort(bufferMeans, 0, bufferCount);
+            return;
+        }
+        Integer[] order = new Integer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bufferMeans[a], bufferMeans[b]));
+        double[] sortedMeans = new double[bufferCount];
+        double[] sortedWeights = new double[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            sortedMeans[i] = bufferMeans[order[i]];
+            sortedWeights[i] = bufferWeights[order[i]];
+        }
+        System.arraycopy(sortedMeans, 0, bufferMeans, 0, bufferCount);
+        System.arraycopy(sortedWeights, 0, bufferWeights, 0, bufferCount);
+    }
+
+    /**
+     * Returns the quantile one unit of the scale above q
+     */
+    private double limitFrom(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        return k >= compression / 4.0 ? 1 : (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    private double bufferWeight() {
+        double weight = 0;
+        for (int i = 0; i < bufferCount; i++) {
+            weight += bufferWeights[i];
+        }
+        return weight;
+    }
+
+    private static double interpolate(double index, double leftIndex, double leftValue, double rightIndex,
+            double rightValue) {
+        if (rightIndex <= leftIndex) {
+            return rightValue;
+        }
+        return leftValue + (rightValue - leftValue) * (index - leftIndex) / (rightIndex - leftIndex);
+    }
+}
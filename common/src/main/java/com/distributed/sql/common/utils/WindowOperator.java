@@ -0,0 +1,414 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.proto.QueryProto.SortKey;
+import com.distributed.sql.common.proto.QueryProto.Window;
+import com.distributed.sql.common.proto.QueryProto.WindowFunction;
+import com.distributed.sql.common.proto.QueryProto.WindowFunctionSpec;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates window functions over rows in one pass. The rows are sorted by
+ * their partition and order keys through an {@link ExternalSorter}, spilling
+ * to disk past maxRowsInMemory, and then streamed through each function's
+ * frame a partition at a time:
+ *
+ * - ROW_NUMBER, RANK and DENSE_RANK count rows and runs of peers, the rows
+ *   with the same order keys.
+ * - A ROWS frame of n preceding rows holds only their values; an unbounded
+ *   one only a running count, sum and extreme.
+ * - A RANGE frame ends at the current row's last peer, so a run of peers is
+ *   buffered before any of it is emitted, and spilled past the same limit.
+ *   Without ORDER BY every row of a partition is a peer.
+ *
+ * Each row is emitted with one value per function appended. NULL sorts after
+ * every value, so first in a descending order, and NULL partition keys form
+ * one partition.
+ */
+public class WindowOperator implements Closeable {
+
+    private final List<WindowFunctionSpec> functions;
+    private final List<String> columns;
+    private final int[] partitionIndexes;
+    private final int[] orderIndexes;
+    private final boolean[] descending;
+    // Argument of each aggregate, -1 for ranks and COUNT(*)
+    private final int[] argumentIndexes;
+    private final ExternalSorter sorter;
+    private final PeerBuffer peers;
+
+    /**
+     * Throws IllegalArgumentException if the rows lack a column the window needs
+     */
+    public WindowOperator(Window window, List<String> columns, Path spillDirectory, int maxRowsInMemory) {
+        this.functions = window.getFunctionsList();
+        this.columns = new ArrayList<>(columns);
+        this.partitionIndexes = new int[window.getPartitionByCount()];
+        for (int i = 0; i < partitionIndexes.length; i++) {
+            partitionIndexes[i] = indexOf(columns, window.getPartitionBy(i));
+        }
+        this.orderIndexes = new int[window.getOrderByCount()];
+        this.descending = new boolean[orderIndexes.length];
+        for (int i = 0; i < orderIndexes.length; i++) {
+            SortKey key = window.getOrderBy(i);
+            orderIndexes[i] = indexOf(columns, key.getColumn());
+            descending[i] = key.getDescending();
+        }
+        this.argumentIndexes = new int[functions.size()];
+        for (int i = 0; i < argumentIndexes.length; i++) {
+            String column = functions.get(i).getColumn();
+            argumentIndexes[i] = column.isEmpty() ? -1 : indexOf(columns, column);
+            this.columns.add(functions.get(i).getLabel());
+        }
+        this.sorter = new ExternalSorter(this::compareRows, spillDirectory, maxRowsInMemory);
+        this.peers = new PeerBuffer(spillDirectory, maxRowsInMemory);
+    }
+
+    public void add(List<String> row) throws IOException {
+        sorter.add(row);
+    }
+
+    /**
+     * Sorts the rows added and emits each with the functions' values
+     * appended, by partition and then in the window's order
+     */
+    public void finish(Consumer<List<String>> output) throws IOException {
+        Iterator<List<String>> rows = sorter.sorted();
+        List<String> previous = null;
+        Frame[] frames = null;
+        long rowNumber = 0;
+        long rank = 0;
+        long denseRank = 0;
+        while (rows.hasNext()) {
+            List<String> row = rows.next();
+            boolean newPartition = previous == null || compareKeys(partitionIndexes, null, previous, row) != 0;
+            if (newPartition || compareKeys(orderIndexes, descending, previous, row) != 0) {
+                emitPeers(frames, output);
+            }
+            if (newPartition) {
+                frames = new Frame[functions.size()];
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = new Frame(functions.get(i));
+                }
+                rowNumber = 0;
+                denseRank = 0;
+            }
+            rowNumber++;
+            if (peers.isEmpty()) {
+                rank = rowNumber;
+                denseRank++;
+            }
+
+            List<String> result = new ArrayList<>(row.size() + functions.size());
+            result.addAll(row);
+            for (int i = 0; i < frames.length; i++) {
+                switch (functions.get(i).getFunction()) {
+                    case ROW_NUMBER -> result.add(Long.toString(rowNumber));
+                    case RANK -> result.add(Long.toString(rank));
+                    case DENSE_RANK -> result.add(Long.toString(denseRank));
+                    default -> {
+                        // COUNT(*) counts every row
+                        frames[i].add(argumentIndexes[i] < 0 ? "" : row.get(argumentIndexes[i]));
+                        // A RANGE frame's value is known once the last peer is in
+                        result.add(functions.get(i).getRowsFrame() ? frames[i].result() : null);
+                    }
+                }
+            }
+            peers.add(result);
+            previous = row;
+        }
+        emitPeers(frames, output);
+    }
+
+    /**
+     * Names of the emitted values: the input columns, then the functions' labels
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Number of sorted runs and peer buffers written to disk
+     */
+    public int getSpilledRuns() {
+        return sorter.getSpilledRuns() + peers.spilled;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sorter.close();
+        peers.close();
+    }
+
+    private void emitPeers(Frame[] frames, Consumer<List<String>> output) throws IOException {
+        if (peers.isEmpty()) {
+            return;
+        }
+        String[] rangeValues = new String[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i].isRange()) {
+                rangeValues[i] = frames[i].result();
+            }
+        }
+        int offset = columns.size() - frames.length;
+        peers.drain(row -> {
+            for (int i = 0; i < frames.length; i++) {
+                if (frames[i].isRange()) {
+                    row.set(offset + i, rangeValues[i]);
+                }
+            }
+            output.accept(row);
+        });
+    }
+
+    private int compareRows(List<String> left, List<String> right) {
+        int comparison = compareKeys(partitionIndexes, null, left, right);
+        return comparison != 0 ? comparison : compareKeys(orderIndexes, descending, left, right);
+    }
+
+    private static int compareKeys(int[] indexes, boolean[] descending, List<String> left, List<String> right) {
+        for (int i = 0; i < indexes.length; i++) {
+            int comparison = compareNullsLast(left.get(indexes[i]), right.get(indexes[i]));
+            if (comparison != 0) {
+                return descending != null && descending[i] ? -comparison : comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Orders values numerically if both are numbers, else as strings, with
+     * NULL last. Only values starting like a number are parsed, so sorting
+     * strings does not try each comparison as numbers first.
+     */
+    static int compareNullsLast(String left, String right) {
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : 1) : -1;
+        }
+        if (startsLikeNumber(left) && startsLikeNumber(right)) {
+            return AggregateState.compareValues(left, right);
+        }
+        return left.compareTo(right);
+    }
+
+    private static boolean startsLikeNumber(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        char first = value.charAt(0);
+        return first >= '0' && first <= '9' || first == '-' || first == '+' || first == '.';
+    }
+
+    private static int indexOf(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " is not in the scan " + columns);
+    }
+
+    private static boolean isRanking(WindowFunction function) {
+        return function == WindowFunction.ROW_NUMBER || function == WindowFunction.RANK
+                || function == WindowFunction.DENSE_RANK;
+    }
+
+    private static BigDecimal toNumber(String value) {
+        if (!startsLikeNumber(value)) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String plain(BigDecimal value) {
+        return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * The frame of an aggregate in one partition: every row so far, or the
+     * last preceding + 1 of them. A sliding frame keeps its non-null values
+     * with their row numbers, and for MIN and MAX a queue of the values that
+     * may still become the extreme, best first.
+     */
+    private static final class Frame {
+        private final WindowFunctionSpec spec;
+        private final ArrayDeque<Entry> values = new ArrayDeque<>();
+        private final ArrayDeque<Entry> candidates = new ArrayDeque<>();
+        private long rows;
+        private long count;
+        private long numbers;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private String extreme;
+
+        Frame(WindowFunctionSpec spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * True for an aggregate over a RANGE frame; ranks have no frame
+         */
+        boolean isRange() {
+            return !spec.getRowsFrame() && !isRanking(spec.getFunction());
+        }
+
+        boolean isSliding() {
+            return spec.getRowsFrame() && spec.getPreceding() >= 0;
+        }
+
+        void add(String value) {
+            rows++;
+            if (isSliding()) {
+                while (!values.isEmpty() && values.peekFirst().row < rows - spec.getPreceding()) {
+                    remove(values.pollFirst());
+                }
+                while (!candidates.isEmpty() && candidates.peekFirst().row < rows - spec.getPreceding()) {
+                    candidates.pollFirst();
+                }
+            }
+            if (value == null) {
+                return;
+            }
+
+            Entry entry = new Entry(rows, value, toNumber(value));
+            count++;
+            if (entry.number != null) {
+                numbers++;
+                sum = sum.add(entry.number);
+            }
+            if (!isSliding()) {
+                if (extreme == null || isBetter(value, extreme)) {
+                    extreme = value;
+                }
+                return;
+            }
+            values.addLast(entry);
+            // A value no better than a later one can never be the extreme again
+            while (!candidates.isEmpty() && !isBetter(candidates.peekLast().value, value)) {
+                candidates.pollLast();
+            }
+            candidates.addLast(entry);
+        }
+
+        String result() {
+            return switch (spec.getFunction()) {
+                case WINDOW_COUNT -> Long.toString(count);
+                case WINDOW_SUM -> numbers == 0 ? null : plain(sum);
+                case WINDOW_AVG -> numbers == 0 ? null
+                        : plain(sum.divide(BigDecimal.valueOf(numbers), MathContext.DECIMAL64));
+                case WINDOW_MIN, WINDOW_MAX -> isSliding()
+                        ? (candidates.isEmpty() ? null : candidates.peekFirst().value)
+                        : extreme;
+                default -> throw new IllegalArgumentException("Not an aggregate: " + spec.getFunction());
+            };
+        }
+
+        private void remove(Entry entry) {
+            count--;
+            if (entry.number != null) {
+                numbers--;
+                sum = sum.subtract(entry.number);
+            }
+        }
+
+        private boolean isBetter(String candidate, String current) {
+            int comparison = AggregateState.compareValues(candidate, current);
+            return spec.getFunction() == WindowFunction.WINDOW_MIN ? comparison < 0 : comparison > 0;
+        }
+    }
+
+    private static final class Entry {
+        final long row;
+        final String value;
+        final BigDecimal number;
+
+        Entry(long row, String value, BigDecimal number) {
+            this.row = row;
+            this.value = value;
+            this.number = number;
+        }
+    }
+
+    /**
+     * The rows of a run of peers waiting for their RANGE values, written to
+     * a temporary file once more than maxRowsInMemory are waiting
+     */
+    private static final class PeerBuffer implements Closeable {
+        private final Path spillDirectory;
+        private final int maxRowsInMemory;
+        private final List<List<String>> rows = new ArrayList<>();
+        private Path file;
+        private DataOutputStream out;
+        private int spilled;
+
+        PeerBuffer(Path spillDirectory, int maxRowsInMemory) {
+            this.spillDirectory = spillDirectory;
+            this.maxRowsInMemory = maxRowsInMemory;
+        }
+
+        boolean isEmpty() {
+            return rows.isEmpty() && file == null;
+        }
+
+        void add(List<String> row) throws IOException {
+            rows.add(row);
+            if (rows.size() < maxRowsInMemory) {
+                return;
+            }
+            if (file == null) {
+                file = Files.createTempFile(spillDirectory, "window-peers", ".tmp");
+                out = ExternalSorter.openOutput(file);
+                spilled++;
+            }
+            for (List<String> buffered : rows) {
+                ExternalSorter.writeRow(out, buffered);
+            }
+            rows.clear();
+        }
+
+        /**
+         * Passes every waiting row to the consumer, in the order added, and empties the buffer
+         */
+        void drain(Consumer<List<String>> consumer) throws IOException {
+            if (file != null) {
+                out.close();
+                try (ExternalSorter.RunReader reader = new ExternalSorter.RunReader(file)) {
+                    while (reader.hasNext()) {
+                        consumer.accept(reader.next());
+                    }
+                }
+                Files.deleteIfExists(file);
+                file = null;
+                out = null;
+            }
+            for (List<String> row : rows) {
+                consumer.accept(row);
+            }
+            rows.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                out.close();
+                Files.deleteIfExists(file);
+                file = null;
+            }
+            rows.clear();
+        }
+    }
+}
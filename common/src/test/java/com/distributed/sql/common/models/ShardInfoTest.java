@@ -0,0 +1,41 @@
+package com.distributed.sql.common.models;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class ShardInfoTest {
+
+    @Test
+    void testShardInfoCreation() {
+        ShardInfo shard = new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000);
+
+        assertEquals("orders_shard_1", shard.getShardId());
+        assertEquals("worker1", shard.getWorkerId());
+        assertEquals("orders", shard.getTableName());
+        assertEquals("1", shard.getKeyRangeStart());
+        assertEquals("5000", shard.getKeyRangeEnd());
+        assertEquals(5000, shard.getRowCount());
+    }
+
+    @Test
+    void testPrimaryIsOnlyReplicaByDefault() {
+        ShardInfo shard = new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000);
+
+        assertEquals(List.of("worker1"), shard.getReplicaWorkerIds());
+        assertFalse(shard.hasReplicas());
+    }
+
+    @Test
+    void testAddReplica() {
+        ShardInfo shard = new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000);
+
+        shard.addReplica("worker2");
+        shard.addReplica("worker2");
+        shard.addReplica("worker1");
+
+        assertEquals(List.of("worker1", "worker2"), shard.getReplicaWorkerIds());
+        assertTrue(shard.hasReplicas());
+    }
+}
@@ -0,0 +1,47 @@
+package com.distributed.sql.common.utils;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("user_" + i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("user_" + i));
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateNearTarget() {
+        BloomFilter filter = BloomFilter.create(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(Integer.toString(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain(Integer.toString(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void testRoundTripThroughBytes() {
+        BloomFilter filter = BloomFilter.create(100, 0.01);
+        filter.put("42");
+
+        BloomFilter restored = BloomFilter.fromBytes(filter.toByteArray(), filter.getHashCount());
+
+        assertEquals(filter.getBitCount(), restored.getBitCount());
+        assertArrayEquals(filter.toByteArray(), restored.toByteArray());
+        assertTrue(restored.mightContain("42"));
+    }
+}
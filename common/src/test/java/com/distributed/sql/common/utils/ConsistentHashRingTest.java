@@ -0,0 +1,86 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.models.ShardInfo;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 20_000;
+
+    @Test
+    void testKeysSpreadEvenlyAcrossShards() {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(4));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.route("key_" + i).getShardId(), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // Within 25% of an even share with 128 virtual nodes per shard
+            assertTrue(Math.abs(count - KEYS / 4) < KEYS / 16, "Uneven share: " + counts);
+        }
+    }
+
+    @Test
+    void testAddingAShardMovesAboutOneNthOfTheKeys() {
+        List<ShardInfo> shards = shards(5);
+        ConsistentHashRing before = new ConsistentHashRing(shards.subList(0, 4));
+        ConsistentHashRing after = new ConsistentHashRing(shards);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key_" + i;
+            ShardInfo owner = after.route(key);
+            if (!owner.getShardId().equals(before.route(key).getShardId())) {
+                // Keys only ever move to the new shard, never between the old ones
+                assertEquals("t_shard_5", owner.getShardId());
+                moved++;
+            }
+        }
+
+        double fraction = (double) moved / KEYS;
+        assertTrue(fraction > 0.15 && fraction < 0.25, "Moved " + fraction + " of the keys");
+    }
+
+    @Test
+    void testHashRangesHoldExactlyTheShardsKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(3));
+        Set<String> requested = Set.of("t_shard_1", "t_shard_3");
+        List<long[]> ranges = ring.hashRanges(requested);
+
+        for (int i = 1; i < ranges.size(); i++) {
+            // Sorted, disjoint and merged
+            assertTrue(ranges.get(i - 1)[1] + 1 < ranges.get(i)[0]);
+        }
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key_" + i;
+            long hash = Hashing.hash64(key);
+            boolean inRange = ranges.stream().anyMatch(range -> hash >= range[0] && hash <= range[1]);
+            assertEquals(requested.contains(ring.route(key).getShardId()), inRange, key);
+        }
+        // Every shard together covers the whole hash space in one range
+        List<long[]> all = ring.hashRanges(Set.of("t_shard_1", "t_shard_2", "t_shard_3"));
+        assertEquals(1, all.size());
+        assertArrayEquals(new long[] { Long.MIN_VALUE, Long.MAX_VALUE }, all.get(0));
+    }
+
+    @Test
+    void testEmptyRingRoutesNothing() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of());
+
+        assertEquals(0, ring.size());
+        assertNull(ring.route("key"));
+    }
+
+    private static List<ShardInfo> shards(int count) {
+        List<ShardInfo> shards = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            shards.add(new ShardInfo("t_shard_" + i, "worker" + i, "t", null, null, 0));
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,56 @@
+package com.distributed.sql.common.utils;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HyperLogLogTest {
+
+    @Test
+    void testEstimateWithinErrorBound() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("user_" + i);
+            // Duplicates do not count
+            sketch.add("user_" + (i / 2));
+        }
+
+        double error = Math.abs(sketch.estimate() - 100000) / 100000.0;
+        assertTrue(error < 3 * sketch.relativeStandardError(), "relative error: " + error);
+    }
+
+    @Test
+    void testSmallCountsNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < 100; i++) {
+            sketch.add(Integer.toString(i));
+        }
+        assertEquals(100, sketch.estimate(), 2);
+    }
+
+    @Test
+    void testMergeMatchesSingleSketch() {
+        HyperLogLog all = new HyperLogLog(10);
+        HyperLogLog left = new HyperLogLog(10);
+        HyperLogLog right = new HyperLogLog(10);
+        for (int i = 0; i < 20000; i++) {
+            all.add("key" + i);
+            // Overlapping halves, as when a value lives on several shards
+            (i < 12000 ? left : right).add("key" + i);
+            if (i % 3 == 0) {
+                right.add("key" + i);
+            }
+        }
+
+        HyperLogLog merged = HyperLogLog.fromBytes(left.toByteArray());
+        merged.merge(HyperLogLog.fromBytes(right.toByteArray()));
+        assertEquals(all.estimate(), merged.estimate());
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new HyperLogLog(11)));
+    }
+
+    @Test
+    void testRejectsInvalidSketches() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(HyperLogLog.MAX_PRECISION + 1));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[] {10, 0, 0}));
+    }
+}
@@ -0,0 +1,148 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.models.Join;
+import com.distributed.sql.common.models.JoinType;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.QueryType;
+import com.distributed.sql.common.models.SampleMethod;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SQLParserTest {
+
+    private final SQLParser parser = new SQLParser();
+
+    @Test
+    void testParseMultiRowInsert() {
+        Query query = parser.parse(
+                "INSERT INTO users (user_id, name, email) VALUES (1, 'O''Brien, Pat', NULL), (2, 'Ann (A)', '')");
+
+        assertEquals(QueryType.INSERT, query.getQueryType());
+        assertEquals(List.of("users"), query.getFromTables());
+        assertEquals(List.of("user_id", "name", "email"), query.getInsertColumns());
+        assertEquals(Arrays.asList("1", "O'Brien, Pat", null), query.getInsertRows().get(0));
+        assertEquals(List.of("2", "Ann (A)", ""), query.getInsertRows().get(1));
+    }
+
+    @Test
+    void testInsertWithWrongValueCountFails() {
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.parse("INSERT INTO users (user_id, name) VALUES (1)"));
+    }
+
+    @Test
+    void testParseUpdate() {
+        Query query = parser.parse("UPDATE orders SET status = 'SHIPPED, 2 boxes', amount = 10 WHERE user_id = 42");
+
+        assertEquals(QueryType.UPDATE, query.getQueryType());
+        assertEquals(List.of("orders"), query.getFromTables());
+        assertEquals("'SHIPPED, 2 boxes'", query.getUpdateValues().get("status"));
+        assertEquals("10", query.getUpdateValues().get("amount"));
+        assertEquals("user_id", query.getWhereConditions().get(0).getColumn());
+        assertEquals("42", query.getWhereConditions().get(0).getValue());
+        assertFalse(query.isDisjunctive());
+    }
+
+    @Test
+    void testParseDeleteWithOr() {
+        Query query = parser.parse("DELETE FROM orders WHERE user_id = 1 OR status = 'CANCELLED'");
+
+        assertEquals(QueryType.DELETE, query.getQueryType());
+        assertEquals(List.of("orders"), query.getFromTables());
+        assertTrue(query.isDisjunctive());
+    }
+
+    @Test
+    void testParseSelectWithConditions() {
+        Query query = parser.parse("SELECT name FROM users WHERE name = 'Ann AND Bob' AND age >= 30 LIMIT 5");
+
+        assertEquals(List.of("users"), query.getFromTables());
+        assertEquals(2, query.getWhereConditions().size());
+        assertEquals("Ann AND Bob", query.getWhereConditions().get(0).getValue());
+        assertEquals("30", query.getWhereConditions().get(1).getValue());
+    }
+
+    @Test
+    void testParseJoinResolvesAliases() {
+        Query query = parser.parse("SELECT u.name, o.order_id FROM users u JOIN orders AS o "
+                + "ON o.user_id = u.user_id WHERE u.age > 30");
+
+        assertEquals(List.of("users", "orders"), query.getFromTables());
+        assertEquals(List.of("users.name", "orders.order_id"), query.getSelectColumns());
+        assertEquals(1, query.getJoins().size());
+        Join join = query.getJoins().get(0);
+        assertEquals("users", join.getLeftTable());
+        assertEquals("user_id", join.getLeftColumn());
+        assertEquals("orders", join.getRightTable());
+        assertEquals("user_id", join.getRightColumn());
+        assertEquals(JoinType.INNER, join.getJoinType());
+        assertEquals("users.age", query.getWhereConditions().get(0).getColumn());
+    }
+
+    @Test
+    void testParseCreateIndex() {
+        Query query = parser.parse("CREATE INDEX IF NOT EXISTS orders_status ON orders (status, amount)");
+
+        assertEquals(QueryType.CREATE_INDEX, query.getQueryType());
+        assertEquals("orders_status", query.getIndexName());
+        assertEquals(List.of("orders"), query.getFromTables());
+        assertEquals(List.of("status", "amount"), query.getIndexColumns());
+    }
+
+    @Test
+    void testParseCreateGlobalIndex() {
+        Query query = parser.parse("CREATE GLOBAL INDEX orders_by_status ON orders (status)");
+
+        assertEquals(QueryType.CREATE_INDEX, query.getQueryType());
+        assertTrue(query.isGlobalIndex());
+        assertEquals(List.of("status"), query.getIndexColumns());
+        assertFalse(parser.parse("CREATE INDEX orders_status ON orders (status)").isGlobalIndex());
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.parse("CREATE GLOBAL INDEX orders_by_status ON orders (status, amount)"));
+    }
+
+    @Test
+    void testParseCreateMaterializedView() {
+        Query query = parser.parse("CREATE MATERIALIZED VIEW orders_by_status AS "
+                + "SELECT status, COUNT(*), SUM(amount) FROM orders WHERE amount > 0 GROUP BY status");
+
+        assertEquals(QueryType.CREATE_MATERIALIZED_VIEW, query.getQueryType());
+        assertEquals("orders_by_status", query.getViewName());
+        assertEquals(List.of("orders"), query.getFromTables());
+
+        Query viewQuery = query.getViewQuery();
+        assertEquals(List.of("status", "COUNT(*)", "SUM(amount)"), viewQuery.getSelectColumns());
+        assertEquals(List.of("status"), viewQuery.getGroupByColumns());
+        assertEquals(1, viewQuery.getWhereConditions().size());
+        assertEquals("0", viewQuery.getWhereConditions().get(0).getValue());
+    }
+
+    @Test
+    void testParseSelectKeepsFunctionArguments() {
+        Query query = parser.parse("SELECT status, APPROX_COUNT_DISTINCT(user_id, 14) AS users FROM orders "
+                + "GROUP BY status");
+
+        assertEquals(List.of("status", "APPROX_COUNT_DISTINCT(user_id, 14) AS users"), query.getSelectColumns());
+        assertEquals(List.of("status"), query.getGroupByColumns());
+    }
+
+    @Test
+    void testParseTableSample() {
+        String sql = "SELECT status, COUNT(*) FROM orders TABLESAMPLE SYSTEM (2.5) WHERE amount > 100 "
+                + "GROUP BY status";
+        Query query = parser.parse(sql);
+
+        assertTrue(query.isSampled());
+        assertEquals(0.025, query.getSampleFraction(), 1e-9);
+        assertEquals(SampleMethod.SYSTEM, query.getSampleMethod());
+        assertEquals(List.of("orders"), query.getFromTables());
+        assertEquals("amount", query.getWhereConditions().get(0).getColumn());
+        assertEquals(List.of("status"), query.getGroupByColumns());
+        assertEquals("SELECT status, COUNT(*) FROM orders WHERE amount > 100 GROUP BY status",
+                SQLParser.withoutTableSample(sql));
+        assertFalse(parser.parse("SELECT * FROM orders").isSampled());
+    }
+}
@@ -0,0 +1,71 @@
+package com.distributed.sql.common.utils;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TDigestTest {
+
+    @Test
+    void testQuantilesOfUniformValues() {
+        TDigest digest = new TDigest(100);
+        for (int i = 0; i < 100000; i++) {
+            digest.add(i);
+        }
+
+        assertEquals(50000, digest.quantile(0.5), 1000);
+        assertEquals(95000, digest.quantile(0.95), 500);
+        assertEquals(99000, digest.quantile(0.99), 100);
+        assertEquals(0, digest.quantile(0), 0);
+        assertEquals(99999, digest.quantile(1), 0);
+    }
+
+    @Test
+    void testMemoryBoundedByCompression() {
+        TDigest digest = new TDigest(100);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+            digest.add(random.nextGaussian());
+        }
+
+        assertEquals(1000000, digest.size());
+        assertTrue(digest.getCentroidCount() < 300, "centroids: " + digest.getCentroidCount());
+    }
+
+    @Test
+    void testMergedDigestsKeepRankError() {
+        TDigest merged = new TDigest(100);
+        double[] values = new double[100000];
+        Random random = new Random(7);
+        // Skewed per-shard data, like latencies of differently loaded workers
+        for (int shard = 0; shard < 4; shard++) {
+            TDigest part = new TDigest(100);
+            for (int i = 0; i < 25000; i++) {
+                values[shard * 25000 + i] = Math.exp(random.nextGaussian() + shard);
+                part.add(values[shard * 25000 + i]);
+            }
+            merged.merge(TDigest.fromBytes(part.toByteArray()));
+        }
+        Arrays.sort(values);
+
+        assertEquals(100000, merged.size());
+        for (double q : new double[] {0.01, 0.5, 0.95, 0.99, 0.999}) {
+            int rank = Arrays.binarySearch(values, merged.quantile(q));
+            double fraction = (rank < 0 ? -rank - 1 : rank) / 100000.0;
+            assertEquals(q, fraction, 0.005, "quantile " + q);
+        }
+    }
+
+    @Test
+    void testSmallDigestsAreExact() {
+        TDigest digest = new TDigest(100);
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+        for (int value : new int[] {5, 1, 3}) {
+            digest.add(value);
+        }
+        assertEquals(3, digest.quantile(0.5));
+        assertThrows(IllegalArgumentException.class, () -> TDigest.fromBytes(new byte[] {0, 0, 0, 100}));
+    }
+}
@@ -0,0 +1,115 @@
+package com.distributed.sql.common.utils;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class WindowOperatorTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    private static final Window WINDOW = Window.newBuilder()
+            .addPartitionBy("user_id")
+            .addOrderBy(SortKey.newBuilder().setColumn("day"))
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.ROW_NUMBER).setLabel("rn"))
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.RANK).setLabel("rank"))
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.DENSE_RANK).setLabel("dense"))
+            // Default frame: every row up to the current row's last peer
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.WINDOW_SUM)
+                    .setColumn("amount").setPreceding(-1).setLabel("running"))
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.WINDOW_AVG)
+                    .setColumn("amount").setRowsFrame(true).setPreceding(1).setLabel("moving"))
+            .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.WINDOW_MAX)
+                    .setColumn("amount").setRowsFrame(true).setPreceding(1).setLabel("moving_max"))
+            .build();
+
+    @Test
+    void testRanksAndFrames() throws Exception {
+        List<List<String>> rows = evaluate(WINDOW, 1000, List.of(
+                List.of("2", "3", "10"),
+                List.of("1", "1", "10"),
+                List.of("1", "2", "30"),
+                List.of("1", "2", "20"),
+                List.of("1", "4", "5")));
+
+        // Columns: user_id, day, amount, rn, rank, dense, running, moving, moving_max
+        assertEquals(List.of(
+                List.of("1", "1", "10", "1", "1", "1", "10", "10", "10"),
+                // Days 2 are peers: they share a rank, and the running sum takes in both
+                List.of("1", "2", "30", "2", "2", "2", "60", "20", "30"),
+                List.of("1", "2", "20", "3", "2", "2", "60", "25", "30"),
+                // The moving average and maximum cover the row before and the current one
+                List.of("1", "4", "5", "4", "4", "3", "65", "12.5", "20"),
+                List.of("2", "3", "10", "1", "1", "1", "10", "10", "10")), rows);
+    }
+
+    @Test
+    void testSpilledEvaluationMatchesInMemory() throws Exception {
+        Random random = new Random(42);
+        List<List<String>> input = new ArrayList<>();
+        for (int day = 0; day < 10000; day++) {
+            // NULL amounts are skipped by the aggregates but still ranked
+            input.add(Arrays.asList(Integer.toString(random.nextInt(20)), Integer.toString(day),
+                    random.nextInt(10) == 0 ? null : Integer.toString(random.nextInt(1000))));
+        }
+        Collections.shuffle(input, random);
+
+        List<List<String>> inMemory = evaluate(WINDOW, input.size(), input);
+        WindowOperator spilling = new WindowOperator(WINDOW, List.of("user_id", "day", "amount"), spillDirectory, 100);
+        List<List<String>> spilled = new ArrayList<>();
+        for (List<String> row : input) {
+            spilling.add(row);
+        }
+        spilling.finish(spilled::add);
+        // More runs than are merged at once, so some were first merged into longer ones
+        assertTrue(spilling.getSpilledRuns() > ExternalSorter.MAX_MERGE_WIDTH, "runs: " + spilling.getSpilledRuns());
+        spilling.close();
+
+        assertEquals(inMemory, spilled);
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testWholePartitionWithoutOrder() throws Exception {
+        Window window = Window.newBuilder()
+                .addPartitionBy("user_id")
+                .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.WINDOW_COUNT)
+                        .setPreceding(-1).setLabel("orders"))
+                .addFunctions(WindowFunctionSpec.newBuilder().setFunction(WindowFunction.WINDOW_MIN)
+                        .setColumn("amount").setPreceding(-1).setLabel("smallest"))
+                .build();
+
+        // Two rows in memory: the partition's peers are spilled while they wait for the frame's end
+        List<List<String>> rows = evaluate(window, 2, List.of(
+                List.of("1", "1", "30"), List.of("1", "2", "9"), List.of("1", "3", "100"), List.of("2", "1", "7")));
+
+        assertEquals(List.of(List.of("3", "9"), List.of("3", "9"), List.of("3", "9"), List.of("1", "7")),
+                rows.stream().map(row -> row.subList(3, 5)).toList());
+    }
+
+    private List<List<String>> evaluate(Window window, int maxRowsInMemory, List<List<String>> input)
+            throws Exception {
+        List<List<String>> output = new ArrayList<>();
+        try (WindowOperator operator = new WindowOperator(window, List.of("user_id", "day", "amount"), spillDirectory,
+                maxRowsInMemory)) {
+            for (List<String> row : input) {
+                operator.add(row);
+            }
+            operator.finish(output::add);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,478 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AggregateState;
+import com.distributed.sql.common.utils.HyperLogLog;
+import com.distributed.sql.common.utils.TDigest;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a query's aggregates as partial states: each worker scans the columns
+ * they need, folds its rows into a state per group (see {@link
+ * AggregateState}) and sends the states, which the coordinator merges into
+ * one row per group. Memory and traffic grow with the number of groups, not
+ * rows.
+ *
+ * COUNT, SUM, AVG, MIN and MAX are exact. APPROX_COUNT_DISTINCT(column [,
+ * precision]) keeps a HyperLogLog sketch of 2^precision one-byte registers,
+ * and the result reports its error bound. APPROX_PERCENTILE(column, fraction
+ * [, compression]) keeps a t-digest of about compression centroids, so p50,
+ * p95 and p99 of a column share one digest per group.
+ *
+ * A worker's states may cover only a sample of its rows: a TABLESAMPLE, or
+ * the rows a worker streaming its progress has processed so far. COUNT and
+ * SUM are then scaled up by the inverse of each worker's sample fraction
+ * and, like AVG, come with a confidence interval per row, each worker's rows
+ * being a stratum sampled on its own. The intervals assume the sampled rows
+ * were chosen independently, as BERNOULLI and progress in random order do.
+ * SYSTEM samples whole blocks, whose variance depends on how alike the rows
+ * of a block are and cannot be told from the merged states, so a SYSTEM
+ * sample gets estimates without intervals. MIN, MAX, percentiles and distinct
+ * counts are those of the sample.
+ *
+ * Only single-table SELECTs with ANDed comparisons in their WHERE clause are
+ * planned this way; other aggregate queries keep their rows concatenated.
+ */
+final class AggregationPlan {
+
+    // 4096 registers: 4 KB per group and worker, within 1.6% at one standard error
+    static final int DEFAULT_PRECISION = 12;
+    // At most a few hundred centroids, 16 bytes each, per group and worker
+    static final int DEFAULT_COMPRESSION = 100;
+    // Two standard errors either side of the estimate
+    private static final double CONFIDENCE = 0.95;
+    private static final double CONFIDENCE_Z = 1.96;
+
+    private static final Pattern CALL_PATTERN = Pattern.compile(
+            "(\\w+)\\s*\\(\\s*(\\*|[\\w.]+)\\s*(?:,\\s*(\\d+(?:\\.\\d+)?)\\s*)?(?:,\\s*(\\d+)\\s*)?\\)");
+    private static final Pattern APPROX_CALL_PATTERN = Pattern.compile(
+            "\\bAPPROX_(?:COUNT_DISTINCT|PERCENTILE)\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+    private final String tableName;
+    // Unqualified and lower case
+    private final List<String> groupColumns = new ArrayList<>();
+    private final List<AggregateSpec> aggregates = new ArrayList<>();
+    private final List<Item> items = new ArrayList<>();
+    private final String scanSql;
+    // SYSTEM samples are clustered, so the independent-row variance does not hold
+    private final boolean blockSampled;
+
+    private AggregationPlan(Query query) {
+        this.tableName = query.getFromTables().get(0);
+        this.blockSampled = query.isSampled()
+                && query.getSampleMethod() == com.distributed.sql.common.models.SampleMethod.SYSTEM;
+        for (String column : query.getGroupByColumns()) {
+            groupColumns.add(QueryPlanner.unqualified(tableName, column).toLowerCase());
+        }
+        Map<AggregateSpec, Integer> specPositions = new HashMap<>();
+        for (String item : query.getSelectColumns()) {
+            items.add(parseItem(item, specPositions));
+        }
+
+        Set<String> columns = new LinkedHashSet<>(groupColumns);
+        for (AggregateSpec spec : aggregates) {
+            columns.add(spec.getColumn());
+        }
+        // COUNT(*) alone needs no column, but the rows still have to be read
+        StringBuilder scan = new StringBuilder("SELECT ").append(columns.isEmpty() ? "*" : String.join(", ", columns))
+                .append(" FROM ").append(tableName);
+        for (int i = 0; i < query.getWhereConditions().size(); i++) {
+            scan.append(i == 0 ? " WHERE " : " AND ").append(JoinExecutor.toSql(query.getWhereConditions().get(i)));
+        }
+        this.scanSql = scan.toString();
+    }
+
+    /**
+     * Returns the plan of an aggregate SELECT, or null if the query does not
+     * aggregate or has to run as it is. Throws IllegalArgumentException if it
+     * has approximate aggregates but cannot be planned.
+     */
+    static AggregationPlan parse(Query query) {
+        if (!query.isSelect() || query.getGroupByColumns().isEmpty() && !hasAggregateCall(query)) {
+            return null;
+        }
+        boolean approximate = query.isSampled()
+                || APPROX_CALL_PATTERN.matcher(String.join(",", query.getSelectColumns())).find();
+        if (!ViewDefinition.isSupported(query)) {
+            if (approximate) {
+                throw new IllegalArgumentException("Approximate and sampled aggregates need a single-table SELECT with "
+                        + "only ANDed comparisons in its WHERE clause, and no ORDER BY, LIMIT or HAVING");
+            }
+            return null;
+        }
+        try {
+            return new AggregationPlan(query);
+        } catch (IllegalArgumentException e) {
+            if (approximate) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    private static boolean hasAggregateCall(Query query) {
+        for (String item : query.getSelectColumns()) {
+            Matcher call = CALL_PATTERN.matcher(ViewAggregate.expression(item));
+            if (call.matches() && isAggregateFunction(call.group(1).toUpperCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAggregateFunction(String function) {
+        return switch (function) {
+            case "COUNT", "SUM", "AVG", "MIN", "MAX", "APPROX_COUNT_DISTINCT", "APPROX_PERCENTILE" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * The scan each worker runs and folds into partial states
+     */
+    String getScanSql() {
+        return scanSql;
+    }
+
+    Aggregation toProto() {
+        return Aggregation.newBuilder()
+                .addAllGroupBy(groupColumns)
+                .addAllAggregates(aggregates)
+                .build();
+    }
+
+    /**
+     * Merges the partial states the workers sent into one row per group,
+     * ordered by group, with the error bound of each approximate distinct count
+     * and, over a sample other than SYSTEM, the confidence intervals of the
+     * scaled values
+     */
+    QueryResult merge(List<QueryResult> results) {
+        Map<List<String>, MergedGroup> merged = new TreeMap<>(AggregationPlan::compareGroups);
+        boolean sampled = false;
+        long rowsSeen = 0;
+        double rowsEstimated = 0;
+        double smallestFraction = 1;
+        for (QueryResult result : results) {
+            double fraction = sampleFraction(result);
+            sampled |= fraction < 1;
+            smallestFraction = Math.min(smallestFraction, fraction);
+            for (AggregateGroup group : result.getAggregateGroupsList()) {
+                List<String> key = new ArrayList<>(group.getKeysList());
+                for (int position : group.getNullKeysList()) {
+                    key.set(position, null);
+                }
+                merged.computeIfAbsent(key, k -> new MergedGroup()).merge(group, fraction);
+                rowsSeen += group.getRowCount();
+                rowsEstimated += group.getRowCount() / fraction;
+            }
+        }
+        // Without GROUP BY an aggregate returns one row, even over no rows
+        if (groupColumns.isEmpty() && merged.isEmpty()) {
+            merged.put(List.of(), new MergedGroup());
+        }
+
+        QueryResult.Builder result = QueryResult.newBuilder();
+        for (Item item : items) {
+            result.addColumns(item.label);
+        }
+        for (Map.Entry<List<String>, MergedGroup> entry : merged.entrySet()) {
+            List<String> values = new ArrayList<>(items.size());
+            for (Item item : items) {
+                values.add(item.render(entry.getKey(), entry.getValue(), sampled));
+                double[] interval = sampled && !blockSampled ? item.interval(entry.getValue()) : null;
+                if (interval != null) {
+                    result.addConfidenceIntervals(ConfidenceInterval.newBuilder()
+                            .setRow(result.getResultsCount())
+                            .setColumn(item.label)
+                            .setLower(interval[0])
+                            .setUpper(interval[1])
+                            .setConfidence(CONFIDENCE)
+                            .build());
+                }
+            }
+            result.addResults(BulkLoader.toRow(values));
+        }
+        for (Item item : items) {
+            if (item.function.equals("APPROX_COUNT_DISTINCT")) {
+                int precision = aggregates.get(item.position).getPrecision();
+                result.addErrorBounds(ErrorBound.newBuilder()
+                        .setColumn(item.label)
+                        .setRelativeError(CONFIDENCE_Z * HyperLogLog.relativeStandardError(precision))
+                        .setConfidence(CONFIDENCE)
+                        .build());
+            }
+        }
+        if (sampled) {
+            // The share of the rows the states cover
+            result.setSampleFraction(rowsSeen > 0 ? rowsSeen / rowsEstimated : smallestFraction);
+        }
+        return result.setRowsReturned(result.getResultsCount()).build();
+    }
+
+    /**
+     * Fraction of its rows a worker's states cover, 1 for all of them
+     */
+    private static double sampleFraction(QueryResult result) {
+        double fraction = result.getSampleFraction();
+        return fraction > 0 && fraction < 1 ? fraction : 1;
+    }
+
+    /**
+     * Parses a SELECT item into a GROUP BY column or an aggregate, adding the
+     * partial state it reads to the aggregates unless an earlier item needs
+     * the same one
+     */
+    private Item parseItem(String item, Map<AggregateSpec, Integer> specPositions) {
+        String expression = ViewAggregate.expression(item);
+        String label = ViewAggregate.label(item);
+        Matcher call = CALL_PATTERN.matcher(expression);
+        String function = call.matches() ? call.group(1).toUpperCase() : "";
+        if (!isAggregateFunction(function)) {
+            int position = groupColumns.indexOf(QueryPlanner.unqualified(tableName, expression).toLowerCase());
+            if (position < 0) {
+                throw new IllegalArgumentException(expression + " must be an aggregate or a GROUP BY column");
+            }
+            return new Item(label, "", position, 0);
+        }
+
+        String argument = call.group(3);
+        String option = call.group(4);
+        boolean countAll = call.group(2).equals("*");
+        if (countAll && !function.equals("COUNT")
+                || !function.startsWith("APPROX_") && argument != null
+                || function.equals("APPROX_COUNT_DISTINCT") && option != null) {
+            throw new IllegalArgumentException("Unsupported arguments in " + expression);
+        }
+        if (countAll) {
+            // The group's row count
+            return new Item(label, "COUNT(*)", -1, 0);
+        }
+
+        AggregateSpec.Builder spec = AggregateSpec.newBuilder()
+                .setColumn(QueryPlanner.unqualified(tableName, call.group(2)).toLowerCase());
+        double fraction = 0;
+        switch (function) {
+            case "APPROX_COUNT_DISTINCT" -> {
+                int precision = argument != null ? parseInt(argument) : DEFAULT_PRECISION;
+                if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+                    throw new IllegalArgumentException("APPROX_COUNT_DISTINCT precision must be between "
+                            + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION);
+                }
+                spec.setFunction(AggregateFunction.APPROX_COUNT_DISTINCT).setPrecision(precision);
+            }
+            case "APPROX_PERCENTILE" -> {
+                fraction = argument != null ? Double.parseDouble(argument) : -1;
+                int compression = option != null ? parseInt(option) : DEFAULT_COMPRESSION;
+                if (fraction < 0 || fraction > 1) {
+                    throw new IllegalArgumentException("APPROX_PERCENTILE needs a fraction between 0 and 1");
+                }
+                if (compression < TDigest.MIN_COMPRESSION || compression > TDigest.MAX_COMPRESSION) {
+                    throw new IllegalArgumentException("APPROX_PERCENTILE compression must be between "
+                            + TDigest.MIN_COMPRESSION + " and " + TDigest.MAX_COMPRESSION);
+                }
+                spec.setFunction(AggregateFunction.APPROX_PERCENTILE).setPrecision(compression);
+            }
+            // AVG is read off the same sum and count as SUM
+            case "AVG", "SUM" -> spec.setFunction(AggregateFunction.SUM);
+            default -> spec.setFunction(AggregateFunction.valueOf(function));
+        }
+
+        AggregateSpec built = spec.build();
+        Integer position = specPositions.get(built);
+        if (position == null) {
+            position = aggregates.size();
+            aggregates.add(built);
+            specPositions.put(built, position);
+        }
+        return new Item(label, function, position, fraction);
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an integer, got " + value);
+        }
+    }
+
+    private static int compareGroups(List<String> left, List<String> right) {
+        for (int i = 0; i < left.size(); i++) {
+            int comparison = ViewDefinition.compareValues(left.get(i), right.get(i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static String plain(BigDecimal value) {
+        return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * A SELECT item: a GROUP BY column (empty function) at a position of the
+     * group, COUNT(*), or an aggregate reading the state at a position
+     */
+    private static final class Item {
+        final String label;
+        final String function;
+        final int position;
+        // APPROX_PERCENTILE only
+        final double fraction;
+
+        Item(String label, String function, int position, double fraction) {
+            this.label = label;
+            this.function = function;
+            this.position = position;
+            this.fraction = fraction;
+        }
+
+        /**
+         * Returns the item's value in a group, counts, sums and averages
+         * estimated from the sample if the states cover one; SUM, AVG, MIN,
+         * MAX and percentiles over no values are null
+         */
+        String render(List<String> group, MergedGroup merged, boolean sampled) {
+            if (function.isEmpty()) {
+                return group.get(position);
+            }
+            if (function.equals("COUNT(*)")) {
+                return Long.toString(sampled ? Math.round(merged.estimatedRows) : merged.rows);
+            }
+            AggregateState state = merged.states[position];
+            switch (function) {
+                case "COUNT":
+                    return Long.toString(sampled ? Math.round(merged.estimatedCounts[position])
+                            : ((AggregateState.Count) state).getCount());
+                case "SUM": {
+                    AggregateState.Sum sum = (AggregateState.Sum) state;
+                    if (sum.getCount() == 0) {
+                        return null;
+                    }
+                    return plain(sampled ? merged.estimatedSums[position] : sum.getSum());
+                }
+                case "AVG": {
+                    AggregateState.Sum sum = (AggregateState.Sum) state;
+                    if (sum.getCount() == 0) {
+                        return null;
+                    }
+                    return plain(sampled
+                            ? merged.estimatedSums[position].divide(
+                                    BigDecimal.valueOf(merged.estimatedCounts[position]), MathContext.DECIMAL64)
+                            : sum.getSum().divide(BigDecimal.valueOf(sum.getCount()), MathContext.DECIMAL64));
+                }
+                case "APPROX_COUNT_DISTINCT":
+                    return Long.toString(((AggregateState.DistinctSketch) state).getSketch().estimate());
+                case "APPROX_PERCENTILE": {
+                    TDigest digest = ((AggregateState.QuantileDigest) state).getDigest();
+                    return digest.size() == 0 ? null : plain(BigDecimal.valueOf(digest.quantile(fraction)));
+                }
+                default:
+                    return ((AggregateState.Extreme) state).getValue();
+            }
+        }
+
+        /**
+         * Returns the lower and upper ends of the confidence interval of a
+         * COUNT, SUM or AVG estimated from a sample, or null for other items
+         * and averages of fewer than two values. Estimated counts never fall
+         * below the rows actually seen.
+         */
+        double[] interval(MergedGroup merged) {
+            double estimate;
+            double variance;
+            double floor = Double.NEGATIVE_INFINITY;
+            switch (function) {
+                case "COUNT(*)":
+                    estimate = merged.estimatedRows;
+                    variance = merged.rowsVariance;
+                    floor = merged.rows;
+                    break;
+                case "COUNT":
+                    estimate = merged.estimatedCounts[position];
+                    variance = merged.countVariances[position];
+                    floor = ((AggregateState.Count) merged.states[position]).getCount();
+                    break;
+                case "SUM":
+                    if (((AggregateState.Sum) merged.states[position]).getCount() == 0) {
+                        return null;
+                    }
+                    estimate = merged.estimatedSums[position].doubleValue();
+                    variance = merged.squareVariances[position];
+                    break;
+                case "AVG": {
+                    if (((AggregateState.Sum) merged.states[position]).getCount() < 2) {
+                        return null;
+                    }
+                    // Ratio of the estimated sum and count, linearized around the estimate
+                    double count = merged.estimatedCounts[position];
+                    estimate = merged.estimatedSums[position].doubleValue() / count;
+                    variance = Math.max(0, merged.squareVariances[position]
+                            - 2 * estimate * merged.sumVariances[position]
+                            + estimate * estimate * merged.countVariances[position]) / (count * count);
+                    break;
+                }
+                default:
+                    return null;
+            }
+            double halfWidth = CONFIDENCE_Z * Math.sqrt(variance);
+            return new double[] {Math.max(floor, estimate - halfWidth), estimate + halfWidth};
+        }
+    }
+
+    /**
+     * The states of one group merged over the workers, with the row and
+     * value counts and sums each scaled up by its worker's sample fraction.
+     * Each variance adds, per worker, (1 - f) / f^2 times the sum over its
+     * sampled rows of 1, x^2 or x, from which those of the estimates follow.
+     */
+    private class MergedGroup {
+        long rows;
+        double estimatedRows;
+        double rowsVariance;
+        final AggregateState[] states = new AggregateState[aggregates.size()];
+        // COUNT and SUM states only
+        final double[] estimatedCounts = new double[states.length];
+        final double[] countVariances = new double[states.length];
+        // SUM states only
+        final BigDecimal[] estimatedSums = new BigDecimal[states.length];
+        final double[] squareVariances = new double[states.length];
+        final double[] sumVariances = new double[states.length];
+
+        MergedGroup() {
+            for (int i = 0; i < states.length; i++) {
+                states[i] = AggregateState.create(aggregates.get(i));
+                estimatedSums[i] = BigDecimal.ZERO;
+            }
+        }
+
+        void merge(AggregateGroup group, double fraction) {
+            double weight = (1 - fraction) / (fraction * fraction);
+            rows += group.getRowCount();
+            estimatedRows += group.getRowCount() / fraction;
+            rowsVariance += weight * group.getRowCount();
+            for (int i = 0; i < states.length && i < group.getStatesCount(); i++) {
+                AggregateState state = AggregateState.fromBytes(aggregates.get(i), group.getStates(i).toByteArray());
+                states[i].merge(state);
+                if (state instanceof AggregateState.Count count) {
+                    estimatedCounts[i] += count.getCount() / fraction;
+                    countVariances[i] += weight * count.getCount();
+                } else if (state instanceof AggregateState.Sum sum) {
+                    estimatedCounts[i] += sum.getCount() / fraction;
+                    countVariances[i] += weight * sum.getCount();
+                    estimatedSums[i] = estimatedSums[i].add(
+                            sum.getSum().divide(BigDecimal.valueOf(fraction), MathContext.DECIMAL64));
+                    squareVariances[i] += weight * sum.getSumOfSquares();
+                    sumVariances[i] += weight * sum.getSum().doubleValue();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.Row;
+import com.distributed.sql.common.proto.QueryProto.WriteShardRowsResponse;
+import com.distributed.sql.common.utils.AppLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Routes the rows of one load to their shards and writes them to every worker
+ * holding a replica. Rows are buffered per worker and sent as large batches in
+ * parallel, with a bounded number of batches in flight per worker so a fast
+ * producer is slowed down instead of buffering without limit.
+ *
+ * Rows of a shard that is being migrated are also written to the migration
+ * target, always with the idempotent insert since the copy may deliver the
+ * same rows. A load is not atomic across workers: on failure, batches already
+ * written stay written.
+ *
+ * A loader holds its table's {@link WriteFence} while it has rows routed but
+ * not yet written. When the rebalancer closes the fence to switch a shard,
+ * the loader writes those rows at the end of the current batch and steps
+ * aside, then routes the next batch by the new placement.
+ *
+ * Entries of the table's global indexes are loaded alongside the rows, so a
+ * lookup through a global index may miss rows of a load until it finishes.
+ */
+public class BulkLoader {
+
+    static final int BATCH_ROWS = 5000;
+    private static final int MAX_IN_FLIGHT_BATCHES_PER_WORKER = 4;
+    private static final long FINISH_TIMEOUT_SECONDS = 300;
+    // Row metadata key listing the indexes of NULL values, as encoded by the workers
+    static final String NULLS_METADATA_KEY = "nulls";
+
+    private final ShardManager shardManager;
+    private final Map<String, WorkerClient> workerClients;
+    private final ExecutorService executor;
+    private final String tableName;
+    private final List<String> columns;
+    private final int keyIndex;
+    private final boolean bulk;
+    private final long startTime = System.currentTimeMillis();
+
+    private final Map<String, List<Row>> buffers = new HashMap<>();
+    private final Map<String, List<Row>> migrationBuffers = new HashMap<>();
+    private final Map<String, Semaphore> inFlightBatches = new HashMap<>();
+    private final List<Future<?>> pendingBatches = new ArrayList<>();
+    private final AtomicReference<String> failure = new AtomicReference<>();
+    private final WriteFence fence;
+    private boolean inFence;
+    // Loaders of the table's global index entries, by index name
+    private final Map<String, BulkLoader> indexLoaders = new HashMap<>();
+    private long rowsRouted;
+    private long rowsRejected;
+
+    /**
+     * @param bulk write with COPY on the workers instead of batched inserts
+     */
+    public BulkLoader(ShardManager shardManager, Map<String, WorkerClient> workerClients, ExecutorService executor,
+            String tableName, List<String> columns, boolean bulk) {
+        String shardKeyColumn = shardManager.getShardKeyColumn(tableName);
+        if (shardKeyColumn == null) {
+            throw new IllegalArgumentException("Unknown table or no shard key: " + tableName);
+        }
+
+        int index = -1;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(shardKeyColumn)) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException("Columns must include shard key " + shardKeyColumn);
+        }
+
+        this.shardManager = shardManager;
+        this.workerClients = workerClients;
+        this.executor = executor;
+        this.tableName = tableName;
+        this.columns = List.copyOf(columns);
+        this.keyIndex = index;
+        this.bulk = bulk;
+        this.fence = shardManager.getWriteFence(tableName);
+    }
+
+    /**
+     * Routes a batch of rows, sending any worker buffer that fills up. Blocks
+     * while the target worker already has the maximum number of batches in
+     * flight.
+     */
+    public void addRows(List<Row> rows) throws InterruptedException {
+        checkFailure();
+        if (!inFence) {
+            // Entered before the routing snapshot, so a shard cannot switch workers under rows routed by it
+            fence.enter(0);
+            inFence = true;
+        }
+
+        try {
+            // One snapshot per batch, so rows follow splits and moves during a long load
+            RoutingTable routing = shardManager.getRoutingTable();
+            for (Row row : rows) {
+                ShardInfo shard = row.getValuesCount() == columns.size() && !isNull(row, keyIndex)
+                        ? routing.route(tableName, row.getValues(keyIndex))
+                        : null;
+                if (shard == null) {
+                    rowsRejected++;
+                    continue;
+                }
+
+                for (String workerId : shard.getReplicaWorkerIds()) {
+                    buffer(buffers, workerId, row, bulk);
+                }
+                String migrationTarget = shardManager.getMigrationTarget(shard.getShardId());
+                if (migrationTarget != null && !shard.getReplicaWorkerIds().contains(migrationTarget)) {
+                    buffer(migrationBuffers, migrationTarget, row, false);
+                }
+                for (String workerId : shardManager.getRingShardTargets(tableName, row.getValues(keyIndex))) {
+                    if (!shard.getReplicaWorkerIds().contains(workerId) && !workerId.equals(migrationTarget)) {
+                        buffer(migrationBuffers, workerId, row, false);
+                    }
+                }
+                rowsRouted++;
+            }
+            addIndexEntries(routing, rows);
+
+            if (fence.isClosed()) {
+                // A shard is switching workers: land the rows routed by the old placement and let it through
+                flush();
+                checkFailure();
+                exitFence();
+            }
+
+        } catch (ExecutionException | TimeoutException e) {
+            exitFence();
+            throw new IllegalStateException("Batches of " + tableName + " were not written: " + e.getMessage(), e);
+        } catch (RuntimeException | InterruptedException e) {
+            exitFence();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the remaining buffered rows and waits for every batch. Returns the
+     * number of rows loaded; throws if any batch failed.
+     */
+    public long finish() throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            for (BulkLoader indexLoader : indexLoaders.values()) {
+                indexLoader.finish();
+            }
+            flush();
+            checkFailure();
+        } finally {
+            exitFence();
+        }
+
+        AppLogger.info("Loaded {} rows into {} in {}ms ({} rejected)",
+                rowsRouted, tableName, getElapsedMs(), rowsRejected);
+        return rowsRouted;
+    }
+
+    /**
+     * Gives up a load that will not be finished, so it no longer holds back
+     * the rebalancer. Batches already sent may still be written.
+     */
+    public void abandon() {
+        failure.compareAndSet(null, "Load of " + tableName + " was abandoned");
+        for (BulkLoader indexLoader : indexLoaders.values()) {
+            indexLoader.abandon();
+        }
+        buffers.clear();
+        migrationBuffers.clear();
+        exitFence();
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public long getElapsedMs() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Sends every buffered row and waits for all batches in flight
+     */
+    private void flush() throws InterruptedException, ExecutionException, TimeoutException {
+        for (Map.Entry<String, List<Row>> entry : buffers.entrySet()) {
+            send(entry.getKey(), entry.getValue(), bulk);
+        }
+        for (Map.Entry<String, List<Row>> entry : migrationBuffers.entrySet()) {
+            send(entry.getKey(), entry.getValue(), false);
+        }
+        buffers.clear();
+        migrationBuffers.clear();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(FINISH_TIMEOUT_SECONDS);
+        for (Future<?> batch : pendingBatches) {
+            batch.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        pendingBatches.clear();
+    }
+
+    private void exitFence() {
+        if (inFence) {
+            inFence = false;
+            fence.exit();
+        }
+    }
+
+    private void addIndexEntries(RoutingTable routing, List<Row> rows) throws InterruptedException {
+        for (IndexDefinition index : GlobalIndexManager.globalIndexes(routing, tableName)) {
+            int valueIndex = -1;
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).equalsIgnoreCase(index.getLeadingColumn())) {
+                    valueIndex = i;
+                }
+            }
+            if (valueIndex < 0) {
+                continue;
+            }
+
+            List<Row> entries = new ArrayList<>();
+            for (Row row : rows) {
+                Row entry = row.getValuesCount() != columns.size() || isNull(row, valueIndex) || isNull(row, keyIndex)
+                        ? null
+                        : GlobalIndexManager.entry(row.getValues(valueIndex), row.getValues(keyIndex));
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            String shardKeyColumn = routing.getShardKeyColumn(tableName);
+            indexLoaders.computeIfAbsent(index.getName(), name -> new BulkLoader(shardManager, workerClients,
+                    executor, name, GlobalIndexManager.columns(index, shardKeyColumn), false)).addRows(entries);
+        }
+    }
+
+    private void buffer(Map<String, List<Row>> target, String workerId, Row row, boolean useCopy)
+            throws InterruptedException {
+        List<Row> buffer = target.computeIfAbsent(workerId, k -> new ArrayList<>(BATCH_ROWS));
+        buffer.add(row);
+        if (buffer.size() >= BATCH_ROWS) {
+            target.remove(workerId);
+            send(workerId, buffer, useCopy);
+        }
+    }
+
+    private void send(String workerId, List<Row> rows, boolean useCopy) throws InterruptedException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        WorkerClient client = workerClients.get(workerId);
+        if (client == null) {
+            failure.compareAndSet(null, "No client for worker " + workerId);
+            checkFailure();
+        }
+
+        Semaphore permits = inFlightBatches.computeIfAbsent(workerId,
+                k -> new Semaphore(MAX_IN_FLIGHT_BATCHES_PER_WORKER));
+        permits.acquire();
+        pendingBatches.add(executor.submit(() -> {
+            try {
+                WriteShardRowsResponse response = client.writeShardRows(tableName, columns, rows, useCopy);
+                if (response == null || !response.getSuccess()) {
+                    failure.compareAndSet(null, "Write to worker " + workerId + " failed: "
+                            + (response != null ? response.getMessage() : "no response"));
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, "Write to worker " + workerId + " failed: " + e.getMessage());
+            } finally {
+                permits.release();
+            }
+        }));
+        pendingBatches.removeIf(Future::isDone);
+    }
+
+    private void checkFailure() {
+        String message = failure.get();
+        if (message != null) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * Builds a row, encoding nulls the same way as the workers
+     */
+    static Row toRow(List<String> values) {
+        Row.Builder builder = Row.newBuilder();
+        StringJoiner nulls = new StringJoiner(",");
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (value == null) {
+                nulls.add(String.valueOf(i));
+            }
+            builder.addValues(value != null ? value : "");
+        }
+        if (nulls.length() > 0) {
+            builder.putMetadata(NULLS_METADATA_KEY, nulls.toString());
+        }
+        return builder.build();
+    }
+
+    static boolean isNull(Row row, int index) {
+        String nulls = row.getMetadataOrDefault(NULLS_METADATA_KEY, "");
+        return !nulls.isEmpty() && Arrays.asList(nulls.split(",")).contains(String.valueOf(index));
+    }
+}
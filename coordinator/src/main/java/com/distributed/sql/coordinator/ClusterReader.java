@@ -0,0 +1,80 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.QueryStatus;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import com.distributed.sql.common.utils.SQLParser;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the internal reads that derived data (global indexes, materialized
+ * views) is built and maintained from. As with a query, a read fails if any
+ * worker fails, since a partial read would silently leave rows out.
+ */
+class ClusterReader {
+
+    private final Map<String, WorkerClient> workerClients;
+    private final QueryPlanner queryPlanner;
+    private final SQLParser sqlParser;
+    private final ExecutorService executor;
+
+    ClusterReader(Map<String, WorkerClient> workerClients, QueryPlanner queryPlanner, SQLParser sqlParser,
+            ExecutorService executor) {
+        this.workerClients = workerClients;
+        this.queryPlanner = queryPlanner;
+        this.sqlParser = sqlParser;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs a read on the workers the planner picks and concatenates their rows
+     */
+    QueryResult read(String sql, long deadlineMs) throws Exception {
+        QueryPlan plan = queryPlanner.createExecutionPlan(sqlParser.parse(sql));
+        Map<String, CompletableFuture<QueryResult>> futures = new LinkedHashMap<>();
+        for (String workerId : plan.getWorkerIds()) {
+            WorkerClient client = workerClients.get(workerId);
+            List<ShardScope> shardScopes = plan.getWorkerShardScopes().getOrDefault(workerId, List.of());
+            futures.put(workerId, client == null
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.supplyAsync(() -> client.executeQuery(sql, shardScopes, deadlineMs), executor));
+        }
+
+        QueryResult.Builder result = QueryResult.newBuilder();
+        for (Map.Entry<String, CompletableFuture<QueryResult>> entry : futures.entrySet()) {
+            long remainingMs = Math.max(0, deadlineMs - System.currentTimeMillis());
+            QueryResult part = entry.getValue().get(remainingMs, TimeUnit.MILLISECONDS);
+            if (part == null || part.getStatus() == QueryStatus.FAILED
+                    || part.getStatus() == QueryStatus.DEADLINE_EXCEEDED) {
+                throw new IllegalStateException("Worker " + entry.getKey() + " could not run " + sql);
+            }
+            if (result.getColumnsCount() == 0) {
+                result.addAllColumns(part.getColumnsList());
+            }
+            result.addAllResults(part.getResultsList());
+        }
+        return result.build();
+    }
+
+    /**
+     * Returns the position of a column in a read's result, or -1 if the read
+     * returned no rows
+     */
+    static int columnIndex(QueryResult result, String column) {
+        for (int i = 0; i < result.getColumnsCount(); i++) {
+            if (result.getColumns(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        if (result.getResultsCount() > 0) {
+            throw new IllegalStateException("Column " + column + " not returned by the workers");
+        }
+        return -1;
+    }
+}
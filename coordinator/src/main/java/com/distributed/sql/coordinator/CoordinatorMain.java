@@ -5,6 +5,7 @@ import io.grpc.Server;
 import io.grpc.ServerBuilder;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -13,11 +14,14 @@ import java.util.concurrent.TimeUnit;
 public class CoordinatorMain {
 
     private static final int DEFAULT_PORT = 50051;
+    private static final String DEFAULT_CATALOG_DIR = "data/catalog";
     private Server server;
+    private ShardManager shardManager;
     private CoordinatorServiceImpl coordinatorService;
 
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
+        String catalogDir = DEFAULT_CATALOG_DIR;
 
         if (args.length > 0) {
             try {
@@ -28,11 +32,15 @@ public class CoordinatorMain {
             }
         }
 
+        if (args.length > 1) {
+            catalogDir = args[1];
+        }
+
         AppLogger.info("Starting coordinator server on port: {}", port);
 
         try {
             CoordinatorMain coordinator = new CoordinatorMain();
-            coordinator.start(port);
+            coordinator.start(port, catalogDir);
             coordinator.blockUntilShutdown();
         } catch (Exception e) {
             AppLogger.error("Failed to start coordinator server", e);
@@ -40,12 +48,14 @@ public class CoordinatorMain {
         }
     }
 
-    private void start(int port) throws IOException {
-        // Initialize shard manager
-        ShardManager shardManager = new ShardManager();
+    private void start(int port, String catalogDir) throws IOException {
+        // Initialize shard manager from the persistent catalog
+        shardManager = new ShardManager(new ShardCatalog(Paths.get(catalogDir)));
 
-        // Initialize coordinator service
-        coordinatorService = new CoordinatorServiceImpl(shardManager);
+        // Initialize coordinator service with the transaction decision log next to the catalog
+        TransactionLog transactionLog = new TransactionLog(Paths.get(catalogDir));
+        transactionLog.load();
+        coordinatorService = new CoordinatorServiceImpl(shardManager, transactionLog);
 
         // Create and start gRPC server
         server = ServerBuilder.forPort(port)
@@ -82,6 +92,10 @@ public class CoordinatorMain {
         if (coordinatorService != null) {
             coordinatorService.shutdown();
         }
+
+        if (shardManager != null) {
+            shardManager.shutdown();
+        }
     }
 
     private void blockUntilShutdown() throws InterruptedException {
@@ -4,49 +4,111 @@ import com.distributed.sql.common.models.*;
 import com.distributed.sql.common.proto.CoordinatorServiceGrpc;
 import com.distributed.sql.common.proto.QueryProto.*;
 import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.SQLParser;
 import com.distributed.sql.common.utils.Tracer;
+import io.grpc.Context;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Coordinator gRPC service implementation
  */
 public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorServiceImplBase {
 
+    // Deadline applied to queries whose request does not carry one
+    private static final long DEFAULT_QUERY_TIMEOUT_MS = 30000;
+    // Least time between two refined results of a progressive query
+    private static final long REFINE_INTERVAL_MS = 250;
+
     private final SQLParser sqlParser;
     private final QueryPlanner queryPlanner;
     private final ShardManager shardManager;
     private final ExecutorService executorService;
+    private final ScheduledExecutorService hedgeScheduler;
+    // Separate pool so bulk writes cannot starve query execution
+    private final ExecutorService ingestExecutor;
     private final Map<String, WorkerClient> workerClients;
+    private final ShardRebalancer shardRebalancer;
+    private final TransactionCoordinator transactionCoordinator;
+    private final JoinExecutor joinExecutor;
+    private final WindowExecutor windowExecutor;
+    private final GlobalIndexManager globalIndexManager;
+    private final ViewManager viewManager;
 
     // System metrics
     private long totalQueries = 0;
     private int activeQueries = 0;
     private final Instant systemStartTime = Instant.now();
 
-    public CoordinatorServiceImpl(ShardManager shardManager) {
+    public CoordinatorServiceImpl(ShardManager shardManager, TransactionLog transactionLog) {
         this.shardManager = shardManager;
         this.sqlParser = new SQLParser();
         this.queryPlanner = new QueryPlanner(shardManager);
         this.executorService = Executors.newFixedThreadPool(10);
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.ingestExecutor = Executors.newFixedThreadPool(12);
         this.workerClients = new ConcurrentHashMap<>();
 
         // Initialize worker clients
         initializeWorkerClients();
+
+        // Split and move hot or oversized shards in the background
+        this.shardRebalancer = new ShardRebalancer(shardManager, workerClients);
+        shardRebalancer.start();
+
+        // Run writes as distributed transactions, resolving any left in doubt by a crash
+        this.transactionCoordinator = new TransactionCoordinator(shardManager, workerClients, executorService,
+                transactionLog);
+        transactionCoordinator.start();
+
+        // Joins scan each side through the planner, pushing build-side keys into the probe scan
+        this.joinExecutor = new JoinExecutor(shardManager, sqlParser, (scanQuery, runtimeFilters, deadlineMs) -> {
+            QueryPlan plan = queryPlanner.createExecutionPlan(scanQuery, runtimeFilters);
+            return withShardsPruned(executeQueryAcrossWorkers(scanQuery, plan, deadlineMs), plan);
+        });
+
+        // Global indexes route lookups on columns other than the shard key to the shards holding the value
+        this.globalIndexManager = new GlobalIndexManager(shardManager, workerClients, queryPlanner, sqlParser,
+                executorService);
+
+        // Window functions run on the workers when partitioned by the shard key, else repartitioned here
+        this.windowExecutor = new WindowExecutor(shardManager, sqlParser, executorService,
+                (scanQuery, window, deadlineMs, chunks) -> {
+                    List<RuntimeFilter> indexFilters = globalIndexManager.route(scanQuery, deadlineMs);
+                    QueryPlan plan = queryPlanner.createExecutionPlan(scanQuery, indexFilters);
+                    QueryResult result = streamQueryAcrossWorkers(scanQuery, plan, window, deadlineMs, chunks);
+                    return indexFilters.isEmpty() ? result : withShardsPruned(result, plan);
+                });
+
+        // Materialized views answer the aggregate queries they match without reading their table
+        this.viewManager = new ViewManager(shardManager, workerClients, queryPlanner, sqlParser, executorService);
     }
 
     private void initializeWorkerClients() {
-        // Initialize clients for known workers
-        workerClients.put("worker1", new WorkerClient("localhost", 50052));
-        workerClients.put("worker2", new WorkerClient("localhost", 50053));
-        workerClients.put("worker3", new WorkerClient("localhost", 50054));
+        // Initialize clients for workers restored from the catalog, then the default workers
+        for (ShardManager.WorkerInfo worker : shardManager.getActiveWorkers()) {
+            workerClients.put(worker.getWorkerId(), new WorkerClient(worker.getAddress(), worker.getPort()));
+        }
+        workerClients.computeIfAbsent("worker1", id -> new WorkerClient("localhost", 50052));
+        workerClients.computeIfAbsent("worker2", id -> new WorkerClient("localhost", 50053));
+        workerClients.computeIfAbsent("worker3", id -> new WorkerClient("localhost", 50054));
 
         AppLogger.info("Initialized worker clients for {} workers", workerClients.size());
     }
@@ -65,16 +127,48 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
             // Parse the SQL query
             Query query = sqlParser.parse(sqlQuery);
             query.setQueryId(queryId);
+            applySample(query, request);
 
             Tracer.addTimestamp("query_parsed");
 
-            // Create execution plan
-            QueryPlan plan = queryPlanner.createExecutionPlan(query);
+            long deadlineMs = request.getDeadlineMs() > 0
+                    ? request.getDeadlineMs()
+                    : System.currentTimeMillis() + DEFAULT_QUERY_TIMEOUT_MS;
 
-            Tracer.addTimestamp("plan_created");
+            WindowPlan window = WindowPlan.parse(query);
+            QueryResult result = query.isSelect() && window == null ? viewManager.answer(query) : null;
+            if (result != null) {
+                Tracer.addTimestamp("answered_from_view");
+            } else if (window != null) {
+                result = windowExecutor.execute(query, window, deadlineMs);
+            } else if (query.isWrite()) {
+                // Writes skip the planner and run as a transaction on the shards they touch
+                result = executeWrite(query, deadlineMs);
+            } else if (query.getQueryType() == QueryType.CREATE_INDEX) {
+                result = query.isGlobalIndex() ? createGlobalIndex(query, deadlineMs) : createIndex(query, deadlineMs);
+            } else if (query.getQueryType() == QueryType.CREATE_MATERIALIZED_VIEW) {
+                result = createMaterializedView(query, deadlineMs);
+            } else if (query.hasJoins() && !queryPlanner.isColocatedJoin(query)) {
+                // Joins that need rows from different workers are hash-joined here
+                result = joinExecutor.execute(query, deadlineMs);
+            } else {
+                // Create execution plan, narrowed to the shards a global index names
+                List<RuntimeFilter> indexFilters = globalIndexManager.route(query, deadlineMs);
+                QueryPlan plan = queryPlanner.createExecutionPlan(query, indexFilters);
 
-            // Execute query across workers
-            QueryResult result = executeQueryAcrossWorkers(query, plan);
+                Tracer.addTimestamp("plan_created");
+
+                if (query.hasJoins() && !plan.isColocatedJoin()) {
+                    // The tables stopped being colocated (e.g. one was split) since the check above
+                    result = joinExecutor.execute(query, deadlineMs);
+                } else {
+                    // Execute query across workers
+                    result = executeQueryAcrossWorkers(query, plan, deadlineMs);
+                    if (!indexFilters.isEmpty()) {
+                        result = withShardsPruned(result, plan);
+                    }
+                }
+            }
 
             Tracer.addTimestamp("execution_completed");
 
@@ -89,8 +183,8 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
             responseObserver.onCompleted();
 
             totalQueries++;
-            AppLogger.info("Query {} completed successfully in {}ms",
-                    queryId, result.getExecutionTimeMs());
+            AppLogger.info("Query {} completed successfully in {}ms (catalog version {})",
+                    queryId, result.getExecutionTimeMs(), result.getCatalogVersion());
 
         } catch (Exception e) {
             AppLogger.error("Error executing query: " + request.getSqlQuery(), e);
@@ -100,7 +194,9 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
                     .setSqlQuery(request.getSqlQuery())
                     .setExecutionTimeMs(0)
                     .setRowsReturned(0)
-                    .setStatus(QueryStatus.FAILED)
+                    .setStatus(Status.fromThrowable(e).getCode() == Status.Code.DEADLINE_EXCEEDED
+                            ? QueryStatus.DEADLINE_EXCEEDED
+                            : QueryStatus.FAILED)
                     .build();
 
             ExecuteQueryResponse response = ExecuteQueryResponse.newBuilder()
@@ -118,61 +214,477 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
         }
     }
 
-    private QueryResult executeQueryAcrossWorkers(Query query, QueryPlan plan) {
+    /**
+     * Runs an aggregate query as online aggregation: every worker streams its
+     * partial states over a growing random sample of its rows, and refined
+     * results merged from the latest states of each are sent as they come,
+     * at most every REFINE_INTERVAL_MS, with their confidence intervals and
+     * progress. The final result is the exact one. Other queries, and those a
+     * materialized view answers, get a single response as from executeQuery.
+     * Stragglers are not hedged.
+     */
+    @Override
+    public void executeQueryProgressive(ExecuteQueryRequest request,
+            StreamObserver<ExecuteQueryResponse> responseObserver) {
+        AggregationPlan aggregation;
+        Query query;
+        try {
+            query = sqlParser.parse(request.getSqlQuery());
+            query.setQueryId(request.getQueryId());
+            applySample(query, request);
+            aggregation = query.isSelect() && !query.hasJoins() && viewManager.answer(query) == null
+                    ? AggregationPlan.parse(query)
+                    : null;
+        } catch (Exception e) {
+            aggregation = null;
+            query = null;
+        }
+        if (aggregation == null) {
+            executeQuery(request, responseObserver);
+            return;
+        }
+        streamOnlineAggregation(request, responseObserver, query, aggregation);
+    }
+
+    private void streamOnlineAggregation(ExecuteQueryRequest request,
+            StreamObserver<ExecuteQueryResponse> responseObserver, Query query, AggregationPlan aggregation) {
+        Tracer.startTrace("execute_query_progressive");
+        activeQueries++;
+        AtomicBoolean finished = new AtomicBoolean();
+        try {
+            AppLogger.info("Executing query progressively: {} with ID: {}", request.getSqlQuery(),
+                    request.getQueryId());
+            long deadlineMs = request.getDeadlineMs() > 0
+                    ? request.getDeadlineMs()
+                    : System.currentTimeMillis() + DEFAULT_QUERY_TIMEOUT_MS;
+            List<RuntimeFilter> indexFilters = globalIndexManager.route(query, deadlineMs);
+            QueryPlan plan = queryPlanner.createExecutionPlan(query, indexFilters);
+            TableSample sample = tableSample(query);
+
+            OnlineAggregation online = new OnlineAggregation(aggregation, plan.getWorkerIds().size(),
+                    REFINE_INTERVAL_MS);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (String workerId : plan.getWorkerIds()) {
+                WorkerClient client = workerClients.get(workerId);
+                if (client == null) {
+                    AppLogger.warn("No client found for worker: {}", workerId);
+                    online.complete(workerId, null);
+                    continue;
+                }
+                List<ShardScope> shardScopes = plan.getWorkerShardScopes().getOrDefault(workerId, List.of());
+                futures.add(CompletableFuture.runAsync(() -> {
+                    shardManager.recordRequestStarted(workerId);
+                    long startTime = System.currentTimeMillis();
+                    try {
+                        QueryResult last = client.executeQueryProgressive(aggregation.getScanSql(), shardScopes,
+                                plan.getRuntimeFilters(), aggregation.toProto(), sample, deadlineMs, partial -> {
+                                    online.update(workerId, partial);
+                                    QueryResult refined = online.refine(System.currentTimeMillis());
+                                    if (refined != null) {
+                                        sendRefinement(responseObserver, finished, refined, query, plan);
+                                    }
+                                });
+                        online.complete(workerId, last);
+                    } finally {
+                        shardManager.recordRequestCompleted(workerId, System.currentTimeMillis() - startTime);
+                    }
+                }, executorService));
+            }
+
+            try {
+                long remainingMs = Math.max(0, deadlineMs - System.currentTimeMillis());
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(remainingMs,
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The refinements sent so far were estimates; without every worker's rows the query fails
+                futures.forEach(future -> future.cancel(true));
+                throw Status.DEADLINE_EXCEEDED
+                        .withDescription("Workers missed the deadline for progressive query " + query.getQueryId())
+                        .asRuntimeException();
+            }
+            if (!online.getFailedWorkers().isEmpty()) {
+                throw new IllegalStateException("Worker " + online.getFailedWorkers().iterator().next()
+                        + " failed query " + query.getQueryId());
+            }
+
+            QueryResult result = withQueryInfo(online.snapshot(), query, plan);
+            if (!indexFilters.isEmpty()) {
+                result = withShardsPruned(result, plan);
+            }
+            synchronized (responseObserver) {
+                finished.set(true);
+                responseObserver.onNext(ExecuteQueryResponse.newBuilder()
+                        .setSuccess(true)
+                        .setResult(result)
+                        .setMessage("Query executed successfully")
+                        .build());
+                responseObserver.onCompleted();
+            }
+            totalQueries++;
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing query progressively: " + request.getSqlQuery(), e);
+            synchronized (responseObserver) {
+                finished.set(true);
+                responseObserver.onNext(ExecuteQueryResponse.newBuilder()
+                        .setSuccess(false)
+                        .setResult(QueryResult.newBuilder()
+                                .setQueryId(request.getQueryId())
+                                .setSqlQuery(request.getSqlQuery())
+                                .setStatus(Status.fromThrowable(e).getCode() == Status.Code.DEADLINE_EXCEEDED
+                                        ? QueryStatus.DEADLINE_EXCEEDED
+                                        : QueryStatus.FAILED)
+                                .build())
+                        .setMessage("Error: " + e.getMessage())
+                        .build());
+                responseObserver.onCompleted();
+            }
+
+        } finally {
+            activeQueries--;
+            Tracer.endTrace("execute_query_progressive");
+        }
+    }
+
+    /**
+     * Sends a refined result unless the final one has gone out; worker
+     * threads take turns on the stream
+     */
+    private static void sendRefinement(StreamObserver<ExecuteQueryResponse> responseObserver, AtomicBoolean finished,
+            QueryResult refined, Query query, QueryPlan plan) {
+        synchronized (responseObserver) {
+            if (!finished.get()) {
+                responseObserver.onNext(ExecuteQueryResponse.newBuilder()
+                        .setSuccess(true)
+                        .setResult(withQueryInfo(refined, query, plan))
+                        .setMessage("Query in progress")
+                        .build());
+            }
+        }
+    }
+
+    private static QueryResult withQueryInfo(QueryResult result, Query query, QueryPlan plan) {
+        return result.toBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setCatalogVersion(plan.getCatalogVersion())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Puts the query in approximate mode if the request asks for a sample,
+     * which takes the place of any TABLESAMPLE clause. Throws
+     * IllegalArgumentException if the query cannot be sampled.
+     */
+    private static void applySample(Query query, ExecuteQueryRequest request) {
+        if (request.hasSample()) {
+            query.setSampleFraction(request.getSample().getFraction());
+            query.setSampleMethod(com.distributed.sql.common.models.SampleMethod.valueOf(
+                    request.getSample().getMethod().name()));
+        } else if (!query.isSampled()) {
+            return;
+        }
+        if (!(query.getSampleFraction() > 0 && query.getSampleFraction() <= 1)) {
+            throw new IllegalArgumentException("Sample fraction must be greater than 0 and at most 1");
+        }
+        if (!query.isSelect() || query.hasJoins() || query.getFromTables().size() != 1) {
+            throw new IllegalArgumentException("Only single-table SELECTs can be sampled");
+        }
+    }
+
+    /**
+     * The sample each worker reads of a sampled query, or null
+     */
+    private static TableSample tableSample(Query query) {
+        if (!query.isSampled()) {
+            return null;
+        }
+        return TableSample.newBuilder()
+                .setFraction(query.getSampleFraction())
+                .setMethod(com.distributed.sql.common.proto.QueryProto.SampleMethod.valueOf(
+                        query.getSampleMethod().name()))
+                .build();
+    }
+
+    private QueryResult executeQueryAcrossWorkers(Query query, QueryPlan plan, long deadlineMs) {
+        return executeQueryAcrossWorkers(query, plan, null, deadlineMs);
+    }
+
+    /**
+     * Runs the query on the plan's workers, each of which also evaluates the
+     * window (null = none) over its rows
+     */
+    private QueryResult executeQueryAcrossWorkers(Query query, QueryPlan plan, Window window, long deadlineMs) {
         List<String> workerIds = plan.getWorkerIds();
         List<CompletableFuture<QueryResult>> futures = new ArrayList<>();
 
-        // Execute query on each worker in parallel
+        // Aggregates come back from the workers as partial states per group to merge, not as rows
+        AggregationPlan aggregation = AggregationPlan.parse(query);
+        // In approximate mode each worker reads a sample of its rows, and aggregates are scaled up from it
+        TableSample sample = tableSample(query);
+
+        // Execute query on each worker in parallel, hedging to a secondary for stragglers
         for (String workerId : workerIds) {
-            CompletableFuture<QueryResult> future = CompletableFuture.supplyAsync(() -> {
-                try {
-                    WorkerClient client = workerClients.get(workerId);
-                    if (client != null) {
-                        return client.executeQuery(query.getSql());
-                    } else {
-                        AppLogger.warn("No client found for worker: {}", workerId);
+            String secondaryWorkerId = plan.getSecondaryWorkerIds().get(workerId);
+            List<ShardScope> shardScopes = plan.getWorkerShardScopes().getOrDefault(workerId, List.of());
+            futures.add(executeOnWorker(workerId, secondaryWorkerId, shardScopes, plan.getRuntimeFilters(), query,
+                    aggregation, sample, window, deadlineMs));
+        }
+
+        // Wait for all workers to complete and aggregate results
+        List<QueryResult> results = awaitWorkerResults(query.getQueryId(), workerIds, futures, deadlineMs);
+
+        QueryResult result = aggregateResults(query.getQueryId(), query.getSql(), plan.getCatalogVersion(), results,
+                aggregation);
+        return sample != null ? result.toBuilder().setSampleFraction(sample.getFraction()).build() : result;
+    }
+
+    /**
+     * Runs the query on the plan's workers, each of which also evaluates the
+     * window (null = none) over its rows, handing the chunks of rows they
+     * stream to the consumer as they arrive, from one thread per worker.
+     * Returns the merged result without rows. Chunks already handed over
+     * cannot be taken back, so stragglers are not hedged.
+     */
+    private QueryResult streamQueryAcrossWorkers(Query query, QueryPlan plan, Window window, long deadlineMs,
+            Consumer<QueryResult> consumer) {
+        List<String> workerIds = plan.getWorkerIds();
+        TableSample sample = tableSample(query);
+        List<CompletableFuture<QueryResult>> futures = new ArrayList<>();
+        // Cancelling the context ends the calls still streaming once the query is done with them
+        Context.CancellableContext context = Context.ROOT.withCancellation();
+        try {
+            for (String workerId : workerIds) {
+                WorkerClient client = workerClients.get(workerId);
+                if (client == null) {
+                    AppLogger.warn("No client found for worker: {}", workerId);
+                    futures.add(CompletableFuture.completedFuture(
+                            createEmptyResult(query.getQueryId(), query.getSql())));
+                    continue;
+                }
+                List<ShardScope> shardScopes = plan.getWorkerShardScopes().getOrDefault(workerId, List.of());
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    long startTime = System.currentTimeMillis();
+                    shardManager.recordRequestStarted(workerId);
+                    try {
+                        return context.call(() -> client.streamQuery(SQLParser.withoutTableSample(query.getSql()),
+                                shardScopes, plan.getRuntimeFilters(), sample, window, deadlineMs, consumer));
+                    } catch (Exception e) {
+                        AppLogger.error("Error streaming query on worker: " + workerId, e);
                         return createEmptyResult(query.getQueryId(), query.getSql());
+                    } finally {
+                        shardManager.recordRequestCompleted(workerId, System.currentTimeMillis() - startTime);
                     }
-                } catch (Exception e) {
-                    AppLogger.error("Error executing query on worker: " + workerId, e);
-                    return createEmptyResult(query.getQueryId(), query.getSql());
-                }
-            }, executorService);
+                }, executorService));
+            }
 
-            futures.add(future);
+            List<QueryResult> results = awaitWorkerResults(query.getQueryId(), workerIds, futures, deadlineMs);
+            QueryResult result = aggregateResults(query.getQueryId(), query.getSql(), plan.getCatalogVersion(),
+                    results, null);
+            return sample != null ? result.toBuilder().setSampleFraction(sample.getFraction()).build() : result;
+        } finally {
+            context.cancel(null);
         }
+    }
 
-        // Wait for all workers to complete and aggregate results
+    /**
+     * Waits for every worker's result, in order. A worker that fails fails the
+     * query, and one still running at the deadline (0 = none) fails it with
+     * DEADLINE_EXCEEDED, since a result missing a worker's shards would be
+     * wrong rather than partial. Either way the requests still in flight are
+     * cancelled.
+     */
+    static List<QueryResult> awaitWorkerResults(String queryId, List<String> workerIds,
+            List<CompletableFuture<QueryResult>> futures, long deadlineMs) {
         List<QueryResult> results = new ArrayList<>();
-        for (CompletableFuture<QueryResult> future : futures) {
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                String workerId = workerIds.get(i);
+                QueryResult result;
+                try {
+                    result = deadlineMs > 0
+                            ? futures.get(i).get(Math.max(0, deadlineMs - System.currentTimeMillis()),
+                                    TimeUnit.MILLISECONDS)
+                            : futures.get(i).get();
+                } catch (TimeoutException e) {
+                    throw Status.DEADLINE_EXCEEDED
+                            .withDescription("Worker " + workerId + " missed the deadline for query " + queryId)
+                            .asRuntimeException();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Status.CANCELLED.withDescription("Query " + queryId + " was interrupted")
+                            .asRuntimeException();
+                } catch (ExecutionException | CancellationException e) {
+                    throw new IllegalStateException("Worker " + workerId + " failed query " + queryId, e);
+                }
+
+                if (result.getStatus() == QueryStatus.DEADLINE_EXCEEDED) {
+                    throw Status.DEADLINE_EXCEEDED
+                            .withDescription("Worker " + workerId + " missed the deadline for query " + queryId)
+                            .asRuntimeException();
+                } else if (result.getStatus() == QueryStatus.FAILED) {
+                    throw new IllegalStateException("Worker " + workerId + " failed query " + queryId);
+                }
+                results.add(result);
+            }
+        } catch (RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Runs the query on a worker. If the worker has a secondary and its response
+     * takes longer than its observed p95 latency, a duplicate request is sent to
+     * the secondary; the first successful response wins and the other call is
+     * cancelled. With an aggregation plan (null = none) the worker runs its
+     * scan and returns partial states; with a sample (null = none) it reads
+     * only a sample of its rows; with a window (null = none) it returns its
+     * rows with the window functions' values.
+     */
+    private CompletableFuture<QueryResult> executeOnWorker(String workerId, String secondaryWorkerId,
+            List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters, Query query,
+            AggregationPlan aggregation, TableSample sample, Window window, long deadlineMs) {
+        WorkerClient primary = workerClients.get(workerId);
+        if (primary == null) {
+            AppLogger.warn("No client found for worker: {}", workerId);
+            return CompletableFuture.completedFuture(createEmptyResult(query.getQueryId(), query.getSql()));
+        }
+
+        WorkerClient secondary = secondaryWorkerId != null ? workerClients.get(secondaryWorkerId) : null;
+        long hedgeDelayMs = primary.getHedgeDelayMs();
+        boolean hedged = secondary != null && hedgeDelayMs >= 0;
+
+        HedgedCall call = new HedgedCall(hedged ? 2 : 1);
+        submitAttempt(call, workerId, primary, shardScopes, runtimeFilters, query, aggregation, sample, window,
+                deadlineMs);
+
+        if (hedged) {
+            hedgeScheduler.schedule(() -> {
+                if (call.result.isDone()) {
+                    call.skipAttempt();
+                    return;
+                }
+                AppLogger.info("Worker {} slower than p95 ({}ms) for query {}, hedging to {}",
+                        workerId, hedgeDelayMs, query.getQueryId(), secondaryWorkerId);
+                submitAttempt(call, secondaryWorkerId, secondary, shardScopes, runtimeFilters, query, aggregation,
+                        sample, window, deadlineMs);
+            }, hedgeDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        return call.result;
+    }
+
+    private void submitAttempt(HedgedCall call, String workerId, WorkerClient client,
+            List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters, Query query,
+            AggregationPlan aggregation, TableSample sample, Window window, long deadlineMs) {
+        Context.CancellableContext context = call.newAttemptContext();
+        CompletableFuture.supplyAsync(() -> {
+            long startTime = System.currentTimeMillis();
+            shardManager.recordRequestStarted(workerId);
             try {
-                results.add(future.get());
+                return context.call(() -> aggregation != null
+                        ? client.executeQuery(aggregation.getScanSql(), shardScopes, runtimeFilters,
+                                aggregation.toProto(), sample, deadlineMs)
+                        : client.executeQuery(SQLParser.withoutTableSample(query.getSql()), shardScopes,
+                                runtimeFilters, null, sample, window, deadlineMs));
             } catch (Exception e) {
-                AppLogger.error("Error getting result from worker", e);
+                AppLogger.error("Error executing query on worker: " + workerId, e);
+                return createEmptyResult(query.getQueryId(), query.getSql());
+            } finally {
+                shardManager.recordRequestCompleted(workerId, System.currentTimeMillis() - startTime);
+            }
+        }, executorService).thenAccept(call::onAttemptComplete);
+    }
+
+    /**
+     * Tracks the attempts of one possibly hedged worker request. Completing (or
+     * cancelling) the result cancels every attempt still in flight.
+     */
+    static class HedgedCall {
+        final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        private final List<Context.CancellableContext> attempts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger remainingAttempts;
+
+        HedgedCall(int maxAttempts) {
+            this.remainingAttempts = new AtomicInteger(maxAttempts);
+            result.whenComplete((r, e) -> attempts.forEach(context -> context.cancel(null)));
+        }
+
+        Context.CancellableContext newAttemptContext() {
+            Context.CancellableContext context = Context.ROOT.withCancellation();
+            attempts.add(context);
+            if (result.isDone()) {
+                context.cancel(null);
             }
+            return context;
         }
 
-        return aggregateResults(query.getQueryId(), query.getSql(), results);
+        void onAttemptComplete(QueryResult attemptResult) {
+            boolean last = remainingAttempts.decrementAndGet() == 0;
+            if ((attemptResult.getStatus() != QueryStatus.FAILED
+                    && attemptResult.getStatus() != QueryStatus.DEADLINE_EXCEEDED) || last) {
+                result.complete(attemptResult);
+            }
+        }
+
+        void skipAttempt() {
+            remainingAttempts.decrementAndGet();
+        }
     }
 
-    private QueryResult aggregateResults(String queryId, String sqlQuery, List<QueryResult> results) {
+    /**
+     * Combines the workers' results: their rows concatenated, or their partial
+     * states merged by the aggregation plan (null = none)
+     */
+    private QueryResult aggregateResults(String queryId, String sqlQuery, long catalogVersion,
+            List<QueryResult> results, AggregationPlan aggregation) {
         long totalExecutionTime = 0;
         int totalRows = 0;
         List<com.distributed.sql.common.proto.QueryProto.Row> allRows = new ArrayList<>();
+        List<String> columns = List.of();
+        Map<String, RuntimeFilterStats> filterStats = new LinkedHashMap<>();
+        int spilledRuns = 0;
 
         for (QueryResult result : results) {
             totalExecutionTime = Math.max(totalExecutionTime, result.getExecutionTimeMs());
+            spilledRuns += result.getSpilledRuns();
             totalRows += result.getRowsReturned();
             allRows.addAll(result.getResultsList());
+            if (columns.isEmpty()) {
+                columns = result.getColumnsList();
+            }
+            // Sum each runtime filter's counts over the workers that applied it
+            for (RuntimeFilterStats stats : result.getRuntimeFilterStatsList()) {
+                filterStats.merge(stats.getFilterId(), stats, (a, b) -> a.toBuilder()
+                        .setRowsChecked(a.getRowsChecked() + b.getRowsChecked())
+                        .setRowsPruned(a.getRowsPruned() + b.getRowsPruned())
+                        .build());
+            }
         }
 
-        return QueryResult.newBuilder()
+        QueryResult.Builder result = QueryResult.newBuilder();
+        if (aggregation != null) {
+            result.mergeFrom(aggregation.merge(results));
+        } else {
+            result.setRowsReturned(totalRows)
+                    .addAllResults(allRows)
+                    .addAllColumns(columns);
+        }
+
+        return result
                 .setQueryId(queryId)
                 .setSqlQuery(sqlQuery)
                 .setExecutionTimeMs(totalExecutionTime)
-                .setRowsReturned(totalRows)
-                .addAllResults(allRows)
+                .addAllRuntimeFilterStats(filterStats.values())
+                .setSpilledRuns(spilledRuns)
                 .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(catalogVersion)
                 .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
                         .setSeconds(System.currentTimeMillis() / 1000)
                         .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
@@ -180,6 +692,33 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
                 .build();
     }
 
+    /**
+     * Adds the shards each runtime filter pruned at planning time to the
+     * filter's stats, including filters that left no worker to report rows
+     */
+    private QueryResult withShardsPruned(QueryResult result, QueryPlan plan) {
+        Map<String, RuntimeFilterStats> stats = new LinkedHashMap<>();
+        for (RuntimeFilter filter : plan.getRuntimeFilters()) {
+            stats.put(filter.getFilterId(), RuntimeFilterStats.newBuilder()
+                    .setFilterId(filter.getFilterId())
+                    .setColumn(filter.getColumn())
+                    .build());
+        }
+        for (RuntimeFilterStats workerStats : result.getRuntimeFilterStatsList()) {
+            stats.put(workerStats.getFilterId(), workerStats);
+        }
+        for (Map.Entry<String, RuntimeFilterStats> entry : stats.entrySet()) {
+            entry.setValue(entry.getValue().toBuilder()
+                    .setShardsPruned(plan.getShardsPruned().getOrDefault(entry.getKey(), 0))
+                    .build());
+        }
+
+        return result.toBuilder()
+                .clearRuntimeFilterStats()
+                .addAllRuntimeFilterStats(stats.values())
+                .build();
+    }
+
     private QueryResult createEmptyResult(String queryId, String sqlQuery) {
         return QueryResult.newBuilder()
                 .setQueryId(queryId)
@@ -271,8 +810,14 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
 
             shardManager.registerWorker(workerId, address, port);
 
-            // Add worker client
-            workerClients.put(workerId, new WorkerClient(address, port));
+            // Add worker client, replacing any client restored for an older address
+            WorkerClient client = new WorkerClient(address, port);
+            WorkerClient previous = workerClients.put(workerId, client);
+            if (previous != null) {
+                previous.shutdown();
+            }
+            // A worker that missed a CREATE INDEX while down catches up now
+            executorService.submit(() -> sendIndexes(workerId, client));
 
             RegisterWorkerResponse response = RegisterWorkerResponse.newBuilder()
                     .setSuccess(true)
@@ -328,6 +873,249 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
         }
     }
 
+    private QueryResult executeWrite(Query query, long deadlineMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        long rowsAffected;
+        long writeSequence = globalIndexManager.beginWrite();
+        try {
+            // Index entries go first, so a lookup never misses a row that was written
+            globalIndexManager.maintain(query, deadlineMs);
+            rowsAffected = viewManager.write(query, deadlineMs,
+                    () -> transactionCoordinator.execute(query, deadlineMs));
+        } finally {
+            globalIndexManager.endWrite(writeSequence);
+        }
+
+        return QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setRowsReturned((int) rowsAffected)
+                .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(shardManager.getRoutingTable().getVersion())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Records a secondary index in the catalog, then builds it on every
+     * worker holding a shard of the table. Workers that miss it are sent it
+     * again when they register, and shard moves create it on the target.
+     */
+    private QueryResult createIndex(Query query, long deadlineMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        String tableName = query.getFromTables().get(0);
+        RoutingTable routing = shardManager.getRoutingTable();
+        if (!routing.getTableNames().contains(tableName)) {
+            throw new IllegalArgumentException("Unknown table: " + tableName);
+        }
+        IndexDefinition index = new IndexDefinition(query.getIndexName(), tableName, query.getIndexColumns());
+        if (!shardManager.createIndex(index)) {
+            AppLogger.info("Index {} already exists, making sure every worker has it", index.getName());
+        }
+
+        Map<String, CompletableFuture<CreateIndexResponse>> futures = new LinkedHashMap<>();
+        for (ShardInfo shard : routing.getShards(tableName)) {
+            for (String workerId : shard.getReplicaWorkerIds()) {
+                WorkerClient client = workerClients.get(workerId);
+                if (client != null && !futures.containsKey(workerId)) {
+                    futures.put(workerId, CompletableFuture.supplyAsync(() -> client.createIndex(tableName,
+                            index.getName(), index.getColumns()), executorService));
+                }
+            }
+        }
+
+        List<String> failedWorkers = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<CreateIndexResponse>> entry : futures.entrySet()) {
+            CreateIndexResponse response;
+            try {
+                long remainingMs = Math.max(0, deadlineMs - System.currentTimeMillis());
+                response = entry.getValue().get(remainingMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                response = null;
+            }
+            if (response == null || !response.getSuccess()) {
+                failedWorkers.add(entry.getKey());
+            }
+        }
+        if (!failedWorkers.isEmpty()) {
+            throw new IllegalStateException("Index " + index.getName() + " was recorded but not built on workers "
+                    + failedWorkers);
+        }
+
+        return QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setRowsReturned(0)
+                .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(shardManager.getRoutingTable().getVersion())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Records a global index and builds its table from the rows of the base
+     * table. Returns the number of index entries written.
+     */
+    private QueryResult createGlobalIndex(Query query, long deadlineMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        String tableName = query.getFromTables().get(0);
+        if (!shardManager.getRoutingTable().getTableNames().contains(tableName)) {
+            throw new IllegalArgumentException("Unknown table: " + tableName);
+        }
+        long entries = globalIndexManager.create(new IndexDefinition(query.getIndexName(), tableName,
+                query.getIndexColumns(), true, false), deadlineMs);
+
+        return QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setRowsReturned((int) entries)
+                .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(shardManager.getRoutingTable().getVersion())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Records a materialized view and builds it from its table. Returns the
+     * number of partial aggregates it holds.
+     */
+    private QueryResult createMaterializedView(Query query, long deadlineMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        ViewDefinition definition = ViewDefinition.parse(query.getViewName(), query.getViewQuery().getSql());
+        int partials = viewManager.create(definition, deadlineMs);
+
+        return QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setRowsReturned(partials)
+                .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(shardManager.getRoutingTable().getVersion())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Creates every catalog index on a worker, and the tables of the global
+     * indexes it holds shards of; they are no-ops where they exist
+     */
+    private void sendIndexes(String workerId, WorkerClient client) {
+        globalIndexManager.createTables(workerId, client);
+        RoutingTable routing = shardManager.getRoutingTable();
+        for (String tableName : routing.getTableNames()) {
+            for (IndexDefinition index : routing.getIndexes(tableName)) {
+                if (index.isGlobal()) {
+                    continue;
+                }
+                CreateIndexResponse response = client.createIndex(tableName, index.getName(), index.getColumns());
+                if (response == null || !response.getSuccess()) {
+                    AppLogger.warn("Could not create index {} on worker {}", index.getName(), workerId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Client-streaming bulk ingest. Each message carries a batch of rows that is
+     * routed and buffered per worker; the response is sent once every batch has
+     * been written.
+     */
+    @Override
+    public StreamObserver<BulkLoadRequest> bulkLoad(StreamObserver<BulkLoadResponse> responseObserver) {
+        return new StreamObserver<BulkLoadRequest>() {
+            private BulkLoader loader;
+            private long writeSequence;
+            private String error;
+
+            @Override
+            public void onNext(BulkLoadRequest request) {
+                if (error != null) {
+                    return;
+                }
+
+                try {
+                    if (loader == null) {
+                        viewManager.beginLoad(request.getTableName());
+                        try {
+                            loader = new BulkLoader(shardManager, workerClients, ingestExecutor,
+                                    request.getTableName(), request.getColumnsList(), true);
+                        } finally {
+                            // Without a loader nothing ends the load, and the views would never be rebuilt
+                            if (loader == null) {
+                                viewManager.endLoad(request.getTableName());
+                            }
+                        }
+                        // Only once the loader exists, so a rejected load never holds the sequence
+                        writeSequence = globalIndexManager.beginWrite();
+                        AppLogger.info("Started bulk load into {}", request.getTableName());
+                    }
+                    loader.addRows(request.getRowsList());
+
+                } catch (Exception e) {
+                    AppLogger.error("Error during bulk load", e);
+                    error = e.getMessage();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                AppLogger.warn("Bulk load cancelled by client: {}", t.getMessage());
+                if (loader != null) {
+                    loader.abandon();
+                    globalIndexManager.endWrite(writeSequence);
+                    viewManager.endLoad(loader.getTableName());
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                BulkLoadResponse.Builder response = BulkLoadResponse.newBuilder();
+                try {
+                    if (error != null) {
+                        throw new IllegalStateException(error);
+                    }
+                    if (loader == null) {
+                        throw new IllegalArgumentException("Bulk load contained no rows");
+                    }
+
+                    response.setSuccess(true)
+                            .setRowsLoaded(loader.finish())
+                            .setRowsRejected(loader.getRowsRejected())
+                            .setElapsedMs(loader.getElapsedMs())
+                            .setMessage("Bulk load completed");
+
+                } catch (Exception e) {
+                    AppLogger.error("Bulk load failed", e);
+                    response.setSuccess(false)
+                            .setMessage("Error: " + e.getMessage());
+                } finally {
+                    if (loader != null) {
+                        globalIndexManager.endWrite(writeSequence);
+                        viewManager.endLoad(loader.getTableName());
+                    }
+                }
+
+                responseObserver.onNext(response.build());
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
     private double getCpuUsage() {
         // Simple CPU usage simulation
         return Math.random() * 100;
@@ -340,6 +1128,10 @@ public class CoordinatorServiceImpl extends CoordinatorServiceGrpc.CoordinatorSe
 
     public void shutdown() {
         executorService.shutdown();
+        hedgeScheduler.shutdown();
+        ingestExecutor.shutdown();
+        shardRebalancer.shutdown();
+        transactionCoordinator.shutdown();
         for (WorkerClient client : workerClients.values()) {
             client.shutdown();
         }
@@ -0,0 +1,358 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Operator;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.QueryType;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.SQLParser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds and maintains global secondary indexes and routes point lookups
+ * through them. A global index (see {@link IndexDefinition}) maps each value
+ * of a column that is not the shard key to the shard keys of the rows holding
+ * it, so a lookup on that column reads one index shard and then only the
+ * shards owning those keys, instead of every shard of the table.
+ *
+ * Entries are written, idempotently, before the write they cover, and are
+ * never removed: an index may name keys that no longer hold a value, but
+ * never misses one that does. Since the query still filters on the value, a
+ * stale entry costs a wasted read, not a wrong result.
+ */
+public class GlobalIndexManager {
+
+    // First column of an index table, unique per value and shard key
+    static final String ENTRY_KEY_COLUMN = "index_entry";
+    private static final String VALUE_INDEX_SUFFIX = "_values";
+    private static final long WRITE_DRAIN_POLL_MS = 10;
+
+    private final ShardManager shardManager;
+    private final Map<String, WorkerClient> workerClients;
+    private final ClusterReader reader;
+    private final ExecutorService executor;
+    // Writes in progress by sequence number, so a build can wait for those that predate its index
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final ConcurrentSkipListSet<Long> activeWrites = new ConcurrentSkipListSet<>();
+
+    public GlobalIndexManager(ShardManager shardManager, Map<String, WorkerClient> workerClients,
+            QueryPlanner queryPlanner, SQLParser sqlParser, ExecutorService executor) {
+        this.shardManager = shardManager;
+        this.workerClients = workerClients;
+        this.reader = new ClusterReader(workerClients, queryPlanner, sqlParser, executor);
+        this.executor = executor;
+    }
+
+    /**
+     * Records a global index, creates its table on the workers and fills it
+     * from the table's rows, then lets lookups use it. Running it again for
+     * an index that is not ready yet resumes the build. Returns the number of
+     * entries written.
+     */
+    public long create(IndexDefinition definition, long deadlineMs) throws Exception {
+        IndexDefinition index = shardManager.createGlobalIndex(definition);
+        RoutingTable routing = shardManager.getRoutingTable();
+
+        Set<String> workerIds = new LinkedHashSet<>();
+        for (ShardInfo shard : routing.getShards(index.getName())) {
+            workerIds.addAll(shard.getReplicaWorkerIds());
+        }
+        List<String> failedWorkers = new ArrayList<>();
+        for (String workerId : workerIds) {
+            WorkerClient client = workerClients.get(workerId);
+            if (client == null || !createTable(client, index, routing)) {
+                failedWorkers.add(workerId);
+            }
+        }
+        if (!failedWorkers.isEmpty()) {
+            throw new IllegalStateException("Index " + index.getName() + " was recorded but its table could not "
+                    + "be created on workers " + failedWorkers);
+        }
+        if (index.isReady()) {
+            return 0;
+        }
+
+        // Writes from here on add entries; those already running may not, so wait them out
+        awaitWritesBefore(writeSequence.get(), deadlineMs);
+
+        String shardKeyColumn = routing.getShardKeyColumn(index.getTableName());
+        QueryResult rows = reader.read("SELECT " + shardKeyColumn + ", " + index.getLeadingColumn() + " FROM "
+                + index.getTableName(), deadlineMs);
+        int keyIndex = ClusterReader.columnIndex(rows, shardKeyColumn);
+        int valueIndex = ClusterReader.columnIndex(rows, index.getLeadingColumn());
+        List<Row> entries = new ArrayList<>();
+        for (Row row : rows.getResultsList()) {
+            Row entry = entry(BulkLoader.isNull(row, valueIndex) ? null : row.getValues(valueIndex),
+                    BulkLoader.isNull(row, keyIndex) ? null : row.getValues(keyIndex));
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        long written = write(index, shardKeyColumn, entries);
+
+        shardManager.markIndexReady(index);
+        AppLogger.info("Built global index {} with {} entries", index.getName(), written);
+        return written;
+    }
+
+    /**
+     * Creates the tables of the global indexes that have shards on a worker,
+     * e.g. when it registers
+     */
+    public void createTables(String workerId, WorkerClient client) {
+        RoutingTable routing = shardManager.getRoutingTable();
+        for (String tableName : routing.getTableNames()) {
+            for (IndexDefinition index : globalIndexes(routing, tableName)) {
+                boolean holdsShard = routing.getShards(index.getName()).stream()
+                        .anyMatch(shard -> shard.getReplicaWorkerIds().contains(workerId));
+                if (holdsShard && !createTable(client, index, routing)) {
+                    AppLogger.warn("Could not create table of global index {} on worker {}",
+                            index.getName(), workerId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a write in progress; pass the result to {@link #endWrite}
+     */
+    public long beginWrite() {
+        long sequence = writeSequence.incrementAndGet();
+        activeWrites.add(sequence);
+        return sequence;
+    }
+
+    public void endWrite(long sequence) {
+        activeWrites.remove(sequence);
+    }
+
+    /**
+     * Writes the global index entries of the rows an INSERT adds, or of the
+     * rows whose indexed column an UPDATE sets. Call it before running the
+     * write, inside {@link #beginWrite}.
+     */
+    public void maintain(Query query, long deadlineMs) throws Exception {
+        if (!query.isInsert() && query.getQueryType() != QueryType.UPDATE) {
+            return;
+        }
+        String tableName = query.getFromTables().get(0);
+        RoutingTable routing = shardManager.getRoutingTable();
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        for (IndexDefinition index : globalIndexes(routing, tableName)) {
+            List<Row> entries = query.isInsert()
+                    ? insertEntries(query, index, shardKeyColumn)
+                    : updateEntries(query, index, shardKeyColumn, deadlineMs);
+            if (!entries.isEmpty()) {
+                write(index, shardKeyColumn, entries);
+            }
+        }
+    }
+
+    /**
+     * Looks up the shard keys of a point lookup on a globally indexed column
+     * and returns a runtime filter holding them on the table's shard key, so
+     * the plan reads only their shards. Returns an empty list if no index
+     * applies, or if the lookup fails, leaving the query to read every shard.
+     */
+    public List<RuntimeFilter> route(Query query, long deadlineMs) {
+        RoutingTable routing = shardManager.getRoutingTable();
+        Condition condition = QueryPlanner.getGlobalIndexCondition(routing, query);
+        if (condition == null) {
+            return List.of();
+        }
+
+        String tableName = query.getFromTables().get(0);
+        String column = QueryPlanner.unqualified(tableName, condition.getColumn());
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        IndexDefinition index = routing.getGlobalIndexOn(tableName, column);
+        try {
+            QueryResult entries = reader.read("SELECT " + shardKeyColumn + " FROM " + index.getName() + " WHERE "
+                    + index.getLeadingColumn() + " = " + JoinExecutor.quote(condition.getValue()), deadlineMs);
+            Set<String> keys = new LinkedHashSet<>();
+            int keyIndex = ClusterReader.columnIndex(entries, shardKeyColumn);
+            for (Row row : entries.getResultsList()) {
+                if (!BulkLoader.isNull(row, keyIndex)) {
+                    keys.add(row.getValues(keyIndex));
+                }
+            }
+            AppLogger.info("Global index {} routed {} = {} to {} keys for query {}", index.getName(), column,
+                    condition.getValue(), keys.size(), query.getQueryId());
+
+            String filterId = "gi_" + index.getName();
+            // No key means no row can match, and a filter without keys prunes every shard
+            return List.of(keys.isEmpty()
+                    ? RuntimeFilter.newBuilder().setFilterId(filterId).setColumn(shardKeyColumn).build()
+                    : JoinExecutor.buildRuntimeFilter(filterId, shardKeyColumn, keys));
+
+        } catch (Exception e) {
+            AppLogger.warn("Lookup in global index {} failed, reading every shard: {}", index.getName(),
+                    e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Returns the columns of a global index's table: the entry key, the
+     * indexed column (its shard key) and the base table's shard key
+     */
+    static List<String> columns(IndexDefinition index, String shardKeyColumn) {
+        return List.of(ENTRY_KEY_COLUMN, index.getLeadingColumn(), shardKeyColumn);
+    }
+
+    /**
+     * Builds the index row of a base row, or returns null if either value is NULL
+     */
+    static Row entry(String value, String shardKey) {
+        if (value == null || shardKey == null) {
+            return null;
+        }
+        // The length prefix keeps distinct pairs from sharing an entry key
+        return BulkLoader.toRow(List.of(value.length() + ":" + value + shardKey, value, shardKey));
+    }
+
+    static List<IndexDefinition> globalIndexes(RoutingTable routing, String tableName) {
+        List<IndexDefinition> indexes = new ArrayList<>();
+        for (IndexDefinition index : routing.getIndexes(tableName)) {
+            if (index.isGlobal()) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the value a SET assignment stores, or null for NULL. Only
+     * literals are accepted, since the index has to know the value.
+     */
+    static String literal(String expression) {
+        String text = expression.trim();
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            return text.substring(1, text.length() - 1).replace("''", "'");
+        }
+        if (text.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        if (text.matches("-?\\d+(\\.\\d+)?")) {
+            return text;
+        }
+        throw new IllegalArgumentException("A globally indexed column can only be set to a literal, not " + text);
+    }
+
+    private static List<Row> insertEntries(Query query, IndexDefinition index, String shardKeyColumn) {
+        int keyIndex = indexOfIgnoreCase(query.getInsertColumns(), shardKeyColumn);
+        int valueIndex = indexOfIgnoreCase(query.getInsertColumns(), index.getLeadingColumn());
+        List<Row> entries = new ArrayList<>();
+        if (keyIndex < 0 || valueIndex < 0) {
+            return entries;
+        }
+        for (List<String> values : query.getInsertRows()) {
+            Row entry = entry(values.get(valueIndex), values.get(keyIndex));
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the keys of the rows an UPDATE setting the indexed column will
+     * change, unless the WHERE clause names the key, and pairs them with the
+     * new value. A row inserted between the read and the update is not
+     * covered, so updates of indexed columns should name their rows.
+     */
+    private List<Row> updateEntries(Query query, IndexDefinition index, String shardKeyColumn, long deadlineMs)
+            throws Exception {
+        String assigned = null;
+        boolean assigns = false;
+        for (Map.Entry<String, String> assignment : query.getUpdateValues().entrySet()) {
+            if (assignment.getKey().equalsIgnoreCase(index.getLeadingColumn())) {
+                assigned = literal(assignment.getValue());
+                assigns = true;
+            }
+        }
+        if (!assigns || assigned == null) {
+            return List.of();
+        }
+        if (query.isDisjunctive()) {
+            throw new IllegalArgumentException("Updating globally indexed column " + index.getLeadingColumn()
+                    + " with OR in the WHERE clause is not supported");
+        }
+
+        String tableName = query.getFromTables().get(0);
+        Set<String> keys = new LinkedHashSet<>();
+        for (Condition condition : query.getWhereConditions()) {
+            if (condition.getOperator() == Operator.EQUALS
+                    && QueryPlanner.unqualified(tableName, condition.getColumn()).equalsIgnoreCase(shardKeyColumn)) {
+                keys.add(condition.getValue());
+            }
+        }
+        if (keys.isEmpty()) {
+            StringBuilder sql = new StringBuilder("SELECT ").append(shardKeyColumn).append(" FROM ").append(tableName);
+            List<Condition> conditions = query.getWhereConditions();
+            for (int i = 0; i < conditions.size(); i++) {
+                sql.append(i == 0 ? " WHERE " : " AND ").append(JoinExecutor.toSql(conditions.get(i)));
+            }
+            QueryResult rows = reader.read(sql.toString(), deadlineMs);
+            int keyIndex = ClusterReader.columnIndex(rows, shardKeyColumn);
+            for (Row row : rows.getResultsList()) {
+                if (!BulkLoader.isNull(row, keyIndex)) {
+                    keys.add(row.getValues(keyIndex));
+                }
+            }
+        }
+
+        List<Row> entries = new ArrayList<>();
+        for (String key : keys) {
+            entries.add(entry(assigned, key));
+        }
+        return entries;
+    }
+
+    private long write(IndexDefinition index, String shardKeyColumn, List<Row> entries) throws Exception {
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, index.getName(),
+                columns(index, shardKeyColumn), false);
+        loader.addRows(entries);
+        return loader.finish();
+    }
+
+    /**
+     * Creates an index's table on a worker, with a local index on the value
+     * column so lookups do not scan it
+     */
+    private static boolean createTable(WorkerClient client, IndexDefinition index, RoutingTable routing) {
+        CreateTableResponse table = client.createTable(index.getName(),
+                columns(index, routing.getShardKeyColumn(index.getTableName())));
+        if (table == null || !table.getSuccess()) {
+            return false;
+        }
+        CreateIndexResponse values = client.createIndex(index.getName(), index.getName() + VALUE_INDEX_SUFFIX,
+                List.of(index.getLeadingColumn()));
+        return values != null && values.getSuccess();
+    }
+
+    private void awaitWritesBefore(long sequence, long deadlineMs) throws InterruptedException, TimeoutException {
+        Long oldest;
+        while ((oldest = activeWrites.ceiling(Long.MIN_VALUE)) != null && oldest <= sequence) {
+            if (System.currentTimeMillis() >= deadlineMs) {
+                throw new TimeoutException("Writes started before the index was recorded are still running");
+            }
+            Thread.sleep(WRITE_DRAIN_POLL_MS);
+        }
+    }
+
+    private static int indexOfIgnoreCase(List<String> values, String value) {
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i).equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
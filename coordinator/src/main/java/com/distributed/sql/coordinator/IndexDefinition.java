@@ -0,0 +1,75 @@
+package com.distributed.sql.coordinator;
+
+import java.util.List;
+
+/**
+ * A secondary index recorded in the shard catalog. Every worker holding a
+ * shard of a local index's table keeps the index over its own rows.
+ *
+ * A global index is instead a table of its own, named after the index and
+ * hash-sharded on the indexed column, with one row per value and base row
+ * pointing at the base row's shard key. Lookups use it only once it is
+ * ready, i.e. built over the rows that existed when it was created.
+ */
+public final class IndexDefinition {
+
+    private final String name;
+    private final String tableName;
+    private final List<String> columns;
+    private final boolean global;
+    private final boolean ready;
+
+    public IndexDefinition(String name, String tableName, List<String> columns) {
+        this(name, tableName, columns, false, true);
+    }
+
+    public IndexDefinition(String name, String tableName, List<String> columns, boolean global, boolean ready) {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("Index " + name + " has no columns");
+        }
+        if (global && columns.size() != 1) {
+            throw new IllegalArgumentException("Global index " + name + " must cover exactly one column");
+        }
+        this.name = name;
+        this.tableName = tableName;
+        this.columns = List.copyOf(columns);
+        this.global = global;
+        this.ready = ready;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the column lookups can use the index for
+     */
+    public String getLeadingColumn() {
+        return columns.get(0);
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public IndexDefinition asReady() {
+        return new IndexDefinition(name, tableName, columns, global, true);
+    }
+
+    @Override
+    public String toString() {
+        return (global ? "global " : "") + name + " ON " + tableName + " " + columns + (ready ? "" : " (building)");
+    }
+}
@@ -0,0 +1,382 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Join;
+import com.distributed.sql.common.models.JoinType;
+import com.distributed.sql.common.models.Operator;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.BloomFilter;
+import com.distributed.sql.common.utils.SQLParser;
+import com.google.protobuf.ByteString;
+
+import java.util.*;
+
+/**
+ * Executes a two-table inner equi-join as a hash join on the coordinator.
+ * The build side (the filtered table, or else the smaller one) is scanned
+ * first; its join keys become a runtime filter that is pushed to the workers
+ * scanning the probe side, so probe rows with no match are dropped during the
+ * scan instead of being shipped to the coordinator. When the probe side's
+ * join column is its shard key, the planner also uses the filter to skip
+ * probe shards that no build key can fall in.
+ */
+public class JoinExecutor {
+
+    // Build sides with at most this many distinct keys are sent as an exact key set
+    static final int EXACT_FILTER_MAX_KEYS = 1024;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * Scans one table across the workers, applying the given runtime filters
+     */
+    public interface TableScanner {
+        QueryResult scan(Query query, List<RuntimeFilter> runtimeFilters, long deadlineMs);
+    }
+
+    private final ShardManager shardManager;
+    private final SQLParser sqlParser;
+    private final TableScanner scanner;
+
+    public JoinExecutor(ShardManager shardManager, SQLParser sqlParser, TableScanner scanner) {
+        this.shardManager = shardManager;
+        this.sqlParser = sqlParser;
+        this.scanner = scanner;
+    }
+
+    public QueryResult execute(Query query, long deadlineMs) {
+        long startTime = System.currentTimeMillis();
+        if (query.getJoins().size() != 1 || query.getJoins().get(0).getJoinType() != JoinType.INNER) {
+            throw new IllegalArgumentException("Only a single INNER JOIN is supported");
+        }
+        if (query.isDisjunctive()) {
+            throw new IllegalArgumentException("OR in the WHERE clause of a join is not supported");
+        }
+
+        Join join = query.getJoins().get(0);
+        if (join.getLeftTable().equalsIgnoreCase(join.getRightTable())) {
+            throw new IllegalArgumentException("Self-joins are not supported");
+        }
+        List<Condition> unqualified = new ArrayList<>();
+        Map<String, List<Condition>> conditions = splitConditions(query, join, unqualified);
+        boolean leftIsBuild = chooseLeftAsBuild(join, conditions);
+        String buildTable = leftIsBuild ? join.getLeftTable() : join.getRightTable();
+        String buildColumn = leftIsBuild ? join.getLeftColumn() : join.getRightColumn();
+        String probeTable = leftIsBuild ? join.getRightTable() : join.getLeftTable();
+        String probeColumn = leftIsBuild ? join.getRightColumn() : join.getLeftColumn();
+
+        // Build side: scan the filtered rows and hash them on the join key
+        QueryResult build = scanner.scan(scanQuery(query, buildTable, conditions, "build"), List.of(), deadlineMs);
+        int buildKeyIndex = columnIndex(build.getColumnsList(), buildColumn, buildTable);
+        Map<String, List<Row>> hashTable = new HashMap<>();
+        for (Row row : build.getResultsList()) {
+            if (!BulkLoader.isNull(row, buildKeyIndex)) {
+                hashTable.computeIfAbsent(row.getValues(buildKeyIndex), k -> new ArrayList<>()).add(row);
+            }
+        }
+
+        QueryResult.Builder result = QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setStatus(QueryStatus.COMPLETED)
+                .setCatalogVersion(build.getCatalogVersion());
+
+        if (hashTable.isEmpty()) {
+            // An inner join with an empty build side is empty; skip the probe scan altogether
+            AppLogger.info("Build side {} of join {} is empty, skipping probe of {}",
+                    buildTable, query.getQueryId(), probeTable);
+            result.addAllColumns(outputColumns(query, join,
+                    leftIsBuild ? build.getColumnsList() : List.of(),
+                    leftIsBuild ? List.of() : build.getColumnsList()));
+            return finish(result, startTime);
+        }
+
+        // Probe side: workers drop rows whose key is not on the build side
+        RuntimeFilter filter = buildRuntimeFilter("rf_" + probeTable + "_" + probeColumn, probeColumn,
+                hashTable.keySet());
+        QueryResult probe = scanner.scan(scanQuery(query, probeTable, conditions, "probe"), List.of(filter),
+                deadlineMs);
+        List<String> leftColumns = leftIsBuild ? build.getColumnsList() : probe.getColumnsList();
+        List<String> rightColumns = leftIsBuild ? probe.getColumnsList() : build.getColumnsList();
+
+        // With every probe shard pruned no worker was asked, and there are no rows or columns to join
+        if (probe.getResultsCount() > 0) {
+            int probeKeyIndex = columnIndex(probe.getColumnsList(), probeColumn, probeTable);
+            int[] projection = projection(query, join, leftColumns, rightColumns);
+            // Which table a bare column belongs to is only known from the columns the scans returned
+            List<String> joinedColumns = qualifiedColumns(join, leftColumns, rightColumns);
+            int[] unqualifiedIndexes = new int[unqualified.size()];
+            for (int i = 0; i < unqualifiedIndexes.length; i++) {
+                unqualifiedIndexes[i] = resolveColumn(joinedColumns, unqualified.get(i).getColumn());
+            }
+
+            for (Row probeRow : probe.getResultsList()) {
+                if (BulkLoader.isNull(probeRow, probeKeyIndex)) {
+                    continue;
+                }
+                for (Row buildRow : hashTable.getOrDefault(probeRow.getValues(probeKeyIndex), List.of())) {
+                    List<String> joined = new ArrayList<>(leftColumns.size() + rightColumns.size());
+                    addValues(joined, leftIsBuild ? buildRow : probeRow);
+                    addValues(joined, leftIsBuild ? probeRow : buildRow);
+                    if (!matchesAll(unqualified, unqualifiedIndexes, joined)) {
+                        continue;
+                    }
+
+                    List<String> projected = new ArrayList<>(projection.length);
+                    for (int index : projection) {
+                        projected.add(joined.get(index));
+                    }
+                    result.addResults(BulkLoader.toRow(projected));
+                }
+            }
+        }
+
+        for (RuntimeFilterStats stats : probe.getRuntimeFilterStatsList()) {
+            AppLogger.info("Runtime filter {} on {}.{} pruned {} shards and {} of {} rows for query {}",
+                    stats.getFilterId(), probeTable, stats.getColumn(), stats.getShardsPruned(),
+                    stats.getRowsPruned(), stats.getRowsChecked(), query.getQueryId());
+        }
+
+        result.addAllColumns(outputColumns(query, join, leftColumns, rightColumns))
+                .addAllRuntimeFilterStats(probe.getRuntimeFilterStatsList())
+                .setCatalogVersion(Math.max(build.getCatalogVersion(), probe.getCatalogVersion()));
+        return finish(result, startTime);
+    }
+
+    /**
+     * Builds a filter that passes the given keys: the exact set when small,
+     * otherwise a Bloom filter, which may also pass a few keys it does not hold
+     */
+    static RuntimeFilter buildRuntimeFilter(String filterId, String column, Set<String> keys) {
+        RuntimeFilter.Builder filter = RuntimeFilter.newBuilder()
+                .setFilterId(filterId)
+                .setColumn(column);
+        setKeyBounds(filter, keys);
+
+        if (keys.size() <= EXACT_FILTER_MAX_KEYS) {
+            return filter.addAllKeys(keys).build();
+        }
+
+        BloomFilter bloomFilter = BloomFilter.create(keys.size(), BLOOM_FALSE_POSITIVE_RATE);
+        for (String key : keys) {
+            bloomFilter.put(key);
+        }
+        return filter.setBloomBits(ByteString.copyFrom(bloomFilter.toByteArray()))
+                .setBloomHashCount(bloomFilter.getHashCount())
+                .build();
+    }
+
+    /**
+     * Sets the min and max key, as integers if every key is one and as
+     * strings if none is. Mixed keys get no bounds, since the two orders
+     * disagree.
+     */
+    private static void setKeyBounds(RuntimeFilter.Builder filter, Set<String> keys) {
+        long integers = keys.stream().filter(ShardManager::isInteger).count();
+        Comparator<String> order;
+        if (integers == keys.size()) {
+            order = Comparator.comparingLong(Long::parseLong);
+        } else if (integers == 0) {
+            order = String::compareToIgnoreCase;
+        } else {
+            return;
+        }
+        filter.setMinKey(Collections.min(keys, order))
+                .setMaxKey(Collections.max(keys, order));
+    }
+
+    /**
+     * Assigns each WHERE condition to the table it names, to be pushed into
+     * that table's scan. Conditions on unqualified columns go to the given
+     * list instead: they are evaluated on the joined rows, where the column
+     * resolves against both tables' columns and is rejected if ambiguous.
+     */
+    private static Map<String, List<Condition>> splitConditions(Query query, Join join, List<Condition> unqualified) {
+        Map<String, List<Condition>> conditions = new HashMap<>();
+        conditions.put(join.getLeftTable(), new ArrayList<>());
+        conditions.put(join.getRightTable(), new ArrayList<>());
+
+        for (Condition condition : query.getWhereConditions()) {
+            String column = condition.getColumn();
+            int dot = column.indexOf('.');
+            if (dot < 0) {
+                unqualified.add(condition);
+                continue;
+            }
+            String table = column.substring(0, dot);
+            List<Condition> tableConditions = conditions.get(
+                    table.equalsIgnoreCase(join.getRightTable()) ? join.getRightTable() : join.getLeftTable());
+            tableConditions.add(new Condition(column.substring(dot + 1), condition.getOperator(),
+                    condition.getValue(), condition.getDataType()));
+        }
+        return conditions;
+    }
+
+    /**
+     * A filtered table makes the more selective build side; otherwise build
+     * from the table with fewer rows
+     */
+    private boolean chooseLeftAsBuild(Join join, Map<String, List<Condition>> conditions) {
+        boolean leftFiltered = !conditions.get(join.getLeftTable()).isEmpty();
+        boolean rightFiltered = !conditions.get(join.getRightTable()).isEmpty();
+        if (leftFiltered != rightFiltered) {
+            return leftFiltered;
+        }
+
+        RoutingTable routing = shardManager.getRoutingTable();
+        return estimateRows(routing, join.getLeftTable()) <= estimateRows(routing, join.getRightTable());
+    }
+
+    private static long estimateRows(RoutingTable routing, String tableName) {
+        long rows = 0;
+        for (ShardInfo shard : routing.getShards(tableName)) {
+            rows += shard.getRowCount();
+        }
+        return rows;
+    }
+
+    private Query scanQuery(Query query, String tableName, Map<String, List<Condition>> conditions, String side) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(tableName);
+        List<Condition> tableConditions = conditions.get(tableName);
+        for (int i = 0; i < tableConditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(toSql(tableConditions.get(i)));
+        }
+
+        Query scan = sqlParser.parse(sql.toString());
+        scan.setQueryId(query.getQueryId() + "_" + side);
+        return scan;
+    }
+
+    static String toSql(Condition condition) {
+        String value = condition.getValue();
+        switch (condition.getOperator()) {
+            case IN: {
+                StringJoiner values = new StringJoiner(", ", "(", ")");
+                for (String item : value.replaceAll("^\\(|\\)$", "").split(",")) {
+                    values.add(quote(item.trim()));
+                }
+                return condition.getColumn() + " IN " + values;
+            }
+            case LIKE:
+                return condition.getColumn() + " LIKE " + quote(value);
+            default:
+                return condition.getColumn() + " " + toSql(condition.getOperator()) + " " + quote(value);
+        }
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static String toSql(Operator operator) {
+        return switch (operator) {
+            case NOT_EQUALS -> "<>";
+            case GREATER_THAN -> ">";
+            case LESS_THAN -> "<";
+            case GREATER_THAN_EQUALS -> ">=";
+            case LESS_THAN_EQUALS -> "<=";
+            default -> "=";
+        };
+    }
+
+    /**
+     * Maps each selected column to its index in a joined row (left table's
+     * columns, then the right table's)
+     */
+    private static int[] projection(Query query, Join join, List<String> leftColumns, List<String> rightColumns) {
+        List<String> joinedColumns = qualifiedColumns(join, leftColumns, rightColumns);
+        if (isSelectAll(query)) {
+            int[] all = new int[joinedColumns.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] projection = new int[query.getSelectColumns().size()];
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = resolveColumn(joinedColumns, query.getSelectColumns().get(i));
+        }
+        return projection;
+    }
+
+    private static List<String> outputColumns(Query query, Join join, List<String> leftColumns,
+            List<String> rightColumns) {
+        return isSelectAll(query) ? qualifiedColumns(join, leftColumns, rightColumns) : query.getSelectColumns();
+    }
+
+    private static List<String> qualifiedColumns(Join join, List<String> leftColumns, List<String> rightColumns) {
+        List<String> columns = new ArrayList<>(leftColumns.size() + rightColumns.size());
+        for (String column : leftColumns) {
+            columns.add(join.getLeftTable() + "." + column);
+        }
+        for (String column : rightColumns) {
+            columns.add(join.getRightTable() + "." + column);
+        }
+        return columns;
+    }
+
+    private static boolean isSelectAll(Query query) {
+        return query.getSelectColumns().isEmpty() || query.getSelectColumns().contains("*");
+    }
+
+    /**
+     * Finds a "table.column" or, if unambiguous, a bare "column" among the
+     * joined columns
+     */
+    private static int resolveColumn(List<String> joinedColumns, String column) {
+        int match = -1;
+        for (int i = 0; i < joinedColumns.size(); i++) {
+            String candidate = joinedColumns.get(i);
+            boolean matches = column.indexOf('.') >= 0
+                    ? candidate.equalsIgnoreCase(column)
+                    : candidate.substring(candidate.indexOf('.') + 1).equalsIgnoreCase(column);
+            if (matches) {
+                if (match >= 0) {
+                    throw new IllegalArgumentException("Column " + column + " is ambiguous");
+                }
+                match = i;
+            }
+        }
+        if (match < 0) {
+            throw new IllegalArgumentException("Unknown column " + column);
+        }
+        return match;
+    }
+
+    private static int columnIndex(List<String> columns, String column, String tableName) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Join column " + column + " not returned by scan of " + tableName);
+    }
+
+    private static boolean matchesAll(List<Condition> conditions, int[] indexes, List<String> joined) {
+        for (int i = 0; i < indexes.length; i++) {
+            if (!ViewDefinition.matches(conditions.get(i), joined.get(indexes[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addValues(List<String> joined, Row row) {
+        for (int i = 0; i < row.getValuesCount(); i++) {
+            joined.add(BulkLoader.isNull(row, i) ? null : row.getValues(i));
+        }
+    }
+
+    private static QueryResult finish(QueryResult.Builder result, long startTime) {
+        return result.setRowsReturned(result.getResultsCount())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,252 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+
+/**
+ * The contents of a {@link ViewDefinition}: for each shard of the base
+ * table, the partial aggregates of each group of its rows. A write is applied
+ * as a delta to the partials of the shards it touched, and a query merges the
+ * partials of every shard, so answering it costs the number of groups, not
+ * the number of rows.
+ *
+ * A view that is not ready holds nothing and answers nothing; {@link
+ * #install} makes it ready with a freshly built state, unless it was
+ * invalidated since the build started.
+ */
+class MaterializedView {
+
+    private final ViewDefinition definition;
+    // Shard id -> group values (in GROUP BY order) -> partial aggregates
+    private Map<String, Map<List<String>, PartialAggregate>> shards = new HashMap<>();
+    private boolean ready;
+    private long generation;
+
+    MaterializedView(ViewDefinition definition) {
+        this.definition = definition;
+    }
+
+    ViewDefinition getDefinition() {
+        return definition;
+    }
+
+    synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Drops the contents, e.g. after a write whose effect is unknown. Returns
+     * the generation a rebuild must pass to {@link #install}.
+     */
+    synchronized long invalidate() {
+        shards = new HashMap<>();
+        ready = false;
+        return ++generation;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Makes a built state the view's contents. Returns false, dropping it, if
+     * the view was invalidated after the build started.
+     */
+    synchronized boolean install(long buildGeneration, Map<String, Map<List<String>, PartialAggregate>> built) {
+        if (buildGeneration != generation) {
+            return false;
+        }
+        shards = built;
+        ready = true;
+        return true;
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) a row of a shard, given its values
+     * by lower-case column, if the view is ready and counts the row
+     */
+    synchronized void apply(String shardId, Map<String, String> row, int sign) {
+        if (ready && definition.includes(row)) {
+            accumulate(definition, shards, shardId, row, sign);
+        }
+    }
+
+    synchronized int getGroupCount() {
+        int groups = 0;
+        for (Map<List<String>, PartialAggregate> shardGroups : shards.values()) {
+            groups += shardGroups.size();
+        }
+        return groups;
+    }
+
+    /**
+     * Adds a row the view counts to a state being built or maintained
+     */
+    static void accumulate(ViewDefinition definition, Map<String, Map<List<String>, PartialAggregate>> state,
+            String shardId, Map<String, String> row, int sign) {
+        List<String> group = new ArrayList<>(definition.getGroupColumns().size());
+        for (String column : definition.getGroupColumns()) {
+            group.add(row.get(column));
+        }
+        Map<List<String>, PartialAggregate> shardGroups = state.computeIfAbsent(shardId, k -> new HashMap<>());
+        PartialAggregate partial = shardGroups.computeIfAbsent(group,
+                k -> new PartialAggregate(definition.getMeasuredColumns().size()));
+        partial.add(definition.getMeasuredColumns(), row, sign);
+        if (partial.rows <= 0) {
+            shardGroups.remove(group);
+        }
+    }
+
+    /**
+     * Answers a query the view matches (see {@link QueryPlanner#viewMatches})
+     * by merging the shards' partials into the query's groups
+     */
+    synchronized QueryResult answer(Query query) {
+        String tableName = definition.getTableName();
+        List<String> groupColumns = definition.getGroupColumns();
+        List<String> queryGroupColumns = new ArrayList<>();
+        List<Integer> groupPositions = new ArrayList<>();
+        for (String column : query.getGroupByColumns()) {
+            queryGroupColumns.add(QueryPlanner.unqualified(tableName, column).toLowerCase());
+            groupPositions.add(groupColumns.indexOf(queryGroupColumns.get(queryGroupColumns.size() - 1)));
+        }
+
+        // Conditions the view does not apply itself are on its GROUP BY columns
+        Map<Integer, List<Condition>> residual = new HashMap<>();
+        for (Condition condition : definition.residualConditions(query)) {
+            String column = QueryPlanner.unqualified(tableName, condition.getColumn()).toLowerCase();
+            residual.computeIfAbsent(groupColumns.indexOf(column), k -> new ArrayList<>()).add(condition);
+        }
+
+        Map<List<String>, PartialAggregate> merged = new TreeMap<>(MaterializedView::compareGroups);
+        for (Map<List<String>, PartialAggregate> shardGroups : shards.values()) {
+            for (Map.Entry<List<String>, PartialAggregate> entry : shardGroups.entrySet()) {
+                if (!matches(residual, entry.getKey())) {
+                    continue;
+                }
+                List<String> group = new ArrayList<>(groupPositions.size());
+                for (int position : groupPositions) {
+                    group.add(entry.getKey().get(position));
+                }
+                merged.computeIfAbsent(group, k -> new PartialAggregate(definition.getMeasuredColumns().size()))
+                        .merge(entry.getValue());
+            }
+        }
+        // Without GROUP BY an aggregate returns one row, even over no rows
+        if (groupPositions.isEmpty() && merged.isEmpty()) {
+            merged.put(List.of(), new PartialAggregate(definition.getMeasuredColumns().size()));
+        }
+
+        QueryResult.Builder result = QueryResult.newBuilder();
+        for (String item : query.getSelectColumns()) {
+            result.addColumns(ViewAggregate.label(item));
+        }
+        for (Map.Entry<List<String>, PartialAggregate> entry : merged.entrySet()) {
+            List<String> values = new ArrayList<>();
+            for (String item : query.getSelectColumns()) {
+                String expression = ViewAggregate.expression(item);
+                ViewAggregate aggregate = ViewAggregate.parse(tableName, expression);
+                if (aggregate == null) {
+                    values.add(entry.getKey().get(queryGroupColumns.indexOf(
+                            QueryPlanner.unqualified(tableName, expression).toLowerCase())));
+                } else {
+                    values.add(entry.getValue().render(aggregate, aggregate.isCountAll() ? -1
+                            : definition.getMeasuredColumns().indexOf(aggregate.column)));
+                }
+            }
+            result.addResults(BulkLoader.toRow(values));
+        }
+        return result.setRowsReturned(result.getResultsCount()).build();
+    }
+
+    private static boolean matches(Map<Integer, List<Condition>> residual, List<String> group) {
+        for (Map.Entry<Integer, List<Condition>> entry : residual.entrySet()) {
+            for (Condition condition : entry.getValue()) {
+                if (!ViewDefinition.matches(condition, group.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int compareGroups(List<String> left, List<String> right) {
+        for (int i = 0; i < left.size(); i++) {
+            int comparison = ViewDefinition.compareValues(left.get(i), right.get(i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Partial aggregates of one group: its row count and, per measured
+     * column, the count of values, the count of numeric values and their
+     * exact sum, so deltas never accumulate rounding errors
+     */
+    static final class PartialAggregate {
+        long rows;
+        final long[] counts;
+        final long[] numericCounts;
+        final BigDecimal[] sums;
+
+        PartialAggregate(int measuredColumns) {
+            counts = new long[measuredColumns];
+            numericCounts = new long[measuredColumns];
+            sums = new BigDecimal[measuredColumns];
+            Arrays.fill(sums, BigDecimal.ZERO);
+        }
+
+        void add(List<String> measuredColumns, Map<String, String> row, int sign) {
+            rows += sign;
+            for (int i = 0; i < counts.length; i++) {
+                String value = row.get(measuredColumns.get(i));
+                if (value == null) {
+                    continue;
+                }
+                counts[i] += sign;
+                try {
+                    BigDecimal number = new BigDecimal(value.trim());
+                    sums[i] = sign > 0 ? sums[i].add(number) : sums[i].subtract(number);
+                    numericCounts[i] += sign;
+                } catch (NumberFormatException e) {
+                    // Counted, but not summed
+                }
+            }
+        }
+
+        void merge(PartialAggregate other) {
+            rows += other.rows;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+                numericCounts[i] += other.numericCounts[i];
+                sums[i] = sums[i].add(other.sums[i]);
+            }
+        }
+
+        /**
+         * Returns an aggregate's value, or null for SUM or AVG over no numbers
+         */
+        String render(ViewAggregate aggregate, int column) {
+            if (aggregate.isCountAll()) {
+                return Long.toString(rows);
+            }
+            return switch (aggregate.function) {
+                case "COUNT" -> Long.toString(counts[column]);
+                case "SUM" -> numericCounts[column] == 0 ? null : plain(sums[column]);
+                default -> numericCounts[column] == 0 ? null
+                        : plain(sums[column].divide(BigDecimal.valueOf(numericCounts[column]), MathContext.DECIMAL64));
+            };
+        }
+
+        private static String plain(BigDecimal value) {
+            return value.signum() == 0 ? "0" : value.stripTrailingZeros().toPlainString();
+        }
+    }
+}
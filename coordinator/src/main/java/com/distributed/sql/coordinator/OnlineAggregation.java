@@ -0,0 +1,100 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progressively refined result of an aggregation. Keeps the latest partial
+ * states each worker streamed, each over a random sample of its rows, and
+ * merges them through the plan, so every refinement estimates the final
+ * values from all the rows processed so far and narrows its confidence
+ * intervals as more arrive. Workers that have not reported yet are left out
+ * of the estimates until they do; the progress says how many have. A failed
+ * worker's rows are never seen, so once one fails the result cannot complete
+ * and no more refinements are made.
+ */
+final class OnlineAggregation {
+
+    private final AggregationPlan plan;
+    private final int workerCount;
+    private final long refineIntervalMs;
+    private final Map<String, QueryResult> latest = new LinkedHashMap<>();
+    private final Set<String> done = new HashSet<>();
+    private final Set<String> failed = new LinkedHashSet<>();
+    private long lastRefinedMs;
+
+    OnlineAggregation(AggregationPlan plan, int workerCount, long refineIntervalMs) {
+        this.plan = plan;
+        this.workerCount = workerCount;
+        this.refineIntervalMs = refineIntervalMs;
+    }
+
+    /**
+     * Takes the states a worker streamed over the rows it processed so far
+     */
+    synchronized void update(String workerId, QueryResult result) {
+        if (!done.contains(workerId)) {
+            latest.put(workerId, result);
+        }
+    }
+
+    /**
+     * Takes a worker's final states, or null if it failed
+     */
+    synchronized void complete(String workerId, QueryResult result) {
+        done.add(workerId);
+        if (result != null) {
+            latest.put(workerId, result);
+        } else {
+            latest.remove(workerId);
+            failed.add(workerId);
+        }
+    }
+
+    synchronized boolean isComplete() {
+        return done.size() >= workerCount;
+    }
+
+    synchronized Set<String> getFailedWorkers() {
+        return new LinkedHashSet<>(failed);
+    }
+
+    /**
+     * Returns the current estimate if the refine interval has passed since
+     * the last one and no worker has failed, else null
+     */
+    synchronized QueryResult refine(long nowMs) {
+        if (!failed.isEmpty() || nowMs - lastRefinedMs < refineIntervalMs) {
+            return null;
+        }
+        lastRefinedMs = nowMs;
+        return snapshot();
+    }
+
+    /**
+     * Merges the latest states of every worker into the current estimate
+     */
+    synchronized QueryResult snapshot() {
+        long rowsProcessed = 0;
+        long rowsTotal = 0;
+        for (QueryResult result : latest.values()) {
+            rowsProcessed += result.getProgress().getRowsProcessed();
+            rowsTotal += result.getProgress().getRowsTotal();
+        }
+        return plan.merge(new ArrayList<>(latest.values())).toBuilder()
+                .setStatus(isComplete() && failed.isEmpty() ? QueryStatus.COMPLETED : QueryStatus.EXECUTING)
+                .setProgress(QueryProgress.newBuilder()
+                        .setRowsProcessed(rowsProcessed)
+                        .setRowsTotal(rowsTotal)
+                        .setWorkersDone(done.size())
+                        .setWorkersTotal(workerCount)
+                        .build())
+                .build();
+    }
+}
@@ -1,8 +1,12 @@
 package com.distributed.sql.coordinator;
 
 import com.distributed.sql.common.models.PlanNode;
+import com.distributed.sql.common.proto.QueryProto.RuntimeFilter;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a query execution plan
@@ -12,7 +16,14 @@ public class QueryPlan {
     private String sqlQuery;
     private PlanNode rootNode;
     private List<String> workerIds;
+    private Map<String, List<String>> workerShardIds = new HashMap<>();
+    private Map<String, List<ShardScope>> workerShardScopes = new HashMap<>();
+    private Map<String, String> secondaryWorkerIds = new HashMap<>();
     private double estimatedCost;
+    private long catalogVersion;
+    private List<RuntimeFilter> runtimeFilters = List.of();
+    private Map<String, Integer> shardsPruned = new HashMap<>();
+    private boolean colocatedJoin;
     private long planTimeMs;
 
     public QueryPlan() {
@@ -57,6 +68,41 @@ public class QueryPlan {
         this.workerIds = workerIds;
     }
 
+    /**
+     * Maps each worker in {@link #getWorkerIds()} to the shards it was chosen to read
+     */
+    public Map<String, List<String>> getWorkerShardIds() {
+        return workerShardIds;
+    }
+
+    public void setWorkerShardIds(Map<String, List<String>> workerShardIds) {
+        this.workerShardIds = workerShardIds;
+    }
+
+    /**
+     * Maps each worker in {@link #getWorkerIds()} to the key ranges of the
+     * shards it was chosen to read, which it restricts its scans to
+     */
+    public Map<String, List<ShardScope>> getWorkerShardScopes() {
+        return workerShardScopes;
+    }
+
+    public void setWorkerShardScopes(Map<String, List<ShardScope>> workerShardScopes) {
+        this.workerShardScopes = workerShardScopes;
+    }
+
+    /**
+     * Maps a worker in {@link #getWorkerIds()} to the worker that may serve a
+     * hedged duplicate of its request
+     */
+    public Map<String, String> getSecondaryWorkerIds() {
+        return secondaryWorkerIds;
+    }
+
+    public void setSecondaryWorkerIds(Map<String, String> secondaryWorkerIds) {
+        this.secondaryWorkerIds = secondaryWorkerIds;
+    }
+
     public double getEstimatedCost() {
         return estimatedCost;
     }
@@ -65,6 +111,47 @@ public class QueryPlan {
         this.estimatedCost = estimatedCost;
     }
 
+    /**
+     * Version of the routing table the plan's shard assignment was made from
+     */
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    public void setCatalogVersion(long catalogVersion) {
+        this.catalogVersion = catalogVersion;
+    }
+
+    /**
+     * Join key filters sent with the query for the workers to apply while scanning
+     */
+    public List<RuntimeFilter> getRuntimeFilters() {
+        return runtimeFilters;
+    }
+
+    public void setRuntimeFilters(List<RuntimeFilter> runtimeFilters) {
+        this.runtimeFilters = runtimeFilters;
+    }
+
+    /**
+     * Maps a runtime filter id to the number of shards it let the planner skip
+     */
+    public Map<String, Integer> getShardsPruned() {
+        return shardsPruned;
+    }
+
+    /**
+     * True if the query is a join that every worker runs on its own aligned
+     * shards of the two tables, with no data exchanged between workers
+     */
+    public boolean isColocatedJoin() {
+        return colocatedJoin;
+    }
+
+    public void setColocatedJoin(boolean colocatedJoin) {
+        this.colocatedJoin = colocatedJoin;
+    }
+
     public long getPlanTimeMs() {
         return planTimeMs;
     }
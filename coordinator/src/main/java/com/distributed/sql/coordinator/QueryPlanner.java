@@ -1,16 +1,24 @@
 package com.distributed.sql.coordinator;
 
 import com.distributed.sql.common.models.*;
+import com.distributed.sql.common.proto.QueryProto.RuntimeFilter;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
 import com.distributed.sql.common.utils.AppLogger;
 import com.distributed.sql.common.utils.Tracer;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Query planner that creates execution plans with shard-aware optimization
  */
 public class QueryPlanner {
 
+    // Fractions of a shard's rows an index lookup is assumed to return
+    private static final double EQUALITY_SELECTIVITY = 0.01;
+    private static final double RANGE_SELECTIVITY = 1.0 / 3;
+
     private final ShardManager shardManager;
 
     public QueryPlanner(ShardManager shardManager) {
@@ -18,28 +26,50 @@ public class QueryPlanner {
     }
 
     public QueryPlan createExecutionPlan(Query query) {
+        return createExecutionPlan(query, List.of());
+    }
+
+    /**
+     * Plans a query whose scan carries runtime filters from a join's build
+     * side. A filter on a table's shard key also prunes the shards the query
+     * reads, so workers holding no matching shard are not contacted at all.
+     */
+    public QueryPlan createExecutionPlan(Query query, List<RuntimeFilter> runtimeFilters) {
         String traceId = Tracer.startTrace("create_execution_plan");
 
         try {
+            // Plan against one routing snapshot so a concurrent catalog change cannot mix layouts
+            RoutingTable routing = shardManager.getRoutingTable();
+
             QueryPlan plan = new QueryPlan();
             plan.setQueryId(query.getQueryId());
             plan.setSqlQuery(query.getSql());
+            plan.setCatalogVersion(routing.getVersion());
+            plan.setRuntimeFilters(runtimeFilters);
 
             // Create root plan node
-            PlanNode rootNode = createPlanNode(query);
+            PlanNode rootNode = createPlanNode(routing, query);
             plan.setRootNode(rootNode);
 
-            // Determine which workers to involve
-            List<String> workerIds = determineWorkers(query);
+            // Determine which replica of each shard to read, and so which workers to involve
+            // A join of colocated tables on their shard key runs on each worker against its own shards
+            plan.setColocatedJoin(isColocatedJoin(routing, query));
+            Map<String, List<ShardInfo>> assignment = plan.isColocatedJoin()
+                    ? assignColocatedShards(routing, query)
+                    : assignShardsToReplicas(routing, query, plan);
+            List<String> workerIds = new ArrayList<>(assignment.keySet());
             plan.setWorkerIds(workerIds);
+            plan.setWorkerShardIds(toShardIds(assignment));
+            plan.setWorkerShardScopes(toShardScopes(routing, assignment));
+            plan.setSecondaryWorkerIds(determineSecondaryWorkers(assignment));
 
             // Estimate execution cost
-            double estimatedCost = estimateCost(query, rootNode);
+            double estimatedCost = estimateCost(routing, query, rootNode);
             plan.setEstimatedCost(estimatedCost);
 
             Tracer.addTimestamp("plan_created");
-            AppLogger.info("Created execution plan for query: {} with {} workers",
-                    query.getQueryId(), workerIds.size());
+            AppLogger.info("Created execution plan for query: {} with {} workers at catalog version {}",
+                    query.getQueryId(), workerIds.size(), routing.getVersion());
 
             return plan;
 
@@ -48,11 +78,26 @@ public class QueryPlanner {
         }
     }
 
-    private PlanNode createPlanNode(Query query) {
+    private PlanNode createPlanNode(RoutingTable routing, Query query) {
         PlanNode rootNode = new PlanNode("root", NodeType.SCAN);
 
         // Add table scan nodes for each table
         for (String tableName : query.getFromTables()) {
+            // A condition a secondary index answers replaces the scan and filter with a lookup
+            Condition indexed = getIndexedCondition(routing, tableName, query);
+            if (indexed != null) {
+                PlanNode lookupNode = new PlanNode("index_lookup_" + tableName, NodeType.INDEX_LOOKUP);
+                lookupNode.setTableName(tableName);
+                lookupNode.setIndexName(routing.getIndexOn(tableName, unqualified(tableName,
+                        indexed.getColumn())).getName());
+                lookupNode.setColumns(new ArrayList<>(query.getSelectColumns()));
+                lookupNode.setConditions(new ArrayList<>(query.getWhereConditions()));
+                lookupNode.setEstimatedRows((int) Math.min(Integer.MAX_VALUE,
+                        estimateLookupRows(routing, tableName, indexed)));
+                rootNode.addChild(lookupNode);
+                continue;
+            }
+
             PlanNode scanNode = new PlanNode("scan_" + tableName, NodeType.SCAN);
             scanNode.setTableName(tableName);
             scanNode.setColumns(new ArrayList<>(query.getSelectColumns()));
@@ -85,31 +130,409 @@ public class QueryPlanner {
         return projectNode;
     }
 
-    private List<String> determineWorkers(Query query) {
-        Set<String> workers = new HashSet<>();
+    /**
+     * Returns the WHERE condition a secondary index of the table can answer,
+     * preferring equality over a range, or null. An OR in the WHERE clause
+     * rules indexes out, since rows outside the condition may match too.
+     */
+    static Condition getIndexedCondition(RoutingTable routing, String tableName, Query query) {
+        if (query.isDisjunctive() || routing.getIndexes(tableName).isEmpty()) {
+            return null;
+        }
+
+        Condition range = null;
+        for (Condition condition : query.getWhereConditions()) {
+            if (routing.getIndexOn(tableName, unqualified(tableName, condition.getColumn())) == null) {
+                continue;
+            }
+            switch (condition.getOperator()) {
+                case EQUALS:
+                case IN:
+                    return condition;
+                case GREATER_THAN:
+                case GREATER_THAN_EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_EQUALS:
+                    if (range == null) {
+                        range = condition;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Returns the equality on a ready global index's column that can route a
+     * single-table read to the shards the index names, or null. Reads with OR
+     * in the WHERE clause, or whose shard key is already pinned, do not qualify.
+     */
+    static Condition getGlobalIndexCondition(RoutingTable routing, Query query) {
+        if (query.getQueryType() != QueryType.SELECT || query.getFromTables().size() != 1 || query.hasJoins()
+                || query.isDisjunctive()) {
+            return null;
+        }
+
+        String tableName = query.getFromTables().get(0);
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        Condition routed = null;
+        for (Condition condition : query.getWhereConditions()) {
+            if (condition.getOperator() != Operator.EQUALS) {
+                continue;
+            }
+            String column = unqualified(tableName, condition.getColumn());
+            if (column.equalsIgnoreCase(shardKeyColumn)) {
+                return null;
+            }
+            IndexDefinition index = routing.getGlobalIndexOn(tableName, column);
+            if (routed == null && index != null && index.isReady()) {
+                routed = condition;
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * Returns true if a materialized view can answer the query in place of its
+     * table: the query groups by some of the view's GROUP BY columns, selects
+     * only those and COUNT, SUM or AVG of columns the view aggregates, and
+     * repeats the view's WHERE conditions, adding only conditions on its
+     * GROUP BY columns.
+     */
+    static boolean viewMatches(ViewDefinition view, Query query) {
+        if (!ViewDefinition.isSupported(query) || !query.getFromTables().get(0).equalsIgnoreCase(view.getTableName())
+                || !view.isNarrowedBy(query)) {
+            return false;
+        }
+
+        String tableName = view.getTableName();
+        Set<String> groupColumns = new HashSet<>();
+        for (String column : query.getGroupByColumns()) {
+            groupColumns.add(unqualified(tableName, column).toLowerCase());
+        }
+        if (!view.getGroupColumns().containsAll(groupColumns)) {
+            return false;
+        }
+
+        boolean aggregates = false;
+        for (String item : query.getSelectColumns()) {
+            String expression = ViewAggregate.expression(item);
+            ViewAggregate aggregate;
+            try {
+                aggregate = ViewAggregate.parse(tableName, expression);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (aggregate == null) {
+                if (!groupColumns.contains(unqualified(tableName, expression).toLowerCase())) {
+                    return false;
+                }
+            } else if (!aggregate.isIncremental()
+                    || !aggregate.isCountAll() && !view.getMeasuredColumns().contains(aggregate.column)) {
+                return false;
+            } else {
+                aggregates = true;
+            }
+        }
+        if (!aggregates && groupColumns.isEmpty()) {
+            return false;
+        }
+
+        for (Condition condition : view.residualConditions(query)) {
+            if (condition.getOperator() == Operator.LIKE || !view.getGroupColumns().contains(
+                    unqualified(tableName, condition.getColumn()).toLowerCase())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long estimateLookupRows(RoutingTable routing, String tableName, Condition indexed) {
+        long rows = 0;
+        for (ShardInfo shard : routing.getShards(tableName)) {
+            rows += shard.getRowCount();
+        }
+        boolean equality = indexed.getOperator() == Operator.EQUALS || indexed.getOperator() == Operator.IN;
+        return (long) Math.ceil(rows * (equality ? EQUALITY_SELECTIVITY : RANGE_SELECTIVITY));
+    }
+
+    static String unqualified(String tableName, String column) {
+        if (column.regionMatches(true, 0, tableName + ".", 0, tableName.length() + 1)) {
+            return column.substring(tableName.length() + 1);
+        }
+        return column;
+    }
+
+    /**
+     * Returns true if the query is an inner join of two colocated tables on
+     * their shard keys, so matching rows always live on the same worker
+     */
+    public boolean isColocatedJoin(Query query) {
+        return isColocatedJoin(shardManager.getRoutingTable(), query);
+    }
 
-        // For each table in the query, find which workers have shards
+    static boolean isColocatedJoin(RoutingTable routing, Query query) {
+        if (query.getJoins().size() != 1) {
+            return false;
+        }
+
+        Join join = query.getJoins().get(0);
+        return join.getJoinType() == JoinType.INNER
+                && join.getLeftColumn().equalsIgnoreCase(routing.getShardKeyColumn(join.getLeftTable()))
+                && join.getRightColumn().equalsIgnoreCase(routing.getShardKeyColumn(join.getRightTable()))
+                && routing.areColocated(join.getLeftTable(), join.getRightTable());
+    }
+
+    /**
+     * Assigns each pair of aligned shards of a colocated join to one replica
+     * holding both. A pair is skipped if the WHERE clause routes either table
+     * away from it.
+     */
+    private Map<String, List<ShardInfo>> assignColocatedShards(RoutingTable routing, Query query) {
+        Join join = query.getJoins().get(0);
+        Set<String> rightTargets = new HashSet<>();
+        for (ShardInfo shard : getTargetShards(routing, join.getRightTable(), query)) {
+            rightTargets.add(shard.getShardId());
+        }
+
+        Map<String, List<ShardInfo>> assignment = new LinkedHashMap<>();
+        for (ShardInfo left : getTargetShards(routing, join.getLeftTable(), query)) {
+            ShardInfo right = routing.getAlignedShard(left, join.getRightTable());
+            if (right == null || !rightTargets.contains(right.getShardId())) {
+                continue;
+            }
+
+            String workerId = chooseReplica(left.getReplicaWorkerIds());
+            shardManager.recordShardRead(left.getShardId());
+            shardManager.recordShardRead(right.getShardId());
+            assignment.computeIfAbsent(workerId, k -> new ArrayList<>()).addAll(List.of(left, right));
+        }
+
+        return assignment;
+    }
+
+    private Map<String, List<ShardInfo>> assignShardsToReplicas(RoutingTable routing, Query query, QueryPlan plan) {
+        Map<String, List<ShardInfo>> assignment = new LinkedHashMap<>();
+
+        // For each table in the query, pick one replica of every shard the query can touch
         for (String tableName : query.getFromTables()) {
-            List<ShardInfo> shards = shardManager.getShardsForTable(tableName);
+            List<ShardInfo> shards = getTargetShards(routing, tableName, query);
+            for (RuntimeFilter filter : plan.getRuntimeFilters()) {
+                int before = shards.size();
+                shards = pruneShards(routing, tableName, shards, filter);
+                if (before > shards.size()) {
+                    plan.getShardsPruned().merge(filter.getFilterId(), before - shards.size(), Integer::sum);
+                    AppLogger.info("Runtime filter {} pruned {} of {} shards of {}", filter.getFilterId(),
+                            before - shards.size(), before, tableName);
+                }
+            }
+
+            for (ShardInfo shard : shards) {
+                String workerId = chooseReplica(shard.getReplicaWorkerIds());
+                shardManager.recordShardRead(shard.getShardId());
+                assignment.computeIfAbsent(workerId, k -> new ArrayList<>()).add(shard);
+            }
+        }
+
+        return assignment;
+    }
+
+    /**
+     * Returns the shards of a table the query must read or write. An equality
+     * condition on the table's shard key (bare or qualified with the table
+     * name) routes to the single owning shard, unless the WHERE clause has an OR.
+     */
+    static List<ShardInfo> getTargetShards(RoutingTable routing, String tableName, Query query) {
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        if (shardKeyColumn != null && !query.isDisjunctive()) {
+            for (Condition condition : query.getWhereConditions()) {
+                String column = unqualified(tableName, condition.getColumn());
+                if (condition.getOperator() == Operator.EQUALS && shardKeyColumn.equalsIgnoreCase(column)) {
+                    ShardInfo shard = routing.route(tableName, condition.getValue());
+                    if (shard != null) {
+                        AppLogger.debug("Routed {} = {} to shard {}", shardKeyColumn, condition.getValue(),
+                                shard.getShardId());
+                        return List.of(shard);
+                    }
+                }
+            }
+        }
+
+        return routing.getShards(tableName);
+    }
+
+    /**
+     * Drops the shards that cannot hold a key passed by a runtime filter on the
+     * table's shard key: with an exact key set, the shards no key routes to;
+     * otherwise, for range sharding, the shards outside the keys' min and max.
+     */
+    static List<ShardInfo> pruneShards(RoutingTable routing, String tableName, List<ShardInfo> shards,
+            RuntimeFilter filter) {
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        if (shardKeyColumn == null || !shardKeyColumn.equalsIgnoreCase(filter.getColumn())) {
+            return shards;
+        }
+
+        List<ShardInfo> remaining = new ArrayList<>();
+        if (filter.getBloomBits().isEmpty()) {
+            Set<String> shardIds = new HashSet<>();
+            for (String key : filter.getKeysList()) {
+                ShardInfo shard = routing.route(tableName, key);
+                if (shard != null) {
+                    shardIds.add(shard.getShardId());
+                }
+            }
             for (ShardInfo shard : shards) {
-                workers.add(shard.getWorkerId());
+                if (shardIds.contains(shard.getShardId())) {
+                    remaining.add(shard);
+                }
             }
+            return remaining;
         }
 
-        return new ArrayList<>(workers);
+        if (routing.getShardType(tableName) != ShardType.RANGE || filter.getMinKey().isEmpty()) {
+            return shards;
+        }
+        for (ShardInfo shard : shards) {
+            if (ShardManager.rangeOverlaps(filter.getMinKey(), filter.getMaxKey(),
+                    shard.getKeyRangeStart(), shard.getKeyRangeEnd())) {
+                remaining.add(shard);
+            }
+        }
+        return remaining;
     }
 
-    private double estimateCost(Query query, PlanNode rootNode) {
+    /**
+     * Power-of-two-choices: sample two replicas at random and read from the less
+     * loaded one, which avoids both herding onto one worker and scanning all loads
+     */
+    private String chooseReplica(List<String> replicaWorkerIds) {
+        if (replicaWorkerIds.size() == 1) {
+            return replicaWorkerIds.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(replicaWorkerIds.size());
+        int second = random.nextInt(replicaWorkerIds.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        String firstWorker = replicaWorkerIds.get(first);
+        String secondWorker = replicaWorkerIds.get(second);
+        return shardManager.getWorkerLoad(firstWorker) <= shardManager.getWorkerLoad(secondWorker)
+                ? firstWorker
+                : secondWorker;
+    }
+
+    private Map<String, List<String>> toShardIds(Map<String, List<ShardInfo>> assignment) {
+        Map<String, List<String>> shardIds = new HashMap<>();
+        for (Map.Entry<String, List<ShardInfo>> entry : assignment.entrySet()) {
+            List<String> ids = new ArrayList<>();
+            for (ShardInfo shard : entry.getValue()) {
+                ids.add(shard.getShardId());
+            }
+            shardIds.put(entry.getKey(), ids);
+        }
+        return shardIds;
+    }
+
+    private static Map<String, List<ShardScope>> toShardScopes(RoutingTable routing,
+            Map<String, List<ShardInfo>> assignment) {
+        Map<String, List<ShardScope>> scopes = new HashMap<>();
+        for (Map.Entry<String, List<ShardInfo>> entry : assignment.entrySet()) {
+            scopes.put(entry.getKey(), toShardScopes(routing, entry.getValue()));
+        }
+        return scopes;
+    }
+
+    /**
+     * Builds the scopes a worker reading the given shards restricts its scans
+     * to, one per table. A hash-sharded table's scope lists every shard on
+     * its ring, so the worker can route its keys the way the coordinator
+     * does. Tables without a shard key are not restricted.
+     */
+    static List<ShardScope> toShardScopes(RoutingTable routing, List<ShardInfo> shards) {
+        Map<String, ShardScope.Builder> scopes = new LinkedHashMap<>();
+        for (ShardInfo shard : shards) {
+            String tableName = shard.getTableName();
+            String keyColumn = routing.getShardKeyColumn(tableName);
+            if (keyColumn == null) {
+                continue;
+            }
+            ShardScope.Builder scope = scopes.computeIfAbsent(tableName, table -> {
+                ShardScope.Builder builder = ShardScope.newBuilder()
+                        .setTableName(table)
+                        .setKeyColumn(keyColumn);
+                if (routing.getShardType(table) == ShardType.HASH) {
+                    for (ShardInfo ringShard : routing.getShards(table)) {
+                        builder.addRingShardIds(ringShard.getShardId());
+                    }
+                }
+                return builder;
+            });
+            scope.addShards(ShardRange.newBuilder()
+                    .setShardId(shard.getShardId())
+                    .setTableName(tableName)
+                    .setKeyColumn(keyColumn)
+                    .setKeyRangeStart(shard.getKeyRangeStart() != null ? shard.getKeyRangeStart() : "")
+                    .setKeyRangeEnd(shard.getKeyRangeEnd() != null ? shard.getKeyRangeEnd() : ""));
+        }
+
+        List<ShardScope> result = new ArrayList<>();
+        for (ShardScope.Builder scope : scopes.values()) {
+            result.add(scope.build());
+        }
+        return result;
+    }
+
+    private Map<String, String> determineSecondaryWorkers(Map<String, List<ShardInfo>> assignment) {
+        Map<String, String> secondaries = new HashMap<>();
+
+        // A worker can only be hedged to another worker holding replicas of all its assigned shards
+        for (Map.Entry<String, List<ShardInfo>> entry : assignment.entrySet()) {
+            Set<String> candidates = null;
+            for (ShardInfo shard : entry.getValue()) {
+                Set<String> replicas = new HashSet<>(shard.getReplicaWorkerIds());
+                replicas.remove(entry.getKey());
+                if (candidates == null) {
+                    candidates = replicas;
+                } else {
+                    candidates.retainAll(replicas);
+                }
+            }
+
+            if (candidates != null) {
+                candidates.stream()
+                        .min(Comparator.comparingDouble(shardManager::getWorkerLoad))
+                        .ifPresent(secondary -> secondaries.put(entry.getKey(), secondary));
+            }
+        }
+
+        return secondaries;
+    }
+
+    private double estimateCost(RoutingTable routing, Query query, PlanNode rootNode) {
         double cost = 0.0;
 
         // Base cost for query parsing and planning
         cost += 10.0;
 
-        // Cost for each table scan
+        // Cost for each table scan; an index lookup searches each shard's index and reads only its matches
         for (String tableName : query.getFromTables()) {
-            List<ShardInfo> shards = shardManager.getShardsForTable(tableName);
+            Condition indexed = getIndexedCondition(routing, tableName, query);
+            List<ShardInfo> shards = routing.getShards(tableName);
             for (ShardInfo shard : shards) {
-                cost += shard.getRowCount() * 0.1; // 0.1 cost per row
+                if (indexed != null) {
+                    cost += Math.log(shard.getRowCount() + 1) / Math.log(2);
+                } else {
+                    cost += shard.getRowCount() * 0.1; // 0.1 cost per row
+                }
+            }
+            if (indexed != null) {
+                cost += estimateLookupRows(routing, tableName, indexed) * 0.1;
             }
         }
 
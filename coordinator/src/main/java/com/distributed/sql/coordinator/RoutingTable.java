@@ -0,0 +1,320 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import com.distributed.sql.common.utils.ConsistentHashRing;
+
+import java.util.*;
+
+/**
+ * Immutable, versioned snapshot of the shard catalog used for routing. Every
+ * catalog change builds a new table with a higher version, so a planner holding
+ * one snapshot sees a consistent layout for the whole query without locking.
+ *
+ * Shards are frozen once they are in a table, so a caller cannot change a
+ * published snapshot; changes replace them with copies. Row counts are
+ * statistics, so refreshing them publishes copies under the same version.
+ */
+public final class RoutingTable {
+
+    private final long version;
+    private final Map<String, TableRouting> tables;
+    private final Map<String, List<ShardInfo>> workerShards;
+
+    private RoutingTable(long version, Map<String, TableRouting> tables) {
+        this.version = version;
+        this.tables = Collections.unmodifiableMap(tables);
+        this.workerShards = indexByWorker(tables);
+    }
+
+    public static RoutingTable empty() {
+        return new RoutingTable(0, new LinkedHashMap<>());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Set<String> getTableNames() {
+        return tables.keySet();
+    }
+
+    public List<ShardInfo> getShards(String tableName) {
+        TableRouting table = tables.get(tableName);
+        return table != null ? table.shards : List.of();
+    }
+
+    public ShardType getShardType(String tableName) {
+        TableRouting table = tables.get(tableName);
+        return table != null && table.shardType != null ? table.shardType : ShardType.RANGE;
+    }
+
+    public String getShardKeyColumn(String tableName) {
+        TableRouting table = tables.get(tableName);
+        return table != null ? table.shardKeyColumn : null;
+    }
+
+    /**
+     * Returns the colocation group of a table, or null. Tables in one group are
+     * sharded on the same key with the same ranges and placement.
+     */
+    public String getColocationGroup(String tableName) {
+        TableRouting table = tables.get(tableName);
+        return table != null ? table.colocationGroup : null;
+    }
+
+    public List<IndexDefinition> getIndexes(String tableName) {
+        TableRouting table = tables.get(tableName);
+        return table != null ? table.indexes : List.of();
+    }
+
+    /**
+     * Returns the table's local index whose leading column is the given one, or null
+     */
+    public IndexDefinition getIndexOn(String tableName, String column) {
+        for (IndexDefinition index : getIndexes(tableName)) {
+            if (!index.isGlobal() && index.getLeadingColumn().equalsIgnoreCase(column)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the table's global index on the column, built or not, or null
+     */
+    public IndexDefinition getGlobalIndexOn(String tableName, String column) {
+        for (IndexDefinition index : getIndexes(tableName)) {
+            if (index.isGlobal() && index.getLeadingColumn().equalsIgnoreCase(column)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the two tables are in the same colocation group and
+     * their shards still line up: same key ranges held by the same workers.
+     * Splits and moves that touch one table but not the other break this, so
+     * it is checked against the snapshot rather than trusted from the group.
+     * Only RANGE tables qualify, since hash rings place shards by shard id.
+     */
+    public boolean areColocated(String leftTable, String rightTable) {
+        TableRouting left = tables.get(leftTable);
+        TableRouting right = tables.get(rightTable);
+        if (left == null || right == null || left.colocationGroup == null
+                || !left.colocationGroup.equals(right.colocationGroup)
+                || left.shardType == ShardType.HASH || right.shardType == ShardType.HASH
+                || left.shards.size() != right.shards.size()) {
+            return false;
+        }
+
+        for (ShardInfo leftShard : left.shards) {
+            if (getAlignedShard(leftShard, rightTable) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shard of a table with the same key range and replicas as
+     * the given shard of another table, or null
+     */
+    public ShardInfo getAlignedShard(ShardInfo shard, String tableName) {
+        Set<String> replicas = new HashSet<>(shard.getReplicaWorkerIds());
+        for (ShardInfo candidate : getShards(tableName)) {
+            if (Objects.equals(candidate.getKeyRangeStart(), shard.getKeyRangeStart())
+                    && Objects.equals(candidate.getKeyRangeEnd(), shard.getKeyRangeEnd())
+                    && replicas.equals(new HashSet<>(candidate.getReplicaWorkerIds()))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public ShardInfo getShard(String tableName, String shardId) {
+        TableRouting table = tables.get(tableName);
+        if (table == null) {
+            return null;
+        }
+        Integer index = table.shardIndex.get(shardId);
+        return index != null ? table.shards.get(index) : null;
+    }
+
+    /**
+     * Routes a shard key value to the shard that owns it, using the hash ring
+     * for HASH tables and the key ranges for RANGE tables. Returns null if no
+     * shard owns the key.
+     */
+    public ShardInfo route(String tableName, String keyValue) {
+        TableRouting table = tables.get(tableName);
+        if (table == null) {
+            return null;
+        }
+
+        if (table.ring != null) {
+            return table.ring.route(keyValue);
+        }
+
+        for (ShardInfo shard : table.shards) {
+            if (ShardManager.isKeyInRange(keyValue, shard.getKeyRangeStart(), shard.getKeyRangeEnd())) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shards a worker holds a replica of
+     */
+    public List<ShardInfo> getWorkerShards(String workerId) {
+        return workerShards.getOrDefault(workerId, List.of());
+    }
+
+    public Set<String> getWorkerIds() {
+        return workerShards.keySet();
+    }
+
+    /**
+     * Returns a new version with the table's shards replaced by the given list
+     */
+    public RoutingTable withShards(String tableName, List<ShardInfo> shards) {
+        TableRouting current = tables.get(tableName);
+        ShardType shardType = current != null ? current.shardType : null;
+        String shardKeyColumn = current != null ? current.shardKeyColumn : null;
+        String colocationGroup = current != null ? current.colocationGroup : null;
+        return with(tableName, new TableRouting(shardType, shardKeyColumn, colocationGroup, shards,
+                getIndexes(tableName)));
+    }
+
+    /**
+     * Returns a new version with the table's distribution changed, keeping its
+     * colocation group
+     */
+    public RoutingTable withDistribution(String tableName, ShardType shardType, String shardKeyColumn) {
+        return withDistribution(tableName, shardType, shardKeyColumn, getColocationGroup(tableName));
+    }
+
+    /**
+     * Returns a new version with the table's distribution and colocation group
+     * changed
+     */
+    public RoutingTable withDistribution(String tableName, ShardType shardType, String shardKeyColumn,
+            String colocationGroup) {
+        return with(tableName, new TableRouting(shardType, shardKeyColumn, colocationGroup, getShards(tableName),
+                getIndexes(tableName)));
+    }
+
+    /**
+     * Returns a new version with one shard replaced by a copy, or added if the
+     * table does not have it yet
+     */
+    public RoutingTable withShard(String tableName, ShardInfo shard) {
+        List<ShardInfo> shards = new ArrayList<>(getShards(tableName));
+        TableRouting current = tables.get(tableName);
+        Integer index = current != null ? current.shardIndex.get(shard.getShardId()) : null;
+        if (index != null) {
+            shards.set(index, shard);
+        } else {
+            shards.add(shard);
+        }
+        return withShards(tableName, shards);
+    }
+
+    /**
+     * Returns a table of the same version with a copy of the shard carrying
+     * the new row count, or this table if it has no such shard
+     */
+    public RoutingTable withRowCount(String tableName, String shardId, long rowCount) {
+        ShardInfo shard = getShard(tableName, shardId);
+        if (shard == null) {
+            return this;
+        }
+        ShardInfo updated = new ShardInfo(shard);
+        updated.setRowCount(rowCount);
+        TableRouting current = tables.get(tableName);
+        List<ShardInfo> shards = new ArrayList<>(current.shards);
+        shards.set(current.shardIndex.get(shardId), updated);
+        Map<String, TableRouting> updatedTables = new LinkedHashMap<>(tables);
+        updatedTables.put(tableName, new TableRouting(current.shardType, current.shardKeyColumn,
+                current.colocationGroup, shards, current.indexes));
+        return new RoutingTable(version, updatedTables);
+    }
+
+    /**
+     * Returns the same tables under the given version, as when a catalog is
+     * restored at the version it was saved at
+     */
+    public RoutingTable withVersion(long version) {
+        return new RoutingTable(version, new LinkedHashMap<>(tables));
+    }
+
+    /**
+     * Returns a new version with the index added, replacing one of the same name
+     */
+    public RoutingTable withIndex(IndexDefinition index) {
+        String tableName = index.getTableName();
+        TableRouting current = tables.get(tableName);
+        List<IndexDefinition> indexes = new ArrayList<>();
+        for (IndexDefinition existing : getIndexes(tableName)) {
+            if (!existing.getName().equalsIgnoreCase(index.getName())) {
+                indexes.add(existing);
+            }
+        }
+        indexes.add(index);
+        return with(tableName, new TableRouting(current != null ? current.shardType : null,
+                current != null ? current.shardKeyColumn : null, current != null ? current.colocationGroup : null,
+                getShards(tableName), indexes));
+    }
+
+    private RoutingTable with(String tableName, TableRouting table) {
+        Map<String, TableRouting> updated = new LinkedHashMap<>(tables);
+        updated.put(tableName, table);
+        return new RoutingTable(version + 1, updated);
+    }
+
+    private static Map<String, List<ShardInfo>> indexByWorker(Map<String, TableRouting> tables) {
+        Map<String, List<ShardInfo>> index = new HashMap<>();
+        for (TableRouting table : tables.values()) {
+            for (ShardInfo shard : table.shards) {
+                for (String workerId : shard.getReplicaWorkerIds()) {
+                    index.computeIfAbsent(workerId, k -> new ArrayList<>()).add(shard);
+                }
+            }
+        }
+        index.replaceAll((workerId, shards) -> Collections.unmodifiableList(shards));
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * Routing data for one table. The hash ring is built up front for HASH
+     * tables so lookups never have to build it lazily.
+     */
+    private static final class TableRouting {
+        private final ShardType shardType;
+        private final String shardKeyColumn;
+        private final String colocationGroup;
+        private final List<ShardInfo> shards;
+        private final Map<String, Integer> shardIndex;
+        private final ConsistentHashRing ring;
+        private final List<IndexDefinition> indexes;
+
+        private TableRouting(ShardType shardType, String shardKeyColumn, String colocationGroup,
+                List<ShardInfo> shards, List<IndexDefinition> indexes) {
+            this.shardType = shardType;
+            this.shardKeyColumn = shardKeyColumn;
+            this.colocationGroup = colocationGroup;
+            for (ShardInfo shard : shards) {
+                shard.freeze();
+            }
+            this.shards = List.copyOf(shards);
+            this.indexes = List.copyOf(indexes);
+            this.shardIndex = new HashMap<>();
+            for (int i = 0; i < this.shards.size(); i++) {
+                shardIndex.put(this.shards.get(i).getShardId(), i);
+            }
+            this.ring = shardType == ShardType.HASH ? new ConsistentHashRing(this.shards) : null;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.LogRecords;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Durable store for the shard catalog. Changes are appended to a log and
+ * fsynced; once the log grows past a threshold the full catalog is written to
+ * a snapshot and the log is truncated. Startup reads the snapshot and replays
+ * the log on top of it.
+ *
+ * Records use the {@link LogRecords} framing, so a torn record at the end of
+ * the log (a crash mid-append) ends the replay. Records are idempotent
+ * upserts, so replaying a log that was already folded into the snapshot is
+ * harmless.
+ *
+ * The routing version is kept too: the snapshot records the version it was
+ * taken at, and each shard, distribution or index record in the log stands
+ * for one version step after it. A crash between a snapshot and the log
+ * truncate replays folded records, which can only move the version forward.
+ */
+public class ShardCatalog implements Closeable {
+
+    private static final String SNAPSHOT_FILE = "catalog.snapshot";
+    private static final String LOG_FILE = "catalog.log";
+    private static final int COMPACT_AFTER_RECORDS = 10000;
+
+    private static final byte PUT_SHARD = 1;
+    private static final byte SET_DISTRIBUTION = 2;
+    private static final byte PUT_WORKER = 3;
+    private static final byte REMOVE_WORKER = 4;
+    private static final byte PUT_INDEX = 5;
+    private static final byte PUT_VIEW = 6;
+    private static final byte SET_VERSION = 7;
+
+    private final Path directory;
+    private FileChannel logChannel;
+    private int logRecords;
+
+    public ShardCatalog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Loads the catalog from the snapshot and log, then opens the log for
+     * appending. Returns an empty state if nothing was persisted yet.
+     */
+    public synchronized CatalogState load() throws IOException {
+        long startTime = System.nanoTime();
+        CatalogState state = new CatalogState();
+
+        LogRecords.ReplayResult snapshot = LogRecords.replay(directory.resolve(SNAPSHOT_FILE),
+                payload -> apply(payload, state));
+        LogRecords.ReplayResult log = LogRecords.replay(directory.resolve(LOG_FILE), payload -> apply(payload, state));
+        logRecords = log.records;
+
+        // Drop a torn tail so new records are appended after the last valid one
+        logChannel = FileChannel.open(directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        logChannel.truncate(log.validLength);
+        logChannel.position(log.validLength);
+
+        AppLogger.info("Loaded shard catalog from {} ({} snapshot + {} log records) in {}ms",
+                directory, snapshot.records, log.records, (System.nanoTime() - startTime) / 1_000_000);
+        return state;
+    }
+
+    public synchronized void appendShard(String tableName, ShardInfo shard) {
+        append(encodeShard(tableName, shard));
+    }
+
+    public synchronized void appendDistribution(String tableName, ShardType shardType, String shardKeyColumn,
+            String colocationGroup) {
+        append(encodeDistribution(tableName, shardType, shardKeyColumn, colocationGroup));
+    }
+
+    public synchronized void appendWorker(String workerId, String address, int port) {
+        append(encodeWorker(workerId, address, port));
+    }
+
+    public synchronized void appendWorkerRemoval(String workerId) {
+        append(LogRecords.encode(out -> {
+            out.writeByte(REMOVE_WORKER);
+            out.writeUTF(workerId);
+        }));
+    }
+
+    public synchronized void appendIndex(IndexDefinition index) {
+        append(encodeIndex(index));
+    }
+
+    public synchronized void appendView(ViewDefinition view) {
+        append(encodeView(view));
+    }
+
+    public synchronized boolean shouldCompact() {
+        return logRecords >= COMPACT_AFTER_RECORDS;
+    }
+
+    /**
+     * Writes the given state as the new snapshot (via a temp file and atomic
+     * rename) and truncates the log
+     */
+    public synchronized void writeSnapshot(CatalogState state) throws IOException {
+        Path tempFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            for (Map.Entry<String, ShardType> entry : state.shardTypes.entrySet()) {
+                LogRecords.write(out, encodeDistribution(entry.getKey(), entry.getValue(),
+                        state.shardKeyColumns.get(entry.getKey()), state.colocationGroups.get(entry.getKey())));
+            }
+            for (Map.Entry<String, List<ShardInfo>> entry : state.shards.entrySet()) {
+                for (ShardInfo shard : entry.getValue()) {
+                    LogRecords.write(out, encodeShard(entry.getKey(), shard));
+                }
+            }
+            for (ShardManager.WorkerInfo worker : state.workers.values()) {
+                LogRecords.write(out, encodeWorker(worker.getWorkerId(), worker.getAddress(), worker.getPort()));
+            }
+            for (List<IndexDefinition> tableIndexes : state.indexes.values()) {
+                for (IndexDefinition index : tableIndexes) {
+                    LogRecords.write(out, encodeIndex(index));
+                }
+            }
+            for (ViewDefinition view : state.views.values()) {
+                LogRecords.write(out, encodeView(view));
+            }
+            // Last, so it replaces the steps counted for the records above
+            LogRecords.write(out, LogRecords.encode(data -> {
+                data.writeByte(SET_VERSION);
+                data.writeLong(state.version);
+            }));
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tempFile, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (logChannel != null) {
+            logChannel.truncate(0);
+            logChannel.position(0);
+            logChannel.force(true);
+        }
+        logRecords = 0;
+        AppLogger.info("Wrote shard catalog snapshot with {} shards", state.getShardCount());
+    }
+
+    private void apply(byte[] payload, CatalogState state) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        switch (in.readByte()) {
+            case PUT_SHARD: {
+                String tableName = in.readUTF();
+                ShardInfo shard = new ShardInfo(in.readUTF(), in.readUTF(), tableName,
+                        readNullable(in), readNullable(in), in.readLong());
+                int replicas = in.readInt();
+                List<String> replicaWorkerIds = new ArrayList<>(replicas);
+                for (int i = 0; i < replicas; i++) {
+                    replicaWorkerIds.add(in.readUTF());
+                }
+                shard.setReplicaWorkerIds(replicaWorkerIds);
+                state.putShard(tableName, shard);
+                state.version++;
+                break;
+            }
+            case SET_DISTRIBUTION: {
+                String tableName = in.readUTF();
+                state.shardTypes.put(tableName, ShardType.valueOf(in.readUTF()));
+                String keyColumn = readNullable(in);
+                if (keyColumn != null) {
+                    state.shardKeyColumns.put(tableName, keyColumn);
+                }
+                // Records written before colocation groups existed end here
+                String colocationGroup = in.available() > 0 ? readNullable(in) : null;
+                if (colocationGroup != null) {
+                    state.colocationGroups.put(tableName, colocationGroup);
+                } else {
+                    state.colocationGroups.remove(tableName);
+                }
+                state.version++;
+                break;
+            }
+            case PUT_WORKER: {
+                String workerId = in.readUTF();
+                state.workers.put(workerId, new ShardManager.WorkerInfo(workerId, in.readUTF(), in.readInt()));
+                break;
+            }
+            case REMOVE_WORKER:
+                state.workers.remove(in.readUTF());
+                break;
+            case PUT_INDEX: {
+                String name = in.readUTF();
+                String tableName = in.readUTF();
+                List<String> columns = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    columns.add(in.readUTF());
+                }
+                // Records written before global indexes existed end here
+                boolean global = in.available() > 0 && in.readBoolean();
+                boolean ready = in.available() == 0 || in.readBoolean();
+                state.putIndex(new IndexDefinition(name, tableName, columns, global, ready));
+                state.version++;
+                break;
+            }
+            case PUT_VIEW: {
+                String name = in.readUTF();
+                String sql = in.readUTF();
+                try {
+                    state.putView(ViewDefinition.parse(name, sql));
+                } catch (IllegalArgumentException e) {
+                    AppLogger.warn("Skipping materialized view {} that no longer parses: {}", name, e.getMessage());
+                }
+                break;
+            }
+            case SET_VERSION:
+                state.version = in.readLong();
+                break;
+            default:
+                throw new IOException("Unknown catalog record type");
+        }
+    }
+
+    private byte[] encodeShard(String tableName, ShardInfo shard) {
+        return LogRecords.encode(out -> {
+            out.writeByte(PUT_SHARD);
+            out.writeUTF(tableName);
+            out.writeUTF(shard.getShardId());
+            out.writeUTF(shard.getWorkerId());
+            writeNullable(out, shard.getKeyRangeStart());
+            writeNullable(out, shard.getKeyRangeEnd());
+            out.writeLong(shard.getRowCount());
+            out.writeInt(shard.getReplicaWorkerIds().size());
+            for (String replicaWorkerId : shard.getReplicaWorkerIds()) {
+                out.writeUTF(replicaWorkerId);
+            }
+        });
+    }
+
+    private byte[] encodeDistribution(String tableName, ShardType shardType, String shardKeyColumn,
+            String colocationGroup) {
+        return LogRecords.encode(out -> {
+            out.writeByte(SET_DISTRIBUTION);
+            out.writeUTF(tableName);
+            out.writeUTF(shardType.name());
+            writeNullable(out, shardKeyColumn);
+            writeNullable(out, colocationGroup);
+        });
+    }
+
+    private byte[] encodeWorker(String workerId, String address, int port) {
+        return LogRecords.encode(out -> {
+            out.writeByte(PUT_WORKER);
+            out.writeUTF(workerId);
+            out.writeUTF(address);
+            out.writeInt(port);
+        });
+    }
+
+    private byte[] encodeIndex(IndexDefinition index) {
+        return LogRecords.encode(out -> {
+            out.writeByte(PUT_INDEX);
+            out.writeUTF(index.getName());
+            out.writeUTF(index.getTableName());
+            out.writeInt(index.getColumns().size());
+            for (String column : index.getColumns()) {
+                out.writeUTF(column);
+            }
+            out.writeBoolean(index.isGlobal());
+            out.writeBoolean(index.isReady());
+        });
+    }
+
+    private byte[] encodeView(ViewDefinition view) {
+        return LogRecords.encode(out -> {
+            out.writeByte(PUT_VIEW);
+            out.writeUTF(view.getName());
+            out.writeUTF(view.getSql());
+        });
+    }
+
+    private void append(byte[] payload) {
+        if (logChannel == null) {
+            throw new IllegalStateException("Shard catalog must be loaded before appending");
+        }
+
+        try {
+            LogRecords.append(logChannel, payload);
+            logRecords++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to shard catalog", e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (logChannel != null) {
+            logChannel.close();
+            logChannel = null;
+        }
+    }
+
+    /**
+     * In-memory form of the catalog as loaded from disk or captured for a snapshot
+     */
+    public static class CatalogState {
+        final Map<String, List<ShardInfo>> shards = new LinkedHashMap<>();
+        final Map<String, ShardType> shardTypes = new LinkedHashMap<>();
+        final Map<String, String> shardKeyColumns = new HashMap<>();
+        final Map<String, String> colocationGroups = new HashMap<>();
+        final Map<String, ShardManager.WorkerInfo> workers = new LinkedHashMap<>();
+        final Map<String, List<IndexDefinition>> indexes = new LinkedHashMap<>();
+        final Map<String, ViewDefinition> views = new LinkedHashMap<>();
+        // Routing version the catalog was last changed at
+        long version;
+        private final Map<String, Integer> shardPositions = new HashMap<>();
+
+        void putIndex(IndexDefinition index) {
+            List<IndexDefinition> tableIndexes = indexes.computeIfAbsent(index.getTableName(),
+                    k -> new ArrayList<>());
+            tableIndexes.removeIf(existing -> existing.getName().equalsIgnoreCase(index.getName()));
+            tableIndexes.add(index);
+        }
+
+        void putView(ViewDefinition view) {
+            views.put(view.getName().toLowerCase(), view);
+        }
+
+        void putShard(String tableName, ShardInfo shard) {
+            List<ShardInfo> tableShards = shards.computeIfAbsent(tableName, k -> new ArrayList<>());
+            String key = tableName + "/" + shard.getShardId();
+            Integer position = shardPositions.get(key);
+            if (position != null) {
+                tableShards.set(position, shard);
+            } else {
+                shardPositions.put(key, tableShards.size());
+                tableShards.add(shard);
+            }
+        }
+
+        public boolean isEmpty() {
+            return shards.isEmpty() && workers.isEmpty();
+        }
+
+        public int getShardCount() {
+            return shards.values().stream().mapToInt(List::size).sum();
+        }
+    }
+}
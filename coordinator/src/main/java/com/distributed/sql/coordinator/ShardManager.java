@@ -2,86 +2,652 @@ package com.distributed.sql.coordinator;
 
 import com.distributed.sql.common.models.*;
 import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.ConsistentHashRing;
 import com.distributed.sql.common.utils.Tracer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Manages data distribution and shard assignments across workers
  */
 public class ShardManager {
 
-    private final Map<String, List<ShardInfo>> shards;
+    private static final List<String> DEFAULT_WORKERS = List.of("worker1", "worker2", "worker3");
+    private static final int DEFAULT_REPLICATION_FACTOR = 2;
+    private static final String USER_COLOCATION_GROUP = "user";
+
+    // Catalog changes publish a new routing table here; readers never lock
+    private final AtomicReference<RoutingTable> routingTable;
     private final Map<String, WorkerInfo> workers;
-    private final ShardType shardType;
+    private final Map<String, AtomicLong> shardReads;
+    private final Map<String, String> migrationTargets;
+    // Shards joining a HASH table's ring by lower-case table name, while the rebalancer copies their keys
+    private final Map<String, RingShard> joiningRingShards;
+    // Write fences by lower-case table name, closed by the rebalancer around migration steps
+    private final Map<String, WriteFence> writeFences;
+    // Materialized views by lower-case name
+    private final Map<String, ViewDefinition> views;
+    private final ShardCatalog catalog;
 
     public ShardManager() {
-        this.shards = new ConcurrentHashMap<>();
+        this(null);
+    }
+
+    /**
+     * Creates a shard manager backed by a persistent catalog. A previously saved
+     * catalog is restored as-is, including known workers, so queries can be
+     * served right away; an empty catalog is seeded with the default layout.
+     */
+    public ShardManager(ShardCatalog catalog) {
+        this.routingTable = new AtomicReference<>(RoutingTable.empty());
         this.workers = new ConcurrentHashMap<>();
-        this.shardType = ShardType.HASH;
+        this.shardReads = new ConcurrentHashMap<>();
+        this.migrationTargets = new ConcurrentHashMap<>();
+        this.joiningRingShards = new ConcurrentHashMap<>();
+        this.writeFences = new ConcurrentHashMap<>();
+        this.views = new ConcurrentHashMap<>();
+        this.catalog = catalog;
+
+        if (catalog != null) {
+            try {
+                ShardCatalog.CatalogState state = catalog.load();
+                if (!state.isEmpty()) {
+                    restore(state);
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load shard catalog", e);
+            }
+        }
 
         initializeDefaultShards();
+        if (catalog != null) {
+            writeSnapshot();
+        }
+    }
+
+    private void restore(ShardCatalog.CatalogState state) {
+        RoutingTable restored = RoutingTable.empty();
+        for (Map.Entry<String, ShardType> entry : state.shardTypes.entrySet()) {
+            restored = restored.withDistribution(entry.getKey(), entry.getValue(),
+                    state.shardKeyColumns.get(entry.getKey()), state.colocationGroups.get(entry.getKey()));
+        }
+        for (Map.Entry<String, List<ShardInfo>> entry : state.shards.entrySet()) {
+            restored = restored.withShards(entry.getKey(), entry.getValue());
+        }
+        for (List<IndexDefinition> tableIndexes : state.indexes.values()) {
+            for (IndexDefinition index : tableIndexes) {
+                restored = restored.withIndex(index);
+            }
+        }
+        // Planners compare versions, so a restart must not hand out an older one
+        routingTable.set(restored.withVersion(Math.max(restored.getVersion(), state.version)));
+        workers.putAll(state.workers);
+        views.putAll(state.views);
+
+        AppLogger.info("Restored {} shards across {} tables and {} workers from catalog",
+                state.getShardCount(), restored.getTableNames().size(), workers.size());
+    }
+
+    /**
+     * Applies a change to the persistent catalog, compacting it into a new
+     * snapshot when the log has grown long. Callers hold the manager lock so a
+     * snapshot always sees a consistent catalog.
+     */
+    private void persist(Consumer<ShardCatalog> change) {
+        if (catalog == null) {
+            return;
+        }
+
+        change.accept(catalog);
+        if (catalog.shouldCompact()) {
+            writeSnapshot();
+        }
+    }
+
+    private synchronized void writeSnapshot() {
+        RoutingTable current = routingTable.get();
+        ShardCatalog.CatalogState state = new ShardCatalog.CatalogState();
+        for (String tableName : current.getTableNames()) {
+            for (ShardInfo shard : current.getShards(tableName)) {
+                state.putShard(tableName, shard);
+            }
+            state.shardTypes.put(tableName, current.getShardType(tableName));
+            String shardKeyColumn = current.getShardKeyColumn(tableName);
+            if (shardKeyColumn != null) {
+                state.shardKeyColumns.put(tableName, shardKeyColumn);
+            }
+            String colocationGroup = current.getColocationGroup(tableName);
+            if (colocationGroup != null) {
+                state.colocationGroups.put(tableName, colocationGroup);
+            }
+            for (IndexDefinition index : current.getIndexes(tableName)) {
+                state.putIndex(index);
+            }
+        }
+        state.workers.putAll(workers);
+        state.views.putAll(views);
+        state.version = current.getVersion();
+
+        try {
+            catalog.writeSnapshot(state);
+        } catch (IOException e) {
+            AppLogger.error("Failed to write shard catalog snapshot", e);
+        }
+    }
+
+    public void shutdown() {
+        if (catalog != null) {
+            try {
+                catalog.close();
+            } catch (IOException e) {
+                AppLogger.error("Error closing shard catalog", e);
+            }
+        }
     }
 
     private void initializeDefaultShards() {
-        // Initialize users table shards
+        // Initialize users and orders shards, range-sharded on user_id over the same ranges and workers
+        // so the two tables are colocated and joins on user_id run shard-locally
         List<ShardInfo> userShards = Arrays.asList(
-                new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000),
-                new ShardInfo("users_shard_2", "worker2", "users", "N", "Z", 1200));
-        shards.put("users", userShards);
+                new ShardInfo("users_shard_1", "worker1", "users", "1", "5000", 1000),
+                new ShardInfo("users_shard_2", "worker2", "users", "5001", "10000", 1200),
+                new ShardInfo("users_shard_3", "worker3", "users", "10001", "15000", 800));
 
-        // Initialize orders table shards
         List<ShardInfo> orderShards = Arrays.asList(
                 new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000),
                 new ShardInfo("orders_shard_2", "worker2", "orders", "5001", "10000", 5000),
                 new ShardInfo("orders_shard_3", "worker3", "orders", "10001", "15000", 5000));
-        shards.put("orders", orderShards);
 
-        // Initialize products table shards
+        // Initialize products table shards, hash-sharded on product_id
         List<ShardInfo> productShards = Arrays.asList(
-                new ShardInfo("products_shard_1", "worker1", "products", "Electronics", "Electronics", 5),
-                new ShardInfo("products_shard_2", "worker2", "products", "Appliances", "Appliances", 3),
-                new ShardInfo("products_shard_3", "worker3", "products", "Sports", "Accessories", 7));
-        shards.put("products", productShards);
+                new ShardInfo("products_shard_1", "worker1", "products", null, null, 5),
+                new ShardInfo("products_shard_2", "worker2", "products", null, null, 3),
+                new ShardInfo("products_shard_3", "worker3", "products", null, null, 7));
 
-        AppLogger.info("Initialized default shard distribution");
+        // Place read replicas on the workers following each primary
+        for (List<ShardInfo> tableShards : List.of(userShards, orderShards, productShards)) {
+            for (ShardInfo shard : tableShards) {
+                int primaryIndex = DEFAULT_WORKERS.indexOf(shard.getWorkerId());
+                for (int i = 1; i < DEFAULT_REPLICATION_FACTOR; i++) {
+                    shard.addReplica(DEFAULT_WORKERS.get((primaryIndex + i) % DEFAULT_WORKERS.size()));
+                }
+            }
+        }
+
+        routingTable.set(RoutingTable.empty()
+                .withDistribution("users", ShardType.RANGE, "user_id", USER_COLOCATION_GROUP)
+                .withShards("users", userShards)
+                .withDistribution("orders", ShardType.RANGE, "user_id", USER_COLOCATION_GROUP)
+                .withShards("orders", orderShards)
+                .withDistribution("products", ShardType.HASH, "product_id")
+                .withShards("products", productShards));
+
+        AppLogger.info("Initialized default shard distribution with replication factor {}",
+                DEFAULT_REPLICATION_FACTOR);
+    }
+
+    /**
+     * Returns the current routing snapshot. Callers that make several lookups
+     * for one query should take a snapshot once and use it throughout.
+     */
+    public RoutingTable getRoutingTable() {
+        return routingTable.get();
     }
 
     public List<ShardInfo> getShardsForTable(String tableName) {
-        return shards.getOrDefault(tableName, new ArrayList<>());
+        return routingTable.get().getShards(tableName);
     }
 
-    public List<ShardInfo> getWorkerShards(String workerId) {
-        List<ShardInfo> workerShards = new ArrayList<>();
+    public synchronized void setDistribution(String tableName, ShardType shardType, String shardKeyColumn) {
+        setDistribution(tableName, shardType, shardKeyColumn, getColocationGroup(tableName));
+    }
 
-        for (List<ShardInfo> tableShards : shards.values()) {
-            for (ShardInfo shard : tableShards) {
-                if (shard.getWorkerId().equals(workerId)) {
-                    workerShards.add(shard);
+    /**
+     * Sets how a table is distributed. Tables given the same colocation group
+     * are expected to be sharded on the same key with aligned shards, which
+     * lets joins between them on that key run shard-locally.
+     */
+    public synchronized void setDistribution(String tableName, ShardType shardType, String shardKeyColumn,
+            String colocationGroup) {
+        persist(c -> c.appendDistribution(tableName, shardType, shardKeyColumn, colocationGroup));
+        routingTable.set(routingTable.get().withDistribution(tableName, shardType, shardKeyColumn, colocationGroup));
+    }
+
+    /**
+     * Records a secondary index. Returns false if the table already has an
+     * index of that name, which is left as it is.
+     */
+    public synchronized boolean createIndex(IndexDefinition index) {
+        for (IndexDefinition existing : routingTable.get().getIndexes(index.getTableName())) {
+            if (existing.getName().equalsIgnoreCase(index.getName())) {
+                if (existing.isGlobal()) {
+                    throw new IllegalArgumentException("Index " + index.getName()
+                            + " already exists as a global index");
+                }
+                return false;
+            }
+        }
+        persist(c -> c.appendIndex(index));
+        routingTable.set(routingTable.get().withIndex(index));
+        AppLogger.info("Recorded index {}", index);
+        return true;
+    }
+
+    /**
+     * Records a global index, not yet ready, and creates the table holding
+     * it: hash-sharded on the indexed column with one shard per worker of the
+     * base table, replicated like the default tables. Returns the recorded
+     * index, which is the existing one if the table has a global index of
+     * that name already.
+     */
+    public synchronized IndexDefinition createGlobalIndex(IndexDefinition index) {
+        RoutingTable current = routingTable.get();
+        String name = index.getName();
+        for (IndexDefinition existing : current.getIndexes(index.getTableName())) {
+            if (existing.getName().equalsIgnoreCase(name)) {
+                if (!existing.isGlobal()) {
+                    throw new IllegalArgumentException("Index " + name + " already exists as a local index");
+                }
+                return existing;
+            }
+        }
+        String shardKeyColumn = current.getShardKeyColumn(index.getTableName());
+        if (shardKeyColumn == null) {
+            throw new IllegalArgumentException("Unknown table or no shard key: " + index.getTableName());
+        }
+        if (shardKeyColumn.equalsIgnoreCase(index.getLeadingColumn())) {
+            throw new IllegalArgumentException(shardKeyColumn + " is the shard key of " + index.getTableName()
+                    + " and needs no global index");
+        }
+
+        // A table left by an earlier attempt that failed before recording the index is reused
+        boolean tableExists = current.getShardType(name) == ShardType.HASH
+                && index.getLeadingColumn().equalsIgnoreCase(current.getShardKeyColumn(name));
+        if (!tableExists) {
+            if (current.getTableNames().contains(name)) {
+                throw new IllegalArgumentException("Table " + name + " already exists");
+            }
+            List<String> workerIds = new ArrayList<>();
+            for (ShardInfo shard : current.getShards(index.getTableName())) {
+                if (!workerIds.contains(shard.getWorkerId())) {
+                    workerIds.add(shard.getWorkerId());
+                }
+            }
+            setDistribution(name, ShardType.HASH, index.getLeadingColumn(), null);
+            for (int i = 0; i < workerIds.size(); i++) {
+                ShardInfo shard = new ShardInfo(name + "_shard_" + (i + 1), workerIds.get(i), name, null, null, 0);
+                for (int r = 1; r < Math.min(DEFAULT_REPLICATION_FACTOR, workerIds.size()); r++) {
+                    shard.addReplica(workerIds.get((i + r) % workerIds.size()));
+                }
+                addShard(name, shard);
+            }
+        }
+
+        IndexDefinition recorded = new IndexDefinition(name, index.getTableName(), index.getColumns(), true, false);
+        persist(c -> c.appendIndex(recorded));
+        routingTable.set(routingTable.get().withIndex(recorded));
+        AppLogger.info("Recorded index {}", recorded);
+        return recorded;
+    }
+
+    /**
+     * Marks a global index as built, so lookups start using it
+     */
+    public synchronized void markIndexReady(IndexDefinition index) {
+        IndexDefinition ready = index.asReady();
+        persist(c -> c.appendIndex(ready));
+        routingTable.set(routingTable.get().withIndex(ready));
+        AppLogger.info("Index {} is ready", ready.getName());
+    }
+
+    public List<IndexDefinition> getIndexes(String tableName) {
+        return routingTable.get().getIndexes(tableName);
+    }
+
+    /**
+     * Records a materialized view. Returns the recorded view, which is the
+     * existing one if a view of that name exists.
+     */
+    public synchronized ViewDefinition createView(ViewDefinition view) {
+        ViewDefinition existing = views.get(view.getName().toLowerCase());
+        if (existing != null) {
+            return existing;
+        }
+        RoutingTable current = routingTable.get();
+        if (current.getTableNames().contains(view.getName())) {
+            throw new IllegalArgumentException("A table named " + view.getName() + " already exists");
+        }
+        if (current.getShardKeyColumn(view.getTableName()) == null) {
+            throw new IllegalArgumentException("Unknown table or no shard key: " + view.getTableName());
+        }
+
+        persist(c -> c.appendView(view));
+        views.put(view.getName().toLowerCase(), view);
+        AppLogger.info("Recorded materialized view {}", view);
+        return view;
+    }
+
+    public List<ViewDefinition> getViews(String tableName) {
+        List<ViewDefinition> tableViews = new ArrayList<>();
+        for (ViewDefinition view : views.values()) {
+            if (view.getTableName().equalsIgnoreCase(tableName)) {
+                tableViews.add(view);
+            }
+        }
+        return tableViews;
+    }
+
+    public String getColocationGroup(String tableName) {
+        return routingTable.get().getColocationGroup(tableName);
+    }
+
+    /**
+     * Returns the other tables in the same colocation group as the table
+     */
+    public List<String> getColocatedTables(String tableName) {
+        RoutingTable current = routingTable.get();
+        String group = current.getColocationGroup(tableName);
+        List<String> colocated = new ArrayList<>();
+        if (group != null) {
+            for (String other : current.getTableNames()) {
+                if (!other.equals(tableName) && group.equals(current.getColocationGroup(other))) {
+                    colocated.add(other);
                 }
             }
         }
+        return colocated;
+    }
 
-        return workerShards;
+    public ShardType getShardType(String tableName) {
+        return routingTable.get().getShardType(tableName);
     }
 
-    public void addShard(String tableName, ShardInfo shard) {
-        shards.computeIfAbsent(tableName, k -> new ArrayList<>()).add(shard);
+    public String getShardKeyColumn(String tableName) {
+        return routingTable.get().getShardKeyColumn(tableName);
+    }
+
+    /**
+     * Routes a row's shard key value to the shard that owns it. Returns null if
+     * no shard owns the key.
+     */
+    public ShardInfo getShardForKey(String tableName, String keyValue) {
+        return routingTable.get().route(tableName, keyValue);
+    }
+
+    /**
+     * Range bounds are inclusive. Numeric bounds compare numerically; string
+     * bounds compare case-insensitively against the key's prefix of the same
+     * length, so "Mary" falls in the range A..M.
+     */
+    static boolean isKeyInRange(String key, String start, String end) {
+        if (key == null || start == null || end == null) {
+            return false;
+        }
+
+        try {
+            long value = Long.parseLong(key);
+            return value >= Long.parseLong(start) && value <= Long.parseLong(end);
+        } catch (NumberFormatException e) {
+            // Fall through to string comparison
+        }
+
+        String lowerKey = key.substring(0, Math.min(key.length(), start.length()));
+        String upperKey = key.substring(0, Math.min(key.length(), end.length()));
+        return lowerKey.compareToIgnoreCase(start) >= 0 && upperKey.compareToIgnoreCase(end) <= 0;
+    }
+
+    /**
+     * Returns true if some key between min and max (inclusive) could fall in
+     * the shard range, comparing the same way as {@link #isKeyInRange}
+     */
+    static boolean rangeOverlaps(String min, String max, String start, String end) {
+        if (min == null || max == null || start == null || end == null) {
+            return true;
+        }
+
+        if (isInteger(min) && isInteger(max)) {
+            // Integer bounds say nothing about how the keys order as strings
+            return !(isInteger(start) && isInteger(end))
+                    || Long.parseLong(max) >= Long.parseLong(start) && Long.parseLong(min) <= Long.parseLong(end);
+        }
+
+        String upperKey = max.substring(0, Math.min(max.length(), start.length()));
+        String lowerKey = min.substring(0, Math.min(min.length(), end.length()));
+        return upperKey.compareToIgnoreCase(start) >= 0 && lowerKey.compareToIgnoreCase(end) <= 0;
+    }
+
+    static boolean isInteger(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public List<ShardInfo> getWorkerShards(String workerId) {
+        return routingTable.get().getWorkerShards(workerId);
+    }
+
+    public synchronized void addShard(String tableName, ShardInfo shard) {
+        persist(c -> c.appendShard(tableName, shard));
+        routingTable.set(routingTable.get().withShard(tableName, shard));
         AppLogger.info("Added shard {} for table {} to worker {}",
                 shard.getShardId(), tableName, shard.getWorkerId());
     }
 
+    /**
+     * Places an additional read replica of a shard on the given worker
+     */
+    public synchronized void addReplica(String tableName, String shardId, String workerId) {
+        ShardInfo shard = routingTable.get().getShard(tableName, shardId);
+        if (shard == null) {
+            AppLogger.warn("Cannot add replica: shard {} not found for table {}", shardId, tableName);
+            return;
+        }
+
+        ShardInfo updated = new ShardInfo(shard);
+        updated.addReplica(workerId);
+        persist(c -> c.appendShard(tableName, updated));
+        routingTable.set(routingTable.get().withShard(tableName, updated));
+        AppLogger.info("Added replica of shard {} on worker {}", shardId, workerId);
+    }
+
+    /**
+     * Splits a RANGE shard in two. The shard keeps [start, lowerEnd] and a new
+     * shard on the same workers takes [upperStart, end], so no data moves until
+     * the new shard is migrated. Returns the new shard.
+     */
+    public synchronized ShardInfo splitShard(String tableName, String shardId, String lowerEnd, String upperStart) {
+        RoutingTable current = routingTable.get();
+        ShardInfo original = current.getShard(tableName, shardId);
+        if (original == null) {
+            throw new IllegalArgumentException("Shard " + shardId + " not found for table " + tableName);
+        }
+
+        ShardInfo lower = new ShardInfo(original);
+        lower.setKeyRangeEnd(lowerEnd);
+        lower.setRowCount(original.getRowCount() / 2);
+
+        ShardInfo upper = new ShardInfo(original);
+        upper.setShardId(nextShardId(current, tableName));
+        upper.setKeyRangeStart(upperStart);
+        upper.setRowCount(original.getRowCount() - lower.getRowCount());
+
+        persist(c -> {
+            c.appendShard(tableName, lower);
+            c.appendShard(tableName, upper);
+        });
+        routingTable.set(current.withShard(tableName, lower).withShard(tableName, upper));
+
+        AppLogger.info("Split shard {} of table {} at {}: new shard {} covers {}..{}",
+                shardId, tableName, upperStart, upper.getShardId(), upperStart, upper.getKeyRangeEnd());
+        return upper;
+    }
+
+    /**
+     * Returns an id one past the highest shard number of the table. Counting
+     * the shards is not enough: after a split of a middle shard the count may
+     * equal an id already in use, and the new shard would replace that one.
+     */
+    static String nextShardId(RoutingTable routing, String tableName) {
+        String prefix = tableName + "_shard_";
+        long highest = 0;
+        for (ShardInfo shard : routing.getShards(tableName)) {
+            String shardId = shard.getShardId();
+            if (shardId.startsWith(prefix) && shardId.substring(prefix.length()).matches("\\d+")) {
+                highest = Math.max(highest, Long.parseLong(shardId.substring(prefix.length())));
+            }
+        }
+        return prefix + (highest + 1);
+    }
+
+    /**
+     * Marks a shard as being copied to a target worker. Writes to the shard
+     * should also go to the target until the migration completes or aborts.
+     * Callers change the target only with the table's write fence closed, so
+     * no write routed without it is still in flight.
+     */
+    public void beginMigration(String shardId, String targetWorkerId) {
+        migrationTargets.put(shardId, targetWorkerId);
+    }
+
+    /**
+     * Returns the write fence of a table. Writers enter it before reading the
+     * routing table and exit once their rows are written.
+     */
+    WriteFence getWriteFence(String tableName) {
+        return writeFences.computeIfAbsent(tableName.toLowerCase(), name -> new WriteFence());
+    }
+
+    public String getMigrationTarget(String shardId) {
+        return migrationTargets.get(shardId);
+    }
+
+    public void abortMigration(String shardId) {
+        migrationTargets.remove(shardId);
+    }
+
+    /**
+     * Marks a new shard as joining a HASH table's ring. The keys the ring
+     * will route to it stay with their current shards for reads, but their
+     * writes also go to the new shard's workers until it joins or is given
+     * up. Callers change it only with the table's write fence closed, as for
+     * a migration target.
+     */
+    public synchronized void beginRingShard(String tableName, ShardInfo shard) {
+        List<ShardInfo> ring = new ArrayList<>(routingTable.get().getShards(tableName));
+        ring.add(shard);
+        joiningRingShards.put(tableName.toLowerCase(), new RingShard(shard, new ConsistentHashRing(ring)));
+    }
+
+    /**
+     * Returns the workers of the shard joining the table's ring if a write of
+     * the key (null = a statement, which may touch any key) should also reach
+     * them, otherwise none
+     */
+    public List<String> getRingShardTargets(String tableName, String key) {
+        RingShard joining = joiningRingShards.get(tableName.toLowerCase());
+        if (joining == null) {
+            return List.of();
+        }
+        if (key != null && !joining.shard.getShardId().equals(joining.ring.route(key).getShardId())) {
+            return List.of();
+        }
+        return joining.shard.getReplicaWorkerIds();
+    }
+
+    public void abortRingShard(String tableName) {
+        joiningRingShards.remove(tableName.toLowerCase());
+    }
+
+    /**
+     * Adds the joining shard to the table's ring once its workers hold its
+     * keys, so they are read there from then on
+     */
+    public synchronized void completeRingShard(String tableName) {
+        RingShard joining = joiningRingShards.remove(tableName.toLowerCase());
+        if (joining == null) {
+            throw new IllegalStateException("No shard is joining the ring of " + tableName);
+        }
+        addShard(tableName, joining.shard);
+    }
+
+    /**
+     * Atomically switches a shard from the source worker to the target worker
+     * once the target holds a complete copy. A new routing table is published,
+     * so a concurrent planner sees either the old or the new placement, never
+     * a mix.
+     */
+    public synchronized void completeMigration(String tableName, String shardId, String sourceWorkerId,
+            String targetWorkerId) {
+        ShardInfo shard = routingTable.get().getShard(tableName, shardId);
+        if (shard == null) {
+            migrationTargets.remove(shardId);
+            throw new IllegalArgumentException("Shard " + shardId + " not found for table " + tableName);
+        }
+
+        ShardInfo moved = new ShardInfo(shard);
+        List<String> replicas = moved.getReplicaWorkerIds();
+        replicas.replaceAll(workerId -> workerId.equals(sourceWorkerId) ? targetWorkerId : workerId);
+        if (moved.getWorkerId().equals(sourceWorkerId)) {
+            moved.setWorkerId(targetWorkerId);
+        }
+
+        persist(c -> c.appendShard(tableName, moved));
+        routingTable.set(routingTable.get().withShard(tableName, moved));
+        migrationTargets.remove(shardId);
+
+        AppLogger.info("Moved shard {} of table {} from worker {} to worker {}",
+                shardId, tableName, sourceWorkerId, targetWorkerId);
+    }
+
+    /**
+     * Refreshes a shard's row count. Row counts only feed cost estimates and
+     * split decisions, so the snapshot keeps its version and nothing is persisted.
+     */
+    public synchronized void updateShardRowCount(String tableName, String shardId, long rowCount) {
+        routingTable.set(routingTable.get().withRowCount(tableName, shardId, rowCount));
+    }
+
+    /**
+     * Counts a planned read of a shard, used to detect hot shards
+     */
+    public void recordShardRead(String shardId) {
+        shardReads.computeIfAbsent(shardId, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns the reads per shard since the previous call and resets the counters
+     */
+    public Map<String, Long> drainShardReads() {
+        Map<String, Long> reads = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : shardReads.entrySet()) {
+            reads.put(entry.getKey(), entry.getValue().getAndSet(0));
+        }
+        return reads;
+    }
+
     public Map<String, List<String>> getShardDistribution() {
+        RoutingTable current = routingTable.get();
         Map<String, List<String>> distribution = new HashMap<>();
 
-        for (Map.Entry<String, List<ShardInfo>> entry : shards.entrySet()) {
-            String tableName = entry.getKey();
+        for (String tableName : current.getTableNames()) {
             List<String> workers = new ArrayList<>();
 
-            for (ShardInfo shard : entry.getValue()) {
-                if (!workers.contains(shard.getWorkerId())) {
-                    workers.add(shard.getWorkerId());
+            for (ShardInfo shard : current.getShards(tableName)) {
+                for (String replicaWorkerId : shard.getReplicaWorkerIds()) {
+                    if (!workers.contains(replicaWorkerId)) {
+                        workers.add(replicaWorkerId);
+                    }
                 }
             }
 
@@ -92,13 +658,15 @@ public class ShardManager {
     }
 
     public long getTotalRows() {
-        return shards.values().stream()
-                .flatMap(List::stream)
+        RoutingTable current = routingTable.get();
+        return current.getTableNames().stream()
+                .flatMap(tableName -> current.getShards(tableName).stream())
                 .mapToLong(ShardInfo::getRowCount)
                 .sum();
     }
 
-    public void registerWorker(String workerId, String address, int port) {
+    public synchronized void registerWorker(String workerId, String address, int port) {
+        persist(c -> c.appendWorker(workerId, address, port));
         WorkerInfo workerInfo = new WorkerInfo(workerId, address, port);
         workers.put(workerId, workerInfo);
         AppLogger.info("Registered worker: {} at {}:{}", workerId, address, port);
@@ -113,6 +681,35 @@ public class ShardManager {
         }
     }
 
+    /**
+     * Records that the coordinator sent a request to a worker
+     */
+    public void recordRequestStarted(String workerId) {
+        WorkerInfo workerInfo = workers.get(workerId);
+        if (workerInfo != null) {
+            workerInfo.requestStarted();
+        }
+    }
+
+    /**
+     * Records that a request to a worker finished after the given latency
+     */
+    public void recordRequestCompleted(String workerId, long latencyMs) {
+        WorkerInfo workerInfo = workers.get(workerId);
+        if (workerInfo != null) {
+            workerInfo.requestCompleted(latencyMs);
+        }
+    }
+
+    /**
+     * Returns the load score of a worker; workers that have not registered yet
+     * count as idle
+     */
+    public double getWorkerLoad(String workerId) {
+        WorkerInfo workerInfo = workers.get(workerId);
+        return workerInfo != null ? workerInfo.getLoadScore() : 1.0;
+    }
+
     public List<WorkerInfo> getActiveWorkers() {
         return new ArrayList<>(workers.values());
     }
@@ -132,15 +729,29 @@ public class ShardManager {
         return timeSinceLastHeartbeat < 30000;
     }
 
-    public void removeWorker(String workerId) {
+    public synchronized void removeWorker(String workerId) {
+        persist(c -> c.appendWorkerRemoval(workerId));
         workers.remove(workerId);
         AppLogger.warn("Removed worker: {}", workerId);
     }
 
+    private static final class RingShard {
+        final ShardInfo shard;
+        // The table's ring with the shard on it
+        final ConsistentHashRing ring;
+
+        RingShard(ShardInfo shard, ConsistentHashRing ring) {
+            this.shard = shard;
+            this.ring = ring;
+        }
+    }
+
     /**
      * Worker information for tracking worker status
      */
     public static class WorkerInfo {
+        private static final double LATENCY_EWMA_ALPHA = 0.2;
+
         private final String workerId;
         private final String address;
         private final int port;
@@ -148,6 +759,8 @@ public class ShardManager {
         private double memoryUsage;
         private int activeQueries;
         private long lastHeartbeat;
+        private final AtomicInteger inFlightRequests = new AtomicInteger();
+        private volatile double latencyEwmaMs;
 
         public WorkerInfo(String workerId, String address, int port) {
             this.workerId = workerId;
@@ -163,6 +776,26 @@ public class ShardManager {
             this.lastHeartbeat = System.currentTimeMillis();
         }
 
+        void requestStarted() {
+            inFlightRequests.incrementAndGet();
+        }
+
+        void requestCompleted(long latencyMs) {
+            inFlightRequests.decrementAndGet();
+            double previous = latencyEwmaMs;
+            latencyEwmaMs = previous == 0 ? latencyMs : previous + LATENCY_EWMA_ALPHA * (latencyMs - previous);
+        }
+
+        /**
+         * Load estimate used for replica selection: queued work (the worker's
+         * reported active queries or the coordinator's own in-flight requests,
+         * whichever is higher) weighted by recent response latency
+         */
+        public double getLoadScore() {
+            int queued = Math.max(activeQueries, inFlightRequests.get());
+            return (queued + 1) * Math.max(latencyEwmaMs, 1.0);
+        }
+
         // Getters
         public String getWorkerId() {
             return workerId;
@@ -0,0 +1,550 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background shard rebalancer. For RANGE tables it periodically refreshes
+ * shard row counts, splits shards that are oversized or hot, and moves the
+ * new half to the least loaded worker. Shards of colocated tables covering
+ * the same range move as a unit. A HASH table gains a shard on each worker
+ * that holds none of it, taking over the keys the ring then routes to it,
+ * about 1/N of the table. Copies run in small throttled batches while queries
+ * keep reading the source; routing switches over only once the copy is done.
+ *
+ * Writes during a move go to the source and the target. The table's
+ * {@link WriteFence} is closed while the target is announced, while each
+ * batch is read and written, and across the switch: rows behind the copy
+ * cursor reach the target through the write itself, rows ahead of it through
+ * a later batch, and no write lands between reading a batch and writing it,
+ * or between the last batch and the switch.
+ */
+public class ShardRebalancer {
+
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+    private static final long MAX_SHARD_ROWS = 1_000_000;
+    private static final double HOT_SHARD_READS_PER_SECOND = 50.0;
+    private static final int COPY_BATCH_SIZE = 1000;
+    private static final long MAX_COPY_BYTES_PER_SECOND = 8L * 1024 * 1024;
+    // Queries planned before the switch may still read the source for a while
+    private static final long SOURCE_CLEANUP_DELAY_SECONDS = 30;
+    // Longest wait for the writes in flight to a table to drain before a migration step gives up
+    private static final long FENCE_TIMEOUT_SECONDS = 30;
+
+    private final ShardManager shardManager;
+    private final Map<String, WorkerClient> workerClients;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    public ShardRebalancer(ShardManager shardManager, Map<String, WorkerClient> workerClients) {
+        this.shardManager = shardManager;
+        this.workerClients = workerClients;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::rebalance, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        AppLogger.info("Shard rebalancer started, checking every {}s", CHECK_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Runs one rebalancing pass. At most one shard is split and moved, or
+     * added to a ring, per pass to bound the extra load on the cluster.
+     */
+    public void rebalance() {
+        if (!rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshRowCounts();
+            Map<String, Long> reads = shardManager.drainShardReads();
+
+            for (String tableName : shardManager.getShardDistribution().keySet()) {
+                if (shardManager.getShardType(tableName) == ShardType.HASH) {
+                    Optional<String> newWorker = findWorkerWithoutShards(tableName);
+                    if (newWorker.isPresent() && addRingShard(tableName, newWorker.get())) {
+                        AppLogger.info("Rebalanced table {} onto worker {}", tableName, newWorker.get());
+                        return;
+                    }
+                    continue;
+                }
+                if (shardManager.getShardType(tableName) != ShardType.RANGE) {
+                    continue;
+                }
+
+                for (ShardInfo shard : shardManager.getShardsForTable(tableName)) {
+                    double readsPerSecond = reads.getOrDefault(shard.getShardId(), 0L)
+                            / (double) CHECK_INTERVAL_SECONDS;
+                    boolean oversized = shard.getRowCount() > MAX_SHARD_ROWS;
+                    boolean hot = readsPerSecond > HOT_SHARD_READS_PER_SECOND;
+
+                    if ((oversized || hot) && splitAndMove(tableName, shard)) {
+                        AppLogger.info("Rebalanced shard {} ({} rows, {} reads/s)",
+                                shard.getShardId(), shard.getRowCount(), readsPerSecond);
+                        return;
+                    }
+                }
+            }
+
+        } catch (Exception e) {
+            AppLogger.error("Error during shard rebalancing", e);
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    private void refreshRowCounts() {
+        for (String tableName : shardManager.getShardDistribution().keySet()) {
+            if (shardManager.getShardType(tableName) != ShardType.RANGE) {
+                continue;
+            }
+
+            for (ShardInfo shard : shardManager.getShardsForTable(tableName)) {
+                WorkerClient client = workerClients.get(shard.getWorkerId());
+                if (client == null) {
+                    continue;
+                }
+
+                GetShardStatsResponse response = client.getShardStats(List.of(toShardRange(tableName, shard)));
+                if (response != null && response.getSuccess()) {
+                    Long rows = response.getRowCountsMap().get(shard.getShardId());
+                    if (rows != null) {
+                        shardManager.updateShardRowCount(tableName, shard.getShardId(), rows);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean splitAndMove(String tableName, ShardInfo shard) {
+        String[] splitPoint = computeSplitPoint(shard.getKeyRangeStart(), shard.getKeyRangeEnd());
+        if (splitPoint == null) {
+            AppLogger.debug("Shard {} cannot be split further", shard.getShardId());
+            return false;
+        }
+
+        // Aligned shards of colocated tables are split and moved together so the tables stay colocated
+        RoutingTable routing = shardManager.getRoutingTable();
+        Map<String, ShardInfo> toSplit = new LinkedHashMap<>();
+        toSplit.put(tableName, shard);
+        for (String colocatedTable : shardManager.getColocatedTables(tableName)) {
+            ShardInfo aligned = routing.getAlignedShard(shard, colocatedTable);
+            if (aligned != null) {
+                toSplit.put(colocatedTable, aligned);
+            }
+        }
+
+        Map<String, ShardInfo> uppers = new LinkedHashMap<>();
+        for (Map.Entry<String, ShardInfo> entry : toSplit.entrySet()) {
+            uppers.put(entry.getKey(), shardManager.splitShard(entry.getKey(), entry.getValue().getShardId(),
+                    splitPoint[0], splitPoint[1]));
+        }
+
+        ShardInfo upper = uppers.get(tableName);
+        Optional<String> target = workerClients.keySet().stream()
+                .filter(workerId -> !upper.getReplicaWorkerIds().contains(workerId))
+                .min(Comparator.comparingDouble(shardManager::getWorkerLoad));
+        if (target.isEmpty()) {
+            AppLogger.info("No spare worker for shard {}, keeping it on worker {}",
+                    upper.getShardId(), upper.getWorkerId());
+            return true;
+        }
+
+        for (Map.Entry<String, ShardInfo> entry : uppers.entrySet()) {
+            migrate(entry.getKey(), entry.getValue(), target.get());
+        }
+        return true;
+    }
+
+    /**
+     * Copies a shard's rows to the target worker in key order, then switches
+     * routing and schedules the source rows for deletion. On failure the
+     * partial copy is removed and the shard stays where it was.
+     */
+    public void migrate(String tableName, ShardInfo shard, String targetWorkerId) {
+        String sourceWorkerId = shard.getWorkerId();
+        WorkerClient source = workerClients.get(sourceWorkerId);
+        WorkerClient target = workerClients.get(targetWorkerId);
+        if (source == null || target == null) {
+            AppLogger.warn("Cannot migrate shard {}: missing client for {} or {}",
+                    shard.getShardId(), sourceWorkerId, targetWorkerId);
+            return;
+        }
+
+        ShardRange range = toShardRange(tableName, shard);
+        // Indexes go first, so the target maintains them as the rows arrive
+        createIndexes(tableName, target, targetWorkerId);
+
+        // Writes routed before the target was known must land before the copy starts, or it may miss them
+        WriteFence fence = shardManager.getWriteFence(tableName);
+        try {
+            closeFence(fence, tableName);
+        } catch (Exception e) {
+            AppLogger.warn("Cannot migrate shard {}: {}", shard.getShardId(), e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        try {
+            shardManager.beginMigration(shard.getShardId(), targetWorkerId);
+        } finally {
+            fence.open();
+        }
+        AppLogger.info("Migrating shard {} from worker {} to worker {}",
+                shard.getShardId(), sourceWorkerId, targetWorkerId);
+
+        try {
+            long copiedRows = copyRows(source, target, range, fence);
+            try {
+                shardManager.completeMigration(tableName, shard.getShardId(), sourceWorkerId, targetWorkerId);
+            } finally {
+                fence.open();
+            }
+            AppLogger.info("Copied {} rows of shard {} to worker {}", copiedRows, shard.getShardId(), targetWorkerId);
+
+            scheduler.schedule(() -> source.deleteShardRows(range), SOURCE_CLEANUP_DELAY_SECONDS, TimeUnit.SECONDS);
+
+        } catch (Exception e) {
+            AppLogger.error("Migration of shard " + shard.getShardId() + " failed, rolling back", e);
+            abort(tableName, shard, range, target, fence);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the healthy worker holding no shard of the table, if any
+     */
+    private Optional<String> findWorkerWithoutShards(String tableName) {
+        Set<String> holders = new HashSet<>();
+        for (ShardInfo shard : shardManager.getShardsForTable(tableName)) {
+            holders.addAll(shard.getReplicaWorkerIds());
+        }
+        return workerClients.keySet().stream()
+                .filter(workerId -> !holders.contains(workerId) && shardManager.isWorkerHealthy(workerId))
+                .sorted()
+                .findFirst();
+    }
+
+    /**
+     * Adds a shard on the target worker to a HASH table's ring. The keys the
+     * new ring routes to it are copied from the workers of the current shards
+     * while writes of those keys also reach it; the ring switches once the
+     * copy is done and the former holders drop the keys later. Returns false,
+     * leaving the ring as it was, if the shard could not be added.
+     */
+    public boolean addRingShard(String tableName, String targetWorkerId) {
+        List<ShardInfo> shards = shardManager.getShardsForTable(tableName);
+        if (shards.isEmpty() || !workerClients.containsKey(targetWorkerId)) {
+            return false;
+        }
+
+        RoutingTable routing = shardManager.getRoutingTable();
+        ShardInfo shard = new ShardInfo(ShardManager.nextShardId(routing, tableName), targetWorkerId, tableName,
+                null, null, 0);
+        int replicationFactor = shards.stream().mapToInt(s -> s.getReplicaWorkerIds().size()).max().orElse(1);
+        workerClients.keySet().stream()
+                .filter(workerId -> !workerId.equals(targetWorkerId))
+                .sorted(Comparator.comparingDouble(shardManager::getWorkerLoad).thenComparing(Comparator.naturalOrder()))
+                .limit(replicationFactor - 1)
+                .forEach(shard::addReplica);
+
+        // Every key is read from the primary of its current shard, and dropped later by every former holder
+        Set<String> sources = new TreeSet<>();
+        Set<String> holders = new TreeSet<>();
+        List<String> ringShardIds = new ArrayList<>();
+        for (ShardInfo current : shards) {
+            sources.add(current.getWorkerId());
+            holders.addAll(current.getReplicaWorkerIds());
+            ringShardIds.add(current.getShardId());
+        }
+        ringShardIds.add(shard.getShardId());
+        ShardRange range = toRingShardRange(tableName, shard, ringShardIds);
+        for (String workerId : sources) {
+            if (!workerClients.containsKey(workerId)) {
+                AppLogger.warn("Cannot add shard {}: missing client for {}", shard.getShardId(), workerId);
+                return false;
+            }
+        }
+
+        // Statements during the copy reach the new workers too, so they need the table before it starts
+        ReadShardRowsResponse schema = workerClients.get(sources.iterator().next()).readShardRows(range, "", 1);
+        if (schema == null || !schema.getSuccess()) {
+            AppLogger.warn("Cannot add shard {}: could not read the columns of {}", shard.getShardId(), tableName);
+            return false;
+        }
+        for (String workerId : shard.getReplicaWorkerIds()) {
+            if (!holders.contains(workerId)) {
+                WorkerClient target = workerClients.get(workerId);
+                CreateTableResponse created = target.createTable(tableName, schema.getColumnsList());
+                if (created == null || !created.getSuccess()) {
+                    AppLogger.warn("Cannot add shard {}: could not create {} on worker {}",
+                            shard.getShardId(), tableName, workerId);
+                    return false;
+                }
+                createIndexes(tableName, target, workerId);
+            }
+        }
+
+        WriteFence fence = shardManager.getWriteFence(tableName);
+        try {
+            closeFence(fence, tableName);
+        } catch (Exception e) {
+            AppLogger.warn("Cannot add shard {}: {}", shard.getShardId(), e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+        try {
+            shardManager.beginRingShard(tableName, shard);
+        } finally {
+            fence.open();
+        }
+        AppLogger.info("Adding shard {} of table {} on workers {}", shard.getShardId(), tableName,
+                shard.getReplicaWorkerIds());
+
+        try {
+            long copiedRows = 0;
+            boolean fenced = false;
+            for (String targetId : shard.getReplicaWorkerIds()) {
+                for (String sourceId : sources) {
+                    if (sourceId.equals(targetId)) {
+                        continue;
+                    }
+                    // Each copy returns with the fence closed; only the last one keeps it closed for the switch
+                    if (fenced) {
+                        fence.open();
+                    }
+                    copiedRows += copyRows(workerClients.get(sourceId), workerClients.get(targetId), range, fence);
+                    fenced = true;
+                }
+            }
+            if (!fenced) {
+                closeFence(fence, tableName);
+            }
+            try {
+                shardManager.completeRingShard(tableName);
+            } finally {
+                fence.open();
+            }
+            AppLogger.info("Copied {} rows of shard {} to workers {}", copiedRows, shard.getShardId(),
+                    shard.getReplicaWorkerIds());
+
+            for (String workerId : holders) {
+                if (!shard.getReplicaWorkerIds().contains(workerId)) {
+                    WorkerClient holder = workerClients.get(workerId);
+                    if (holder != null) {
+                        scheduler.schedule(() -> holder.deleteShardRows(range), SOURCE_CLEANUP_DELAY_SECONDS,
+                                TimeUnit.SECONDS);
+                    }
+                }
+            }
+            return true;
+
+        } catch (Exception e) {
+            AppLogger.error("Adding shard " + shard.getShardId() + " failed, rolling back", e);
+            abortRingShard(tableName, shard, range, holders, fence);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stops writes going to the new shard's workers, then removes the partial
+     * copy from those that held none of the table. A former holder keeps the
+     * copied keys, which its own shards do not cover, until a later attempt.
+     */
+    private void abortRingShard(String tableName, ShardInfo shard, ShardRange range, Set<String> holders,
+            WriteFence fence) {
+        boolean fenced = false;
+        try {
+            closeFence(fence, tableName);
+            fenced = true;
+        } catch (Exception e) {
+            AppLogger.warn("Aborting shard {} without a fence: {}", shard.getShardId(), e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            shardManager.abortRingShard(tableName);
+        } finally {
+            if (fenced) {
+                fence.open();
+            }
+        }
+        for (String workerId : shard.getReplicaWorkerIds()) {
+            if (!holders.contains(workerId)) {
+                workerClients.get(workerId).deleteShardRows(range);
+            }
+        }
+    }
+
+    private void createIndexes(String tableName, WorkerClient target, String targetWorkerId) {
+        for (IndexDefinition index : shardManager.getIndexes(tableName)) {
+            if (index.isGlobal()) {
+                // Global indexes live in tables of their own, which do not move with the shard
+                continue;
+            }
+            CreateIndexResponse response = target.createIndex(tableName, index.getName(), index.getColumns());
+            if (response == null || !response.getSuccess()) {
+                AppLogger.warn("Could not create index {} on worker {}", index.getName(), targetWorkerId);
+            }
+        }
+    }
+
+    /**
+     * Stops writes going to the target, then removes the partial copy. The
+     * fence makes sure no write sent to the target lands after the delete.
+     */
+    private void abort(String tableName, ShardInfo shard, ShardRange range, WorkerClient target, WriteFence fence) {
+        boolean fenced = false;
+        try {
+            closeFence(fence, tableName);
+            fenced = true;
+        } catch (Exception e) {
+            AppLogger.warn("Aborting migration of shard {} without a fence: {}", shard.getShardId(), e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            shardManager.abortMigration(shard.getShardId());
+        } finally {
+            if (fenced) {
+                fence.open();
+            }
+        }
+        target.deleteShardRows(range);
+    }
+
+    /**
+     * Copies the range batch by batch, each with writes to the table fenced.
+     * Returns with the fence still closed after the last batch, so the caller
+     * switches routing before any further write.
+     */
+    private long copyRows(WorkerClient source, WorkerClient target, ShardRange range, WriteFence fence)
+            throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long copiedBytes = 0;
+        long copiedRows = 0;
+        String cursor = "";
+
+        while (true) {
+            closeFence(fence, range.getTableName());
+            boolean done = false;
+            try {
+                ReadShardRowsResponse batch = source.readShardRows(range, cursor, COPY_BATCH_SIZE);
+                if (batch == null || !batch.getSuccess()) {
+                    throw new IllegalStateException("Failed to read shard rows: "
+                            + (batch != null ? batch.getMessage() : "no response"));
+                }
+
+                if (batch.getRowsCount() > 0) {
+                    WriteShardRowsResponse written = target.writeShardRows(range.getTableName(),
+                            batch.getColumnsList(), batch.getRowsList());
+                    if (written == null || !written.getSuccess()) {
+                        throw new IllegalStateException("Failed to write shard rows: "
+                                + (written != null ? written.getMessage() : "no response"));
+                    }
+                    copiedRows += batch.getRowsCount();
+                    copiedBytes += batch.getSerializedSize();
+                    cursor = batch.getLastKey();
+                }
+
+                done = batch.getDone() || batch.getRowsCount() == 0;
+                if (done) {
+                    return copiedRows;
+                }
+            } finally {
+                if (!done) {
+                    fence.open();
+                }
+            }
+
+            // Throttle so the copy never exceeds its bandwidth budget
+            long expectedElapsedMs = copiedBytes * 1000 / MAX_COPY_BYTES_PER_SECOND;
+            long actualElapsedMs = System.currentTimeMillis() - startTime;
+            if (expectedElapsedMs > actualElapsedMs) {
+                Thread.sleep(expectedElapsedMs - actualElapsedMs);
+            }
+        }
+    }
+
+    private static void closeFence(WriteFence fence, String tableName) throws InterruptedException {
+        if (!fence.close(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(FENCE_TIMEOUT_SECONDS))) {
+            throw new IllegalStateException("Writes to " + tableName + " did not drain within "
+                    + FENCE_TIMEOUT_SECONDS + "s");
+        }
+    }
+
+    /**
+     * Returns {lowerEnd, upperStart} splitting a numeric or single-letter range
+     * in the middle, or null if the range is too narrow to split
+     */
+    static String[] computeSplitPoint(String start, String end) {
+        if (start == null || end == null) {
+            return null;
+        }
+
+        if (start.matches("-?\\d+") && end.matches("-?\\d+")) {
+            long low = Long.parseLong(start);
+            long high = Long.parseLong(end);
+            if (high - low < 1) {
+                return null;
+            }
+            long mid = low + (high - low) / 2;
+            return new String[] { String.valueOf(mid), String.valueOf(mid + 1) };
+        }
+
+        if (start.length() == 1 && end.length() == 1) {
+            char low = Character.toUpperCase(start.charAt(0));
+            char high = Character.toUpperCase(end.charAt(0));
+            if (high - low < 1) {
+                return null;
+            }
+            char mid = (char) (low + (high - low) / 2);
+            return new String[] { String.valueOf(mid), String.valueOf((char) (mid + 1)) };
+        }
+
+        return null;
+    }
+
+    private ShardRange toShardRange(String tableName, ShardInfo shard) {
+        return ShardRange.newBuilder()
+                .setShardId(shard.getShardId())
+                .setTableName(tableName)
+                .setKeyColumn(shardManager.getShardKeyColumn(tableName))
+                .setKeyRangeStart(shard.getKeyRangeStart())
+                .setKeyRangeEnd(shard.getKeyRangeEnd())
+                .build();
+    }
+
+    private ShardRange toRingShardRange(String tableName, ShardInfo shard, List<String> ringShardIds) {
+        return ShardRange.newBuilder()
+                .setShardId(shard.getShardId())
+                .setTableName(tableName)
+                .setKeyColumn(shardManager.getShardKeyColumn(tableName))
+                .addAllRingShardIds(ringShardIds)
+                .build();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,351 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs INSERT, UPDATE and DELETE statements atomically across workers. A
+ * write is sent to every worker holding a replica of an affected shard (and to
+ * the target of a shard being migrated). With a single participant the worker
+ * commits locally in one round trip; otherwise the coordinator runs two-phase
+ * commit: every participant prepares with PREPARE TRANSACTION, the commit
+ * decision is logged durably, and only then are the participants told to
+ * commit. Replicas are written in the same transaction rather than synced
+ * afterwards, so with more than one replica even a single-shard write takes
+ * two phases: the one-phase path serves only tables with a replication factor
+ * of 1, or writes whose shards' replicas all sit on one worker.
+ *
+ * Each shard's rows are counted on one participant only, its primary, so
+ * the rows affected do not depend on how many copies a row has.
+ *
+ * A write holds its table's {@link WriteFence} from routing until it commits
+ * or aborts, so the shard rebalancer never switches a shard while a write
+ * routed by the old placement is still in flight.
+ *
+ * Prepared transactions left behind by a crash are resolved by
+ * {@link #resolveInDoubt()}, at startup and periodically: logged commits are
+ * re-sent, and any other prepared transaction of ours is rolled back.
+ */
+public class TransactionCoordinator {
+
+    // Prefix of every transaction id, so recovery only touches our own prepared transactions
+    static final String TRANSACTION_PREFIX = "dsql_";
+    private static final long RESOLVE_INTERVAL_SECONDS = 60;
+
+    private final ShardManager shardManager;
+    private final Map<String, WorkerClient> workerClients;
+    private final ExecutorService executor;
+    private final TransactionLog transactionLog;
+    private final ScheduledExecutorService scheduler;
+    // Transactions between prepare and the end of commit/abort, which recovery must leave alone
+    private final Set<String> activeTransactions = ConcurrentHashMap.newKeySet();
+
+    public TransactionCoordinator(ShardManager shardManager, Map<String, WorkerClient> workerClients,
+            ExecutorService executor, TransactionLog transactionLog) {
+        this.shardManager = shardManager;
+        this.workerClients = workerClients;
+        this.executor = executor;
+        this.transactionLog = transactionLog;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::resolveInDoubt, 0, RESOLVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Executes a write statement and returns the number of rows affected.
+     * Throws if the write was aborted.
+     */
+    public long execute(Query query, long deadlineMs) throws Exception {
+        String tableName = query.getFromTables().get(0);
+        String transactionId = TRANSACTION_PREFIX + UUID.randomUUID().toString().replace("-", "");
+
+        // Entered before the routing snapshot, so a shard cannot switch workers while this write is routed by it
+        WriteFence fence = shardManager.getWriteFence(tableName);
+        if (!fence.enter(deadlineMs)) {
+            throw Status.DEADLINE_EXCEEDED
+                    .withDescription("Writes to " + tableName + " were held back past the query deadline")
+                    .asRuntimeException();
+        }
+
+        try {
+            RoutingTable routing = shardManager.getRoutingTable();
+            Map<String, ExecuteWriteRequest.Builder> writes = query.isInsert()
+                    ? buildInsertWrites(routing, tableName, query)
+                    : buildStatementWrites(routing, tableName, query);
+            if (writes.isEmpty()) {
+                return 0;
+            }
+
+            // One participant only if each affected shard has a single replica, or all its replicas on that worker
+            boolean onePhase = writes.size() == 1;
+            for (Map.Entry<String, ExecuteWriteRequest.Builder> write : writes.entrySet()) {
+                write.getValue()
+                        .setTransactionId(transactionId)
+                        .setOnePhase(onePhase)
+                        .setDeadlineMs(deadlineMs);
+                ShardScope countScope = countScope(routing, tableName, write.getKey(), query);
+                if (countScope != null) {
+                    write.getValue().addCountScopes(countScope);
+                }
+            }
+
+            if (onePhase) {
+                Map.Entry<String, ExecuteWriteRequest.Builder> write = writes.entrySet().iterator().next();
+                ExecuteWriteResponse response = client(write.getKey()).executeWrite(write.getValue().build());
+                if (response == null || !response.getSuccess()) {
+                    throw new IllegalStateException("Write failed on worker " + write.getKey() + ": "
+                            + (response != null ? response.getMessage() : "no response"));
+                }
+                return response.getRowsAffected();
+            }
+
+            return executeTwoPhase(transactionId, writes, deadlineMs);
+        } finally {
+            fence.exit();
+        }
+    }
+
+    /**
+     * Runs both phases and returns the rows affected summed over all
+     * participants' count scopes
+     */
+    private long executeTwoPhase(String transactionId, Map<String, ExecuteWriteRequest.Builder> writes,
+            long deadlineMs) throws Exception {
+        List<String> participants = new ArrayList<>(writes.keySet());
+        activeTransactions.add(transactionId);
+
+        try {
+            // Phase 1: every participant runs the write and prepares
+            Map<String, Future<ExecuteWriteResponse>> prepares = new LinkedHashMap<>();
+            for (Map.Entry<String, ExecuteWriteRequest.Builder> write : writes.entrySet()) {
+                WorkerClient client = client(write.getKey());
+                ExecuteWriteRequest request = write.getValue().build();
+                prepares.put(write.getKey(), executor.submit(() -> client.executeWrite(request)));
+            }
+
+            long rowsAffected = 0;
+            String failure = null;
+            for (Map.Entry<String, Future<ExecuteWriteResponse>> prepare : prepares.entrySet()) {
+                ExecuteWriteResponse response;
+                try {
+                    // A deadline of 0 means none
+                    response = deadlineMs > 0
+                            ? prepare.getValue().get(Math.max(0, deadlineMs - System.currentTimeMillis()),
+                                    TimeUnit.MILLISECONDS)
+                            : prepare.getValue().get();
+                } catch (TimeoutException e) {
+                    prepare.getValue().cancel(true);
+                    response = null;
+                }
+
+                if (response != null && response.getSuccess()) {
+                    rowsAffected += response.getRowsAffected();
+                } else if (failure == null) {
+                    failure = "Worker " + prepare.getKey() + " could not prepare: "
+                            + (response != null ? response.getMessage() : "no response before deadline");
+                }
+            }
+
+            if (failure != null) {
+                // Presumed abort: nothing was logged, so roll back whatever did prepare
+                finishOnAll(transactionId, participants, false);
+                throw new IllegalStateException("Transaction " + transactionId + " aborted. " + failure);
+            }
+
+            // Phase 2: the logged decision is the commit point
+            transactionLog.logCommit(transactionId, participants);
+            if (finishOnAll(transactionId, participants, true)) {
+                transactionLog.logEnd(transactionId);
+            } else {
+                AppLogger.warn("Transaction {} committed but not acknowledged by all participants; "
+                        + "recovery will retry", transactionId);
+            }
+
+            AppLogger.info("Committed transaction {} on {} workers", transactionId, participants.size());
+            return rowsAffected;
+
+        } finally {
+            activeTransactions.remove(transactionId);
+        }
+    }
+
+    /**
+     * Sends commit or rollback to every participant in parallel. Returns true
+     * if all of them acknowledged.
+     */
+    private boolean finishOnAll(String transactionId, Collection<String> participants, boolean commit) {
+        List<Future<FinishTransactionResponse>> finishes = new ArrayList<>();
+        for (String workerId : participants) {
+            WorkerClient client = workerClients.get(workerId);
+            finishes.add(client != null
+                    ? executor.submit(() -> client.finishTransaction(transactionId, commit))
+                    : CompletableFuture.completedFuture(null));
+        }
+
+        boolean acknowledged = true;
+        for (Future<FinishTransactionResponse> finish : finishes) {
+            try {
+                FinishTransactionResponse response = finish.get();
+                acknowledged &= response != null && response.getSuccess();
+            } catch (Exception e) {
+                acknowledged = false;
+            }
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Completes logged commits that some participant has not acknowledged and
+     * rolls back our prepared transactions that have no commit record
+     */
+    public void resolveInDoubt() {
+        try {
+            for (Map.Entry<String, List<String>> pending : transactionLog.getPendingCommits().entrySet()) {
+                if (finishOnAll(pending.getKey(), pending.getValue(), true)) {
+                    transactionLog.logEnd(pending.getKey());
+                    AppLogger.info("Recovered commit of transaction {}", pending.getKey());
+                }
+            }
+
+            for (Map.Entry<String, WorkerClient> worker : workerClients.entrySet()) {
+                ListPreparedTransactionsResponse prepared = worker.getValue()
+                        .listPreparedTransactions(TRANSACTION_PREFIX);
+                if (prepared == null || !prepared.getSuccess()) {
+                    continue;
+                }
+
+                for (String transactionId : prepared.getTransactionIdsList()) {
+                    if (activeTransactions.contains(transactionId) || transactionLog.isCommitted(transactionId)) {
+                        continue;
+                    }
+                    FinishTransactionResponse response = worker.getValue().finishTransaction(transactionId, false);
+                    if (response != null && response.getSuccess()) {
+                        AppLogger.info("Rolled back in-doubt transaction {} on worker {}",
+                                transactionId, worker.getKey());
+                    }
+                }
+            }
+
+        } catch (Exception e) {
+            AppLogger.error("Error resolving in-doubt transactions", e);
+        }
+    }
+
+    private Map<String, ExecuteWriteRequest.Builder> buildInsertWrites(RoutingTable routing, String tableName,
+            Query query) {
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        int keyIndex = indexOfIgnoreCase(query.getInsertColumns(), shardKeyColumn);
+        if (keyIndex < 0) {
+            throw new IllegalArgumentException("INSERT into " + tableName + " must set shard key " + shardKeyColumn);
+        }
+
+        Map<String, ExecuteWriteRequest.Builder> writes = new LinkedHashMap<>();
+        for (List<String> values : query.getInsertRows()) {
+            ShardInfo shard = routing.route(tableName, values.get(keyIndex));
+            if (shard == null) {
+                throw new IllegalArgumentException("No shard of " + tableName + " owns key " + values.get(keyIndex));
+            }
+
+            Row row = BulkLoader.toRow(values);
+            for (String workerId : writeTargets(tableName, shard, values.get(keyIndex))) {
+                writes.computeIfAbsent(workerId, k -> ExecuteWriteRequest.newBuilder()
+                        .setTableName(tableName)
+                        .addAllColumns(query.getInsertColumns()))
+                        .addRows(row);
+            }
+        }
+        return writes;
+    }
+
+    private Map<String, ExecuteWriteRequest.Builder> buildStatementWrites(RoutingTable routing, String tableName,
+            Query query) {
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        if (query.getUpdateValues().keySet().stream().anyMatch(column -> column.equalsIgnoreCase(shardKeyColumn))) {
+            throw new IllegalArgumentException("Updating shard key " + shardKeyColumn + " is not supported");
+        }
+
+        // Each worker runs the statement against the rows it holds; the WHERE clause selects them
+        Map<String, ExecuteWriteRequest.Builder> writes = new LinkedHashMap<>();
+        for (ShardInfo shard : QueryPlanner.getTargetShards(routing, tableName, query)) {
+            for (String workerId : writeTargets(tableName, shard, null)) {
+                writes.computeIfAbsent(workerId, k -> ExecuteWriteRequest.newBuilder()
+                        .setSqlStatement(query.getSql()));
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Returns the workers a write to the shard goes to: its replicas, a
+     * worker it is being moved to and, if the key (null = a statement) is
+     * moving to a shard joining the table's hash ring, that shard's workers
+     */
+    private Set<String> writeTargets(String tableName, ShardInfo shard, String key) {
+        Set<String> targets = new LinkedHashSet<>(shard.getReplicaWorkerIds());
+        String migrationTarget = shardManager.getMigrationTarget(shard.getShardId());
+        if (migrationTarget != null) {
+            targets.add(migrationTarget);
+        }
+        targets.addAll(shardManager.getRingShardTargets(tableName, key));
+        return targets;
+    }
+
+    /**
+     * Returns the scope of the rows a participant counts: the target shards
+     * it is the primary of. Migration targets and other replicas count
+     * none, so each row is counted once. Returns null for a table without a
+     * shard key, whose participants count every row.
+     */
+    private static ShardScope countScope(RoutingTable routing, String tableName, String workerId, Query query) {
+        String shardKeyColumn = routing.getShardKeyColumn(tableName);
+        if (shardKeyColumn == null) {
+            return null;
+        }
+        List<ShardInfo> counted = new ArrayList<>();
+        for (ShardInfo shard : QueryPlanner.getTargetShards(routing, tableName, query)) {
+            if (workerId.equals(shard.getWorkerId())) {
+                counted.add(shard);
+            }
+        }
+        List<ShardScope> scopes = QueryPlanner.toShardScopes(routing, counted);
+        return !scopes.isEmpty() ? scopes.get(0) : ShardScope.newBuilder()
+                .setTableName(tableName)
+                .setKeyColumn(shardKeyColumn)
+                .build();
+    }
+
+    private WorkerClient client(String workerId) {
+        WorkerClient client = workerClients.get(workerId);
+        if (client == null) {
+            throw new IllegalStateException("No client for worker " + workerId);
+        }
+        return client;
+    }
+
+    private static int indexOfIgnoreCase(List<String> values, String value) {
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i).equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            transactionLog.close();
+        } catch (IOException e) {
+            AppLogger.error("Error closing transaction log", e);
+        }
+    }
+}
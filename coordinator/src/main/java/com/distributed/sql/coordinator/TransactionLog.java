@@ -0,0 +1,133 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.LogRecords;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Durable decision log for two-phase commit. Only commit decisions are logged
+ * (presumed abort): a transaction prepared on the workers without a COMMIT
+ * record is rolled back during recovery. A COMMIT record lists the
+ * participants so their prepared transactions can be committed again after a
+ * crash; an END record marks that every participant has acknowledged.
+ */
+public class TransactionLog implements Closeable {
+
+    private static final String LOG_FILE = "transactions.log";
+    // Truncate once this many records accumulate with no transaction pending
+    private static final int TRUNCATE_AFTER_RECORDS = 1000;
+
+    private static final byte COMMIT = 1;
+    private static final byte END = 2;
+
+    private final Path directory;
+    private final Map<String, List<String>> pendingCommits = new LinkedHashMap<>();
+    private FileChannel channel;
+    private int records;
+
+    public TransactionLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Replays the log to find committed transactions that some participant may
+     * not have applied yet, then opens the log for appending
+     */
+    public synchronized void load() throws IOException {
+        LogRecords.ReplayResult result = LogRecords.replay(directory.resolve(LOG_FILE), this::apply);
+        records = result.records;
+
+        channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(result.validLength);
+        channel.position(result.validLength);
+
+        AppLogger.info("Loaded transaction log with {} records, {} commits pending", records, pendingCommits.size());
+    }
+
+    /**
+     * Durably records the decision to commit. Once this returns, the
+     * transaction must be committed on every participant.
+     */
+    public synchronized void logCommit(String transactionId, List<String> participants) throws IOException {
+        append(LogRecords.encode(out -> {
+            out.writeByte(COMMIT);
+            out.writeUTF(transactionId);
+            out.writeInt(participants.size());
+            for (String participant : participants) {
+                out.writeUTF(participant);
+            }
+        }));
+        pendingCommits.put(transactionId, List.copyOf(participants));
+    }
+
+    /**
+     * Records that every participant has committed
+     */
+    public synchronized void logEnd(String transactionId) throws IOException {
+        append(LogRecords.encode(out -> {
+            out.writeByte(END);
+            out.writeUTF(transactionId);
+        }));
+        pendingCommits.remove(transactionId);
+
+        if (pendingCommits.isEmpty() && records >= TRUNCATE_AFTER_RECORDS) {
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            records = 0;
+        }
+    }
+
+    /**
+     * Returns committed transactions not yet acknowledged by all participants
+     */
+    public synchronized Map<String, List<String>> getPendingCommits() {
+        return new LinkedHashMap<>(pendingCommits);
+    }
+
+    public synchronized boolean isCommitted(String transactionId) {
+        return pendingCommits.containsKey(transactionId);
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        switch (in.readByte()) {
+            case COMMIT: {
+                String transactionId = in.readUTF();
+                int count = in.readInt();
+                List<String> participants = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    participants.add(in.readUTF());
+                }
+                pendingCommits.put(transactionId, participants);
+                break;
+            }
+            case END:
+                pendingCommits.remove(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown transaction log record type");
+        }
+    }
+
+    private void append(byte[] payload) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Transaction log must be loaded before appending");
+        }
+        LogRecords.append(channel, payload);
+        records++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
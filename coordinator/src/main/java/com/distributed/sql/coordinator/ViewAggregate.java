@@ -0,0 +1,69 @@
+package com.distributed.sql.coordinator;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An aggregate call in a SELECT list, such as COUNT(*) or SUM(amount)
+ */
+final class ViewAggregate {
+
+    private static final Pattern AGGREGATE_PATTERN = Pattern.compile(
+            "(COUNT|SUM|AVG|MIN|MAX)\\s*\\(\\s*(\\*|[\\w.]+)\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ALIAS_PATTERN = Pattern.compile(
+            "(.+?)\\s+AS\\s+(\\w+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // Upper case
+    final String function;
+    // Unqualified and lower case; null for COUNT(*)
+    final String column;
+
+    private ViewAggregate(String function, String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    /**
+     * Parses a SELECT item without its alias, or returns null if it is not an aggregate call
+     */
+    static ViewAggregate parse(String tableName, String expression) {
+        Matcher matcher = AGGREGATE_PATTERN.matcher(expression.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String column = matcher.group(2).equals("*") ? null
+                : QueryPlanner.unqualified(tableName, matcher.group(2)).toLowerCase();
+        if (column == null && !matcher.group(1).equalsIgnoreCase("COUNT")) {
+            throw new IllegalArgumentException(matcher.group(1).toUpperCase() + "(*) is not supported");
+        }
+        return new ViewAggregate(matcher.group(1).toUpperCase(), column);
+    }
+
+    boolean isCountAll() {
+        return column == null;
+    }
+
+    /**
+     * MIN and MAX cannot be maintained incrementally: deleting the minimum
+     * leaves no way to know the next one without rereading the group
+     */
+    boolean isIncremental() {
+        return !function.equals("MIN") && !function.equals("MAX");
+    }
+
+    /**
+     * Returns a SELECT item without its "AS alias"
+     */
+    static String expression(String item) {
+        Matcher matcher = ALIAS_PATTERN.matcher(item.trim());
+        return matcher.matches() ? matcher.group(1).trim() : item.trim();
+    }
+
+    /**
+     * Returns the name a SELECT item's result column gets: its alias, or the item itself
+     */
+    static String label(String item) {
+        Matcher matcher = ALIAS_PATTERN.matcher(item.trim());
+        return matcher.matches() ? matcher.group(2) : item.trim();
+    }
+}
@@ -0,0 +1,274 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Operator;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.utils.SQLParser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A materialized view as recorded in the shard catalog: a name and the
+ * aggregate SELECT defining it, over a single table, with ANDed comparisons
+ * in its WHERE clause and COUNT, SUM and AVG over GROUP BY columns.
+ *
+ * The view keeps, per group, the row count and, for every column it
+ * aggregates, the count and sum of its values. Those are enough to answer
+ * COUNT, SUM and AVG of that column by any subset of the GROUP BY columns,
+ * and to apply a write as a delta. Values that are not numbers are counted
+ * but not summed.
+ */
+public class ViewDefinition {
+
+    // Clauses the parser would silently drop, and which the view cannot answer
+    private static final List<String> UNSUPPORTED_KEYWORDS = List.of(
+            "NOT", "IS", "BETWEEN", "ORDER", "LIMIT", "HAVING", "DISTINCT");
+
+    private final String name;
+    private final String sql;
+    private final String tableName;
+    private final List<String> groupColumns;
+    private final List<String> measuredColumns;
+    private final List<Condition> conditions;
+
+    private ViewDefinition(String name, String sql, String tableName, List<String> groupColumns,
+            List<String> measuredColumns, List<Condition> conditions) {
+        this.name = name;
+        this.sql = sql;
+        this.tableName = tableName;
+        this.groupColumns = List.copyOf(groupColumns);
+        this.measuredColumns = List.copyOf(measuredColumns);
+        this.conditions = List.copyOf(conditions);
+    }
+
+    /**
+     * Parses the SELECT defining a view. Throws IllegalArgumentException if
+     * the view could not be maintained incrementally.
+     */
+    public static ViewDefinition parse(String name, String sql) {
+        Query query = new SQLParser().parse(sql);
+        if (!isSupported(query)) {
+            throw new IllegalArgumentException("A materialized view must select from a single table, with only "
+                    + "ANDed comparisons in its WHERE clause");
+        }
+        String tableName = query.getFromTables().get(0);
+
+        List<String> groupColumns = new ArrayList<>();
+        for (String column : query.getGroupByColumns()) {
+            groupColumns.add(QueryPlanner.unqualified(tableName, column).toLowerCase());
+        }
+        Set<String> measuredColumns = new LinkedHashSet<>();
+        boolean aggregates = false;
+        for (String item : query.getSelectColumns()) {
+            String expression = ViewAggregate.expression(item);
+            ViewAggregate aggregate = ViewAggregate.parse(tableName, expression);
+            if (aggregate == null) {
+                if (!groupColumns.contains(QueryPlanner.unqualified(tableName, expression).toLowerCase())) {
+                    throw new IllegalArgumentException(expression + " must be an aggregate or a GROUP BY column");
+                }
+                continue;
+            }
+            if (!aggregate.isIncremental()) {
+                throw new IllegalArgumentException(aggregate.function + " cannot be maintained incrementally");
+            }
+            aggregates = true;
+            if (!aggregate.isCountAll()) {
+                measuredColumns.add(aggregate.column);
+            }
+        }
+        if (!aggregates && groupColumns.isEmpty()) {
+            throw new IllegalArgumentException("A materialized view must aggregate or group its rows");
+        }
+
+        List<Condition> conditions = new ArrayList<>();
+        for (Condition condition : query.getWhereConditions()) {
+            if (condition.getOperator() == Operator.LIKE) {
+                throw new IllegalArgumentException("LIKE is not supported in a materialized view");
+            }
+            conditions.add(new Condition(QueryPlanner.unqualified(tableName, condition.getColumn()).toLowerCase(),
+                    condition.getOperator(), condition.getValue(), condition.getDataType()));
+        }
+        return new ViewDefinition(name, sql, tableName, groupColumns, new ArrayList<>(measuredColumns), conditions);
+    }
+
+    /**
+     * Returns true if the query is a single-table SELECT whose WHERE clause
+     * the parser captured in full
+     */
+    static boolean isSupported(Query query) {
+        if (!query.isSelect() || query.getFromTables().size() != 1 || query.hasJoins() || query.isDisjunctive()
+                || query.getSelectColumns().isEmpty()) {
+            return false;
+        }
+        return !hasUnsupportedClauses(query.getSql());
+    }
+
+    /**
+     * Returns true if the statement has clauses the parser does not capture,
+     * such as IS NULL or BETWEEN
+     */
+    static boolean hasUnsupportedClauses(String sql) {
+        for (String keyword : UNSUPPORTED_KEYWORDS) {
+            if (SQLParser.splitOutsideQuotes(sql, keyword).size() > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * GROUP BY columns, unqualified and lower case
+     */
+    public List<String> getGroupColumns() {
+        return groupColumns;
+    }
+
+    /**
+     * Columns some COUNT, SUM or AVG aggregates, unqualified and lower case
+     */
+    public List<String> getMeasuredColumns() {
+        return measuredColumns;
+    }
+
+    /**
+     * WHERE conditions, on unqualified lower-case columns
+     */
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * Returns true if the view counts a row, given its values by lower-case column
+     */
+    boolean includes(Map<String, String> row) {
+        for (Condition condition : conditions) {
+            if (!matches(condition, row.get(condition.getColumn()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the SELECT that reads what the view needs of its table's rows
+     */
+    String scanSql(String shardKeyColumn) {
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add(shardKeyColumn.toLowerCase());
+        columns.addAll(groupColumns);
+        columns.addAll(measuredColumns);
+        StringBuilder scan = new StringBuilder("SELECT ").append(String.join(", ", columns))
+                .append(" FROM ").append(tableName);
+        for (int i = 0; i < conditions.size(); i++) {
+            scan.append(i == 0 ? " WHERE " : " AND ").append(JoinExecutor.toSql(conditions.get(i)));
+        }
+        return scan.toString();
+    }
+
+    /**
+     * Evaluates a comparison on a value, numerically if both sides are
+     * numbers; NULL matches nothing
+     */
+    static boolean matches(Condition condition, String value) {
+        if (value == null) {
+            return false;
+        }
+        if (condition.getOperator() == Operator.IN) {
+            for (String item : condition.getValue().replaceAll("^\\(|\\)$", "").split(",")) {
+                if (compareValues(value, item.trim()) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int comparison = compareValues(value, condition.getValue());
+        return switch (condition.getOperator()) {
+            case EQUALS -> comparison == 0;
+            case NOT_EQUALS -> comparison != 0;
+            case GREATER_THAN -> comparison > 0;
+            case GREATER_THAN_EQUALS -> comparison >= 0;
+            case LESS_THAN -> comparison < 0;
+            case LESS_THAN_EQUALS -> comparison <= 0;
+            default -> false;
+        };
+    }
+
+    /**
+     * Orders values numerically if both are numbers, else as strings, with NULL first
+     */
+    static int compareValues(String left, String right) {
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : -1) : 1;
+        }
+        try {
+            return new BigDecimal(left).compareTo(new BigDecimal(right));
+        } catch (NumberFormatException e) {
+            return left.compareTo(right);
+        }
+    }
+
+    /**
+     * Returns the query's WHERE conditions that are not among the view's own
+     */
+    List<Condition> residualConditions(Query query) {
+        List<Condition> residual = new ArrayList<>();
+        for (Condition condition : query.getWhereConditions()) {
+            if (ownCondition(condition, conditions) == null) {
+                residual.add(condition);
+            }
+        }
+        return residual;
+    }
+
+    /**
+     * Returns true if the query applies every condition of the view
+     */
+    boolean isNarrowedBy(Query query) {
+        List<Condition> queryConditions = query.getWhereConditions();
+        for (Condition condition : conditions) {
+            boolean applied = queryConditions.stream()
+                    .anyMatch(queryCondition -> ownCondition(queryCondition, List.of(condition)) != null);
+            if (!applied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the condition among the view's own that a query condition repeats, or null
+     */
+    private Condition ownCondition(Condition condition, List<Condition> own) {
+        String column = QueryPlanner.unqualified(tableName, condition.getColumn());
+        for (Condition candidate : own) {
+            if (candidate.getColumn().equalsIgnoreCase(column) && candidate.getOperator() == condition.getOperator()
+                    && Objects.equals(candidate.getValue(), condition.getValue())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + " AS " + sql;
+    }
+}
@@ -0,0 +1,308 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.QueryType;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.SQLParser;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Builds materialized views, keeps them up to date from the write path and
+ * answers the queries they match.
+ *
+ * Writes to a table with views run one at a time under the table's lock,
+ * which is also held while a view is built, so every write is applied
+ * exactly once: an INSERT adds its rows, while an UPDATE or DELETE first
+ * reads the rows it will change and, once it committed, removes them and
+ * adds their new versions. A write whose effect the view cannot know (it
+ * failed, sets a column to an expression, or has OR in its WHERE clause)
+ * invalidates the views of the table instead, as do bulk loads; an
+ * invalidated view is rebuilt in the background and queries read the table
+ * until then. Views are held in memory and rebuilt the same way after a
+ * coordinator restart.
+ */
+public class ViewManager {
+
+    private static final long REBUILD_TIMEOUT_MS = 300_000;
+    // Shard id of rows the routing table has no shard for
+    private static final String UNROUTED_SHARD = "";
+
+    private final ShardManager shardManager;
+    private final ClusterReader reader;
+    private final ExecutorService executor;
+    // By lower-case view name
+    private final Map<String, MaterializedView> views = new ConcurrentHashMap<>();
+    private final Map<String, AtomicBoolean> rebuilding = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> tableLocks = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeLoads = new ConcurrentHashMap<>();
+
+    public ViewManager(ShardManager shardManager, Map<String, WorkerClient> workerClients, QueryPlanner queryPlanner,
+            SQLParser sqlParser, ExecutorService executor) {
+        this.shardManager = shardManager;
+        this.reader = new ClusterReader(workerClients, queryPlanner, sqlParser, executor);
+        this.executor = executor;
+    }
+
+    /**
+     * Records a view and builds it from its table. Returns the number of
+     * partial aggregates, one per group and shard.
+     */
+    public int create(ViewDefinition definition, long deadlineMs) throws Exception {
+        MaterializedView view = viewOf(shardManager.createView(definition));
+        if (!view.isReady()) {
+            build(view, deadlineMs);
+        }
+        return view.getGroupCount();
+    }
+
+    /**
+     * Answers a query from a ready view that matches it, or returns null to
+     * leave it to the table. A matching view that is not ready is rebuilt in
+     * the background.
+     */
+    public QueryResult answer(Query query) {
+        if (!ViewDefinition.isSupported(query)) {
+            return null;
+        }
+        for (ViewDefinition definition : shardManager.getViews(query.getFromTables().get(0))) {
+            if (!QueryPlanner.viewMatches(definition, query)) {
+                continue;
+            }
+            MaterializedView view = viewOf(definition);
+            if (view.isReady()) {
+                long startTime = System.currentTimeMillis();
+                AppLogger.info("Answering query {} from materialized view {}", query.getQueryId(),
+                        definition.getName());
+                return view.answer(query).toBuilder()
+                        .setQueryId(query.getQueryId())
+                        .setSqlQuery(query.getSql())
+                        .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                        .setStatus(QueryStatus.COMPLETED)
+                        .setCatalogVersion(shardManager.getRoutingTable().getVersion())
+                        .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                                .setSeconds(System.currentTimeMillis() / 1000)
+                                .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                                .build())
+                        .build();
+            }
+            rebuildInBackground(view);
+        }
+        return null;
+    }
+
+    /**
+     * Runs a write on a table, applying it to the table's views. Returns what
+     * the write returns, the number of rows affected.
+     */
+    public long write(Query query, long deadlineMs, Callable<Long> write) throws Exception {
+        String tableName = query.getFromTables().get(0);
+        List<MaterializedView> tableViews = viewsOf(tableName);
+        if (tableViews.isEmpty()) {
+            return write.call();
+        }
+
+        ReentrantLock lock = lockOf(tableName);
+        if (!lock.tryLock(Math.max(0, deadlineMs - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timed out waiting for the materialized views of " + tableName);
+        }
+        try {
+            if (tableViews.stream().noneMatch(MaterializedView::isReady)) {
+                return write.call();
+            }
+
+            List<Map<String, String>> removed = new ArrayList<>();
+            List<Map<String, String>> added = new ArrayList<>();
+            boolean known = collectChanges(query, deadlineMs, removed, added);
+
+            long rowsAffected;
+            try {
+                rowsAffected = write.call();
+            } catch (Exception e) {
+                invalidate(tableName, "write failed");
+                throw e;
+            }
+            // Rows affected must agree with the rows read, or something else wrote the table
+            if (!known || !query.isInsert() && rowsAffected != removed.size()) {
+                invalidate(tableName, "effect of " + query.getQueryType() + " unknown");
+                return rowsAffected;
+            }
+
+            RoutingTable routing = shardManager.getRoutingTable();
+            String shardKeyColumn = routing.getShardKeyColumn(tableName).toLowerCase();
+            for (MaterializedView view : tableViews) {
+                for (Map<String, String> row : removed) {
+                    view.apply(shardOf(routing, tableName, row.get(shardKeyColumn)), row, -1);
+                }
+                for (Map<String, String> row : added) {
+                    view.apply(shardOf(routing, tableName, row.get(shardKeyColumn)), row, 1);
+                }
+            }
+            return rowsAffected;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates the views of a table a bulk load writes; they are rebuilt
+     * once every load into the table finished
+     */
+    public void beginLoad(String tableName) {
+        activeLoads.computeIfAbsent(tableName.toLowerCase(), k -> new AtomicInteger()).incrementAndGet();
+        invalidate(tableName, "bulk load");
+    }
+
+    public void endLoad(String tableName) {
+        activeLoads.get(tableName.toLowerCase()).decrementAndGet();
+        invalidate(tableName, "bulk load");
+    }
+
+    /**
+     * Reads the rows an UPDATE or DELETE will change, and works out the rows
+     * an INSERT or UPDATE will leave. Returns false if that cannot be known.
+     */
+    private boolean collectChanges(Query query, long deadlineMs, List<Map<String, String>> removed,
+            List<Map<String, String>> added) throws Exception {
+        if (query.isInsert()) {
+            List<String> columns = query.getInsertColumns();
+            for (List<String> values : query.getInsertRows()) {
+                Map<String, String> row = new HashMap<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    row.put(columns.get(i).toLowerCase(), values.get(i));
+                }
+                added.add(row);
+            }
+            return true;
+        }
+
+        if (query.isDisjunctive() || ViewDefinition.hasUnsupportedClauses(query.getSql())) {
+            return false;
+        }
+        Map<String, String> assignments = new HashMap<>();
+        if (query.getQueryType() == QueryType.UPDATE) {
+            for (Map.Entry<String, String> assignment : query.getUpdateValues().entrySet()) {
+                try {
+                    assignments.put(assignment.getKey().toLowerCase(),
+                            GlobalIndexManager.literal(assignment.getValue()));
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+            }
+        }
+
+        String tableName = query.getFromTables().get(0);
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(tableName);
+        for (int i = 0; i < query.getWhereConditions().size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(JoinExecutor.toSql(query.getWhereConditions().get(i)));
+        }
+        QueryResult rows = reader.read(sql.toString(), deadlineMs);
+        for (Row result : rows.getResultsList()) {
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < rows.getColumnsCount() && i < result.getValuesCount(); i++) {
+                row.put(rows.getColumns(i).toLowerCase(), BulkLoader.isNull(result, i) ? null : result.getValues(i));
+            }
+            removed.add(row);
+            if (query.getQueryType() == QueryType.UPDATE) {
+                Map<String, String> updated = new HashMap<>(row);
+                updated.putAll(assignments);
+                added.add(updated);
+            }
+        }
+        return true;
+    }
+
+    private void build(MaterializedView view, long deadlineMs) throws Exception {
+        ViewDefinition definition = view.getDefinition();
+        String tableName = definition.getTableName();
+        ReentrantLock lock = lockOf(tableName);
+        if (!lock.tryLock(Math.max(0, deadlineMs - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timed out waiting for writes to " + tableName);
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            long generation = view.getGeneration();
+            RoutingTable routing = shardManager.getRoutingTable();
+            String shardKeyColumn = routing.getShardKeyColumn(tableName).toLowerCase();
+
+            QueryResult rows = reader.read(definition.scanSql(shardKeyColumn), deadlineMs);
+            Map<String, Map<List<String>, MaterializedView.PartialAggregate>> state = new HashMap<>();
+            for (Row result : rows.getResultsList()) {
+                Map<String, String> row = new HashMap<>();
+                for (int i = 0; i < rows.getColumnsCount() && i < result.getValuesCount(); i++) {
+                    row.put(rows.getColumns(i).toLowerCase(),
+                            BulkLoader.isNull(result, i) ? null : result.getValues(i));
+                }
+                MaterializedView.accumulate(definition, state, shardOf(routing, tableName, row.get(shardKeyColumn)),
+                        row, 1);
+            }
+
+            if (!view.install(generation, state)) {
+                throw new IllegalStateException("Materialized view " + definition.getName()
+                        + " was invalidated while it was built");
+            }
+            AppLogger.info("Built materialized view {} from {} rows in {}ms", definition.getName(),
+                    rows.getResultsCount(), System.currentTimeMillis() - startTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rebuildInBackground(MaterializedView view) {
+        String name = view.getDefinition().getName().toLowerCase();
+        AtomicInteger loads = activeLoads.get(view.getDefinition().getTableName().toLowerCase());
+        AtomicBoolean running = rebuilding.computeIfAbsent(name, k -> new AtomicBoolean());
+        if (loads != null && loads.get() > 0 || !running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.submit(() -> {
+            try {
+                build(view, System.currentTimeMillis() + REBUILD_TIMEOUT_MS);
+            } catch (Exception e) {
+                AppLogger.warn("Could not rebuild materialized view {}: {}", name, e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    private void invalidate(String tableName, String reason) {
+        for (MaterializedView view : viewsOf(tableName)) {
+            view.invalidate();
+            AppLogger.info("Invalidated materialized view {} ({})", view.getDefinition().getName(), reason);
+            rebuildInBackground(view);
+        }
+    }
+
+    private MaterializedView viewOf(ViewDefinition definition) {
+        return views.computeIfAbsent(definition.getName().toLowerCase(), k -> new MaterializedView(definition));
+    }
+
+    private List<MaterializedView> viewsOf(String tableName) {
+        List<MaterializedView> tableViews = new ArrayList<>();
+        for (ViewDefinition definition : shardManager.getViews(tableName)) {
+            tableViews.add(viewOf(definition));
+        }
+        return tableViews;
+    }
+
+    private ReentrantLock lockOf(String tableName) {
+        return tableLocks.computeIfAbsent(tableName.toLowerCase(), k -> new ReentrantLock());
+    }
+
+    private static String shardOf(RoutingTable routing, String tableName, String key) {
+        ShardInfo shard = key != null ? routing.route(tableName, key) : null;
+        return shard != null ? shard.getShardId() : UNROUTED_SHARD;
+    }
+}
@@ -0,0 +1,283 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.SQLParser;
+import com.distributed.sql.common.utils.WindowOperator;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Executes a SELECT with window functions. Each partition's rows have to be
+ * sorted and evaluated together. When the table is sharded on a PARTITION BY
+ * column they already are together on one worker, so every worker sorts and
+ * evaluates its own rows. Otherwise the workers have no way to send rows to
+ * each other, so, as for joins, their rows come to the coordinator, which
+ * repartitions them by hash of the PARTITION BY key into buckets evaluated
+ * in parallel. Either way the sort spills to disk past a memory budget, and
+ * the rows stream through it chunk by chunk rather than being held whole.
+ */
+public class WindowExecutor {
+
+    // Buckets the rows are repartitioned into, each sorted and evaluated on its own thread
+    static final int REPARTITION_BUCKETS = 4;
+    // Rows each bucket's sort keeps in memory before spilling a run to disk
+    static final int MAX_ROWS_IN_MEMORY = 100_000;
+
+    /**
+     * Runs a scan across the workers, which evaluate the window (null = none)
+     * over their rows, handing the chunks of rows they stream to the consumer
+     * as they arrive, possibly from several threads at once. Returns the
+     * scan's merged result without rows.
+     */
+    public interface WindowScanner {
+        QueryResult scan(Query query, Window window, long deadlineMs, Consumer<QueryResult> chunks);
+    }
+
+    private final ShardManager shardManager;
+    private final SQLParser sqlParser;
+    private final ExecutorService executorService;
+    private final WindowScanner scanner;
+    private final Path spillDirectory;
+    private final int maxRowsInMemory;
+
+    public WindowExecutor(ShardManager shardManager, SQLParser sqlParser, ExecutorService executorService,
+            WindowScanner scanner) {
+        this(shardManager, sqlParser, executorService, scanner, Path.of(System.getProperty("java.io.tmpdir")),
+                MAX_ROWS_IN_MEMORY);
+    }
+
+    WindowExecutor(ShardManager shardManager, SQLParser sqlParser, ExecutorService executorService,
+            WindowScanner scanner, Path spillDirectory, int maxRowsInMemory) {
+        this.shardManager = shardManager;
+        this.sqlParser = sqlParser;
+        this.executorService = executorService;
+        this.scanner = scanner;
+        this.spillDirectory = spillDirectory;
+        this.maxRowsInMemory = maxRowsInMemory;
+    }
+
+    public QueryResult execute(Query query, WindowPlan plan, long deadlineMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        Query scanQuery = sqlParser.parse(plan.getScanSql());
+        scanQuery.setQueryId(query.getQueryId());
+
+        String shardKeyColumn = shardManager.getRoutingTable().getShardKeyColumn(plan.getTableName());
+        boolean local = plan.isPartitionedBy(shardKeyColumn);
+        if (!local) {
+            AppLogger.info("Repartitioning rows of {} for window query {} into {} buckets",
+                    plan.getTableName(), query.getQueryId(), REPARTITION_BUCKETS);
+        }
+
+        QueryResult.Builder result = QueryResult.newBuilder()
+                .setQueryId(query.getQueryId())
+                .setSqlQuery(query.getSql())
+                .setStatus(QueryStatus.COMPLETED);
+        try (Evaluation evaluation = new Evaluation(plan, local, result)) {
+            QueryResult scanned = scanner.scan(scanQuery, local ? plan.toProto() : null, deadlineMs, evaluation);
+            int spilledRuns = local ? scanned.getSpilledRuns() : evaluation.evaluateBuckets(deadlineMs);
+            result.setCatalogVersion(scanned.getCatalogVersion())
+                    .setSpilledRuns(spilledRuns)
+                    .addAllRuntimeFilterStats(scanned.getRuntimeFilterStatsList());
+        }
+        return result
+                .setRowsReturned(result.getResultsCount())
+                .setExecutionTimeMs(System.currentTimeMillis() - startTime)
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+    }
+
+    private static int indexOf(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " is not in the scan " + columns);
+    }
+
+    private static List<String> values(Row row) {
+        List<String> values = new ArrayList<>(row.getValuesList());
+        if (row.getMetadataCount() > 0) {
+            for (int i = 0; i < values.size(); i++) {
+                if (BulkLoader.isNull(row, i)) {
+                    values.set(i, null);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Takes the scanned rows chunk by chunk as the workers stream them. Rows
+     * the workers evaluated go straight to the result, projected; others are
+     * hashed into buckets by their PARTITION BY values, each fed to its own
+     * WindowOperator, which spills past the memory budget. Once the scan is
+     * done the buckets are evaluated in parallel into the result. With every
+     * shard pruned no chunk comes, and the result has no rows or columns.
+     */
+    private final class Evaluation implements Consumer<QueryResult>, AutoCloseable {
+        private final WindowPlan plan;
+        private final Window window;
+        private final boolean local;
+        private final QueryResult.Builder output;
+        private int[] projection;
+        private int[] keyIndexes;
+        private WindowOperator[] buckets;
+        private volatile boolean closed;
+
+        Evaluation(WindowPlan plan, boolean local, QueryResult.Builder output) {
+            this.plan = plan;
+            this.window = plan.toProto();
+            this.local = local;
+            this.output = output;
+        }
+
+        @Override
+        public void accept(QueryResult chunk) {
+            if (chunk.getColumnsCount() == 0 || !start(chunk.getColumnsList())) {
+                return;
+            }
+            if (local) {
+                for (Row row : chunk.getResultsList()) {
+                    emit(values(row));
+                }
+                return;
+            }
+
+            List<List<List<String>>> bucketed = new ArrayList<>();
+            for (int i = 0; i < REPARTITION_BUCKETS; i++) {
+                bucketed.add(new ArrayList<>());
+            }
+            for (Row row : chunk.getResultsList()) {
+                List<String> values = values(row);
+                List<String> key = new ArrayList<>(keyIndexes.length);
+                for (int index : keyIndexes) {
+                    key.add(values.get(index));
+                }
+                bucketed.get(Math.floorMod(key.hashCode(), REPARTITION_BUCKETS)).add(values);
+            }
+            for (int i = 0; i < REPARTITION_BUCKETS; i++) {
+                if (bucketed.get(i).isEmpty()) {
+                    continue;
+                }
+                synchronized (buckets[i]) {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        for (List<String> values : bucketed.get(i)) {
+                            buckets[i].add(values);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets up the projection and buckets for the scan's columns on the
+         * first chunk. Returns false once the evaluation is closed.
+         */
+        private synchronized boolean start(List<String> columns) {
+            if (closed) {
+                return false;
+            }
+            if (projection != null) {
+                return true;
+            }
+            // The workers appended the functions' values to their scan columns
+            List<String> scanColumns = local
+                    ? columns.subList(0, Math.max(0, columns.size() - window.getFunctionsCount()))
+                    : columns;
+            output.addAllColumns(plan.outputColumns(scanColumns));
+            if (!local) {
+                keyIndexes = new int[window.getPartitionByCount()];
+                for (int i = 0; i < keyIndexes.length; i++) {
+                    keyIndexes[i] = indexOf(columns, window.getPartitionBy(i));
+                }
+                buckets = new WindowOperator[REPARTITION_BUCKETS];
+                for (int i = 0; i < REPARTITION_BUCKETS; i++) {
+                    buckets[i] = new WindowOperator(window, columns, spillDirectory, maxRowsInMemory);
+                }
+            }
+            projection = plan.projection(scanColumns);
+            return true;
+        }
+
+        /**
+         * Evaluates the buckets in parallel, adding their rows with the
+         * functions' values to the result. Returns the number of runs spilled.
+         */
+        int evaluateBuckets(long deadlineMs) throws Exception {
+            if (buckets == null) {
+                return 0;
+            }
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (WindowOperator bucket : buckets) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        bucket.finish(this::emit);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return bucket.getSpilledRuns();
+                }, executorService));
+            }
+            int spilledRuns = 0;
+            for (CompletableFuture<Integer> future : futures) {
+                try {
+                    spilledRuns += deadlineMs > 0
+                            ? future.get(Math.max(0, deadlineMs - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                            : future.get();
+                } catch (TimeoutException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    throw Status.DEADLINE_EXCEEDED.withDescription("Window evaluation missed the query deadline")
+                            .asRuntimeException();
+                }
+            }
+            return spilledRuns;
+        }
+
+        private void emit(List<String> values) {
+            List<String> projected = new ArrayList<>(projection.length);
+            for (int index : projection) {
+                projected.add(values.get(index));
+            }
+            Row row = BulkLoader.toRow(projected);
+            synchronized (output) {
+                output.addResults(row);
+            }
+        }
+
+        /**
+         * Deletes the buckets' spill files; chunks still arriving are dropped
+         */
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (buckets != null) {
+                for (WindowOperator bucket : buckets) {
+                    synchronized (bucket) {
+                        bucket.close();
+                    }
+                }
+            }
+        }
+    }
+}
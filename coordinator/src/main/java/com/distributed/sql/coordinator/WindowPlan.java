@@ -0,0 +1,314 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.*;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The window functions of a SELECT, such as ROW_NUMBER() OVER (PARTITION BY
+ * user_id ORDER BY created_at) or AVG(amount) OVER (PARTITION BY user_id
+ * ORDER BY created_at ROWS BETWEEN 2 PRECEDING AND CURRENT ROW). Every
+ * function shares one PARTITION BY and ORDER BY; their frames may differ.
+ *
+ * ROW_NUMBER, RANK and DENSE_RANK take no argument and ignore frames. COUNT,
+ * SUM, AVG, MIN and MAX take a column (COUNT also *) and a frame ending at
+ * the current row: ROWS from n or UNBOUNDED PRECEDING, or RANGE from
+ * UNBOUNDED PRECEDING, which also takes in the current row's peers. Without
+ * a frame it is RANGE, which without ORDER BY covers the whole partition.
+ *
+ * Only single-table SELECTs of columns and window functions, with ANDed
+ * comparisons in their WHERE clause, are supported.
+ */
+final class WindowPlan {
+
+    private static final Pattern OVER_PATTERN = Pattern.compile("\\bOVER\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CALL_PATTERN = Pattern.compile(
+            "(\\w+)\\s*\\(\\s*(\\*|[\\w.]+)?\\s*\\)\\s*OVER\\s*\\((.*)\\)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern WINDOW_PATTERN = Pattern.compile(
+            "\\s*(?:PARTITION\\s+BY\\s+(.+?))?\\s*(?:ORDER\\s+BY\\s+(.+?))?\\s*(?:\\b(ROWS|RANGE)\\s+(.+?))?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern SORT_KEY_PATTERN = Pattern.compile(
+            "([\\w.]+)(?:\\s+(ASC|DESC))?", Pattern.CASE_INSENSITIVE);
+    // Frames ending at the current row; no start means CURRENT ROW
+    private static final Pattern FRAME_PATTERN = Pattern.compile(
+            "(?:BETWEEN\\s+)?(?:(UNBOUNDED|\\d+)\\s+PRECEDING|CURRENT\\s+ROW)(?:\\s+AND\\s+CURRENT\\s+ROW)?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String tableName;
+    // Unqualified and lower case
+    private List<String> partitionBy;
+    private List<SortKey> orderBy;
+    private final List<WindowFunctionSpec> functions = new ArrayList<>();
+    private final List<Item> items = new ArrayList<>();
+    private final String scanSql;
+
+    private WindowPlan(Query query) {
+        this.tableName = query.getFromTables().get(0);
+        Set<String> columns = new LinkedHashSet<>();
+        boolean allColumns = false;
+        for (String item : query.getSelectColumns()) {
+            Item parsed = parseItem(item);
+            items.add(parsed);
+            allColumns |= parsed.column != null && parsed.column.equals("*");
+            if (parsed.column != null && !parsed.column.equals("*")) {
+                columns.add(parsed.column);
+            }
+        }
+        columns.addAll(partitionBy);
+        for (SortKey key : orderBy) {
+            columns.add(key.getColumn());
+        }
+        for (WindowFunctionSpec function : functions) {
+            if (!function.getColumn().isEmpty()) {
+                columns.add(function.getColumn());
+            }
+        }
+
+        StringBuilder scan = new StringBuilder("SELECT ")
+                .append(allColumns || columns.isEmpty() ? "*" : String.join(", ", columns))
+                .append(" FROM ").append(tableName);
+        for (int i = 0; i < query.getWhereConditions().size(); i++) {
+            scan.append(i == 0 ? " WHERE " : " AND ").append(JoinExecutor.toSql(query.getWhereConditions().get(i)));
+        }
+        this.scanSql = scan.toString();
+    }
+
+    /**
+     * Returns the plan of a SELECT with window functions, or null if it has
+     * none. Throws IllegalArgumentException if it has some but cannot be
+     * planned.
+     */
+    static WindowPlan parse(Query query) {
+        if (!query.isSelect() || !OVER_PATTERN.matcher(String.join(",", query.getSelectColumns())).find()) {
+            return null;
+        }
+        if (query.getFromTables().size() != 1 || query.hasJoins() || query.isDisjunctive()
+                || !query.getGroupByColumns().isEmpty() || query.isSampled()
+                || ViewDefinition.hasUnsupportedClauses(withoutOverClauses(query.getSql()))) {
+            throw new IllegalArgumentException("Window functions need a single-table SELECT with only ANDed "
+                    + "comparisons in its WHERE clause, and no GROUP BY, ORDER BY, LIMIT or TABLESAMPLE");
+        }
+        return new WindowPlan(query);
+    }
+
+    /**
+     * Returns the statement with the parenthesized window of each OVER removed
+     */
+    static String withoutOverClauses(String sql) {
+        StringBuilder result = new StringBuilder();
+        Matcher over = OVER_PATTERN.matcher(sql);
+        int start = 0;
+        while (over.find(start)) {
+            result.append(sql, start, over.start());
+            int depth = 1;
+            int end = over.end();
+            while (end < sql.length() && depth > 0) {
+                char c = sql.charAt(end++);
+                depth += c == '(' ? 1 : c == ')' ? -1 : 0;
+            }
+            start = end;
+        }
+        return result.append(sql.substring(start)).toString();
+    }
+
+    /**
+     * True if every partition's rows share the value of the column, so rows
+     * sharded on it need no repartitioning
+     */
+    boolean isPartitionedBy(String column) {
+        return column != null && partitionBy.contains(column.toLowerCase());
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * The scan whose rows the window functions are evaluated over
+     */
+    String getScanSql() {
+        return scanSql;
+    }
+
+    Window toProto() {
+        return Window.newBuilder()
+                .addAllPartitionBy(partitionBy)
+                .addAllOrderBy(orderBy)
+                .addAllFunctions(functions)
+                .build();
+    }
+
+    /**
+     * Names of the query's result columns, given the scan's
+     */
+    List<String> outputColumns(List<String> scanColumns) {
+        List<String> result = new ArrayList<>();
+        for (Item item : items) {
+            if ("*".equals(item.column)) {
+                result.addAll(scanColumns);
+            } else {
+                result.add(item.label);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Positions in a row of the scan's values followed by the functions'
+     * values of each of the query's result columns
+     */
+    int[] projection(List<String> scanColumns) {
+        List<Integer> positions = new ArrayList<>();
+        for (Item item : items) {
+            if (item.column == null) {
+                positions.add(scanColumns.size() + item.function);
+            } else if (item.column.equals("*")) {
+                for (int i = 0; i < scanColumns.size(); i++) {
+                    positions.add(i);
+                }
+            } else {
+                positions.add(indexOf(scanColumns, item.column));
+            }
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int indexOf(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " is not in the scan " + columns);
+    }
+
+    private Item parseItem(String item) {
+        String expression = ViewAggregate.expression(item);
+        String label = ViewAggregate.label(item);
+        Matcher call = CALL_PATTERN.matcher(expression);
+        if (!call.matches()) {
+            if (!expression.equals("*") && !expression.matches("[\\w.]+")) {
+                throw new IllegalArgumentException(expression + " must be a column or a window function");
+            }
+            return new Item(label, expression.equals("*") ? "*"
+                    : QueryPlanner.unqualified(tableName, expression).toLowerCase(), -1);
+        }
+
+        parseWindow(call.group(3));
+        String function = call.group(1).toUpperCase();
+        String argument = call.group(2);
+        WindowFunctionSpec.Builder spec = WindowFunctionSpec.newBuilder().setLabel(label);
+        switch (function) {
+            case "ROW_NUMBER", "RANK", "DENSE_RANK" -> {
+                if (argument != null) {
+                    throw new IllegalArgumentException(function + " takes no argument");
+                }
+                spec.setFunction(WindowFunction.valueOf(function));
+            }
+            case "COUNT", "SUM", "AVG", "MIN", "MAX" -> {
+                if (argument == null || argument.equals("*") && !function.equals("COUNT")) {
+                    throw new IllegalArgumentException("Unsupported arguments in " + expression);
+                }
+                spec.setFunction(WindowFunction.valueOf("WINDOW_" + function))
+                        .setColumn(argument.equals("*") ? ""
+                                : QueryPlanner.unqualified(tableName, argument).toLowerCase());
+                parseFrame(spec, call.group(3));
+            }
+            default -> throw new IllegalArgumentException("Unsupported window function " + function);
+        }
+        functions.add(spec.build());
+        return new Item(label, null, functions.size() - 1);
+    }
+
+    /**
+     * Parses PARTITION BY and ORDER BY, which every function must share
+     */
+    private void parseWindow(String window) {
+        Matcher matcher = matchWindow(window);
+        List<String> partitions = new ArrayList<>();
+        if (matcher.group(1) != null) {
+            for (String column : matcher.group(1).split(",")) {
+                partitions.add(QueryPlanner.unqualified(tableName, column.trim()).toLowerCase());
+            }
+        }
+        List<SortKey> keys = new ArrayList<>();
+        if (matcher.group(2) != null) {
+            for (String key : matcher.group(2).split(",")) {
+                Matcher sortKey = SORT_KEY_PATTERN.matcher(key.trim());
+                if (!sortKey.matches()) {
+                    throw new IllegalArgumentException("Unsupported ORDER BY key in a window: " + key.trim());
+                }
+                keys.add(SortKey.newBuilder()
+                        .setColumn(QueryPlanner.unqualified(tableName, sortKey.group(1)).toLowerCase())
+                        .setDescending(sortKey.group(2) != null && sortKey.group(2).equalsIgnoreCase("DESC"))
+                        .build());
+            }
+        }
+        if (partitionBy == null) {
+            partitionBy = partitions;
+            orderBy = keys;
+        } else if (!partitionBy.equals(partitions) || !orderBy.equals(keys)) {
+            throw new IllegalArgumentException("All window functions must share one PARTITION BY and ORDER BY");
+        }
+    }
+
+    private static void parseFrame(WindowFunctionSpec.Builder spec, String window) {
+        Matcher matcher = matchWindow(window);
+        if (matcher.group(3) == null) {
+            // RANGE BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW
+            spec.setRowsFrame(false).setPreceding(-1);
+            return;
+        }
+        boolean rows = matcher.group(3).equalsIgnoreCase("ROWS");
+        Matcher frame = FRAME_PATTERN.matcher(matcher.group(4).trim());
+        if (!frame.matches()) {
+            throw new IllegalArgumentException("Only window frames ending at the current row are supported");
+        }
+        String start = frame.group(1);
+        if (start == null) {
+            if (!rows) {
+                throw new IllegalArgumentException("RANGE frames must start at UNBOUNDED PRECEDING");
+            }
+            spec.setRowsFrame(true).setPreceding(0);
+        } else if (start.equalsIgnoreCase("UNBOUNDED")) {
+            spec.setRowsFrame(rows).setPreceding(-1);
+        } else if (!rows) {
+            throw new IllegalArgumentException("RANGE frames must start at UNBOUNDED PRECEDING");
+        } else {
+            try {
+                spec.setRowsFrame(true).setPreceding(Long.parseLong(start));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number of rows, got " + start);
+            }
+        }
+    }
+
+    private static Matcher matchWindow(String window) {
+        Matcher matcher = WINDOW_PATTERN.matcher(window);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Could not parse window: " + window.trim());
+        }
+        return matcher;
+    }
+
+    /**
+     * A SELECT item: a scan column (or * for all of them), or the window
+     * function at a position
+     */
+    private static final class Item {
+        final String label;
+        // Unqualified and lower case; null for a window function
+        final String column;
+        final int function;
+
+        Item(String label, String column, int function) {
+            this.label = label;
+            this.column = column;
+            this.function = function;
+        }
+    }
+}
@@ -3,20 +3,37 @@ package com.distributed.sql.coordinator;
 import com.distributed.sql.common.proto.WorkerServiceGrpc;
 import com.distributed.sql.common.proto.QueryProto.*;
 import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.ColumnChunks;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * gRPC client for communicating with worker nodes
  */
 public class WorkerClient {
 
+    // Hedging needs enough samples for the p95 to be meaningful
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    // Deadline for shard maintenance calls (stats, copy batches, cleanup)
+    private static final long MAINTENANCE_TIMEOUT_SECONDS = 60;
+    // Building an index reads the worker's whole copy of the table
+    private static final long INDEX_TIMEOUT_SECONDS = 600;
+
     private final ManagedChannel channel;
     private final WorkerServiceGrpc.WorkerServiceBlockingStub blockingStub;
     private final String address;
     private final int port;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
     public WorkerClient(String address, int port) {
         this.address = address;
@@ -32,20 +49,64 @@ public class WorkerClient {
     }
 
     public QueryResult executeQuery(String sqlQuery) {
+        return executeQuery(sqlQuery, List.of(), 0);
+    }
+
+    /**
+     * Executes a query on the worker, which reads only the rows of the shards
+     * in the scopes (none = every local row). A non-zero deadline (epoch millis) is sent in
+     * the request and also applied as the gRPC deadline of the call, so a stuck
+     * worker cannot hold the caller past it.
+     */
+    public QueryResult executeQuery(String sqlQuery, List<ShardScope> shardScopes, long deadlineMs) {
+        return executeQuery(sqlQuery, shardScopes, List.of(), deadlineMs);
+    }
+
+    /**
+     * Executes a query on the worker, which drops scanned rows that fail any of
+     * the runtime filters before returning them
+     */
+    public QueryResult executeQuery(String sqlQuery, List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters,
+            long deadlineMs) {
+        return executeQuery(sqlQuery, shardScopes, runtimeFilters, null, deadlineMs);
+    }
+
+    /**
+     * Executes a query on the worker, which returns the partial states of the
+     * aggregation (null = none) over its rows instead of the rows
+     */
+    public QueryResult executeQuery(String sqlQuery, List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters,
+            Aggregation aggregation, long deadlineMs) {
+        return executeQuery(sqlQuery, shardScopes, runtimeFilters, aggregation, null, deadlineMs);
+    }
+
+    /**
+     * Executes a query on the worker over a sample (null = every row) of the
+     * rows it scans
+     */
+    public QueryResult executeQuery(String sqlQuery, List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters,
+            Aggregation aggregation, TableSample sample, long deadlineMs) {
+        return executeQuery(sqlQuery, shardScopes, runtimeFilters, aggregation, sample, null, deadlineMs);
+    }
+
+    /**
+     * Executes a query on the worker, which returns its rows sorted by the
+     * window's (null = none) partition and order keys, with the window
+     * functions' values appended
+     */
+    public QueryResult executeQuery(String sqlQuery, List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters,
+            Aggregation aggregation, TableSample sample, Window window, long deadlineMs) {
         try {
-            ExecuteQueryRequest request = ExecuteQueryRequest.newBuilder()
-                    .setSqlQuery(sqlQuery)
-                    .setQueryId("query_" + System.currentTimeMillis())
-                    .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
-                            .setSeconds(System.currentTimeMillis() / 1000)
-                            .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
-                            .build())
-                    .build();
+            ExecuteQueryRequest request = queryRequest(sqlQuery, shardScopes, runtimeFilters, aggregation, sample,
+                    window, deadlineMs);
 
-            ExecuteQueryResponse response = blockingStub.executeQuery(request);
+            long startTime = System.currentTimeMillis();
+            ExecuteQueryResponse response = queryStub(deadlineMs).executeQuery(request);
 
             if (response.getSuccess()) {
-                return response.getResult();
+                latencyHistogram.record(System.currentTimeMillis() - startTime);
+                // Workers may send plain scans column by column; the rest of the coordinator reads rows
+                return ColumnChunks.expand(response.getResult());
             } else {
                 AppLogger.warn("Worker query execution failed: {}", response.getMessage());
                 return QueryResult.newBuilder()
@@ -62,13 +123,24 @@ public class WorkerClient {
             }
 
         } catch (Exception e) {
-            AppLogger.error("Error executing query on worker {}:{}", address, port, e);
+            Status.Code code = e instanceof StatusRuntimeException
+                    ? ((StatusRuntimeException) e).getStatus().getCode()
+                    : null;
+            if (code == Status.Code.DEADLINE_EXCEEDED) {
+                AppLogger.warn("Query on worker {}:{} exceeded its deadline", address, port);
+            } else if (code == Status.Code.CANCELLED) {
+                AppLogger.debug("Query on worker {}:{} was cancelled", address, port);
+            } else {
+                AppLogger.error("Error executing query on worker {}:{}", address, port, e);
+            }
             return QueryResult.newBuilder()
                     .setQueryId("error_" + System.currentTimeMillis())
                     .setSqlQuery(sqlQuery)
                     .setExecutionTimeMs(0)
                     .setRowsReturned(0)
-                    .setStatus(QueryStatus.FAILED)
+                    .setStatus(code == Status.Code.DEADLINE_EXCEEDED
+                            ? QueryStatus.DEADLINE_EXCEEDED
+                            : QueryStatus.FAILED)
                     .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
                             .setSeconds(System.currentTimeMillis() / 1000)
                             .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
@@ -77,6 +149,146 @@ public class WorkerClient {
         }
     }
 
+    /**
+     * Runs an aggregation on the worker, handing each refined result it
+     * streams while still executing to the listener. Returns the final
+     * result, or null if the query failed.
+     */
+    public QueryResult executeQueryProgressive(String sqlQuery, List<ShardScope> shardScopes,
+            List<RuntimeFilter> runtimeFilters, Aggregation aggregation, TableSample sample, long deadlineMs,
+            Consumer<QueryResult> listener) {
+        try {
+            ExecuteQueryRequest request = queryRequest(sqlQuery, shardScopes, runtimeFilters, aggregation, sample,
+                    null, deadlineMs);
+
+            QueryResult last = null;
+            Iterator<ExecuteQueryResponse> responses = queryStub(deadlineMs).executeQueryProgressive(request);
+            while (responses.hasNext()) {
+                ExecuteQueryResponse response = responses.next();
+                if (!response.getSuccess()) {
+                    AppLogger.warn("Worker progressive query execution failed: {}", response.getMessage());
+                    return null;
+                }
+                last = response.getResult();
+                if (last.getStatus() == QueryStatus.EXECUTING) {
+                    listener.accept(last);
+                }
+            }
+            return last;
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing progressive query on worker {}:{}", address, port, e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs the query on the worker like executeQuery, but has it stream its
+     * result rows, handing each response's result to the consumer as it
+     * arrives. Returns the final result without its rows, which the consumer
+     * has already had, or a FAILED or DEADLINE_EXCEEDED one. Cancelling the
+     * calling context cancels the call.
+     */
+    public QueryResult streamQuery(String sqlQuery, List<ShardScope> shardScopes, List<RuntimeFilter> runtimeFilters,
+            TableSample sample, Window window, long deadlineMs, Consumer<QueryResult> consumer) {
+        try {
+            ExecuteQueryRequest request = queryRequest(sqlQuery, shardScopes, runtimeFilters, null, sample, window,
+                    deadlineMs);
+
+            long startTime = System.currentTimeMillis();
+            Iterator<ExecuteQueryResponse> responses = queryStub(deadlineMs).streamQuery(request);
+            QueryResult last = null;
+            while (responses.hasNext()) {
+                ExecuteQueryResponse response = responses.next();
+                if (!response.getSuccess()) {
+                    AppLogger.warn("Worker streamed query execution failed: {}", response.getMessage());
+                    return response.getResult().toBuilder().setStatus(QueryStatus.FAILED).build();
+                }
+                last = response.getResult();
+                consumer.accept(last);
+            }
+            if (last == null) {
+                throw new IllegalStateException("Worker ended the stream without a result");
+            }
+            latencyHistogram.record(System.currentTimeMillis() - startTime);
+            return last.toBuilder().clearResults().build();
+
+        } catch (Exception e) {
+            Status.Code code = e instanceof StatusRuntimeException
+                    ? ((StatusRuntimeException) e).getStatus().getCode()
+                    : null;
+            if (code == Status.Code.CANCELLED) {
+                AppLogger.debug("Streamed query on worker {}:{} was cancelled", address, port);
+            } else {
+                AppLogger.error("Error streaming query on worker {}:{}", address, port, e);
+            }
+            return QueryResult.newBuilder()
+                    .setQueryId("error_" + System.currentTimeMillis())
+                    .setSqlQuery(sqlQuery)
+                    .setStatus(code == Status.Code.DEADLINE_EXCEEDED
+                            ? QueryStatus.DEADLINE_EXCEEDED
+                            : QueryStatus.FAILED)
+                    .build();
+        }
+    }
+
+    private static ExecuteQueryRequest queryRequest(String sqlQuery, List<ShardScope> shardScopes,
+            List<RuntimeFilter> runtimeFilters, Aggregation aggregation, TableSample sample, Window window,
+            long deadlineMs) {
+        ExecuteQueryRequest.Builder requestBuilder = ExecuteQueryRequest.newBuilder()
+                .setSqlQuery(sqlQuery)
+                .setQueryId("query_" + System.currentTimeMillis())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .setDeadlineMs(deadlineMs)
+                .addAllShardScopes(shardScopes)
+                .addAllRuntimeFilters(runtimeFilters);
+        for (ShardScope scope : shardScopes) {
+            for (ShardRange shard : scope.getShardsList()) {
+                requestBuilder.addShardIds(shard.getShardId());
+            }
+        }
+        if (aggregation != null) {
+            requestBuilder.setAggregation(aggregation);
+        }
+        if (sample != null) {
+            requestBuilder.setSample(sample);
+        }
+        if (window != null) {
+            requestBuilder.setWindow(window);
+        }
+        return requestBuilder.build();
+    }
+
+    /**
+     * The stub for a query call, with the remaining time to a non-zero
+     * deadline (epoch millis) as its gRPC deadline
+     */
+    private WorkerServiceGrpc.WorkerServiceBlockingStub queryStub(long deadlineMs) {
+        if (deadlineMs <= 0) {
+            return blockingStub;
+        }
+        long remainingMs = deadlineMs - System.currentTimeMillis();
+        if (remainingMs <= 0) {
+            throw new IllegalStateException("Query deadline already expired");
+        }
+        return blockingStub.withDeadlineAfter(remainingMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns how long a request to this worker may run before a hedged duplicate
+     * is worth sending, i.e. its observed p95 latency, or -1 while there are too
+     * few samples to tell.
+     */
+    public long getHedgeDelayMs() {
+        if (latencyHistogram.getCount() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return latencyHistogram.getPercentile(HEDGE_PERCENTILE);
+    }
+
     public WorkerStatus getWorkerStatus() {
         try {
             GetWorkerStatusRequest request = GetWorkerStatusRequest.newBuilder().build();
@@ -95,6 +307,154 @@ public class WorkerClient {
         }
     }
 
+    public GetShardStatsResponse getShardStats(List<ShardRange> shards) {
+        try {
+            GetShardStatsRequest request = GetShardStatsRequest.newBuilder()
+                    .addAllShards(shards)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .getShardStats(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error getting shard stats from {}:{}", address, port, e);
+            return null;
+        }
+    }
+
+    public ReadShardRowsResponse readShardRows(ShardRange shard, String afterKey, int batchSize) {
+        try {
+            ReadShardRowsRequest request = ReadShardRowsRequest.newBuilder()
+                    .setShard(shard)
+                    .setAfterKey(afterKey)
+                    .setBatchSize(batchSize)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .readShardRows(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error reading shard rows from {}:{}", address, port, e);
+            return null;
+        }
+    }
+
+    public WriteShardRowsResponse writeShardRows(String tableName, List<String> columns,
+            List<com.distributed.sql.common.proto.QueryProto.Row> rows) {
+        return writeShardRows(tableName, columns, rows, false);
+    }
+
+    /**
+     * Writes rows to the worker. Bulk writes use COPY on the worker, which is
+     * faster but fails on duplicate keys instead of skipping them.
+     */
+    public WriteShardRowsResponse writeShardRows(String tableName, List<String> columns,
+            List<com.distributed.sql.common.proto.QueryProto.Row> rows, boolean bulk) {
+        try {
+            WriteShardRowsRequest request = WriteShardRowsRequest.newBuilder()
+                    .setTableName(tableName)
+                    .addAllColumns(columns)
+                    .addAllRows(rows)
+                    .setBulk(bulk)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .writeShardRows(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error writing shard rows to {}:{}", address, port, e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs a write on the worker under the request's transaction id. The gRPC
+     * deadline follows the request deadline.
+     */
+    public ExecuteWriteResponse executeWrite(ExecuteWriteRequest request) {
+        try {
+            long remainingMs = request.getDeadlineMs() - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                throw new IllegalStateException("Write deadline already expired");
+            }
+            return blockingStub.withDeadlineAfter(remainingMs, TimeUnit.MILLISECONDS).executeWrite(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing write for transaction {} on {}:{}",
+                    request.getTransactionId(), address, port, e);
+            return null;
+        }
+    }
+
+    public FinishTransactionResponse finishTransaction(String transactionId, boolean commit) {
+        try {
+            FinishTransactionRequest request = FinishTransactionRequest.newBuilder()
+                    .setTransactionId(transactionId)
+                    .setCommit(commit)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .finishTransaction(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error finishing transaction {} on {}:{}", transactionId, address, port, e);
+            return null;
+        }
+    }
+
+    public ListPreparedTransactionsResponse listPreparedTransactions(String prefix) {
+        try {
+            ListPreparedTransactionsRequest request = ListPreparedTransactionsRequest.newBuilder()
+                    .setPrefix(prefix)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .listPreparedTransactions(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error listing prepared transactions on {}:{}", address, port, e);
+            return null;
+        }
+    }
+
+    public CreateIndexResponse createIndex(String tableName, String indexName, List<String> columns) {
+        try {
+            CreateIndexRequest request = CreateIndexRequest.newBuilder()
+                    .setTableName(tableName)
+                    .setIndexName(indexName)
+                    .addAllColumns(columns)
+                    .build();
+            return blockingStub.withDeadlineAfter(INDEX_TIMEOUT_SECONDS, TimeUnit.SECONDS).createIndex(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error creating index {} on {}:{}", indexName, address, port, e);
+            return null;
+        }
+    }
+
+    public CreateTableResponse createTable(String tableName, List<String> columns) {
+        try {
+            CreateTableRequest request = CreateTableRequest.newBuilder()
+                    .setTableName(tableName)
+                    .addAllColumns(columns)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS).createTable(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error creating table {} on {}:{}", tableName, address, port, e);
+            return null;
+        }
+    }
+
+    public DeleteShardRowsResponse deleteShardRows(ShardRange shard) {
+        try {
+            DeleteShardRowsRequest request = DeleteShardRowsRequest.newBuilder()
+                    .setShard(shard)
+                    .build();
+            return blockingStub.withDeadlineAfter(MAINTENANCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .deleteShardRows(request);
+
+        } catch (Exception e) {
+            AppLogger.error("Error deleting shard rows on {}:{}", address, port, e);
+            return null;
+        }
+    }
+
     public boolean healthCheck() {
         try {
             HealthRequest request = HealthRequest.newBuilder()
@@ -119,4 +479,62 @@ public class WorkerClient {
             Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Latency histogram with exponentially sized buckets. Counts are halved once
+     * the sample limit is reached so the percentiles follow recent behaviour.
+     */
+    static class LatencyHistogram {
+        private static final double BUCKET_GROWTH = 1.2;
+        private static final long MAX_LATENCY_MS = 60000;
+        private static final long MAX_SAMPLES = 2048;
+        private static final long[] BUCKET_BOUNDS = createBucketBounds();
+
+        private final long[] counts = new long[BUCKET_BOUNDS.length];
+        private long count;
+
+        private static long[] createBucketBounds() {
+            List<Long> bounds = new ArrayList<>();
+            double bound = 1;
+            while (bound < MAX_LATENCY_MS) {
+                long rounded = (long) Math.ceil(bound);
+                if (bounds.isEmpty() || bounds.get(bounds.size() - 1) < rounded) {
+                    bounds.add(rounded);
+                }
+                bound *= BUCKET_GROWTH;
+            }
+            bounds.add(Long.MAX_VALUE);
+            return bounds.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        synchronized void record(long latencyMs) {
+            int bucket = Arrays.binarySearch(BUCKET_BOUNDS, Math.max(0, latencyMs));
+            counts[bucket >= 0 ? bucket : -bucket - 1]++;
+            count++;
+
+            if (count >= MAX_SAMPLES) {
+                count = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] /= 2;
+                    count += counts[i];
+                }
+            }
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized long getPercentile(double percentile) {
+            long target = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(BUCKET_BOUNDS[i], MAX_LATENCY_MS);
+                }
+            }
+            return MAX_LATENCY_MS;
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.distributed.sql.coordinator;
+
+/**
+ * Lets the shard rebalancer hold back the writes to one table for a moment,
+ * as when it switches a shard to its new worker. Writers enter before they
+ * read the routing table and exit once their rows are written, so once
+ * {@link #close} returns true no write routed by an older placement is still
+ * in flight, and none starts until {@link #open}.
+ *
+ * Unlike a read-write lock the fence is not owned by a thread, so a writer
+ * may enter on one thread and exit on another.
+ */
+final class WriteFence {
+
+    private int writers;
+    private boolean closed;
+
+    /**
+     * Waits while the fence is closed, then enters it. Returns false if the
+     * deadline (epoch millis, 0 = none) passes first.
+     */
+    synchronized boolean enter(long deadlineMs) throws InterruptedException {
+        while (closed) {
+            if (!await(deadlineMs)) {
+                return false;
+            }
+        }
+        writers++;
+        return true;
+    }
+
+    synchronized void exit() {
+        if (--writers == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns true while someone is closing or holding the fence, so a
+     * long-running writer should land what it has routed and exit
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops new writers and waits for those inside to exit. Returns false,
+     * leaving the fence open, if they have not all exited by the deadline.
+     */
+    synchronized boolean close(long deadlineMs) throws InterruptedException {
+        while (closed) {
+            if (!await(deadlineMs)) {
+                return false;
+            }
+        }
+
+        closed = true;
+        try {
+            while (writers > 0) {
+                if (!await(deadlineMs)) {
+                    open();
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            open();
+            throw e;
+        }
+        return true;
+    }
+
+    synchronized void open() {
+        closed = false;
+        notifyAll();
+    }
+
+    private boolean await(long deadlineMs) throws InterruptedException {
+        if (deadlineMs <= 0) {
+            wait();
+            return true;
+        }
+        long remainingMs = deadlineMs - System.currentTimeMillis();
+        if (remainingMs <= 0) {
+            return false;
+        }
+        wait(remainingMs);
+        return true;
+    }
+}
@@ -0,0 +1,205 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AggregateState;
+import com.distributed.sql.common.utils.HyperLogLog;
+import com.distributed.sql.common.utils.SQLParser;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class AggregationPlanTest {
+
+    private final SQLParser parser = new SQLParser();
+
+    @Test
+    void testPlansScanAndSketches() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse(
+                "SELECT status, APPROX_COUNT_DISTINCT(orders.user_id, 10) AS users, COUNT(*) FROM orders "
+                        + "WHERE amount > 100 GROUP BY status"));
+
+        assertEquals("SELECT status, user_id FROM orders WHERE amount > '100'", plan.getScanSql());
+        Aggregation aggregation = plan.toProto();
+        assertEquals(List.of("status"), aggregation.getGroupByList());
+        assertEquals(AggregateFunction.APPROX_COUNT_DISTINCT, aggregation.getAggregates(0).getFunction());
+        assertEquals("user_id", aggregation.getAggregates(0).getColumn());
+        assertEquals(10, aggregation.getAggregates(0).getPrecision());
+
+        // Plain scans and queries the plan cannot express keep their rows; approximate ones fail
+        assertNull(AggregationPlan.parse(parser.parse("SELECT status FROM orders WHERE amount > 100")));
+        assertNull(AggregationPlan.parse(parser.parse("SELECT COUNT(*) FROM orders ORDER BY status")));
+        assertThrows(IllegalArgumentException.class, () -> AggregationPlan.parse(parser.parse(
+                "SELECT status, APPROX_COUNT_DISTINCT(user_id), user_id FROM orders GROUP BY status")));
+        assertThrows(IllegalArgumentException.class, () -> AggregationPlan.parse(parser.parse(
+                "SELECT APPROX_COUNT_DISTINCT(user_id) FROM orders ORDER BY user_id")));
+        assertThrows(IllegalArgumentException.class, () -> AggregationPlan.parse(parser.parse(
+                "SELECT APPROX_COUNT_DISTINCT(user_id, 30) FROM orders")));
+    }
+
+    @Test
+    void testMergesSketchesAcrossWorkers() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse(
+                "SELECT status, APPROX_COUNT_DISTINCT(user_id) AS users, COUNT(*) FROM orders GROUP BY status"));
+
+        // Both workers saw users 0-49 of shipped orders; only the second saw NULL-status orders
+        QueryResult first = QueryResult.newBuilder()
+                .addAggregateGroups(group("shipped", 60, 0, 50))
+                .build();
+        QueryResult second = QueryResult.newBuilder()
+                .addAggregateGroups(group("shipped", 40, 25, 50))
+                .addAggregateGroups(group(null, 5, 100, 105))
+                .build();
+
+        QueryResult result = plan.merge(List.of(first, second));
+        assertEquals(List.of("status", "users", "COUNT(*)"), result.getColumnsList());
+        // NULL groups first, row counts exact, distinct counts within a few collisions
+        assertEquals(2, result.getResultsCount());
+        Row nullStatus = result.getResults(0);
+        Row shipped = result.getResults(1);
+        assertTrue(BulkLoader.isNull(nullStatus, 0));
+        assertEquals("5", nullStatus.getValues(2));
+        assertEquals("shipped", shipped.getValues(0));
+        assertEquals(50, Long.parseLong(shipped.getValues(1)), 3);
+        assertEquals("100", shipped.getValues(2));
+
+        assertEquals(1, result.getErrorBoundsCount());
+        assertEquals("users", result.getErrorBounds(0).getColumn());
+        assertEquals(1.96 * HyperLogLog.relativeStandardError(AggregationPlan.DEFAULT_PRECISION),
+                result.getErrorBounds(0).getRelativeError(), 1e-9);
+    }
+
+    @Test
+    void testNoRowsWithoutGroupByReturnsZero() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT APPROX_COUNT_DISTINCT(user_id) FROM orders"));
+
+        QueryResult result = plan.merge(List.of(QueryResult.getDefaultInstance()));
+        assertEquals(1, result.getResultsCount());
+        assertEquals(List.of("0"), result.getResults(0).getValuesList());
+    }
+
+    private static AggregateGroup group(String status, long rows, int firstUser, int endUser) {
+        HyperLogLog sketch = new HyperLogLog(AggregationPlan.DEFAULT_PRECISION);
+        for (int user = firstUser; user < endUser; user++) {
+            sketch.add(Integer.toString(user));
+        }
+        AggregateGroup.Builder group = AggregateGroup.newBuilder()
+                .addKeys(status != null ? status : "")
+                .setRowCount(rows)
+                .addStates(ByteString.copyFrom(sketch.toByteArray()));
+        if (status == null) {
+            group.addNullKeys(0);
+        }
+        return group.build();
+    }
+
+    @Test
+    void testMergesExactAggregatesAndPercentiles() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT status, COUNT(amount), SUM(amount), "
+                + "AVG(amount), MIN(amount), MAX(amount), APPROX_PERCENTILE(amount, 0.5) AS p50, "
+                + "APPROX_PERCENTILE(amount, 0.99) AS p99 FROM orders GROUP BY status"));
+
+        // SUM and AVG share one state, and so do the percentiles
+        assertEquals("SELECT status, amount FROM orders", plan.getScanSql());
+        assertEquals(5, plan.toProto().getAggregatesCount());
+
+        // Amounts 1-100 split over two workers, 9 and 10 compared as numbers
+        List<QueryResult> results = new ArrayList<>();
+        for (int worker = 0; worker < 2; worker++) {
+            List<AggregateState> states = new ArrayList<>();
+            for (AggregateSpec spec : plan.toProto().getAggregatesList()) {
+                states.add(AggregateState.create(spec));
+            }
+            for (int amount = 1 + worker; amount <= 100; amount += 2) {
+                for (AggregateState state : states) {
+                    state.add(Integer.toString(amount));
+                }
+            }
+            AggregateGroup.Builder group = AggregateGroup.newBuilder().addKeys("shipped").setRowCount(50);
+            for (AggregateState state : states) {
+                group.addStates(ByteString.copyFrom(state.toByteArray()));
+            }
+            results.add(QueryResult.newBuilder().addAggregateGroups(group).build());
+        }
+
+        QueryResult result = plan.merge(results);
+        assertEquals(List.of("status", "COUNT(amount)", "SUM(amount)", "AVG(amount)", "MIN(amount)", "MAX(amount)",
+                "p50", "p99"), result.getColumnsList());
+        List<String> row = result.getResults(0).getValuesList();
+        assertEquals(List.of("shipped", "100", "5050", "50.5", "1", "100"), row.subList(0, 6));
+        assertEquals(50.5, Double.parseDouble(row.get(6)), 1);
+        assertEquals(99.5, Double.parseDouble(row.get(7)), 1);
+        assertEquals(0, result.getErrorBoundsCount());
+    }
+
+    @Test
+    void testScalesSampledAggregatesWithIntervals() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT COUNT(*), SUM(amount), AVG(amount), "
+                + "MAX(amount) FROM orders TABLESAMPLE BERNOULLI (1)"));
+        assertEquals("SELECT amount FROM orders", plan.getScanSql());
+
+        // A 1% sample of amounts 1-100000, taken by two workers
+        Random random = new Random(42);
+        List<QueryResult> results = new ArrayList<>();
+        for (int worker = 0; worker < 2; worker++) {
+            AggregateState sum = AggregateState.create(plan.toProto().getAggregates(0));
+            AggregateState max = AggregateState.create(plan.toProto().getAggregates(1));
+            long rows = 0;
+            for (int amount = 1 + worker; amount <= 100000; amount += 2) {
+                if (random.nextDouble() < 0.01) {
+                    sum.add(Integer.toString(amount));
+                    max.add(Integer.toString(amount));
+                    rows++;
+                }
+            }
+            results.add(QueryResult.newBuilder().setSampleFraction(0.01).addAggregateGroups(AggregateGroup.newBuilder()
+                    .setRowCount(rows)
+                    .addStates(ByteString.copyFrom(sum.toByteArray()))
+                    .addStates(ByteString.copyFrom(max.toByteArray()))).build());
+        }
+
+        QueryResult result = plan.merge(results);
+        assertEquals(0.01, result.getSampleFraction(), 1e-9);
+        List<String> row = result.getResults(0).getValuesList();
+        double[] exact = {100000, 100000 * 100001L / 2.0, 50000.5};
+        assertEquals(3, result.getConfidenceIntervalsCount());
+        for (int i = 0; i < 3; i++) {
+            ConfidenceInterval interval = result.getConfidenceIntervals(i);
+            assertEquals(0, interval.getRow());
+            assertEquals(result.getColumns(i), interval.getColumn());
+            assertEquals(0.95, interval.getConfidence(), 1e-9);
+            // The estimate is the middle of its interval, which holds the exact value and is narrow
+            double estimate = Double.parseDouble(row.get(i));
+            assertTrue(interval.getLower() <= estimate && estimate <= interval.getUpper());
+            assertTrue(interval.getLower() <= exact[i] && exact[i] <= interval.getUpper(), interval.toString());
+            assertTrue(interval.getUpper() - interval.getLower() < 0.3 * exact[i]);
+        }
+        // MAX is read off the sample as it is
+        assertTrue(Integer.parseInt(row.get(3)) <= 100000);
+    }
+
+    @Test
+    void testSystemSampleIsScaledWithoutIntervals() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT COUNT(*), SUM(amount) FROM orders "
+                + "TABLESAMPLE SYSTEM (10)"));
+
+        // One sampled block of 1024 rows whose amounts are all alike
+        AggregateState sum = AggregateState.create(plan.toProto().getAggregates(0));
+        for (int i = 0; i < 1024; i++) {
+            sum.add("5");
+        }
+        QueryResult result = plan.merge(List.of(QueryResult.newBuilder().setSampleFraction(0.1)
+                .addAggregateGroups(AggregateGroup.newBuilder()
+                        .setRowCount(1024)
+                        .addStates(ByteString.copyFrom(sum.toByteArray())))
+                .build()));
+
+        assertEquals(List.of("10240", "51200"), result.getResults(0).getValuesList());
+        assertEquals(0.1, result.getSampleFraction(), 1e-9);
+        // Independent-row intervals would be far too narrow for clustered blocks
+        assertEquals(0, result.getConfidenceIntervalsCount());
+    }
+}
@@ -0,0 +1,220 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkLoaderTest {
+
+    private static final List<String> COLUMNS = List.of("user_id", "name");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ShardManager shardManager = new ShardManager();
+    private final Map<String, WorkerClient> workerClients = new HashMap<>();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testRowsGoToEveryReplicaAndTheMigrationTarget() throws Exception {
+        Map<String, FakeWorker> workers = addWorkers(null);
+        // users_shard_1 (1..5000) lives on worker1 and worker2 and is being copied to worker3
+        shardManager.beginMigration("users_shard_1", "worker3");
+
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+        loader.addRows(List.of(row("1"), row("6000"), row("12000")));
+        assertEquals(3, loader.finish());
+
+        assertEquals(Set.of("1", "12000"), workers.get("worker1").keys(true));
+        assertEquals(Set.of("1", "6000"), workers.get("worker2").keys(true));
+        assertEquals(Set.of("6000", "12000"), workers.get("worker3").keys(true));
+        // The migration target may already hold the row from the copy, so it gets the idempotent insert
+        assertEquals(Set.of("1"), workers.get("worker3").keys(false));
+    }
+
+    @Test
+    void testRowsAreSentInBatches() throws Exception {
+        Map<String, FakeWorker> workers = addWorkers(null);
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 2 * BulkLoader.BATCH_ROWS + 2000; i++) {
+            rows.add(row(Integer.toString(i % 5000 + 1)));
+        }
+        loader.addRows(rows);
+        assertEquals(rows.size(), loader.finish());
+
+        List<Integer> sizes = new ArrayList<>(workers.get("worker1").batchSizes);
+        Collections.sort(sizes);
+        assertEquals(List.of(2000, BulkLoader.BATCH_ROWS, BulkLoader.BATCH_ROWS), sizes);
+        assertTrue(workers.get("worker3").batchSizes.isEmpty());
+    }
+
+    @Test
+    void testProducerBlocksWhileAWorkerHasTooManyBatchesInFlight() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, FakeWorker> workers = addWorkers(release);
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 6 * BulkLoader.BATCH_ROWS; i++) {
+            rows.add(row("1"));
+        }
+        Future<?> producer = executor.submit(() -> {
+            loader.addRows(rows);
+            return null;
+        });
+
+        FakeWorker worker1 = workers.get("worker1");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (worker1.inFlight.get() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // Four batches are stuck on the worker, so the fifth waits in the producer
+        assertThrows(TimeoutException.class, () -> producer.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(4, worker1.inFlight.get());
+
+        release.countDown();
+        producer.get(10, TimeUnit.SECONDS);
+        assertEquals(rows.size(), loader.finish());
+        assertEquals(4, worker1.maxInFlight.get());
+        assertEquals(6, worker1.batchSizes.size());
+    }
+
+    @Test
+    void testRowsWithoutAShardAreRejected() throws Exception {
+        addWorkers(null);
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+
+        loader.addRows(List.of(row("1"),
+                Row.newBuilder().addValues("2").build(),
+                BulkLoader.toRow(Arrays.asList(null, "null key")),
+                row("99999")));
+
+        assertEquals(1, loader.finish());
+        assertEquals(3, loader.getRowsRejected());
+    }
+
+    @Test
+    void testFailedBatchFailsTheLoad() throws Exception {
+        Map<String, FakeWorker> workers = addWorkers(null);
+        workers.get("worker2").failing = true;
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+
+        loader.addRows(List.of(row("1")));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, loader::finish);
+        assertTrue(e.getMessage().contains("worker2"), e.getMessage());
+        // Once a batch has failed the loader takes no more rows
+        assertThrows(IllegalStateException.class, () -> loader.addRows(List.of(row("2"))));
+    }
+
+    @Test
+    void testLoaderWritesItsRoutedRowsAndStepsAsideWhenTheFenceCloses() throws Exception {
+        Map<String, FakeWorker> workers = addWorkers(null);
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+        loader.addRows(List.of(row("1")));
+
+        // The buffered row was routed by the current placement, so the switch has to wait for it
+        WriteFence fence = shardManager.getWriteFence("users");
+        Future<Boolean> closing = executor.submit(() -> fence.close(0));
+        assertThrows(TimeoutException.class, () -> closing.get(200, TimeUnit.MILLISECONDS));
+        assertTrue(workers.get("worker1").batchSizes.isEmpty());
+
+        loader.addRows(List.of(row("2")));
+        assertTrue(closing.get(10, TimeUnit.SECONDS));
+        assertEquals(Set.of("1", "2"), workers.get("worker1").keys(true));
+
+        // The next batch waits for the switch, then routes by the new placement
+        Future<?> producer = executor.submit(() -> {
+            loader.addRows(List.of(row("3")));
+            return null;
+        });
+        assertThrows(TimeoutException.class, () -> producer.get(200, TimeUnit.MILLISECONDS));
+        fence.open();
+        producer.get(10, TimeUnit.SECONDS);
+        assertEquals(3, loader.finish());
+        assertEquals(Set.of("1", "2", "3"), workers.get("worker1").keys(true));
+        assertTrue(fence.close(System.currentTimeMillis() + 1000));
+    }
+
+    @Test
+    void testAbandonedLoadNoLongerHoldsTheFence() throws Exception {
+        addWorkers(null);
+        BulkLoader loader = new BulkLoader(shardManager, workerClients, executor, "users", COLUMNS, true);
+        loader.addRows(List.of(row("1")));
+        WriteFence fence = shardManager.getWriteFence("users");
+        assertFalse(fence.close(System.currentTimeMillis() + 100));
+
+        loader.abandon();
+
+        assertTrue(fence.close(System.currentTimeMillis() + 1000));
+        assertThrows(IllegalStateException.class, () -> loader.addRows(List.of(row("2"))));
+    }
+
+    private Map<String, FakeWorker> addWorkers(CountDownLatch release) {
+        Map<String, FakeWorker> workers = new HashMap<>();
+        for (String workerId : List.of("worker1", "worker2", "worker3")) {
+            FakeWorker worker = new FakeWorker(release);
+            workers.put(workerId, worker);
+            workerClients.put(workerId, worker);
+        }
+        return workers;
+    }
+
+    private static Row row(String userId) {
+        return BulkLoader.toRow(List.of(userId, "user " + userId));
+    }
+
+    /**
+     * Records the batches written to it, optionally holding each until released
+     */
+    private static final class FakeWorker extends WorkerClient {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final Map<Boolean, Set<String>> keysByBulk = new ConcurrentHashMap<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch release;
+        volatile boolean failing;
+
+        FakeWorker(CountDownLatch release) {
+            super("localhost", 0);
+            this.release = release;
+        }
+
+        @Override
+        public WriteShardRowsResponse writeShardRows(String tableName, List<String> columns, List<Row> rows,
+                boolean bulk) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                batchSizes.add(rows.size());
+                for (Row row : rows) {
+                    keysByBulk.computeIfAbsent(bulk, k -> ConcurrentHashMap.newKeySet()).add(row.getValues(0));
+                }
+                return WriteShardRowsResponse.newBuilder()
+                        .setSuccess(!failing)
+                        .setMessage(failing ? "disk full" : "")
+                        .build();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        Set<String> keys(boolean bulk) {
+            return keysByBulk.getOrDefault(bulk, Set.of());
+        }
+    }
+}
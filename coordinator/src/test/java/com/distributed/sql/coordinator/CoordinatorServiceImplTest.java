@@ -0,0 +1,139 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class CoordinatorServiceImplTest {
+
+    @Test
+    void testFirstSuccessfulAttemptWinsAndCancelsTheOther() {
+        CoordinatorServiceImpl.HedgedCall call = new CoordinatorServiceImpl.HedgedCall(2);
+        Context.CancellableContext primary = call.newAttemptContext();
+        Context.CancellableContext secondary = call.newAttemptContext();
+
+        call.onAttemptComplete(result("secondary", QueryStatus.COMPLETED));
+
+        assertEquals("secondary", call.result.join().getQueryId());
+        // The losing attempt's gRPC call is cancelled through its context
+        assertTrue(primary.isCancelled());
+        assertTrue(secondary.isCancelled());
+
+        // A late response from the loser does not replace the winner
+        call.onAttemptComplete(result("primary", QueryStatus.COMPLETED));
+        assertEquals("secondary", call.result.join().getQueryId());
+    }
+
+    @Test
+    void testFailedAttemptWaitsForTheOther() {
+        CoordinatorServiceImpl.HedgedCall call = new CoordinatorServiceImpl.HedgedCall(2);
+        call.newAttemptContext();
+        call.newAttemptContext();
+
+        call.onAttemptComplete(result("primary", QueryStatus.FAILED));
+        assertFalse(call.result.isDone());
+
+        call.onAttemptComplete(result("secondary", QueryStatus.COMPLETED));
+        assertEquals(QueryStatus.COMPLETED, call.result.join().getStatus());
+    }
+
+    @Test
+    void testBothAttemptsFailingFailsTheCall() {
+        CoordinatorServiceImpl.HedgedCall call = new CoordinatorServiceImpl.HedgedCall(2);
+        call.newAttemptContext();
+        call.newAttemptContext();
+
+        call.onAttemptComplete(result("primary", QueryStatus.FAILED));
+        call.onAttemptComplete(result("secondary", QueryStatus.FAILED));
+
+        assertEquals(QueryStatus.FAILED, call.result.join().getStatus());
+    }
+
+    @Test
+    void testSkippedHedgeLeavesThePrimaryAsTheLastAttempt() {
+        CoordinatorServiceImpl.HedgedCall call = new CoordinatorServiceImpl.HedgedCall(2);
+        call.newAttemptContext();
+        call.skipAttempt();
+
+        call.onAttemptComplete(result("primary", QueryStatus.FAILED));
+
+        assertEquals(QueryStatus.FAILED, call.result.join().getStatus());
+    }
+
+    @Test
+    void testAttemptStartedAfterCancellationIsCancelledAtOnce() {
+        CoordinatorServiceImpl.HedgedCall call = new CoordinatorServiceImpl.HedgedCall(2);
+        Context.CancellableContext primary = call.newAttemptContext();
+
+        // The query gave up on the worker, e.g. at its deadline
+        call.result.cancel(true);
+
+        assertTrue(primary.isCancelled());
+        assertTrue(call.newAttemptContext().isCancelled());
+    }
+
+    @Test
+    void testWorkerMissingTheDeadlineFailsTheQueryAndCancelsItsCall() {
+        CoordinatorServiceImpl.HedgedCall slow = new CoordinatorServiceImpl.HedgedCall(1);
+        Context.CancellableContext slowAttempt = slow.newAttemptContext();
+        List<CompletableFuture<QueryResult>> futures = List.of(
+                CompletableFuture.completedFuture(result("q1", QueryStatus.COMPLETED)), slow.result);
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> CoordinatorServiceImpl.awaitWorkerResults("q1", List.of("worker1", "worker2"), futures,
+                        System.currentTimeMillis() + 100));
+
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+        assertTrue(e.getMessage().contains("worker2"), e.getMessage());
+        // The straggler's gRPC call is cancelled rather than left running
+        assertTrue(slow.result.isCancelled());
+        assertTrue(slowAttempt.isCancelled());
+    }
+
+    @Test
+    void testFailedWorkerFailsTheQueryAndCancelsTheOthers() {
+        CompletableFuture<QueryResult> pending = new CompletableFuture<>();
+        List<CompletableFuture<QueryResult>> futures = List.of(
+                CompletableFuture.completedFuture(result("q1", QueryStatus.FAILED)), pending);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> CoordinatorServiceImpl.awaitWorkerResults("q1", List.of("worker1", "worker2"), futures,
+                        System.currentTimeMillis() + 10_000));
+
+        assertTrue(e.getMessage().contains("worker1"), e.getMessage());
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    void testWorkerReportingDeadlineExceededFailsTheQueryWithIt() {
+        List<CompletableFuture<QueryResult>> futures = List.of(
+                CompletableFuture.completedFuture(result("q1", QueryStatus.DEADLINE_EXCEEDED)));
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> CoordinatorServiceImpl.awaitWorkerResults("q1", List.of("worker1"), futures, 0));
+
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+    }
+
+    @Test
+    void testAllWorkersSucceeding() {
+        List<CompletableFuture<QueryResult>> futures = List.of(
+                CompletableFuture.completedFuture(result("a", QueryStatus.COMPLETED)),
+                CompletableFuture.completedFuture(result("b", QueryStatus.COMPLETED)));
+
+        List<QueryResult> results = CoordinatorServiceImpl.awaitWorkerResults("q1", List.of("worker1", "worker2"),
+                futures, System.currentTimeMillis() + 10_000);
+
+        assertEquals(List.of("a", "b"), List.of(results.get(0).getQueryId(), results.get(1).getQueryId()));
+    }
+
+    private static QueryResult result(String queryId, QueryStatus status) {
+        return QueryResult.newBuilder().setQueryId(queryId).setStatus(status).build();
+    }
+}
@@ -0,0 +1,121 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.BloomFilter;
+import com.distributed.sql.common.utils.SQLParser;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class JoinExecutorTest {
+
+    private final SQLParser parser = new SQLParser();
+
+    @Test
+    void testFilteredSideBuildsRuntimeFilterForProbeSide() {
+        Map<String, List<RuntimeFilter>> filtersByTable = new HashMap<>();
+        JoinExecutor executor = new JoinExecutor(new ShardManager(), parser, (scan, filters, deadlineMs) -> {
+            String table = scan.getFromTables().get(0);
+            filtersByTable.put(table, filters);
+            if (table.equals("users")) {
+                assertEquals("age", scan.getWhereConditions().get(0).getColumn());
+                return result(List.of("user_id", "name"), List.of("1", "John"), List.of("3", "Bob"));
+            }
+            return result(List.of("order_id", "user_id"), List.of("ORD001", "1"), List.of("ORD002", "2"),
+                    List.of("ORD003", "3"), List.of("ORD004", "1"));
+        });
+
+        Query query = parser.parse("SELECT u.name, o.order_id FROM orders o JOIN users u ON o.user_id = u.user_id "
+                + "WHERE u.age > 30");
+        query.setQueryId("q1");
+        QueryResult result = executor.execute(query, 0);
+
+        // The filtered users table is the build side, so only the orders scan carries a filter
+        assertTrue(filtersByTable.get("users").isEmpty());
+        RuntimeFilter filter = filtersByTable.get("orders").get(0);
+        assertEquals("user_id", filter.getColumn());
+        assertEquals(Set.of("1", "3"), new HashSet<>(filter.getKeysList()));
+
+        assertEquals(List.of("users.name", "orders.order_id"), result.getColumnsList());
+        List<List<String>> rows = new ArrayList<>();
+        for (Row row : result.getResultsList()) {
+            rows.add(row.getValuesList());
+        }
+        assertEquals(List.of(List.of("John", "ORD001"), List.of("Bob", "ORD003"), List.of("John", "ORD004")), rows);
+    }
+
+    @Test
+    void testEmptyBuildSideSkipsProbeScan() {
+        List<String> scannedTables = new ArrayList<>();
+        JoinExecutor executor = new JoinExecutor(new ShardManager(), parser, (scan, filters, deadlineMs) -> {
+            scannedTables.add(scan.getFromTables().get(0));
+            return result(List.of("user_id", "name"));
+        });
+
+        Query query = parser.parse("SELECT * FROM users u JOIN orders o ON u.user_id = o.user_id WHERE u.age > 90");
+        QueryResult result = executor.execute(query, 0);
+
+        assertEquals(List.of("users"), scannedTables);
+        assertEquals(0, result.getRowsReturned());
+    }
+
+    @Test
+    void testUnqualifiedWhereColumnResolvesAgainstBothTables() {
+        JoinExecutor executor = new JoinExecutor(new ShardManager(), parser, (scan, filters, deadlineMs) -> {
+            // Neither scan may carry the bare condition, since it is not known which table has the column
+            assertTrue(scan.getWhereConditions().isEmpty());
+            if (scan.getFromTables().get(0).equals("users")) {
+                return result(List.of("user_id", "name"), List.of("1", "John"), List.of("2", "Jane"));
+            }
+            return result(List.of("order_id", "user_id", "amount"), List.of("ORD001", "1", "5"),
+                    List.of("ORD002", "1", "25"), List.of("ORD003", "2", "40"));
+        });
+
+        Query query = parser.parse("SELECT u.name, o.order_id FROM users u JOIN orders o ON u.user_id = o.user_id "
+                + "WHERE amount > 10");
+        query.setQueryId("q1");
+        QueryResult result = executor.execute(query, 0);
+
+        List<List<String>> rows = new ArrayList<>();
+        for (Row row : result.getResultsList()) {
+            rows.add(row.getValuesList());
+        }
+        assertEquals(List.of(List.of("John", "ORD002"), List.of("Jane", "ORD003")), rows);
+
+        Query ambiguous = parser.parse("SELECT u.name FROM users u JOIN orders o ON u.user_id = o.user_id "
+                + "WHERE user_id > 1");
+        ambiguous.setQueryId("q2");
+        assertThrows(IllegalArgumentException.class, () -> executor.execute(ambiguous, 0));
+    }
+
+    @Test
+    void testLargeBuildSideUsesBloomFilter() {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i <= JoinExecutor.EXACT_FILTER_MAX_KEYS; i++) {
+            keys.add(Integer.toString(i));
+        }
+
+        RuntimeFilter filter = JoinExecutor.buildRuntimeFilter("rf", "user_id", keys);
+
+        assertEquals(0, filter.getKeysCount());
+        BloomFilter bloomFilter = BloomFilter.fromBytes(filter.getBloomBits().toByteArray(),
+                filter.getBloomHashCount());
+        for (String key : keys) {
+            assertTrue(bloomFilter.mightContain(key));
+        }
+    }
+
+    @SafeVarargs
+    private static QueryResult result(List<String> columns, List<String>... rows) {
+        QueryResult.Builder result = QueryResult.newBuilder()
+                .setStatus(QueryStatus.COMPLETED)
+                .addAllColumns(columns)
+                .setRowsReturned(rows.length);
+        for (List<String> row : rows) {
+            result.addResults(Row.newBuilder().addAllValues(row));
+        }
+        return result.build();
+    }
+}
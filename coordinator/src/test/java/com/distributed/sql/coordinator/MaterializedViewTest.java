@@ -0,0 +1,103 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.Row;
+import com.distributed.sql.common.utils.SQLParser;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MaterializedViewTest {
+
+    private final SQLParser parser = new SQLParser();
+    private final ViewDefinition definition = ViewDefinition.parse("orders_daily",
+            "SELECT status, order_date, COUNT(*), SUM(amount) FROM orders WHERE amount > 0 "
+                    + "GROUP BY status, order_date");
+
+    @Test
+    void testDefinitionRejectsNonIncrementalAggregates() {
+        assertEquals(List.of("status", "order_date"), definition.getGroupColumns());
+        assertEquals(List.of("amount"), definition.getMeasuredColumns());
+        assertThrows(IllegalArgumentException.class, () -> ViewDefinition.parse("v",
+                "SELECT status, MAX(amount) FROM orders GROUP BY status"));
+        assertThrows(IllegalArgumentException.class, () -> ViewDefinition.parse("v",
+                "SELECT user_id, COUNT(*) FROM orders GROUP BY status"));
+    }
+
+    @Test
+    void testDeltasMergeAcrossShards() {
+        MaterializedView view = new MaterializedView(definition);
+        Map<String, Map<List<String>, MaterializedView.PartialAggregate>> state = new HashMap<>();
+        MaterializedView.accumulate(definition, state, "orders_shard_1", row("shipped", "2024-01-01", "10"), 1);
+        MaterializedView.accumulate(definition, state, "orders_shard_2", row("shipped", "2024-01-02", "2.5"), 1);
+        assertTrue(view.install(view.getGeneration(), state));
+
+        view.apply("orders_shard_1", row("pending", "2024-01-01", "4"), 1);
+        view.apply("orders_shard_2", row("shipped", "2024-01-02", "1"), 1);
+        view.apply("orders_shard_2", row("shipped", "2024-01-02", "2.5"), -1);
+        // Outside the view's WHERE clause
+        view.apply("orders_shard_3", row("shipped", "2024-01-03", "-5"), 1);
+
+        QueryResult byStatus = view.answer(parser.parse(
+                "SELECT status, COUNT(*), SUM(amount), AVG(amount) FROM orders WHERE amount > 0 GROUP BY status"));
+        assertEquals(List.of("status", "COUNT(*)", "SUM(amount)", "AVG(amount)"), byStatus.getColumnsList());
+        assertEquals(List.of(List.of("pending", "1", "4", "4"), List.of("shipped", "2", "11", "5.5")),
+                values(byStatus));
+
+        QueryResult total = view.answer(parser.parse("SELECT COUNT(*) AS orders FROM orders "
+                + "WHERE amount > 0 AND status = 'shipped' AND order_date >= '2024-01-02'"));
+        assertEquals(List.of("orders"), total.getColumnsList());
+        assertEquals(List.of(List.of("1")), values(total));
+    }
+
+    @Test
+    void testInvalidatedViewDropsStaleBuild() {
+        MaterializedView view = new MaterializedView(definition);
+        long generation = view.getGeneration();
+        view.invalidate();
+
+        assertFalse(view.install(generation, new HashMap<>()));
+        assertFalse(view.isReady());
+    }
+
+    @Test
+    void testViewMatchesRollupsOfItsGroups() {
+        assertTrue(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT order_date, SUM(amount) FROM orders WHERE amount > 0 AND status = 'shipped' "
+                        + "GROUP BY order_date")));
+        // Missing the view's condition, an unknown column, MIN, a condition on a measure, OR
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT status, COUNT(*) FROM orders GROUP BY status")));
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT user_id, COUNT(*) FROM orders WHERE amount > 0 GROUP BY user_id")));
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT status, MIN(amount) FROM orders WHERE amount > 0 GROUP BY status")));
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT COUNT(*) FROM orders WHERE amount > 0 AND amount < 100")));
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT COUNT(*) FROM orders WHERE amount > 0 OR status = 'shipped'")));
+        assertFalse(QueryPlanner.viewMatches(definition, parser.parse(
+                "SELECT status FROM orders WHERE amount > 0")));
+    }
+
+    private static Map<String, String> row(String status, String orderDate, String amount) {
+        Map<String, String> row = new HashMap<>();
+        row.put("order_id", Integer.toString(row.hashCode()));
+        row.put("status", status);
+        row.put("order_date", orderDate);
+        row.put("amount", amount);
+        return row;
+    }
+
+    private static List<List<String>> values(QueryResult result) {
+        List<List<String>> rows = new ArrayList<>();
+        for (Row row : result.getResultsList()) {
+            rows.add(row.getValuesList());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,113 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.AggregateState;
+import com.distributed.sql.common.utils.SQLParser;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class OnlineAggregationTest {
+
+    private final SQLParser parser = new SQLParser();
+
+    @Test
+    void testRefinesTowardsExactResult() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT COUNT(*), SUM(amount) FROM orders"));
+        OnlineAggregation online = new OnlineAggregation(plan, 2, 0);
+
+        // Each worker holds amounts 1-10000, folded in a random order
+        List<String> amounts = new ArrayList<>();
+        for (int amount = 1; amount <= 10000; amount++) {
+            amounts.add(Integer.toString(amount));
+        }
+        Collections.shuffle(amounts, new Random(7));
+
+        // Only the first worker has reported, a tenth of the way through its rows
+        online.update("worker1", progress(plan, amounts.subList(0, 1000), 10000));
+        QueryResult early = online.refine(System.currentTimeMillis());
+        assertEquals(QueryStatus.EXECUTING, early.getStatus());
+        assertEquals(1000, early.getProgress().getRowsProcessed());
+        assertEquals(10000, early.getProgress().getRowsTotal());
+        assertEquals(0, early.getProgress().getWorkersDone());
+        assertEquals(2, early.getProgress().getWorkersTotal());
+        assertEquals(0.1, early.getSampleFraction(), 1e-9);
+        assertEquals("10000", early.getResults(0).getValues(0));
+        ConfidenceInterval sum = early.getConfidenceIntervals(1);
+        assertEquals("SUM(amount)", sum.getColumn());
+        assertTrue(sum.getLower() <= 10000 * 10001L / 2.0 && 10000 * 10001L / 2.0 <= sum.getUpper());
+
+        // The first worker finishes and the second is half way: its intervals only
+        online.complete("worker1", progress(plan, amounts, 10000));
+        online.update("worker2", progress(plan, amounts.subList(0, 5000), 10000));
+        QueryResult later = online.snapshot();
+        assertEquals(1, later.getProgress().getWorkersDone());
+        assertEquals(15000, later.getProgress().getRowsProcessed());
+        assertEquals("20000", later.getResults(0).getValues(0));
+        assertTrue(later.getConfidenceIntervals(1).getUpper() - later.getConfidenceIntervals(1).getLower()
+                < sum.getUpper() - sum.getLower());
+
+        // Once every worker is done the result is exact
+        online.complete("worker2", progress(plan, amounts, 10000));
+        assertTrue(online.isComplete());
+        QueryResult result = online.snapshot();
+        assertEquals(QueryStatus.COMPLETED, result.getStatus());
+        assertEquals(List.of("20000", "100010000"), result.getResults(0).getValuesList());
+        assertEquals(0, result.getConfidenceIntervalsCount());
+    }
+
+    @Test
+    void testRefinesAtMostOncePerInterval() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT COUNT(*) FROM orders"));
+        OnlineAggregation online = new OnlineAggregation(plan, 1, 1000);
+
+        online.update("worker1", progress(plan, List.of("1"), 2));
+        assertNotNull(online.refine(5000));
+        assertNull(online.refine(5500));
+        assertNotNull(online.refine(6000));
+    }
+
+    @Test
+    void testFailedWorkerKeepsTheResultFromCompleting() {
+        AggregationPlan plan = AggregationPlan.parse(parser.parse("SELECT COUNT(*) FROM orders"));
+        OnlineAggregation online = new OnlineAggregation(plan, 2, 0);
+
+        online.complete("worker1", progress(plan, List.of("1", "2"), 2));
+        online.update("worker2", progress(plan, List.of("1"), 2));
+        online.complete("worker2", null);
+
+        // Every worker is done, but worker2's rows were never seen
+        assertTrue(online.isComplete());
+        assertEquals(Set.of("worker2"), online.getFailedWorkers());
+        assertEquals(QueryStatus.EXECUTING, online.snapshot().getStatus());
+        assertNull(online.refine(System.currentTimeMillis()));
+    }
+
+    /**
+     * A worker's states over the given amounts out of its rows; all of them
+     * make its final, exact states
+     */
+    private static QueryResult progress(AggregationPlan plan, List<String> amounts, long rowsTotal) {
+        AggregateGroup.Builder group = AggregateGroup.newBuilder().setRowCount(amounts.size());
+        for (AggregateSpec spec : plan.toProto().getAggregatesList()) {
+            AggregateState state = AggregateState.create(spec);
+            for (String amount : amounts) {
+                state.add(amount);
+            }
+            group.addStates(ByteString.copyFrom(state.toByteArray()));
+        }
+        return QueryResult.newBuilder()
+                .addAggregateGroups(group)
+                .setSampleFraction(amounts.size() < rowsTotal ? (double) amounts.size() / rowsTotal : 0)
+                .setProgress(QueryProgress.newBuilder()
+                        .setRowsProcessed(amounts.size())
+                        .setRowsTotal(rowsTotal))
+                .build();
+    }
+}
@@ -0,0 +1,179 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.NodeType;
+import com.distributed.sql.common.models.PlanNode;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import com.distributed.sql.common.proto.QueryProto.RuntimeFilter;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import com.distributed.sql.common.utils.SQLParser;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class QueryPlannerTest {
+
+    private final RoutingTable routing = RoutingTable.empty()
+            .withDistribution("orders", ShardType.RANGE, "user_id")
+            .withShards("orders", List.of(
+                    new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000),
+                    new ShardInfo("orders_shard_2", "worker2", "orders", "5001", "10000", 5000),
+                    new ShardInfo("orders_shard_3", "worker3", "orders", "10001", "15000", 5000)));
+
+    @Test
+    void testExactKeysPruneShardsNoKeyRoutesTo() {
+        RuntimeFilter filter = JoinExecutor.buildRuntimeFilter("rf", "user_id", Set.of("12", "12000"));
+
+        List<ShardInfo> shards = QueryPlanner.pruneShards(routing, "orders", routing.getShards("orders"), filter);
+
+        assertEquals(List.of("orders_shard_1", "orders_shard_3"), shardIds(shards));
+    }
+
+    @Test
+    void testBloomFilterBoundsPruneRangeShards() {
+        Set<String> keys = new HashSet<>();
+        for (int i = 6000; i <= 6000 + JoinExecutor.EXACT_FILTER_MAX_KEYS; i++) {
+            keys.add(Integer.toString(i));
+        }
+        RuntimeFilter filter = JoinExecutor.buildRuntimeFilter("rf", "user_id", keys);
+
+        List<ShardInfo> shards = QueryPlanner.pruneShards(routing, "orders", routing.getShards("orders"), filter);
+
+        assertEquals(List.of("orders_shard_2"), shardIds(shards));
+    }
+
+    @Test
+    void testFilterOnOtherColumnKeepsAllShards() {
+        RuntimeFilter filter = JoinExecutor.buildRuntimeFilter("rf", "order_id", Set.of("12"));
+
+        assertEquals(3, QueryPlanner.pruneShards(routing, "orders", routing.getShards("orders"), filter).size());
+    }
+
+    private static List<String> shardIds(List<ShardInfo> shards) {
+        return shards.stream().map(ShardInfo::getShardId).toList();
+    }
+
+    @Test
+    void testColocatedJoinReadsAlignedShardsOnOneWorker() {
+        QueryPlanner planner = new QueryPlanner(new ShardManager());
+        Query query = new SQLParser().parse(
+                "SELECT u.name, o.order_id FROM users u JOIN orders o ON u.user_id = o.user_id WHERE o.user_id = 6000");
+
+        QueryPlan plan = planner.createExecutionPlan(query);
+
+        assertTrue(plan.isColocatedJoin());
+        assertEquals(1, plan.getWorkerIds().size());
+        assertEquals(List.of("users_shard_2", "orders_shard_2"),
+                plan.getWorkerShardIds().get(plan.getWorkerIds().get(0)));
+    }
+
+    @Test
+    void testJoinOffTheShardKeyIsNotColocated() {
+        QueryPlanner planner = new QueryPlanner(new ShardManager());
+        Query query = new SQLParser().parse("SELECT * FROM users u JOIN orders o ON u.name = o.product_name");
+
+        assertFalse(planner.isColocatedJoin(query));
+    }
+
+    @Test
+    void testIndexedConditionPlansIndexLookup() {
+        RoutingTable indexed = routing.withIndex(new IndexDefinition("orders_status", "orders", List.of("status")));
+        SQLParser parser = new SQLParser();
+
+        Query equality = parser.parse("SELECT * FROM orders WHERE orders.amount > 10 AND orders.status = 'shipped'");
+        assertEquals("orders.status", QueryPlanner.getIndexedCondition(indexed, "orders", equality).getColumn());
+        assertNull(QueryPlanner.getIndexedCondition(indexed, "orders",
+                parser.parse("SELECT * FROM orders WHERE status = 'shipped' OR amount > 10")));
+        assertNull(QueryPlanner.getIndexedCondition(routing, "orders", equality));
+    }
+
+    @Test
+    void testPlanUsesCatalogIndex() {
+        ShardManager shardManager = new ShardManager();
+        assertTrue(shardManager.createIndex(new IndexDefinition("orders_status", "orders", List.of("status"))));
+        assertFalse(shardManager.createIndex(new IndexDefinition("orders_status", "orders", List.of("amount"))));
+
+        QueryPlan plan = new QueryPlanner(shardManager).createExecutionPlan(
+                new SQLParser().parse("SELECT order_id FROM orders WHERE status = 'shipped'"));
+
+        PlanNode lookup = plan.getRootNode().getChildren().get(0).getChildren().get(0);
+        assertEquals(NodeType.INDEX_LOOKUP, lookup.getType());
+        assertEquals("orders_status", lookup.getIndexName());
+    }
+
+    @Test
+    void testReadyGlobalIndexRoutesPointLookup() {
+        IndexDefinition building = new IndexDefinition("orders_by_status", "orders", List.of("status"), true, false);
+        SQLParser parser = new SQLParser();
+        Query lookup = parser.parse("SELECT * FROM orders WHERE amount > 10 AND status = 'shipped'");
+
+        assertNull(QueryPlanner.getGlobalIndexCondition(routing.withIndex(building), lookup));
+
+        RoutingTable ready = routing.withIndex(building.asReady());
+        assertEquals("status", QueryPlanner.getGlobalIndexCondition(ready, lookup).getColumn());
+        assertNull(QueryPlanner.getIndexedCondition(ready, "orders", lookup));
+        assertNull(QueryPlanner.getGlobalIndexCondition(ready,
+                parser.parse("SELECT * FROM orders WHERE status = 'shipped' AND user_id = 12")));
+        assertNull(QueryPlanner.getGlobalIndexCondition(ready,
+                parser.parse("SELECT * FROM orders WHERE status = 'shipped' OR amount > 10")));
+    }
+
+    @Test
+    void testGlobalIndexTableIsHashShardedOnIndexedColumn() {
+        ShardManager shardManager = new ShardManager();
+        IndexDefinition index = shardManager.createGlobalIndex(
+                new IndexDefinition("orders_by_status", "orders", List.of("status"), true, false));
+
+        RoutingTable routing = shardManager.getRoutingTable();
+        assertFalse(index.isReady());
+        assertEquals(ShardType.HASH, routing.getShardType("orders_by_status"));
+        assertEquals("status", routing.getShardKeyColumn("orders_by_status"));
+        assertEquals(3, routing.getShards("orders_by_status").size());
+        assertFalse(routing.getGlobalIndexOn("orders", "status").isReady());
+
+        shardManager.markIndexReady(index);
+        assertTrue(shardManager.getRoutingTable().getGlobalIndexOn("orders", "status").isReady());
+        assertSame(shardManager.getRoutingTable().getGlobalIndexOn("orders", "status"),
+                shardManager.createGlobalIndex(index));
+        assertThrows(IllegalArgumentException.class, () -> shardManager.createGlobalIndex(
+                new IndexDefinition("orders_by_user", "orders", List.of("user_id"), true, false)));
+    }
+
+    @Test
+    void testWorkerScopesCoverEachShardOnce() {
+        QueryPlanner planner = new QueryPlanner(new ShardManager());
+        SQLParser parser = new SQLParser();
+
+        // Every shard has two replicas, so the scopes decide which one reads it
+        QueryPlan users = planner.createExecutionPlan(parser.parse("SELECT * FROM users"));
+        List<String> shardIds = new ArrayList<>();
+        for (String workerId : users.getWorkerIds()) {
+            List<ShardScope> scopes = users.getWorkerShardScopes().get(workerId);
+            assertEquals(1, scopes.size());
+            assertEquals("user_id", scopes.get(0).getKeyColumn());
+            assertEquals(0, scopes.get(0).getRingShardIdsCount());
+            for (ShardRange shard : scopes.get(0).getShardsList()) {
+                shardIds.add(shard.getShardId());
+                assertFalse(shard.getKeyRangeStart().isEmpty());
+            }
+        }
+        Collections.sort(shardIds);
+        assertEquals(List.of("users_shard_1", "users_shard_2", "users_shard_3"), shardIds);
+
+        QueryPlan products = planner.createExecutionPlan(parser.parse("SELECT * FROM products"));
+        int productShards = 0;
+        for (List<ShardScope> scopes : products.getWorkerShardScopes().values()) {
+            // Hash scopes carry the whole ring so workers route keys as the coordinator does
+            assertEquals(3, scopes.get(0).getRingShardIdsCount());
+            productShards += scopes.get(0).getShardsCount();
+        }
+        assertEquals(3, productShards);
+    }
+}
@@ -0,0 +1,93 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class RoutingTableTest {
+
+    @Test
+    void testChangesPublishNewVersion() {
+        RoutingTable original = RoutingTable.empty()
+                .withDistribution("orders", ShardType.RANGE, "user_id")
+                .withShards("orders", List.of(
+                        new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000)));
+
+        ShardInfo added = new ShardInfo("orders_shard_2", "worker2", "orders", "5001", "10000", 5000);
+        RoutingTable updated = original.withShard("orders", added);
+
+        assertTrue(updated.getVersion() > original.getVersion());
+        assertEquals(1, original.getShards("orders").size());
+        assertEquals(2, updated.getShards("orders").size());
+        assertNull(original.route("orders", "6000"));
+        assertEquals("orders_shard_2", updated.route("orders", "6000").getShardId());
+    }
+
+    @Test
+    void testWorkerIndexIncludesReplicas() {
+        ShardInfo shard = new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000);
+        shard.addReplica("worker2");
+        RoutingTable routing = RoutingTable.empty().withShards("users", List.of(shard));
+
+        assertEquals(List.of(shard), routing.getWorkerShards("worker1"));
+        assertEquals(List.of(shard), routing.getWorkerShards("worker2"));
+        assertTrue(routing.getWorkerShards("worker3").isEmpty());
+    }
+
+    @Test
+    void testShardListsAreImmutable() {
+        RoutingTable routing = RoutingTable.empty().withShards("users", List.of(
+                new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000)));
+
+        assertThrows(UnsupportedOperationException.class, () -> routing.getShards("users").clear());
+        // Published shards are frozen too
+        ShardInfo shard = routing.getShard("users", "users_shard_1");
+        assertThrows(IllegalStateException.class, () -> shard.setWorkerId("worker2"));
+        assertThrows(IllegalStateException.class, () -> shard.addReplica("worker2"));
+        assertThrows(UnsupportedOperationException.class, () -> shard.getReplicaWorkerIds().add("worker2"));
+        assertFalse(new ShardInfo(shard).isFrozen());
+
+        // Row counts are refreshed on a copy under the same version
+        RoutingTable refreshed = routing.withRowCount("users", "users_shard_1", 42);
+        assertEquals(routing.getVersion(), refreshed.getVersion());
+        assertEquals(42, refreshed.getShard("users", "users_shard_1").getRowCount());
+        assertEquals(1000, shard.getRowCount());
+    }
+
+    @Test
+    void testColocationRequiresAlignedShards() {
+        RoutingTable routing = RoutingTable.empty()
+                .withDistribution("users", ShardType.RANGE, "user_id", "user")
+                .withShards("users", List.of(
+                        new ShardInfo("users_shard_1", "worker1", "users", "1", "5000", 1000),
+                        new ShardInfo("users_shard_2", "worker2", "users", "5001", "10000", 1000)))
+                .withDistribution("orders", ShardType.RANGE, "user_id", "user")
+                .withShards("orders", List.of(
+                        new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000),
+                        new ShardInfo("orders_shard_2", "worker2", "orders", "5001", "10000", 5000)));
+
+        assertTrue(routing.areColocated("users", "orders"));
+
+        // Moving one table's shard to another worker breaks the alignment
+        ShardInfo moved = new ShardInfo("orders_shard_2", "worker3", "orders", "5001", "10000", 5000);
+        assertFalse(routing.withShard("orders", moved).areColocated("users", "orders"));
+        assertFalse(routing.withDistribution("orders", ShardType.RANGE, "user_id", null)
+                .areColocated("users", "orders"));
+    }
+
+    @Test
+    void testIndexesSurviveShardChanges() {
+        RoutingTable routing = RoutingTable.empty()
+                .withIndex(new IndexDefinition("orders_status", "orders", List.of("status", "amount")))
+                .withShards("orders", List.of(
+                        new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000)));
+
+        assertEquals("orders_status", routing.getIndexOn("orders", "STATUS").getName());
+        assertNull(routing.getIndexOn("orders", "amount"));
+        assertEquals(1, routing.withIndex(new IndexDefinition("orders_status", "orders", List.of("amount")))
+                .getIndexes("orders").size());
+    }
+}
@@ -0,0 +1,77 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures coordinator startup time from a persisted catalog of 100k shards
+ * (snapshot plus a tail of log records).
+ *
+ * Not a unit test; run the main method against the coordinator test classpath.
+ */
+public class ShardCatalogBenchmark {
+
+    private static final int TABLES = 10;
+    private static final int SHARDS = 100_000;
+    private static final int LOG_RECORDS = 5_000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("catalog-benchmark");
+        try {
+            createCatalog(directory);
+
+            for (int run = 1; run <= RUNS; run++) {
+                long startTime = System.nanoTime();
+                ShardManager shardManager = new ShardManager(new ShardCatalog(directory));
+                long elapsedMicros = (System.nanoTime() - startTime) / 1000;
+
+                int shards = shardManager.getShardDistribution().keySet().stream()
+                        .mapToInt(table -> shardManager.getShardsForTable(table).size())
+                        .sum();
+                shardManager.shutdown();
+                System.out.printf("run %d: restored %d shards in %.1f ms%n", run, shards, elapsedMicros / 1000.0);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void createCatalog(Path directory) throws IOException {
+        ShardCatalog.CatalogState state = new ShardCatalog.CatalogState();
+        int shardsPerTable = SHARDS / TABLES;
+        for (int t = 0; t < TABLES; t++) {
+            String tableName = "table_" + t;
+            state.shardTypes.put(tableName, ShardType.RANGE);
+            state.shardKeyColumns.put(tableName, "id");
+            for (int i = 0; i < shardsPerTable; i++) {
+                ShardInfo shard = new ShardInfo(tableName + "_shard_" + i, "worker" + (i % 3 + 1), tableName,
+                        String.valueOf((long) i * 1000), String.valueOf((long) i * 1000 + 999), 1000);
+                shard.addReplica("worker" + ((i + 1) % 3 + 1));
+                state.putShard(tableName, shard);
+            }
+        }
+        for (int w = 1; w <= 3; w++) {
+            state.workers.put("worker" + w, new ShardManager.WorkerInfo("worker" + w, "localhost", 50051 + w));
+        }
+
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            catalog.load();
+            catalog.writeSnapshot(state);
+            // Leave a tail of updates in the log, as after a run of splits and moves
+            for (int i = 0; i < LOG_RECORDS; i++) {
+                ShardInfo shard = new ShardInfo("table_0_shard_" + i, "worker2", "table_0",
+                        String.valueOf((long) i * 1000), String.valueOf((long) i * 1000 + 999), 1000);
+                catalog.appendShard("table_0", shard);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class ShardCatalogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLoadReplaysLogOnTopOfSnapshot() throws Exception {
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            catalog.load();
+            ShardCatalog.CatalogState state = new ShardCatalog.CatalogState();
+            state.shardTypes.put("t", ShardType.RANGE);
+            state.shardKeyColumns.put("t", "id");
+            state.putShard("t", shard("t_shard_1", "worker1", "0", "999"));
+            state.putShard("t", shard("t_shard_2", "worker2", "1000", "1999"));
+            catalog.writeSnapshot(state);
+
+            // Moves shard 2 and adds shard 3 after the snapshot
+            catalog.appendShard("t", shard("t_shard_2", "worker3", "1000", "1999"));
+            catalog.appendShard("t", shard("t_shard_3", "worker1", "2000", "2999"));
+            catalog.appendWorker("worker1", "localhost", 50052);
+        }
+
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            ShardCatalog.CatalogState state = catalog.load();
+            List<ShardInfo> shards = state.shards.get("t");
+            assertEquals(3, shards.size());
+            assertEquals("worker3", shards.get(1).getWorkerId());
+            assertEquals("t_shard_3", shards.get(2).getShardId());
+            assertEquals(ShardType.RANGE, state.shardTypes.get("t"));
+            assertEquals("id", state.shardKeyColumns.get("t"));
+            assertEquals(50052, state.workers.get("worker1").getPort());
+        }
+    }
+
+    @Test
+    void testTornTailIsIgnoredAndOverwritten() throws Exception {
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            catalog.load();
+            catalog.appendShard("t", shard("t_shard_1", "worker1", "0", "999"));
+        }
+        // A crash mid-append leaves a length prefix with part of a record behind it
+        Files.write(directory.resolve("catalog.log"), new byte[] {0, 0, 0, 40, 1, 2, 3},
+                StandardOpenOption.APPEND);
+
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            assertEquals(1, catalog.load().getShardCount());
+            catalog.appendShard("t", shard("t_shard_2", "worker2", "1000", "1999"));
+        }
+
+        // The torn bytes were cut off, so the record appended after them is read back
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            List<ShardInfo> shards = catalog.load().shards.get("t");
+            assertEquals(List.of("t_shard_1", "t_shard_2"), List.of(shards.get(0).getShardId(),
+                    shards.get(1).getShardId()));
+        }
+    }
+
+    @Test
+    void testCrashBetweenSnapshotAndTruncateReplaysFoldedRecords() throws Exception {
+        byte[] log;
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            ShardCatalog.CatalogState state = catalog.load();
+            catalog.appendShard("t", shard("t_shard_1", "worker1", "0", "999"));
+            catalog.appendShard("t", shard("t_shard_1", "worker2", "0", "999"));
+            log = Files.readAllBytes(directory.resolve("catalog.log"));
+
+            state.putShard("t", shard("t_shard_1", "worker2", "0", "999"));
+            state.version = 2;
+            catalog.writeSnapshot(state);
+        }
+        // Put back the log the snapshot already holds, as if the truncate never ran
+        Files.write(directory.resolve("catalog.log"), log);
+
+        try (ShardCatalog catalog = new ShardCatalog(directory)) {
+            ShardCatalog.CatalogState state = catalog.load();
+            assertEquals(1, state.getShardCount());
+            assertEquals("worker2", state.shards.get("t").get(0).getWorkerId());
+            // Replaying folded records may only move the version forward
+            assertTrue(state.version >= 2);
+        }
+    }
+
+    @Test
+    void testRoutingVersionSurvivesRestart() throws Exception {
+        ShardManager shardManager = new ShardManager(new ShardCatalog(directory));
+        shardManager.splitShard("users", "users_shard_1", "499", "500");
+        shardManager.createIndex(new IndexDefinition("idx_users_name", "users", List.of("name")));
+        shardManager.registerWorker("worker1", "localhost", 50052);
+        long version = shardManager.getRoutingTable().getVersion();
+        shardManager.shutdown();
+
+        ShardManager restarted = new ShardManager(new ShardCatalog(directory));
+        assertEquals(version, restarted.getRoutingTable().getVersion());
+        assertEquals(4, restarted.getShardsForTable("users").size());
+        restarted.shutdown();
+    }
+
+    private static ShardInfo shard(String shardId, String workerId, String start, String end) {
+        return new ShardInfo(shardId, workerId, "t", start, end, 0);
+    }
+}
@@ -0,0 +1,264 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.ConsistentHashRing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ShardRebalancerTest {
+
+    private final ShardManager shardManager = new ShardManager();
+    private final Map<String, WorkerClient> workerClients = new HashMap<>();
+    private final ShardRebalancer rebalancer = new ShardRebalancer(shardManager, workerClients);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        rebalancer.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testComputeSplitPoint() {
+        assertArrayEquals(new String[] { "2500", "2501" }, ShardRebalancer.computeSplitPoint("1", "5000"));
+        assertArrayEquals(new String[] { "-1", "0" }, ShardRebalancer.computeSplitPoint("-2", "1"));
+        assertArrayEquals(new String[] { "M", "N" }, ShardRebalancer.computeSplitPoint("a", "z"));
+        assertNull(ShardRebalancer.computeSplitPoint("7", "7"));
+        assertNull(ShardRebalancer.computeSplitPoint("A", "A"));
+        assertNull(ShardRebalancer.computeSplitPoint("aa", "zz"));
+        assertNull(ShardRebalancer.computeSplitPoint(null, "10"));
+    }
+
+    @Test
+    void testSplitShardKeepsReplicasAndTakesAFreshId() {
+        ShardInfo upper = shardManager.splitShard("users", "users_shard_2", "7500", "7501");
+
+        assertEquals("users_shard_4", upper.getShardId());
+        assertEquals("7501", upper.getKeyRangeStart());
+        assertEquals("10000", upper.getKeyRangeEnd());
+        assertEquals(List.of("worker2", "worker3"), upper.getReplicaWorkerIds());
+        ShardInfo lower = shardManager.getRoutingTable().getShard("users", "users_shard_2");
+        assertEquals("5001", lower.getKeyRangeStart());
+        assertEquals("7500", lower.getKeyRangeEnd());
+
+        // Splitting the lower half again must not reuse an id in use
+        ShardInfo next = shardManager.splitShard("users", "users_shard_2", "6250", "6251");
+        assertEquals("users_shard_5", next.getShardId());
+        assertEquals(5, shardManager.getShardsForTable("users").size());
+        assertEquals("7501", shardManager.getRoutingTable().getShard("users", "users_shard_4").getKeyRangeStart());
+    }
+
+    @Test
+    void testNextShardIdSkipsPastGaps() {
+        RoutingTable routing = RoutingTable.empty().withShards("t", List.of(
+                new ShardInfo("t_shard_1", "worker1", "t", "0", "999", 0),
+                new ShardInfo("t_shard_3", "worker2", "t", "1000", "1999", 0)));
+
+        // Two shards, but t_shard_3 is taken
+        assertEquals("t_shard_4", ShardManager.nextShardId(routing, "t"));
+        assertEquals("u_shard_1", ShardManager.nextShardId(routing, "u"));
+    }
+
+    @Test
+    void testMigrateCopiesEveryBatchWithWritesFencedAndSwitches() {
+        FakeWorker source = addWorker("worker1", 2500);
+        FakeWorker target = addWorker("worker3", 0);
+        addWorker("worker2", 0);
+
+        rebalancer.migrate("users", shard("users_shard_1"), "worker3");
+
+        assertEquals(2500, target.keys.size());
+        assertEquals(3, source.fencedReads.size());
+        assertTrue(source.fencedReads.stream().allMatch(fenced -> fenced));
+        ShardInfo moved = shard("users_shard_1");
+        assertEquals("worker3", moved.getWorkerId());
+        assertEquals(List.of("worker3", "worker2"), moved.getReplicaWorkerIds());
+        assertNull(shardManager.getMigrationTarget("users_shard_1"));
+        assertFalse(shardManager.getWriteFence("users").isClosed());
+        assertTrue(target.deletedRanges.isEmpty());
+    }
+
+    @Test
+    void testMigrationWaitsForWritesRoutedBeforeIt() throws Exception {
+        addWorker("worker1", 10);
+        addWorker("worker2", 0);
+        FakeWorker target = addWorker("worker3", 0);
+        WriteFence fence = shardManager.getWriteFence("users");
+        // A write routed without the migration target is still in flight
+        assertTrue(fence.enter(0));
+
+        Future<?> migration = executor.submit(() -> rebalancer.migrate("users", shard("users_shard_1"), "worker3"));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!fence.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(fence.isClosed());
+        assertThrows(TimeoutException.class, () -> migration.get(200, TimeUnit.MILLISECONDS));
+        assertNull(shardManager.getMigrationTarget("users_shard_1"));
+        assertTrue(target.keys.isEmpty());
+
+        fence.exit();
+        migration.get(10, TimeUnit.SECONDS);
+        assertEquals(10, target.keys.size());
+        assertEquals("worker3", shard("users_shard_1").getWorkerId());
+    }
+
+    @Test
+    void testFailedCopyAbortsAndRemovesThePartialCopy() {
+        addWorker("worker1", 2500);
+        addWorker("worker2", 0);
+        FakeWorker target = addWorker("worker3", 0);
+        target.failWritesAfter = 1;
+
+        rebalancer.migrate("users", shard("users_shard_1"), "worker3");
+
+        ShardInfo unmoved = shard("users_shard_1");
+        assertEquals("worker1", unmoved.getWorkerId());
+        assertEquals(List.of("worker1", "worker2"), unmoved.getReplicaWorkerIds());
+        assertNull(shardManager.getMigrationTarget("users_shard_1"));
+        assertFalse(shardManager.getWriteFence("users").isClosed());
+        assertEquals(List.of("users_shard_1"), target.deletedRanges);
+    }
+
+    @Test
+    void testNewWorkerTakesOverItsShareOfAHashTable() {
+        // Every worker holds all products keys, as with a replica of each shard
+        FakeWorker worker1 = addWorker("worker1", "products", 4000);
+        FakeWorker worker2 = addWorker("worker2", "products", 4000);
+        addWorker("worker3", "products", 4000);
+        FakeWorker worker4 = addWorker("worker4", "products", 0);
+
+        assertTrue(rebalancer.addRingShard("products", "worker4"));
+
+        List<ShardInfo> shards = shardManager.getShardsForTable("products");
+        assertEquals(4, shards.size());
+        ShardInfo added = shardManager.getRoutingTable().getShard("products", "products_shard_4");
+        assertEquals(List.of("worker4", "worker1"), added.getReplicaWorkerIds());
+        ConsistentHashRing ring = new ConsistentHashRing(shards);
+        Set<Long> moved = new TreeSet<>();
+        for (long key = 1; key <= 4000; key++) {
+            if (ring.route(Long.toString(key)).getShardId().equals("products_shard_4")) {
+                moved.add(key);
+            }
+        }
+        assertTrue(moved.size() > 600 && moved.size() < 1400, "moved " + moved.size() + " of 4000 keys");
+        assertEquals(moved, worker4.keys);
+        assertEquals(List.of("products"), worker4.createdTables);
+        assertTrue(worker1.createdTables.isEmpty());
+        assertTrue(worker2.fencedReads.stream().allMatch(fenced -> fenced));
+        assertFalse(shardManager.getWriteFence("products").isClosed());
+        assertTrue(shardManager.getRingShardTargets("products", null).isEmpty());
+        assertTrue(worker4.deletedRanges.isEmpty());
+    }
+
+    @Test
+    void testFailedRingShardCopyLeavesTheRingAsItWas() {
+        addWorker("worker1", "products", 4000);
+        addWorker("worker2", "products", 4000);
+        addWorker("worker3", "products", 4000);
+        FakeWorker worker4 = addWorker("worker4", "products", 0);
+        worker4.failWritesAfter = 0;
+
+        assertFalse(rebalancer.addRingShard("products", "worker4"));
+
+        assertEquals(3, shardManager.getShardsForTable("products").size());
+        assertTrue(shardManager.getRingShardTargets("products", null).isEmpty());
+        assertFalse(shardManager.getWriteFence("products").isClosed());
+        assertEquals(List.of("products_shard_4"), worker4.deletedRanges);
+    }
+
+    private ShardInfo shard(String shardId) {
+        return shardManager.getRoutingTable().getShard("users", shardId);
+    }
+
+    private FakeWorker addWorker(String workerId, int rows) {
+        return addWorker(workerId, "users", rows);
+    }
+
+    private FakeWorker addWorker(String workerId, String tableName, int rows) {
+        FakeWorker worker = new FakeWorker(shardManager.getWriteFence(tableName));
+        for (long key = 1; key <= rows; key++) {
+            worker.keys.add(key);
+        }
+        workerClients.put(workerId, worker);
+        return worker;
+    }
+
+    /**
+     * Holds rows by key and serves them in key order, only those the ring
+     * routes to the shard for a hash-sharded range, noting whether writes
+     * were fenced during each read
+     */
+    private static final class FakeWorker extends WorkerClient {
+        final NavigableSet<Long> keys = new ConcurrentSkipListSet<>();
+        final List<Boolean> fencedReads = new CopyOnWriteArrayList<>();
+        final List<String> deletedRanges = new CopyOnWriteArrayList<>();
+        final List<String> createdTables = new CopyOnWriteArrayList<>();
+        final WriteFence fence;
+        volatile int failWritesAfter = Integer.MAX_VALUE;
+
+        FakeWorker(WriteFence fence) {
+            super("localhost", 0);
+            this.fence = fence;
+        }
+
+        @Override
+        public ReadShardRowsResponse readShardRows(ShardRange shard, String afterKey, int batchSize) {
+            fencedReads.add(fence.isClosed());
+            List<Long> remaining = new ArrayList<>(
+                    afterKey.isEmpty() ? keys : keys.tailSet(Long.parseLong(afterKey), false));
+            if (shard.getRingShardIdsCount() > 0) {
+                List<ShardInfo> ringShards = new ArrayList<>();
+                for (String shardId : shard.getRingShardIdsList()) {
+                    ringShards.add(new ShardInfo(shardId, null, shard.getTableName(), null, null, 0));
+                }
+                ConsistentHashRing ring = new ConsistentHashRing(ringShards);
+                remaining.removeIf(key -> !ring.route(Long.toString(key)).getShardId().equals(shard.getShardId()));
+            }
+            ReadShardRowsResponse.Builder batch = ReadShardRowsResponse.newBuilder()
+                    .setSuccess(true)
+                    .addColumns("key");
+            for (long key : remaining) {
+                if (batch.getRowsCount() == batchSize) {
+                    break;
+                }
+                batch.addRows(Row.newBuilder().addValues(Long.toString(key)));
+                batch.setLastKey(Long.toString(key));
+            }
+            return batch.setDone(remaining.size() <= batchSize).build();
+        }
+
+        @Override
+        public WriteShardRowsResponse writeShardRows(String tableName, List<String> columns, List<Row> rows) {
+            if (failWritesAfter-- <= 0) {
+                return WriteShardRowsResponse.newBuilder().setSuccess(false).setMessage("disk full").build();
+            }
+            for (Row row : rows) {
+                keys.add(Long.parseLong(row.getValues(0)));
+            }
+            return WriteShardRowsResponse.newBuilder().setSuccess(true).setRowsWritten(rows.size()).build();
+        }
+
+        @Override
+        public DeleteShardRowsResponse deleteShardRows(ShardRange shard) {
+            deletedRanges.add(shard.getShardId());
+            return DeleteShardRowsResponse.newBuilder().setSuccess(true).build();
+        }
+
+        @Override
+        public CreateTableResponse createTable(String tableName, List<String> columns) {
+            createdTables.add(tableName);
+            return CreateTableResponse.newBuilder().setSuccess(true).build();
+        }
+
+        @Override
+        public CreateIndexResponse createIndex(String tableName, String indexName, List<String> columns) {
+            return CreateIndexResponse.newBuilder().setSuccess(true).build();
+        }
+    }
+}
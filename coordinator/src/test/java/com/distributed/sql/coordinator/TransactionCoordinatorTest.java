@@ -0,0 +1,227 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.models.ShardType;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.SQLParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TransactionCoordinatorTest {
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ShardManager shardManager = new ShardManager();
+    private final Map<String, WorkerClient> workerClients = new HashMap<>();
+    private final Map<String, FakeWorker> workers = new HashMap<>();
+    private TransactionLog transactionLog;
+    private TransactionCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Each users shard has ten matching rows: 1..10, 5001..5010 and 10001..10010
+        addWorker("worker1", 1, 10001);
+        addWorker("worker2", 1, 5001);
+        addWorker("worker3", 5001, 10001);
+        transactionLog = new TransactionLog(directory);
+        transactionLog.load();
+        coordinator = new TransactionCoordinator(shardManager, workerClients, executor, transactionLog);
+    }
+
+    @AfterEach
+    void shutdown() {
+        coordinator.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testFailedPrepareAbortsEveryParticipant() {
+        workers.get("worker2").failPrepare = true;
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> coordinator.execute(update("UPDATE users SET name = 'x' WHERE age > 30"), 0));
+
+        assertTrue(e.getMessage().contains("worker2"), e.getMessage());
+        for (FakeWorker worker : workers.values()) {
+            assertEquals(1, worker.finishes.size());
+            assertTrue(worker.finishes.get(0).endsWith(":rollback"));
+            assertTrue(worker.prepared.isEmpty());
+        }
+        // Presumed abort: nothing is logged
+        assertTrue(transactionLog.getPendingCommits().isEmpty());
+    }
+
+    @Test
+    void testLostCommitAcknowledgementIsResentByRecovery() throws Exception {
+        FakeWorker worker3 = workers.get("worker3");
+        worker3.loseCommitAcks = 1;
+
+        assertEquals(30, coordinator.execute(update("UPDATE users SET name = 'x' WHERE age > 30"), 0));
+
+        // The decision stays logged until worker3 acknowledges
+        assertEquals(1, transactionLog.getPendingCommits().size());
+        String transactionId = transactionLog.getPendingCommits().keySet().iterator().next();
+        assertEquals(List.of(transactionId + ":commit"), worker3.finishes);
+
+        coordinator.resolveInDoubt();
+
+        assertEquals(List.of(transactionId + ":commit", transactionId + ":commit"), worker3.finishes);
+        assertTrue(transactionLog.getPendingCommits().isEmpty());
+        for (FakeWorker worker : workers.values()) {
+            assertTrue(worker.prepared.isEmpty());
+        }
+    }
+
+    @Test
+    void testRecoveryRollsBackOrphanedPreparedTransactions() throws Exception {
+        workers.get("worker1").prepared.addAll(List.of("dsql_orphan", "other_prepared"));
+        workers.get("worker2").prepared.add("dsql_logged");
+        transactionLog.logCommit("dsql_logged", List.of("worker2"));
+
+        coordinator.resolveInDoubt();
+
+        assertEquals(List.of("dsql_orphan:rollback"), workers.get("worker1").finishes);
+        // Only transactions with our prefix are touched
+        assertEquals(Set.of("other_prepared"), workers.get("worker1").prepared);
+        assertEquals(List.of("dsql_logged:commit"), workers.get("worker2").finishes);
+        assertTrue(transactionLog.getPendingCommits().isEmpty());
+    }
+
+    @Test
+    void testRowsAreCountedOncePerShardWithAMigrationTarget() throws Exception {
+        // worker3 also receives users_shard_1's writes while the shard is copied to it
+        shardManager.beginMigration("users_shard_1", "worker3");
+        workers.get("worker3").keys.addAll(keys(1));
+
+        assertEquals(30, coordinator.execute(update("DELETE FROM users WHERE age > 30"), 0));
+
+        assertEquals(List.of("users_shard_3"), workers.get("worker3").countedShards);
+        assertEquals(List.of("users_shard_1"), workers.get("worker1").countedShards);
+    }
+
+    @Test
+    void testReplicatedSingleShardWriteTakesTwoPhases() throws Exception {
+        coordinator.execute(update("UPDATE users SET name = 'x' WHERE user_id = 7"), 0);
+
+        assertFalse(workers.get("worker1").onePhase);
+        assertFalse(workers.get("worker2").onePhase);
+        assertTrue(workers.get("worker3").finishes.isEmpty());
+        assertTrue(transactionLog.getPendingCommits().isEmpty());
+    }
+
+    @Test
+    void testUnreplicatedSingleShardWriteCommitsInOnePhase() throws Exception {
+        // A replication factor of 1: each events shard lives on one worker only
+        shardManager.setDistribution("events", ShardType.RANGE, "event_id");
+        shardManager.addShard("events", new ShardInfo("events_shard_1", "worker1", "events", "1", "5000", 0));
+        shardManager.addShard("events", new ShardInfo("events_shard_2", "worker2", "events", "5001", "10000", 0));
+
+        assertEquals(10, coordinator.execute(update("UPDATE events SET name = 'x' WHERE event_id = 7"), 0));
+
+        assertTrue(workers.get("worker1").onePhase);
+        assertTrue(workers.get("worker1").prepared.isEmpty());
+        assertTrue(workers.get("worker1").finishes.isEmpty());
+        assertEquals(List.of("events_shard_1"), workers.get("worker1").countedShards);
+        assertTrue(workers.get("worker2").countedShards.isEmpty());
+        assertTrue(transactionLog.getPendingCommits().isEmpty());
+    }
+
+    private void addWorker(String workerId, int... shardStarts) {
+        FakeWorker worker = new FakeWorker();
+        for (int start : shardStarts) {
+            worker.keys.addAll(keys(start));
+        }
+        workers.put(workerId, worker);
+        workerClients.put(workerId, worker);
+    }
+
+    private static List<Long> keys(int start) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = start; key < start + 10; key++) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static Query update(String sql) {
+        Query query = new SQLParser().parse(sql);
+        query.setSql(sql);
+        return query;
+    }
+
+    /**
+     * Prepares and finishes transactions in memory. Every held key matches
+     * the statement, and the response counts those in the request's count
+     * scopes.
+     */
+    private static final class FakeWorker extends WorkerClient {
+        final List<Long> keys = new CopyOnWriteArrayList<>();
+        final Set<String> prepared = ConcurrentHashMap.newKeySet();
+        final List<String> finishes = new CopyOnWriteArrayList<>();
+        final List<String> countedShards = new CopyOnWriteArrayList<>();
+        volatile boolean failPrepare;
+        volatile boolean onePhase;
+        volatile int loseCommitAcks;
+
+        FakeWorker() {
+            super("localhost", 0);
+        }
+
+        @Override
+        public ExecuteWriteResponse executeWrite(ExecuteWriteRequest request) {
+            onePhase = request.getOnePhase();
+            if (failPrepare) {
+                return ExecuteWriteResponse.newBuilder().setSuccess(false).setMessage("lock timeout").build();
+            }
+            long counted = 0;
+            for (ShardScope scope : request.getCountScopesList()) {
+                for (ShardRange shard : scope.getShardsList()) {
+                    countedShards.add(shard.getShardId());
+                    long start = Long.parseLong(shard.getKeyRangeStart());
+                    long end = Long.parseLong(shard.getKeyRangeEnd());
+                    counted += keys.stream().filter(key -> key >= start && key <= end).count();
+                }
+            }
+            if (!request.getOnePhase()) {
+                prepared.add(request.getTransactionId());
+            }
+            return ExecuteWriteResponse.newBuilder().setSuccess(true).setRowsAffected(counted).build();
+        }
+
+        @Override
+        public FinishTransactionResponse finishTransaction(String transactionId, boolean commit) {
+            finishes.add(transactionId + (commit ? ":commit" : ":rollback"));
+            boolean found = prepared.remove(transactionId);
+            if (commit && loseCommitAcks > 0) {
+                // The commit is applied but its response never arrives
+                loseCommitAcks--;
+                return null;
+            }
+            return FinishTransactionResponse.newBuilder().setSuccess(true).setFound(found).build();
+        }
+
+        @Override
+        public ListPreparedTransactionsResponse listPreparedTransactions(String prefix) {
+            List<String> transactionIds = new ArrayList<>();
+            for (String transactionId : prepared) {
+                if (transactionId.startsWith(prefix)) {
+                    transactionIds.add(transactionId);
+                }
+            }
+            return ListPreparedTransactionsResponse.newBuilder()
+                    .setSuccess(true)
+                    .addAllTransactionIds(transactionIds)
+                    .build();
+        }
+    }
+}
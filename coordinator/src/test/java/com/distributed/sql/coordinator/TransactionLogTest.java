@@ -0,0 +1,31 @@
+package com.distributed.sql.coordinator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class TransactionLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testPendingCommitsSurviveRestart() throws Exception {
+        try (TransactionLog log = new TransactionLog(directory)) {
+            log.load();
+            log.logCommit("dsql_1", List.of("worker1", "worker2"));
+            log.logCommit("dsql_2", List.of("worker2", "worker3"));
+            log.logEnd("dsql_1");
+        }
+
+        try (TransactionLog log = new TransactionLog(directory)) {
+            log.load();
+            assertFalse(log.isCommitted("dsql_1"));
+            assertTrue(log.isCommitted("dsql_2"));
+            assertEquals(List.of("worker2", "worker3"), log.getPendingCommits().get("dsql_2"));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.distributed.sql.coordinator;
+
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.proto.QueryProto.*;
+import com.distributed.sql.common.utils.SQLParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class WindowExecutorTest {
+
+    private final SQLParser parser = new SQLParser();
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @TempDir
+    Path spillDirectory;
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void testShardKeyPartitionsEvaluateOnWorkers() throws Exception {
+        List<Window> windows = new ArrayList<>();
+        WindowExecutor executor = new WindowExecutor(new ShardManager(), parser, executorService,
+                (scan, window, deadlineMs, chunks) -> {
+                    windows.add(window);
+                    assertEquals("SELECT order_id, user_id, created_at, amount FROM orders WHERE amount > '10'",
+                            scan.getSql());
+                    // As the workers send them: sorted, with the functions' values appended
+                    List<String> columns = List.of("order_id", "user_id", "created_at", "amount", "rn", "running");
+                    chunks.accept(result(columns, List.of(List.of("ORD001", "1", "2024-01-01", "20", "1", "20"))));
+                    chunks.accept(result(columns, List.of(List.of("ORD004", "1", "2024-01-03", "15", "2", "35"))));
+                    return result(columns, List.of());
+                }, spillDirectory, 100);
+
+        QueryResult result = execute(executor, "SELECT order_id, "
+                + "ROW_NUMBER() OVER (PARTITION BY user_id ORDER BY created_at) AS rn, "
+                + "SUM(amount) OVER (PARTITION BY user_id ORDER BY created_at) AS running "
+                + "FROM orders WHERE amount > 10");
+
+        // orders is sharded on user_id, so each worker holds whole partitions
+        assertEquals(1, windows.size());
+        assertEquals(List.of("user_id"), windows.get(0).getPartitionByList());
+        assertEquals(List.of("order_id", "rn", "running"), result.getColumnsList());
+        assertEquals(List.of(List.of("ORD001", "1", "20"), List.of("ORD004", "2", "35")), values(result));
+    }
+
+    @Test
+    void testOtherPartitionsAreRepartitionedAndSpilled() throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(List.of(String.format("ORD%04d", i), i % 3 == 0 ? "shipped" : "pending", Integer.toString(i)));
+        }
+        WindowExecutor executor = new WindowExecutor(new ShardManager(), parser, executorService,
+                (scan, window, deadlineMs, chunks) -> {
+                    assertNull(window);
+                    // Two workers streaming their rows in chunks at once
+                    List<String> columns = List.of("order_id", "status", "amount");
+                    List<Thread> workers = new ArrayList<>();
+                    for (int worker = 0; worker < 2; worker++) {
+                        int first = worker * 500;
+                        workers.add(new Thread(() -> {
+                            for (int from = first; from < first + 500; from += 50) {
+                                chunks.accept(result(columns, rows.subList(from, from + 50)));
+                            }
+                        }));
+                    }
+                    workers.forEach(Thread::start);
+                    for (Thread worker : workers) {
+                        try {
+                            worker.join();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    return result(columns, List.of());
+                }, spillDirectory, 100);
+
+        QueryResult result = execute(executor, "SELECT status, order_id, "
+                + "RANK() OVER (PARTITION BY status ORDER BY amount DESC) AS amount_rank, "
+                + "AVG(amount) OVER (PARTITION BY status ORDER BY amount DESC "
+                + "ROWS BETWEEN 1 PRECEDING AND CURRENT ROW) AS moving_avg FROM orders");
+
+        assertEquals(1000, result.getRowsReturned());
+        assertTrue(result.getSpilledRuns() > 0);
+        assertEquals(List.of("status", "order_id", "amount_rank", "moving_avg"), result.getColumnsList());
+        Map<String, List<String>> byOrder = new HashMap<>();
+        for (List<String> row : values(result)) {
+            byOrder.put(row.get(1), row);
+        }
+        // 999 is the largest shipped amount, 998 the largest pending one
+        assertEquals(List.of("shipped", "ORD0999", "1", "999"), byOrder.get("ORD0999"));
+        assertEquals(List.of("shipped", "ORD0996", "2", "997.5"), byOrder.get("ORD0996"));
+        assertEquals(List.of("pending", "ORD0997", "2", "997.5"), byOrder.get("ORD0997"));
+    }
+
+    @Test
+    void testUnsupportedWindows() {
+        assertNull(WindowPlan.parse(parser.parse("SELECT user_id, SUM(amount) FROM orders GROUP BY user_id")));
+        assertThrows(IllegalArgumentException.class, () -> WindowPlan.parse(parser.parse(
+                "SELECT RANK() OVER (PARTITION BY user_id ORDER BY amount), "
+                        + "RANK() OVER (PARTITION BY status ORDER BY amount) FROM orders")));
+        assertThrows(IllegalArgumentException.class, () -> WindowPlan.parse(parser.parse(
+                "SELECT SUM(amount) OVER (ORDER BY amount ROWS BETWEEN CURRENT ROW AND 1 FOLLOWING) FROM orders")));
+        assertThrows(IllegalArgumentException.class, () -> WindowPlan.parse(parser.parse(
+                "SELECT RANK() OVER (ORDER BY amount) FROM orders ORDER BY amount")));
+    }
+
+    private QueryResult execute(WindowExecutor executor, String sql) throws Exception {
+        Query query = parser.parse(sql);
+        query.setQueryId("q1");
+        return executor.execute(query, WindowPlan.parse(query), 0);
+    }
+
+    private static List<List<String>> values(QueryResult result) {
+        List<List<String>> rows = new ArrayList<>();
+        for (Row row : result.getResultsList()) {
+            rows.add(row.getValuesList());
+        }
+        return rows;
+    }
+
+    private static QueryResult result(List<String> columns, List<List<String>> rows) {
+        QueryResult.Builder result = QueryResult.newBuilder()
+                .setStatus(QueryStatus.COMPLETED)
+                .addAllColumns(columns)
+                .setRowsReturned(rows.size());
+        for (List<String> row : rows) {
+            result.addResults(Row.newBuilder().addAllValues(row));
+        }
+        return result.build();
+    }
+}
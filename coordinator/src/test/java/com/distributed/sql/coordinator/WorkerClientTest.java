@@ -0,0 +1,46 @@
+package com.distributed.sql.coordinator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkerClientTest {
+
+    @Test
+    void testPercentileFindsTheP95Bucket() {
+        WorkerClient.LatencyHistogram histogram = new WorkerClient.LatencyHistogram();
+        for (int i = 0; i < 95; i++) {
+            histogram.record(10);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.record(1000);
+        }
+
+        // 95 of 100 samples are at 10ms, so the p95 is the bucket holding 10ms, not the tail
+        long p95 = histogram.getPercentile(0.95);
+        assertTrue(p95 >= 10 && p95 < 13, "p95 was " + p95);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 1000 && p99 < 1200, "p99 was " + p99);
+
+        histogram.record(1000);
+        // One more slow sample tips the p95 into the slow bucket
+        assertTrue(histogram.getPercentile(0.95) >= 1000);
+    }
+
+    @Test
+    void testCountsAreHalvedAtTheSampleLimit() {
+        WorkerClient.LatencyHistogram histogram = new WorkerClient.LatencyHistogram();
+        for (int i = 0; i < 2047; i++) {
+            histogram.record(5);
+        }
+        assertEquals(2047, histogram.getCount());
+
+        histogram.record(5);
+        assertEquals(1024, histogram.getCount());
+        assertEquals(5, histogram.getPercentile(0.95));
+    }
+
+    @Test
+    void testEmptyHistogramReportsTheMaximum() {
+        assertEquals(60000, new WorkerClient.LatencyHistogram().getPercentile(0.95));
+    }
+}
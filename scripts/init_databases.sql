@@ -14,3 +14,6 @@ GRANT ALL PRIVILEGES ON DATABASE worker1_db TO postgres;
 GRANT ALL PRIVILEGES ON DATABASE worker2_db TO postgres;
 GRANT ALL PRIVILEGES ON DATABASE worker3_db TO postgres;
 GRANT ALL PRIVILEGES ON DATABASE coordinator_db TO postgres;
+
+-- Distributed writes use two-phase commit (PREPARE TRANSACTION); takes effect after a server restart
+ALTER SYSTEM SET max_prepared_transactions = 100;
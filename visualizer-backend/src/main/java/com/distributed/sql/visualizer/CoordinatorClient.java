@@ -9,7 +9,9 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * gRPC client for communicating with the coordinator
@@ -53,17 +55,16 @@ public class CoordinatorClient {
     }
 
     public QueryResult executeQuery(String sqlQuery) {
-        try {
-            String queryId = "query_" + System.currentTimeMillis();
+        return executeQuery(sqlQuery, null);
+    }
 
-            ExecuteQueryRequest request = ExecuteQueryRequest.newBuilder()
-                    .setSqlQuery(sqlQuery)
-                    .setQueryId(queryId)
-                    .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
-                            .setSeconds(System.currentTimeMillis() / 1000)
-                            .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
-                            .build())
-                    .build();
+    /**
+     * Executes a query in approximate mode over a sample (null = every row) of
+     * the rows
+     */
+    public QueryResult executeQuery(String sqlQuery, TableSample sample) {
+        try {
+            ExecuteQueryRequest request = queryRequest(sqlQuery, "query_" + System.currentTimeMillis(), sample);
 
             ExecuteQueryResponse response = blockingStub.executeQuery(request);
 
@@ -80,6 +81,51 @@ public class CoordinatorClient {
         }
     }
 
+    /**
+     * Executes a query, handing each refined result the coordinator streams
+     * while an aggregation is still running to the listener. Returns the final
+     * result, or null if the query failed.
+     */
+    public QueryResult executeQueryProgressive(String sqlQuery, String queryId, TableSample sample,
+            Consumer<QueryResult> listener) {
+        try {
+            Iterator<ExecuteQueryResponse> responses = blockingStub.executeQueryProgressive(
+                    queryRequest(sqlQuery, queryId, sample));
+
+            QueryResult last = null;
+            while (responses.hasNext()) {
+                ExecuteQueryResponse response = responses.next();
+                if (!response.getSuccess()) {
+                    AppLogger.warn("Query execution failed: {}", response.getMessage());
+                    return null;
+                }
+                last = response.getResult();
+                if (last.getStatus() == QueryStatus.EXECUTING) {
+                    listener.accept(last);
+                }
+            }
+            return last;
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing progressive query on coordinator", e);
+            return null;
+        }
+    }
+
+    private static ExecuteQueryRequest queryRequest(String sqlQuery, String queryId, TableSample sample) {
+        ExecuteQueryRequest.Builder requestBuilder = ExecuteQueryRequest.newBuilder()
+                .setSqlQuery(sqlQuery)
+                .setQueryId(queryId)
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build());
+        if (sample != null) {
+            requestBuilder.setSample(sample);
+        }
+        return requestBuilder.build();
+    }
+
     @PreDestroy
     public void shutdown() {
         if (channel != null) {
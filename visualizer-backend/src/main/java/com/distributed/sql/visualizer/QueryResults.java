@@ -0,0 +1,92 @@
+package com.distributed.sql.visualizer;
+
+import com.distributed.sql.common.proto.QueryProto.*;
+
+import java.util.*;
+
+/**
+ * Converts query results to plain maps for JSON. Jackson cannot serialize
+ * generated protobuf messages, whose default instances refer to themselves.
+ */
+final class QueryResults {
+
+    // Row metadata key listing the indexes of NULL values, as encoded by the workers
+    private static final String NULLS_METADATA_KEY = "nulls";
+
+    private QueryResults() {
+    }
+
+    /**
+     * Returns the fields the visualizer shows, or null for a null result
+     */
+    static Map<String, Object> toMap(QueryResult result) {
+        if (result == null) {
+            return null;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("queryId", result.getQueryId());
+        map.put("sqlQuery", result.getSqlQuery());
+        map.put("executionTimeMs", result.getExecutionTimeMs());
+        map.put("rowsReturned", result.getRowsReturned());
+        map.put("status", result.getStatus().name());
+        map.put("columns", new ArrayList<>(result.getColumnsList()));
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Row row : result.getResultsList()) {
+            rows.add(Map.of("values", values(row)));
+        }
+        map.put("results", rows);
+
+        if (result.getSampleFraction() > 0) {
+            map.put("sampleFraction", result.getSampleFraction());
+        }
+
+        List<Map<String, Object>> intervals = new ArrayList<>();
+        for (ConfidenceInterval interval : result.getConfidenceIntervalsList()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("row", interval.getRow());
+            entry.put("column", interval.getColumn());
+            entry.put("lower", interval.getLower());
+            entry.put("upper", interval.getUpper());
+            entry.put("confidence", interval.getConfidence());
+            intervals.add(entry);
+        }
+        map.put("confidenceIntervals", intervals);
+
+        List<Map<String, Object>> bounds = new ArrayList<>();
+        for (ErrorBound bound : result.getErrorBoundsList()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("column", bound.getColumn());
+            entry.put("relativeError", bound.getRelativeError());
+            entry.put("confidence", bound.getConfidence());
+            bounds.add(entry);
+        }
+        map.put("errorBounds", bounds);
+
+        if (result.hasProgress()) {
+            QueryProgress progress = result.getProgress();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("rowsProcessed", progress.getRowsProcessed());
+            entry.put("rowsTotal", progress.getRowsTotal());
+            entry.put("workersDone", progress.getWorkersDone());
+            entry.put("workersTotal", progress.getWorkersTotal());
+            map.put("progress", entry);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the row's values with the NULLs its metadata lists restored
+     */
+    private static List<String> values(Row row) {
+        List<String> values = new ArrayList<>(row.getValuesList());
+        String nulls = row.getMetadataOrDefault(NULLS_METADATA_KEY, "");
+        if (!nulls.isEmpty()) {
+            for (String index : nulls.split(",")) {
+                values.set(Integer.parseInt(index), null);
+            }
+        }
+        return values;
+    }
+}
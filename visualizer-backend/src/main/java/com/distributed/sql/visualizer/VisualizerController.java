@@ -20,6 +20,9 @@ public class VisualizerController {
     @Autowired
     private CoordinatorClient coordinatorClient;
 
+    @Autowired
+    private WebSocketService webSocketService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -65,12 +68,27 @@ public class VisualizerController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            QueryResult result = coordinatorClient.executeQuery(sqlQuery);
+            // Exploratory queries may ask for an approximate answer from a sample of the rows
+            TableSample sample = null;
+            if (request.get("sampleFraction") != null) {
+                sample = TableSample.newBuilder()
+                        .setFraction(Double.parseDouble(request.get("sampleFraction")))
+                        .setMethod(SampleMethod.valueOf(request.getOrDefault("sampleMethod", "BERNOULLI").toUpperCase()))
+                        .build();
+            }
+
+            // Long aggregations stream refined results to the query execution topic while they run
+            String queryId = request.getOrDefault("queryId", "query_" + System.currentTimeMillis());
+            QueryResult result = coordinatorClient.executeQueryProgressive(sqlQuery, queryId, sample,
+                    refined -> webSocketService.sendQueryExecutionUpdate(queryId, "EXECUTING",
+                            QueryResults.toMap(refined)));
+            webSocketService.sendQueryExecutionUpdate(queryId, result != null ? "COMPLETED" : "FAILED",
+                    QueryResults.toMap(result));
 
             if (result != null) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", true);
-                response.put("result", result);
+                response.put("result", QueryResults.toMap(result));
                 response.put("message", "Query executed successfully");
 
                 return ResponseEntity.ok(response);
@@ -98,7 +98,8 @@ public class WebSocketService {
     }
 
     /**
-     * Send query execution updates
+     * Send query execution updates. The data must be JSON-serializable, so
+     * query results are sent as {@link QueryResults#toMap} maps.
      */
     public void sendQueryExecutionUpdate(String queryId, String status, Object data) {
         try {
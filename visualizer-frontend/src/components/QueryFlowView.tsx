@@ -10,7 +10,15 @@ interface QueryResult {
   executionTimeMs: number;
   rowsReturned: number;
   status: string;
-  results: Array<{ values: string[] }>;
+  columns?: string[];
+  results: Array<{ values: Array<string | null> }>;
+  confidenceIntervals?: Array<{ row: number; column: string; lower: number; upper: number; confidence: number }>;
+  progress?: {
+    rowsProcessed: number;
+    rowsTotal: number;
+    workersDone: number;
+    workersTotal: number;
+  };
 }
 
 const QueryFlowView: React.FC<QueryFlowViewProps> = ({ stompClient }) => {
@@ -48,13 +56,24 @@ const QueryFlowView: React.FC<QueryFlowViewProps> = ({ stompClient }) => {
       await new Promise(resolve => setTimeout(resolve, 500));
     }
     
+    // Aggregations stream refined results while they run
+    const queryId = `query_${Date.now()}`;
+    const subscription = stompClient?.connected
+      ? stompClient.subscribe('/topic/query-execution', (message: any) => {
+          const update = JSON.parse(message.body);
+          if (update.queryId === queryId && update.status === 'EXECUTING') {
+            setResult(update.data);
+          }
+        })
+      : null;
+
     try {
       const response = await fetch('http://localhost:8080/api/query', {
         method: 'POST',
         headers: {
           'Content-Type': 'application/json',
         },
-        body: JSON.stringify({ query }),
+        body: JSON.stringify({ query, queryId }),
       });
       
       const data = await response.json();
@@ -67,6 +86,7 @@ const QueryFlowView: React.FC<QueryFlowViewProps> = ({ stompClient }) => {
     } catch (error) {
       console.error('Error executing query:', error);
     } finally {
+      subscription?.unsubscribe();
       setIsExecuting(false);
     }
   };
@@ -157,6 +177,14 @@ const QueryFlowView: React.FC<QueryFlowViewProps> = ({ stompClient }) => {
       {result && (
         <div className="card">
           <h3 className="text-lg font-semibold mb-4">Query Results</h3>
+
+          {isExecuting && result.progress && result.progress.rowsTotal > 0 && (
+            <div className="mb-4 text-sm text-gray-600">
+              Approximate: {Math.round(100 * result.progress.rowsProcessed / result.progress.rowsTotal)}% of the
+              rows scanned so far processed, {result.progress.workersDone} of {result.progress.workersTotal} workers
+              done
+            </div>
+          )}
           
           <div className="grid grid-cols-1 md:grid-cols-3 gap-4 mb-4">
             <div className="bg-gray-50 p-3 rounded-lg">
@@ -180,7 +208,7 @@ const QueryFlowView: React.FC<QueryFlowViewProps> = ({ stompClient }) => {
                   <tr>
                     {result.results[0].values.map((_, index) => (
                       <th key={index} className="px-4 py-2 text-left text-sm font-medium text-gray-700 border-b">
-                        Column {index + 1}
+                        {result.columns?.[index] ?? `Column ${index + 1}`}
                       </th>
                     ))}
                   </tr>
@@ -0,0 +1,149 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Operator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A WHERE condition resolved against one column's dictionary. Each
+ * dictionary entry is tested once, so rows only need a bit lookup on their
+ * code, and min/max statistics rule out whole blocks or segments.
+ */
+final class ColumnPredicate {
+
+    final int column;
+    final Operator operator;
+    final BitSet matchingCodes;
+    // The literals in column order; empty for LIKE
+    final List<Comparable<Object>> bounds;
+
+    private ColumnPredicate(int column, Operator operator, BitSet matchingCodes, List<Comparable<Object>> bounds) {
+        this.column = column;
+        this.operator = operator;
+        this.matchingCodes = matchingCodes;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Returns null if the condition cannot be evaluated exactly on this column
+     */
+    static ColumnPredicate compile(int column, ColumnVector vector, Condition condition) {
+        Operator operator = condition.getOperator();
+        List<Comparable<Object>> bounds = literals(condition, vector.isNumeric());
+        if (bounds == null) {
+            return null;
+        }
+
+        Pattern like = operator == Operator.LIKE ? likeToRegex(condition.getValue()) : null;
+        Set<Object> inValues = new HashSet<>(bounds);
+        Comparable<Object> bound = bounds.isEmpty() ? null : bounds.get(0);
+
+        BitSet matchingCodes = new BitSet(vector.dictionary.length);
+        for (int code = 1; code < vector.dictionary.length; code++) {
+            Comparable<Object> value = vector.comparable(code);
+            boolean match = switch (operator) {
+                case LIKE -> like.matcher(vector.dictionary[code]).matches();
+                case IN -> inValues.contains(value);
+                case EQUALS -> value.compareTo(bound) == 0;
+                case NOT_EQUALS -> value.compareTo(bound) != 0;
+                case GREATER_THAN -> value.compareTo(bound) > 0;
+                case GREATER_THAN_EQUALS -> value.compareTo(bound) >= 0;
+                case LESS_THAN -> value.compareTo(bound) < 0;
+                case LESS_THAN_EQUALS -> value.compareTo(bound) <= 0;
+            };
+            if (match) {
+                matchingCodes.set(code);
+            }
+        }
+        return new ColumnPredicate(column, operator, matchingCodes, bounds);
+    }
+
+    /**
+     * Parses the condition's literals in column order: numbers for a numeric
+     * column, strings otherwise. Returns null if a literal does not fit a
+     * numeric column, or for LIKE on one, which is not portable.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Comparable<Object>> literals(Condition condition, boolean numeric) {
+        if (condition.getOperator() == Operator.LIKE) {
+            return numeric ? null : List.of();
+        }
+        List<String> values = condition.getOperator() == Operator.IN ? parseInList(condition.getValue())
+                : List.of(condition.getValue());
+        List<Comparable<Object>> literals = new ArrayList<>();
+        for (String value : values) {
+            if (numeric && !ColumnVector.isNumber(value)) {
+                return null;
+            }
+            literals.add((Comparable<Object>) (numeric ? (Object) Double.parseDouble(value) : value));
+        }
+        return literals;
+    }
+
+    boolean matches(ColumnVector vector, int row) {
+        return matchingCodes.get(vector.code(row));
+    }
+
+    /**
+     * Returns false if the block's zone map rules out every row
+     */
+    boolean mayMatch(ColumnVector vector, int block) {
+        int minCode = vector.blockMinCodes[block];
+        if (minCode == 0 || matchingCodes.isEmpty()) {
+            return false;
+        }
+        return mayMatch(operator, bounds, vector.comparable(minCode), vector.comparable(vector.blockMaxCodes[block]));
+    }
+
+    /**
+     * Returns false if no value between min and max can satisfy the operator
+     */
+    static boolean mayMatch(Operator operator, List<Comparable<Object>> bounds, Comparable<Object> min,
+            Comparable<Object> max) {
+        if (bounds.isEmpty()) {
+            return true;
+        }
+        Comparable<Object> bound = bounds.get(0);
+        return switch (operator) {
+            case EQUALS -> min.compareTo(bound) <= 0 && max.compareTo(bound) >= 0;
+            case GREATER_THAN -> max.compareTo(bound) > 0;
+            case GREATER_THAN_EQUALS -> max.compareTo(bound) >= 0;
+            case LESS_THAN -> min.compareTo(bound) < 0;
+            case LESS_THAN_EQUALS -> min.compareTo(bound) <= 0;
+            case IN -> bounds.stream().anyMatch(value -> min.compareTo(value) <= 0 && max.compareTo(value) >= 0);
+            default -> true;
+        };
+    }
+
+    private static List<String> parseInList(String value) {
+        String inner = value.trim();
+        if (inner.startsWith("(") && inner.endsWith(")")) {
+            inner = inner.substring(1, inner.length() - 1);
+        }
+        List<String> values = new ArrayList<>();
+        for (String item : inner.split(",")) {
+            values.add(item.trim());
+        }
+        return values;
+    }
+
+    private static Pattern likeToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
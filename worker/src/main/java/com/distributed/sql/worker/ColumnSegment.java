@@ -0,0 +1,507 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.ColumnEncoding;
+import com.distributed.sql.common.utils.ColumnChunks;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable columnar segment file. Each column is stored in whichever of
+ * three encodings is smallest for its values:
+ * <ul>
+ * <li>DICTIONARY: the distinct values, then one bit-packed code per row</li>
+ * <li>RLE: the distinct values, then (code, run length) pairs</li>
+ * <li>BIT_PACKED: integers as bit-packed offsets from the column minimum,
+ * with a null bitmap</li>
+ * </ul>
+ * A footer records each column's encoding, position and statistics (null
+ * and distinct counts, min and max), so scans can skip a segment without
+ * decoding it. Files are written once, fsynced and renamed into place, and
+ * read through a memory-mapped FileChannel. Column chunks use the
+ * {@link ColumnChunks} layout, so they can be sent without decoding.
+ *
+ * Layout: [column chunks][footer][footer length: int][MAGIC: int]
+ */
+final class ColumnSegment {
+
+    static final int MAGIC = 0x43534547;
+    static final byte VERSION = 1;
+
+    final Path path;
+    final int rowCount;
+    final List<ColumnStats> columns;
+    private final MappedByteBuffer buffer;
+    // Built on first use, since the file never changes
+    private final Map<Integer, ValueReader> readers = new ConcurrentHashMap<>();
+    private final Map<String, SegmentIndex> indexes = new ConcurrentHashMap<>();
+
+    private ColumnSegment(Path path, int rowCount, List<ColumnStats> columns, MappedByteBuffer buffer) {
+        this.path = path;
+        this.rowCount = rowCount;
+        this.columns = columns;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Footer entry for one column
+     */
+    static final class ColumnStats {
+        final String name;
+        final ColumnEncoding encoding;
+        final int offset;
+        final int length;
+        final int nullCount;
+        final int distinctCount;
+        final boolean numeric;
+        // Smallest and largest value in string order, and in numeric order if numeric
+        final String min;
+        final String max;
+        final double numericMin;
+        final double numericMax;
+
+        ColumnStats(String name, ColumnEncoding encoding, int offset, int length, int nullCount, int distinctCount,
+                boolean numeric, String min, String max, double numericMin, double numericMax) {
+            this.name = name;
+            this.encoding = encoding;
+            this.offset = offset;
+            this.length = length;
+            this.nullCount = nullCount;
+            this.distinctCount = distinctCount;
+            this.numeric = numeric;
+            this.min = min;
+            this.max = max;
+            this.numericMin = numericMin;
+            this.numericMax = numericMax;
+        }
+    }
+
+    /**
+     * Writes the rows as a new segment at the path and opens it
+     */
+    static ColumnSegment write(Path path, List<String> columnNames, List<Row> rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+
+        List<ColumnStats> stats = new ArrayList<>();
+        for (int column = 0; column < columnNames.size(); column++) {
+            ColumnVector vector = ColumnVector.encode(rows, column);
+            int offset = out.size();
+            ColumnEncoding encoding = writeColumn(out, vector);
+            stats.add(statsOf(columnNames.get(column), encoding, offset, out.size() - offset, vector));
+        }
+
+        int footerStart = out.size();
+        out.writeInt(rows.size());
+        out.writeInt(stats.size());
+        for (ColumnStats column : stats) {
+            writeString(out, column.name);
+            out.writeByte(column.encoding.getNumber());
+            out.writeInt(column.offset);
+            out.writeInt(column.length);
+            out.writeInt(column.nullCount);
+            out.writeInt(column.distinctCount);
+            out.writeBoolean(column.numeric);
+            out.writeBoolean(column.min != null);
+            if (column.min != null) {
+                writeString(out, column.min);
+                writeString(out, column.max);
+                out.writeDouble(column.numericMin);
+                out.writeDouble(column.numericMax);
+            }
+        }
+        out.writeInt(out.size() - footerStart);
+        out.writeInt(MAGIC);
+        out.flush();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    /**
+     * Maps an existing segment file and reads its footer
+     */
+    static ColumnSegment open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        int size = in.limit();
+        if (size < 13 || in.getInt(0) != MAGIC || in.getInt(size - 4) != MAGIC || in.get(4) != VERSION) {
+            throw new IOException("Not a columnar segment: " + path);
+        }
+        in.position(size - 8 - in.getInt(size - 8));
+
+        int rowCount = in.getInt();
+        int columnCount = in.getInt();
+        List<ColumnStats> columns = new ArrayList<>();
+        for (int i = 0; i < columnCount; i++) {
+            String name = ColumnChunks.readString(in);
+            ColumnEncoding encoding = ColumnEncoding.forNumber(in.get());
+            int offset = in.getInt();
+            int length = in.getInt();
+            int nullCount = in.getInt();
+            int distinctCount = in.getInt();
+            boolean numeric = in.get() != 0;
+            String min = null;
+            String max = null;
+            double numericMin = 0;
+            double numericMax = 0;
+            if (in.get() != 0) {
+                min = ColumnChunks.readString(in);
+                max = ColumnChunks.readString(in);
+                numericMin = in.getDouble();
+                numericMax = in.getDouble();
+            }
+            columns.add(new ColumnStats(name, encoding, offset, length, nullCount, distinctCount, numeric, min, max,
+                    numericMin, numericMax));
+        }
+        return new ColumnSegment(path, rowCount, List.copyOf(columns), buffer);
+    }
+
+    List<String> columnNames() {
+        List<String> names = new ArrayList<>();
+        for (ColumnStats column : columns) {
+            names.add(column.name);
+        }
+        return names;
+    }
+
+    /**
+     * Returns false if the footer statistics rule out every row for the
+     * condition, comparing numerically if numeric
+     */
+    boolean mayMatch(int column, Condition condition, boolean numeric) {
+        ColumnStats stats = columns.get(column);
+        if (stats.min == null) {
+            return false;
+        }
+        List<Comparable<Object>> bounds = ColumnPredicate.literals(condition, numeric);
+        if (bounds == null) {
+            return true;
+        }
+        return ColumnPredicate.mayMatch(condition.getOperator(), bounds, comparable(stats.min, stats.numericMin, numeric),
+                comparable(stats.max, stats.numericMax, numeric));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> comparable(String value, double number, boolean numeric) {
+        return (Comparable<Object>) (numeric ? (Object) number : value);
+    }
+
+    /**
+     * Decodes one column, treating its values as numbers if numeric
+     */
+    ColumnVector readColumn(int column, boolean numeric) {
+        ColumnStats stats = columns.get(column);
+        ByteBuffer in = buffer.duplicate();
+        in.position(stats.offset);
+
+        if (stats.encoding == ColumnEncoding.DICTIONARY) {
+            // Keep the codes packed as stored
+            String[] dictionary = ColumnChunks.readDictionary(in);
+            int bitWidth = in.get();
+            long[] packed = ColumnChunks.readLongs(in);
+            return ColumnVector.fromPacked(dictionary, packed, bitWidth, rowCount, numeric);
+        }
+        ColumnChunks.Column decoded = ColumnChunks.decode(stats.encoding, in, rowCount);
+        return ColumnVector.fromCodes(decoded.dictionary, decoded.codes, numeric);
+    }
+
+    /**
+     * Returns the column's secondary index, comparing values as numbers if numeric
+     */
+    SegmentIndex index(int column, boolean numeric) {
+        return indexes.computeIfAbsent(column + (numeric ? ":numeric" : ":text"),
+                key -> SegmentIndex.build(readColumn(column, numeric)));
+    }
+
+    /**
+     * Reads one row without decoding whole columns
+     */
+    Row readRow(int row) {
+        List<String> values = new ArrayList<>(columns.size());
+        for (int column = 0; column < columns.size(); column++) {
+            values.add(value(column, row));
+        }
+        return new Row(values);
+    }
+
+    String value(int column, int row) {
+        return readers.computeIfAbsent(column, this::reader).value(row);
+    }
+
+    private ValueReader reader(int column) {
+        ColumnStats stats = columns.get(column);
+        ByteBuffer in = buffer.duplicate();
+        in.position(stats.offset);
+        ValueReader reader = new ValueReader(stats.encoding, buffer);
+        switch (stats.encoding) {
+            case DICTIONARY:
+                reader.dictionary = ColumnChunks.readDictionary(in);
+                reader.bitWidth = in.get();
+                in.getInt();
+                reader.dataOffset = in.position();
+                break;
+            case RLE: {
+                reader.dictionary = ColumnChunks.readDictionary(in);
+                int runs = in.getInt();
+                reader.runEnds = new int[runs];
+                reader.runCodes = new int[runs];
+                int end = 0;
+                for (int run = 0; run < runs; run++) {
+                    reader.runCodes[run] = in.getInt();
+                    end += in.getInt();
+                    reader.runEnds[run] = end;
+                }
+                break;
+            }
+            default:
+                reader.base = in.getLong();
+                reader.bitWidth = in.get();
+                int nullWords = in.getInt();
+                reader.nullsOffset = in.position();
+                in.position(in.position() + nullWords * 8);
+                in.getInt();
+                reader.dataOffset = in.position();
+                break;
+        }
+        return reader;
+    }
+
+    /**
+     * Random access to one stored column: codes and integers are unpacked
+     * straight from the mapped file, and RLE runs found by binary search
+     */
+    private static final class ValueReader {
+        final ColumnEncoding encoding;
+        final ByteBuffer buffer;
+        String[] dictionary;
+        int bitWidth;
+        int dataOffset;
+        int nullsOffset;
+        long base;
+        int[] runEnds;
+        int[] runCodes;
+
+        ValueReader(ColumnEncoding encoding, ByteBuffer buffer) {
+            this.encoding = encoding;
+            this.buffer = buffer;
+        }
+
+        String value(int row) {
+            switch (encoding) {
+                case DICTIONARY:
+                    return dictionary[(int) unpack(row)];
+                case RLE: {
+                    int run = Arrays.binarySearch(runEnds, row + 1);
+                    return dictionary[runCodes[run >= 0 ? run : -run - 1]];
+                }
+                default:
+                    if ((buffer.getLong(nullsOffset + (row >>> 6) * 8) & (1L << row)) != 0) {
+                        return null;
+                    }
+                    return Long.toString(base + unpack(row));
+            }
+        }
+
+        // Same layout as ColumnChunks.unpack, reading absolute positions so readers can share the buffer
+        private long unpack(int index) {
+            long bitIndex = (long) index * bitWidth;
+            int word = (int) (bitIndex >>> 6);
+            int shift = (int) (bitIndex & 63);
+            long value = buffer.getLong(dataOffset + word * 8) >>> shift;
+            if (shift + bitWidth > 64) {
+                value |= buffer.getLong(dataOffset + (word + 1) * 8) << (64 - shift);
+            }
+            return bitWidth == 64 ? value : value & ((1L << bitWidth) - 1);
+        }
+    }
+
+    /**
+     * Returns one column's stored bytes, sharing the mapped file rather than copying it
+     */
+    ByteString chunk(int column) {
+        ColumnStats stats = columns.get(column);
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(stats.offset).limit(stats.offset + stats.length);
+        return UnsafeByteOperations.unsafeWrap(slice.slice());
+    }
+
+    /**
+     * Decodes every column back into rows
+     */
+    List<Row> readRows() {
+        ColumnVector[] vectors = new ColumnVector[columns.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = readColumn(i, false);
+        }
+        List<Row> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            List<String> values = new ArrayList<>(vectors.length);
+            for (ColumnVector vector : vectors) {
+                values.add(vector.value(row));
+            }
+            rows.add(new Row(values));
+        }
+        return rows;
+    }
+
+    private static ColumnEncoding writeColumn(DataOutputStream out, ColumnVector vector) throws IOException {
+        int rows = vector.rowCount;
+        int dictionaryBytes = 4;
+        for (int code = 1; code < vector.dictionary.length; code++) {
+            dictionaryBytes += 4 + vector.dictionary[code].getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        List<int[]> runs = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            int code = vector.code(row);
+            if (!runs.isEmpty() && runs.get(runs.size() - 1)[0] == code) {
+                runs.get(runs.size() - 1)[1]++;
+            } else {
+                runs.add(new int[] {code, 1});
+            }
+        }
+
+        long dictionarySize = dictionaryBytes + 5 + vector.packed.length * 8L;
+        long rleSize = dictionaryBytes + 4 + runs.size() * 8L;
+        long[] range = integerRange(vector);
+        int deltaWidth = range != null ? ColumnVector.bitWidth(range[1] - range[0]) : 0;
+        long bitPackedSize = range != null
+                ? 17 + ((rows + 63) / 64) * 8L + ColumnVector.packedWords(rows, deltaWidth) * 8L
+                : Long.MAX_VALUE;
+
+        if (bitPackedSize <= dictionarySize && bitPackedSize <= rleSize) {
+            long[] nulls = new long[(rows + 63) / 64];
+            long[] deltas = new long[ColumnVector.packedWords(rows, deltaWidth)];
+            for (int row = 0; row < rows; row++) {
+                String value = vector.value(row);
+                if (value == null) {
+                    nulls[row >>> 6] |= 1L << row;
+                } else {
+                    ColumnVector.pack(deltas, row, deltaWidth, Long.parseLong(value) - range[0]);
+                }
+            }
+            out.writeLong(range[0]);
+            out.writeByte(deltaWidth);
+            writeLongs(out, nulls);
+            writeLongs(out, deltas);
+            return ColumnEncoding.BIT_PACKED;
+        }
+
+        out.writeInt(vector.dictionary.length - 1);
+        for (int code = 1; code < vector.dictionary.length; code++) {
+            writeString(out, vector.dictionary[code]);
+        }
+        if (rleSize < dictionarySize) {
+            out.writeInt(runs.size());
+            for (int[] run : runs) {
+                out.writeInt(run[0]);
+                out.writeInt(run[1]);
+            }
+            return ColumnEncoding.RLE;
+        }
+        out.writeByte(vector.bitWidth);
+        writeLongs(out, vector.packed);
+        return ColumnEncoding.DICTIONARY;
+    }
+
+    /**
+     * Returns the min and max if every value is an integer whose text
+     * round-trips through a long and whose range fits in 63 bits, else null
+     */
+    private static long[] integerRange(ColumnVector vector) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int code = 1; code < vector.dictionary.length; code++) {
+            String value = vector.dictionary[code];
+            long number;
+            try {
+                number = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (!Long.toString(number).equals(value)) {
+                return null;
+            }
+            min = Math.min(min, number);
+            max = Math.max(max, number);
+        }
+        if (vector.dictionary.length == 1 || max - min < 0) {
+            return null;
+        }
+        return new long[] {min, max};
+    }
+
+    private static ColumnStats statsOf(String name, ColumnEncoding encoding, int offset, int length,
+            ColumnVector vector) {
+        int nullCount = 0;
+        for (int row = 0; row < vector.rowCount; row++) {
+            if (vector.code(row) == 0) {
+                nullCount++;
+            }
+        }
+
+        String min = null;
+        String max = null;
+        double numericMin = Double.POSITIVE_INFINITY;
+        double numericMax = Double.NEGATIVE_INFINITY;
+        for (int code = 1; code < vector.dictionary.length; code++) {
+            String value = vector.dictionary[code];
+            if (min == null || value.compareTo(min) < 0) {
+                min = value;
+            }
+            if (max == null || value.compareTo(max) > 0) {
+                max = value;
+            }
+            if (vector.isNumeric()) {
+                numericMin = Math.min(numericMin, vector.numbers[code]);
+                numericMax = Math.max(numericMax, vector.numbers[code]);
+            }
+        }
+        return new ColumnStats(name, encoding, offset, length, nullCount, vector.dictionary.length - 1,
+                vector.isNumeric(), min, max, numericMin, numericMax);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+}
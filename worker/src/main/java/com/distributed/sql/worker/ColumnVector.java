@@ -0,0 +1,172 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.utils.ColumnChunks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * One column in memory: a dictionary of its distinct values and a
+ * bit-packed code per row, where code 0 is NULL. Rows are cut into blocks
+ * of {@link #BLOCK_ROWS} whose zone maps hold the smallest and largest
+ * dictionary entry, numerically if the column is numeric.
+ */
+final class ColumnVector {
+
+    static final int BLOCK_ROWS = 1024;
+
+    // Values like "007" keep their string order, since the column is probably text
+    static final Pattern NUMBER_PATTERN = Pattern.compile("-?(?:0|[1-9]\\d*)(?:\\.\\d+)?");
+
+    final String[] dictionary;
+    final double[] numbers;
+    final long[] packed;
+    final int bitWidth;
+    final int rowCount;
+    final int[] blockMinCodes;
+    final int[] blockMaxCodes;
+
+    private ColumnVector(String[] dictionary, boolean numeric, long[] packed, int bitWidth, int rowCount) {
+        this.dictionary = dictionary;
+        this.packed = packed;
+        this.bitWidth = bitWidth;
+        this.rowCount = rowCount;
+
+        if (numeric) {
+            numbers = new double[dictionary.length];
+            for (int code = 1; code < dictionary.length; code++) {
+                numbers[code] = Double.parseDouble(dictionary[code]);
+            }
+        } else {
+            numbers = null;
+        }
+
+        int blocks = (rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        blockMinCodes = new int[blocks];
+        blockMaxCodes = new int[blocks];
+        for (int row = 0; row < rowCount; row++) {
+            int code = code(row);
+            int block = row / BLOCK_ROWS;
+            if (code == 0) {
+                continue;
+            }
+            if (blockMinCodes[block] == 0 || compareCodes(code, blockMinCodes[block]) < 0) {
+                blockMinCodes[block] = code;
+            }
+            if (blockMaxCodes[block] == 0 || compareCodes(code, blockMaxCodes[block]) > 0) {
+                blockMaxCodes[block] = code;
+            }
+        }
+    }
+
+    /**
+     * Dictionary-encodes one column of the rows; it is numeric if every value is a number
+     */
+    static ColumnVector encode(List<Row> rows, int column) {
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        dictionary.add(null);
+        int[] rowCodes = new int[rows.size()];
+        boolean numeric = true;
+        for (int i = 0; i < rows.size(); i++) {
+            String value = rows.get(i).getValues().get(column);
+            if (value == null) {
+                continue;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(value, code);
+                dictionary.add(value);
+                numeric &= isNumber(value);
+            }
+            rowCodes[i] = code;
+        }
+        return fromCodes(dictionary.toArray(new String[0]), rowCodes, numeric);
+    }
+
+    /**
+     * Builds a vector from a dictionary whose entry 0 is null and one code per row
+     */
+    static ColumnVector fromCodes(String[] dictionary, int[] rowCodes, boolean numeric) {
+        int bitWidth = bitWidth(dictionary.length - 1);
+        long[] packed = new long[packedWords(rowCodes.length, bitWidth)];
+        for (int i = 0; i < rowCodes.length; i++) {
+            pack(packed, i, bitWidth, rowCodes[i]);
+        }
+        return new ColumnVector(dictionary, numeric, packed, bitWidth, rowCodes.length);
+    }
+
+    /**
+     * Wraps codes that are already bit-packed in this class's layout
+     */
+    static ColumnVector fromPacked(String[] dictionary, long[] packed, int bitWidth, int rowCount, boolean numeric) {
+        return new ColumnVector(dictionary, numeric, packed, bitWidth, rowCount);
+    }
+
+    static boolean isNumber(String value) {
+        return NUMBER_PATTERN.matcher(value).matches();
+    }
+
+    static int bitWidth(long maxValue) {
+        return Math.max(1, 64 - Long.numberOfLeadingZeros(maxValue));
+    }
+
+    static int packedWords(int count, int bitWidth) {
+        return (int) (((long) count * bitWidth + 63) / 64);
+    }
+
+    static void pack(long[] packed, int index, int bitWidth, long value) {
+        long bitIndex = (long) index * bitWidth;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        packed[word] |= value << shift;
+        if (shift + bitWidth > 64) {
+            packed[word + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    static long unpack(long[] packed, int index, int bitWidth) {
+        return ColumnChunks.unpack(packed, index, bitWidth);
+    }
+
+    int code(int row) {
+        return (int) unpack(packed, row, bitWidth);
+    }
+
+    String value(int row) {
+        return dictionary[code(row)];
+    }
+
+    boolean isNumeric() {
+        return numbers != null;
+    }
+
+    /**
+     * Returns the dictionary entry in column order: a Double for numeric columns, else the String
+     */
+    @SuppressWarnings("unchecked")
+    Comparable<Object> comparable(int code) {
+        return (Comparable<Object>) (isNumeric() ? (Object) numbers[code] : dictionary[code]);
+    }
+
+    int blockCount() {
+        return blockMinCodes.length;
+    }
+
+    private int compareCodes(int left, int right) {
+        return comparable(left).compareTo(comparable(right));
+    }
+
+    long estimateBytes() {
+        long size = 64 + packed.length * 8L + blockMinCodes.length * 8L;
+        for (int code = 1; code < dictionary.length; code++) {
+            size += 48 + dictionary[code].length() * 2L;
+        }
+        return size + (numbers != null ? numbers.length * 8L : 0);
+    }
+}
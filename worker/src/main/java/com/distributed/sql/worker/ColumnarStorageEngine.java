@@ -0,0 +1,1990 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.*;
+import com.distributed.sql.common.proto.QueryProto.ColumnBatch;
+import com.distributed.sql.common.proto.QueryProto.ColumnChunk;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.QueryStatus;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.LogRecords;
+import com.distributed.sql.common.utils.SQLParser;
+import com.google.protobuf.ByteString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Embedded storage engine that keeps each table as immutable, key-sorted
+ * {@link ColumnSegment} files in its own directory under the data
+ * directory, so a worker runs without PostgreSQL. A MANIFEST file lists a
+ * table's columns and live segments and is replaced atomically, so a crash
+ * leaves either the old or the new set of segments.
+ *
+ * Ingest is LSM-style: a write is appended to the worker's
+ * {@link WriteAheadLog}, applied to an in-memory memtable sorted by key,
+ * and acknowledged once a group commit has fsynced it. Full memtables are
+ * frozen and flushed by a background thread into new sorted segments,
+ * rewriting only the segments holding keys they update or delete, after
+ * which the log files they cover are dropped. The same thread merges small
+ * segments within a bandwidth budget.
+ *
+ * Scans are {@link ScanQuery} queries over the segments and memtables:
+ * footer statistics skip whole segments, only the columns a query needs
+ * are decoded, and zone maps skip blocks within a segment. Concurrent scans
+ * of a table share one circular pass over its segments through the
+ * {@link SharedScanScheduler}, each evaluating its own predicates on the
+ * segments decoded for all of them. Writes support inserts, and
+ * UPDATE/DELETE with literal SET values and the same WHERE subset. The
+ * first column is the table's key, which must be unique and not null.
+ * Prepared transactions are logged too, so they survive a restart.
+ *
+ * Secondary indexes are listed in the manifest. A condition on an index's
+ * leading column is answered from each segment's {@link SegmentIndex} and,
+ * for equality, from the memtables' value-to-key maps, reading only the
+ * matching rows; the rest of the WHERE clause is checked on those rows.
+ */
+public class ColumnarStorageEngine implements StorageEngine {
+
+    static final int SEGMENT_ROWS = 65536;
+    // Merge small segments once a table has this many
+    static final int MERGE_THRESHOLD = 8;
+    // Freeze and flush the memtables once they hold about this much
+    static final long DEFAULT_MEMTABLE_BYTES = 32L * 1024 * 1024;
+    static final long DEFAULT_COMPACTION_BYTES_PER_SECOND = 16L * 1024 * 1024;
+    private static final long COMPACTION_INTERVAL_SECONDS = 30;
+    private static final long FLUSH_RETRY_SECONDS = 5;
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final int MANIFEST_MAGIC = 0x434d4e46;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Not a valid table name, so it cannot clash with a table directory
+    private static final String LOG_DIRECTORY = "write-ahead-log";
+
+    // Write-ahead log record types
+    private static final byte APPLY = 1;
+    private static final byte PREPARE = 2;
+    private static final byte ROLLBACK = 3;
+
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+    private static final String NOT_NULL_SQL_STATE = "23502";
+    private static final String UNDEFINED_TABLE_SQL_STATE = "42P01";
+    private static final String UNDEFINED_COLUMN_SQL_STATE = "42703";
+    private static final String UNSUPPORTED_SQL_STATE = "0A000";
+
+    // Memtable entry of a deleted key
+    private static final Row TOMBSTONE = new Row(List.of());
+
+    /**
+     * Order of keys in memtables and flushed segments: integers first,
+     * numerically, then every other key as a string
+     */
+    static final Comparator<String> KEY_ORDER = (a, b) -> {
+        Long first = parseInteger(a);
+        Long second = parseInteger(b);
+        if (first != null && second != null) {
+            return Long.compare(first, second);
+        }
+        if (first != null || second != null) {
+            return first != null ? -1 : 1;
+        }
+        return a.compareTo(b);
+    };
+
+    private final String workerId;
+    private final Path dataDir;
+    private final long memtableLimitBytes;
+    private final long compactionBytesPerSecond;
+    private final Map<String, TableState> tables = new ConcurrentHashMap<>();
+    private final Map<String, PreparedWrite> preparedWrites = new ConcurrentHashMap<>();
+    // Indexes created before their table's first write, by table then index name
+    private final Map<String, Map<String, List<String>>> pendingIndexes = new ConcurrentHashMap<>();
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService maintenance;
+    // Serializes writes in the order of their log records
+    private final Object writeLock = new Object();
+    // Guards memtable changes and version switches against scans taking a snapshot
+    private final ReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    // Lets concurrent scans of a table version decode each segment once
+    private final SharedScanScheduler sharedScans = new SharedScanScheduler();
+    // Size of the active memtables and whether frozen ones are being flushed, under the write lock
+    private long memtableBytes;
+    private boolean flushPending;
+    private long segmentsSkipped;
+    private long indexLookups;
+
+    /**
+     * One table. Keys and reserved keys are only touched under the write
+     * lock; segment ids and the flushed log id only by the maintenance thread.
+     */
+    private static final class TableState {
+        final String name;
+        final Path dir;
+        final List<String> columns;
+        volatile TableVersion version;
+        final Set<String> keys = new HashSet<>();
+        // Keys inserted by prepared transactions, held until they finish
+        final Set<String> reservedKeys = new HashSet<>();
+        long nextSegmentId;
+        // Log files up to this one are already in the segments
+        long flushedLogId;
+        // Secondary index columns by lower-case index name, replaced under the memtable lock
+        volatile Map<String, List<String>> indexes;
+
+        TableState(String name, Path dir, List<String> columns, List<ColumnSegment> segments, long nextSegmentId,
+                long flushedLogId, Map<String, List<String>> indexes) {
+            this.name = name;
+            this.dir = dir;
+            this.columns = columns;
+            this.version = new TableVersion(segments, new Memtable(), new Memtable());
+            this.nextSegmentId = nextSegmentId;
+            this.flushedLogId = flushedLogId;
+            this.indexes = indexes;
+        }
+
+        /**
+         * Returns the columns some index leads with, which lookups can use
+         */
+        Set<Integer> indexedColumns() {
+            Set<Integer> indexed = new TreeSet<>();
+            for (List<String> indexColumns : indexes.values()) {
+                indexed.add(ColumnarTable.indexOf(columns, indexColumns.get(0)));
+            }
+            return indexed;
+        }
+    }
+
+    /**
+     * What a table holds: its segments, the frozen memtable being flushed
+     * and the active memtable taking writes
+     */
+    private static final class TableVersion {
+        final List<ColumnSegment> segments;
+        final Memtable frozen;
+        final Memtable active;
+
+        TableVersion(List<ColumnSegment> segments, Memtable frozen, Memtable active) {
+            this.segments = segments;
+            this.frozen = frozen;
+            this.active = active;
+        }
+    }
+
+    /**
+     * Rows written since a flush, by key, with tombstones for deleted keys
+     */
+    private static final class Memtable {
+        final NavigableMap<String, Row> rows = new ConcurrentSkipListMap<>(KEY_ORDER);
+        // Keys updated or deleted here, whose older rows must not be read
+        final Set<String> shadowedKeys = ConcurrentHashMap.newKeySet();
+        // Columns that were given a value that is not a number
+        final Set<Integer> textColumns = ConcurrentHashMap.newKeySet();
+        // Keys of the rows put with each value of an indexed column; a key
+        // stays listed after its row changes, so lookups check the row again
+        final Map<Integer, Map<String, Set<String>>> indexedKeys = new ConcurrentHashMap<>();
+
+        void put(String key, Row row, Set<Integer> indexedColumns) {
+            rows.put(key, row);
+            for (int column = 0; column < row.getValues().size(); column++) {
+                String value = row.getValues().get(column);
+                if (value != null && !ColumnVector.isNumber(value)) {
+                    textColumns.add(column);
+                }
+            }
+            for (int column : indexedColumns) {
+                index(column, key, row);
+            }
+        }
+
+        void index(int column, String key, Row row) {
+            String value = row.getValues().get(column);
+            if (value != null) {
+                indexedKeys.computeIfAbsent(column, c -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(indexKey(value), v -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+    }
+
+    /**
+     * A consistent view of a table for one scan: its segments, the segment
+     * keys that are hidden, the newest memtable row of every live key and the
+     * columns given text values in the memtables
+     */
+    private static final class Snapshot {
+        final List<ColumnSegment> segments;
+        final Set<String> shadowedKeys;
+        final List<Row> rows;
+        final Set<Integer> textColumns;
+
+        Snapshot(List<ColumnSegment> segments, Set<String> shadowedKeys, List<Row> rows, Set<Integer> textColumns) {
+            this.segments = segments;
+            this.shadowedKeys = shadowedKeys;
+            this.rows = rows;
+            this.textColumns = textColumns;
+        }
+    }
+
+    /**
+     * Rows an UPDATE or DELETE statement writes and keys it deletes
+     */
+    private static final class Effects {
+        final TableState table;
+        final List<Row> puts = new ArrayList<>();
+        final List<String> deletes = new ArrayList<>();
+        // Deleted rows whose shard key the count filter contains, when evaluated with one
+        int deletesInShards;
+
+        Effects(TableState table) {
+            this.table = table;
+        }
+
+        /**
+         * Returns the affected rows the count filter contains, or all of them if it is null
+         */
+        long counted(ShardFilter countFilter) throws SQLException {
+            if (countFilter == null) {
+                return puts.size() + deletes.size();
+            }
+            return inShards(puts, countFilter, requireColumn(table, countFilter.keyColumn)).size() + deletesInShards;
+        }
+    }
+
+    /**
+     * A write prepared under a transaction id: rows to insert, or an
+     * UPDATE/DELETE statement that is evaluated again when it commits
+     */
+    private static final class PreparedWrite {
+        final String tableName;
+        final String sqlStatement;
+        final List<Row> rows;
+
+        PreparedWrite(String tableName, String sqlStatement, List<Row> rows) {
+            this.tableName = tableName;
+            this.sqlStatement = sqlStatement;
+            this.rows = rows;
+        }
+    }
+
+    public ColumnarStorageEngine(String workerId, Path dataDir) throws IOException {
+        this(workerId, dataDir, DEFAULT_MEMTABLE_BYTES, DEFAULT_COMPACTION_BYTES_PER_SECOND);
+    }
+
+    ColumnarStorageEngine(String workerId, Path dataDir, long memtableLimitBytes, long compactionBytesPerSecond)
+            throws IOException {
+        this.workerId = workerId;
+        this.dataDir = dataDir;
+        this.memtableLimitBytes = memtableLimitBytes;
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        Files.createDirectories(dataDir);
+
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(dataDir, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                if (Files.exists(dir.resolve(MANIFEST))) {
+                    TableState table = loadTable(dir);
+                    tables.put(table.name.toLowerCase(), table);
+                }
+            }
+        }
+
+        // Writes that were not flushed to segments yet come back from the log
+        log = new WriteAheadLog(dataDir.resolve(LOG_DIRECTORY));
+        log.replay(this::replay);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor();
+        maintenance.scheduleWithFixedDelay(this::compact, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        synchronized (writeLock) {
+            freezeIfFull();
+        }
+
+        AppLogger.info("Initialized columnar storage for worker {} in {} with {} tables",
+                workerId, dataDir, tables.size());
+    }
+
+    @Override
+    public ResultSet executeQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs)
+            throws SQLException {
+        return query(sqlQuery, shardFilters, null, false, deadlineMs, null);
+    }
+
+    /**
+     * Hands the rows of each segment to the sink as soon as it is read, and
+     * the memtable rows last. A SYSTEM sample chooses blocks before the scan
+     * and reads only those, skipping segments it keeps no block of; a
+     * BERNOULLI sample drops rows as the scan matches them. Shuffled, the
+     * segments are read in a random order, each one's rows shuffled, on a
+     * scan of their own.
+     */
+    @Override
+    public void streamQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, RowSink sink) throws SQLException {
+        ResultSet resultSet = query(sqlQuery, shardFilters, sample, shuffled, deadlineMs, sink);
+        if (resultSet != null) {
+            StorageEngine.sendRows(resultSet, null, shuffled, sink);
+        }
+    }
+
+    /**
+     * Runs a scan, of a sample of the table's rows if one is given (null =
+     * none). With a sink (null = none) a full scan hands the rows to it as it
+     * reads them, shuffled if asked, and returns null; counts and index
+     * lookups still return their result.
+     */
+    private ResultSet query(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, RowSink sink) throws SQLException {
+        DataStore.checkDeadline(deadlineMs);
+        long start = System.currentTimeMillis();
+
+        ScanQuery scan = ScanQuery.parse(sqlQuery);
+        if (scan == null) {
+            throw new SQLException("Query is not supported by the columnar storage engine: " + sqlQuery,
+                    UNSUPPORTED_SQL_STATE);
+        }
+        TableState table = requireTable(scan.table);
+        List<Integer> projection = ColumnarTable.resolve(table.columns, scan.columns);
+        if (projection == null) {
+            throw new SQLException("Unknown column in " + scan.columns + " for table " + table.name,
+                    UNDEFINED_COLUMN_SQL_STATE);
+        }
+        List<String> projectedColumns = new ArrayList<>();
+        for (int index : projection) {
+            projectedColumns.add(table.columns.get(index));
+        }
+        ShardFilter filter = shardFilters.get(table.name.toLowerCase());
+        int keyColumn = filter != null ? requireColumn(table, filter.keyColumn) : -1;
+        RowSampler sampler = sample != null ? new RowSampler(sample, new Random()) : null;
+
+        Condition indexed = indexedCondition(table, scan.conditions);
+        if (indexed != null) {
+            ResultSet resultSet = lookup(table, scan, projection, projectedColumns, indexed, filter, keyColumn,
+                    sampler, deadlineMs);
+            resultSet.setExecutionTimeMs(System.currentTimeMillis() - start);
+            return resultSet;
+        }
+
+        Snapshot snapshot = snapshot(table);
+        boolean[] numeric = numericColumns(table, snapshot.segments, snapshot.textColumns, scan.conditions);
+        RowSink segmentSink = scan.count ? null : sink;
+        if (segmentSink != null) {
+            segmentSink.columns(projectedColumns);
+        }
+
+        // Concurrent scans of the same segments share their reads; a shuffled order is a list of its own
+        List<ColumnSegment> segments = snapshot.segments;
+        if (segmentSink != null && shuffled) {
+            segments = new ArrayList<>(segments);
+            Collections.shuffle(segments);
+        }
+        SegmentScan segmentScan = new SegmentScan(table, scan, projection, numeric, snapshot, segments, filter,
+                keyColumn, sampler, segmentSink);
+        int skipped = sharedScans.scan(segments, segmentScan, deadlineMs);
+        ColumnarTable.ScanStats stats = segmentScan.stats;
+        List<Row> rows = scan.count ? null : new ArrayList<>();
+        for (List<Row> segmentRows : segmentScan.rowsBySegment) {
+            if (rows != null && segmentRows != null) {
+                rows.addAll(segmentRows);
+            }
+        }
+        List<Row> memtableRows = filter != null ? inShards(snapshot.rows, filter, keyColumn) : snapshot.rows;
+        if (!memtableRows.isEmpty() && !segmentScan.stopped) {
+            ColumnarTable data = encode(table, memtableRows, projection, scan.conditions, numeric);
+            data.scan(projection, data.compile(scan.conditions), stats, rows,
+                    sampler != null ? sampler.chooseRows() : null,
+                    sampler != null ? sampler.chooseBlocks(data.rowCount) : null);
+        }
+        synchronized (this) {
+            segmentsSkipped += skipped;
+        }
+        AppLogger.debug("Columnar scan of {} read {} of {} segments, {} memtable rows and {} blocks, "
+                + "skipping {} blocks", table.name, snapshot.segments.size() - skipped, snapshot.segments.size(),
+                snapshot.rows.size(), stats.blocksScanned, stats.blocksSkipped);
+
+        if (segmentSink != null) {
+            if (!segmentScan.stopped) {
+                if (shuffled) {
+                    Collections.shuffle(rows);
+                }
+                segmentSink.rows(rows, 1);
+            }
+            return null;
+        }
+        ResultSet resultSet = scan.toResultSet(projectedColumns, rows, stats.rowsMatched);
+        resultSet.setExecutionTimeMs(System.currentTimeMillis() - start);
+        return resultSet;
+    }
+
+    /**
+     * One scan's reads of its snapshot's segments, kept by segment so the
+     * rows come out in segment order wherever the shared scan started, or
+     * handed to a sink (null = none) in the order they are read, shuffled
+     * if the segments are. With a
+     * shard filter (null = none) the scan also decodes the filter's key
+     * column and skips rows of shards it was not asked for. With a sampler
+     * (null = none) it reads only the sampled rows, its blocks chosen for
+     * every segment up front so segments without one are not decoded.
+     */
+    private static final class SegmentScan implements SharedScanScheduler.Reader {
+        final TableState table;
+        final ScanQuery scan;
+        final List<Integer> projection;
+        final boolean[] numeric;
+        final Snapshot snapshot;
+        // The snapshot's segments in the order they are read
+        final List<ColumnSegment> segments;
+        final ShardFilter filter;
+        final int keyColumn;
+        final RowSampler sampler;
+        final RowSink sink;
+        final Set<Integer> columns;
+        final ColumnarTable.ScanStats stats = new ColumnarTable.ScanStats();
+        final List<List<Row>> rowsBySegment;
+        // Blocks a SYSTEM sample keeps of each segment, by segment
+        final Map<ColumnSegment, BitSet> sampledBlocks = new IdentityHashMap<>();
+        final long rowsTotal;
+        final AtomicLong rowsRead = new AtomicLong();
+        volatile boolean stopped;
+
+        SegmentScan(TableState table, ScanQuery scan, List<Integer> projection, boolean[] numeric,
+                Snapshot snapshot, List<ColumnSegment> segments, ShardFilter filter, int keyColumn,
+                RowSampler sampler, RowSink sink) {
+            this.table = table;
+            this.scan = scan;
+            this.projection = projection;
+            this.numeric = numeric;
+            this.snapshot = snapshot;
+            this.segments = segments;
+            this.filter = filter;
+            this.keyColumn = keyColumn;
+            this.sampler = sampler;
+            this.sink = sink;
+            this.columns = neededColumns(table, projection, scan.conditions, !snapshot.shadowedKeys.isEmpty());
+            if (filter != null) {
+                columns.add(keyColumn);
+            }
+            this.rowsBySegment = new ArrayList<>(Collections.nCopies(segments.size(), null));
+            long rows = snapshot.rows.size();
+            for (ColumnSegment segment : segments) {
+                BitSet blocks = sampler != null ? sampler.chooseBlocks(segment.rowCount) : null;
+                if (blocks != null) {
+                    sampledBlocks.put(segment, blocks);
+                }
+                rows += segment.rowCount;
+            }
+            this.rowsTotal = rows;
+        }
+
+        @Override
+        public boolean mayMatch(ColumnSegment segment) {
+            BitSet blocks = sampledBlocks.get(segment);
+            if (stopped || blocks != null && blocks.isEmpty()
+                    || !ColumnarStorageEngine.mayMatch(table, segment, scan.conditions, numeric)) {
+                rowsRead.addAndGet(segment.rowCount);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Set<Integer> columns() {
+            return columns;
+        }
+
+        @Override
+        public boolean isNumeric(int column) {
+            return numeric[column];
+        }
+
+        @Override
+        public void read(int position, ColumnVector[] vectors, int rowCount) {
+            if (stopped) {
+                return;
+            }
+            ColumnarTable data = new ColumnarTable(table.columns, vectors, rowCount);
+            List<Row> rows = scan.count ? null : new ArrayList<>();
+            IntPredicate include = notShadowed(snapshot, data);
+            if (filter != null) {
+                ColumnVector keys = data.vectors[keyColumn];
+                IntPredicate inShards = row -> filter.contains(keys.value(row));
+                include = include != null ? include.and(inShards) : inShards;
+            }
+            IntPredicate sampled = sampler != null ? sampler.chooseRows() : null;
+            if (sampled != null) {
+                include = include != null ? include.and(sampled) : sampled;
+            }
+            data.scan(projection, data.compile(scan.conditions), stats, rows, include,
+                    sampledBlocks.get(segments.get(position)));
+            if (sink == null) {
+                rowsBySegment.set(position, rows);
+                return;
+            }
+            // Segments read in a shuffled order hand over their rows shuffled too
+            if (segments != snapshot.segments) {
+                Collections.shuffle(rows);
+            }
+            if (!sink.rows(rows, (double) rowsRead.addAndGet(rowCount) / rowsTotal)) {
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * Answers a scan through the index on the condition's column, keeping
+     * only rows the shard filter (null = none) contains and the sampler (null
+     * = none) chooses among those that match. Segment rows are
+     * found and read without holding the memtable lock; the lookup starts
+     * over if a flush or compaction replaced the segments meanwhile.
+     */
+    private ResultSet lookup(TableState table, ScanQuery scan, List<Integer> projection,
+            List<String> projectedColumns, Condition indexed, ShardFilter filter, int keyColumn, RowSampler sampler,
+            long deadlineMs) throws SQLException {
+        int column = ColumnarTable.indexOf(table.columns, indexed.getColumn());
+        while (true) {
+            TableVersion version = table.version;
+            Set<Integer> textColumns = new HashSet<>(version.frozen.textColumns);
+            textColumns.addAll(version.active.textColumns);
+            boolean[] numeric = numericColumns(table, version.segments, textColumns, scan.conditions);
+            List<Comparable<Object>> bounds = ColumnPredicate.literals(indexed, numeric[column]);
+
+            List<Row> segmentRows = new ArrayList<>();
+            for (ColumnSegment segment : version.segments) {
+                DataStore.checkDeadline(deadlineMs);
+                if (!mayMatch(table, segment, scan.conditions, numeric)) {
+                    continue;
+                }
+                for (int row : segment.index(column, numeric[column]).lookup(indexed.getOperator(), bounds)) {
+                    segmentRows.add(segment.readRow(row));
+                }
+            }
+
+            List<Row> candidates = new ArrayList<>();
+            memtableLock.readLock().lock();
+            try {
+                // Values must still compare the same way as in the segment lookups
+                TableVersion current = table.version;
+                Set<Integer> currentTextColumns = new HashSet<>(current.frozen.textColumns);
+                currentTextColumns.addAll(current.active.textColumns);
+                if (current.segments != version.segments || !currentTextColumns.equals(textColumns)) {
+                    continue;
+                }
+                for (Row row : segmentRows) {
+                    String key = row.getValues().get(0);
+                    if (!current.frozen.shadowedKeys.contains(key) && !current.active.shadowedKeys.contains(key)) {
+                        candidates.add(row);
+                    }
+                }
+                candidates.addAll(memtableCandidates(current, column, indexed));
+            } finally {
+                memtableLock.readLock().unlock();
+            }
+            if (filter != null) {
+                candidates = inShards(candidates, filter, keyColumn);
+            }
+
+            List<Row> rows = scan.count ? null : new ArrayList<>();
+            ColumnarTable.ScanStats stats = new ColumnarTable.ScanStats();
+            if (!candidates.isEmpty()) {
+                ColumnarTable data = encode(table, candidates, projection, scan.conditions, numeric);
+                data.scan(projection, data.compile(scan.conditions), stats, rows,
+                        sampler != null ? row -> sampler.next() : null);
+            }
+            synchronized (this) {
+                indexLookups++;
+            }
+            AppLogger.debug("Index lookup on {}.{} read {} candidate rows from {} segments", table.name,
+                    indexed.getColumn(), candidates.size(), version.segments.size());
+            return scan.toResultSet(projectedColumns, rows, stats.rowsMatched);
+        }
+    }
+
+    /**
+     * Returns the rows whose shard key the filter contains
+     */
+    private static List<Row> inShards(List<Row> rows, ShardFilter filter, int keyColumn) {
+        List<Row> kept = new ArrayList<>();
+        for (Row row : rows) {
+            if (filter.contains(row.getValues().get(keyColumn))) {
+                kept.add(row);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the newest live memtable rows that may match the condition:
+     * for equality, those whose key was put with one of its values, and
+     * every row for a range
+     */
+    private static Collection<Row> memtableCandidates(TableVersion version, int column, Condition indexed) {
+        if (version.frozen.rows.isEmpty() && version.active.rows.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Row> rows = new TreeMap<>(KEY_ORDER);
+        if (indexed.getOperator() == Operator.EQUALS || indexed.getOperator() == Operator.IN) {
+            for (Comparable<Object> value : ColumnPredicate.literals(indexed, false)) {
+                for (Memtable memtable : List.of(version.frozen, version.active)) {
+                    Set<String> keys = memtable.indexedKeys.getOrDefault(column, Map.of())
+                            .getOrDefault(indexKey(value.toString()), Set.of());
+                    for (String key : keys) {
+                        Row row = version.active.rows.get(key);
+                        rows.put(key, row != null ? row : version.frozen.rows.get(key));
+                    }
+                }
+            }
+        } else {
+            rows.putAll(version.frozen.rows);
+            rows.putAll(version.active.rows);
+        }
+        rows.values().removeIf(row -> row == null || row == TOMBSTONE);
+        return rows.values();
+    }
+
+    /**
+     * Returns the condition an index can answer, preferring equality over a
+     * range, or null if there is none
+     */
+    private static Condition indexedCondition(TableState table, List<Condition> conditions) {
+        Set<Integer> indexedColumns = table.indexedColumns();
+        Condition range = null;
+        for (Condition condition : conditions) {
+            int column = ColumnarTable.indexOf(table.columns, condition.getColumn());
+            if (!indexedColumns.contains(column) || !SegmentIndex.supports(condition.getOperator())) {
+                continue;
+            }
+            if (condition.getOperator() == Operator.EQUALS || condition.getOperator() == Operator.IN) {
+                return condition;
+            }
+            if (range == null) {
+                range = condition;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Memtable index key of a value: numbers in one canonical form, so that
+     * a lookup finds them whether they compare as numbers or text
+     */
+    private static String indexKey(String value) {
+        return ColumnVector.isNumber(value) ? Double.toString(Double.parseDouble(value)) : value;
+    }
+
+    /**
+     * Builds the segment's indexes ahead of the first lookup, comparing
+     * values as the segment's statistics suggest
+     */
+    private static void buildIndexes(TableState table, ColumnSegment segment) {
+        for (int column : table.indexedColumns()) {
+            segment.index(column, segment.columns.get(column).numeric);
+        }
+    }
+
+    synchronized long getIndexLookups() {
+        return indexLookups;
+    }
+
+    /**
+     * Answers a scan without a WHERE clause by slicing the projected columns
+     * out of the mapped segment files, with memtable rows added as rows. A
+     * segment replaced meanwhile stays readable, since its mapping outlives
+     * the deleted file. With a shard filter only the key column is decoded,
+     * and a segment holding rows of other shards is sent with a selection of
+     * the rows to keep. Returns null while unflushed updates or deletes hide
+     * some segment rows.
+     */
+    @Override
+    public QueryResult scanColumnBatches(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs)
+            throws SQLException {
+        ScanQuery scan = ScanQuery.parse(sqlQuery);
+        TableState table = scan != null ? tables.get(scan.table.toLowerCase()) : null;
+        if (table == null || scan.count || !scan.conditions.isEmpty()) {
+            return null;
+        }
+        List<Integer> projection = ColumnarTable.resolve(table.columns, scan.columns);
+        Snapshot snapshot = snapshot(table);
+        if (projection == null || !snapshot.shadowedKeys.isEmpty()) {
+            return null;
+        }
+        ShardFilter filter = shardFilters.get(table.name.toLowerCase());
+        int keyColumn = filter != null ? ColumnarTable.indexOf(table.columns, filter.keyColumn) : -1;
+        if (filter != null && keyColumn < 0) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        QueryResult.Builder result = QueryResult.newBuilder();
+        for (int index : projection) {
+            result.addColumns(table.columns.get(index));
+        }
+        long rows = 0;
+        for (ColumnSegment segment : snapshot.segments) {
+            DataStore.checkDeadline(deadlineMs);
+            ColumnBatch.Builder batch = ColumnBatch.newBuilder().setRowCount(segment.rowCount);
+            int selected = segment.rowCount;
+            if (filter != null) {
+                ColumnVector keys = segment.readColumn(keyColumn, false);
+                byte[] selection = new byte[(segment.rowCount + 7) / 8];
+                selected = 0;
+                for (int row = 0; row < segment.rowCount; row++) {
+                    if (filter.contains(keys.value(row))) {
+                        selection[row >>> 3] |= (byte) (1 << (row & 7));
+                        selected++;
+                    }
+                }
+                if (selected == 0) {
+                    continue;
+                }
+                if (selected < segment.rowCount) {
+                    batch.setSelection(ByteString.copyFrom(selection));
+                }
+            }
+            for (int index : projection) {
+                batch.addColumns(ColumnChunk.newBuilder()
+                        .setEncoding(segment.columns.get(index).encoding)
+                        .setData(segment.chunk(index)));
+            }
+            result.addColumnBatches(batch);
+            rows += selected;
+        }
+        List<Row> memtableRows = filter != null ? inShards(snapshot.rows, filter, keyColumn) : snapshot.rows;
+        for (Row row : memtableRows) {
+            List<String> values = new ArrayList<>(projection.size());
+            for (int index : projection) {
+                values.add(row.getValues().get(index));
+            }
+            result.addResults(WorkerServiceImpl.toProtoRow(new Row(values)));
+            rows++;
+        }
+        return result.setRowsReturned((int) rows)
+                .setStatus(QueryStatus.COMPLETED)
+                .setExecutionTimeMs(System.currentTimeMillis() - start)
+                .build();
+    }
+
+    synchronized long getSegmentsSkipped() {
+        return segmentsSkipped;
+    }
+
+    SharedScanScheduler getSharedScans() {
+        return sharedScans;
+    }
+
+    WriteAheadLog getLog() {
+        return log;
+    }
+
+    int getSegmentCount(String tableName) {
+        TableState table = tables.get(tableName.toLowerCase());
+        return table != null ? table.version.segments.size() : 0;
+    }
+
+    @Override
+    public long countShardRows(ShardFilter shard) throws SQLException {
+        TableState table = requireTable(shard.table);
+        int keyIndex = requireColumn(table, shard.keyColumn);
+        Snapshot snapshot = snapshot(table);
+        long count = 0;
+        for (ColumnSegment segment : snapshot.segments) {
+            ColumnVector keys = segment.readColumn(keyIndex, false);
+            ColumnVector primaryKeys = keyIndex == 0 || snapshot.shadowedKeys.isEmpty()
+                    ? keys : segment.readColumn(0, false);
+            for (int row = 0; row < segment.rowCount; row++) {
+                if (shard.contains(keys.value(row)) && !snapshot.shadowedKeys.contains(primaryKeys.value(row))) {
+                    count++;
+                }
+            }
+        }
+        for (Row row : snapshot.rows) {
+            if (shard.contains(row.getValues().get(keyIndex))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public ResultSet readShardRows(ShardFilter shard, String afterKey, int batchSize) throws SQLException {
+        TableState table = requireTable(shard.table);
+        int keyIndex = requireColumn(table, shard.keyColumn);
+        ShardRange range = shard.shards.get(0);
+        boolean numeric = !shard.isHash() && isNumericRange(range.getKeyRangeStart(), range.getKeyRangeEnd());
+        Comparator<String> order = numeric ? Comparator.comparingLong(Long::parseLong) : Comparator.naturalOrder();
+        boolean hasCursor = afterKey != null && !afterKey.isEmpty();
+
+        List<Row> rows = new ArrayList<>();
+        for (Row row : liveRows(snapshot(table))) {
+            String key = row.getValues().get(keyIndex);
+            if (shard.contains(key) && (!hasCursor || order.compare(key, afterKey) > 0)) {
+                rows.add(row);
+            }
+        }
+        rows.sort(Comparator.comparing(row -> row.getValues().get(keyIndex), order));
+
+        ResultSet batch = new ResultSet();
+        batch.setColumns(new ArrayList<>(table.columns));
+        batch.setRows(new ArrayList<>(rows.subList(0, Math.min(batchSize, rows.size()))));
+        batch.setTotalRows(batch.getRows().size());
+        batch.setStatus("COMPLETED");
+        return batch;
+    }
+
+    @Override
+    public int writeRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        List<Row> accepted;
+        long sequence;
+        synchronized (writeLock) {
+            awaitFlushCapacity();
+            TableState table = tableFor(tableName, columns);
+            accepted = checkKeys(table, normalize(table, columns, rows), true);
+            if (accepted.isEmpty()) {
+                return 0;
+            }
+            sequence = apply(table, null, accepted, List.of(), false);
+        }
+        sync(sequence);
+        return accepted.size();
+    }
+
+    @Override
+    public long executeWrite(String transactionId, boolean onePhase, String sqlStatement, String tableName,
+            List<String> columns, List<Row> rows, ShardFilter countFilter, long deadlineMs) throws SQLException {
+        DataStore.checkDeadline(deadlineMs);
+        boolean statement = sqlStatement != null && !sqlStatement.isEmpty();
+
+        long affected;
+        long sequence;
+        synchronized (writeLock) {
+            awaitFlushCapacity();
+            if (onePhase) {
+                Effects effects;
+                if (statement) {
+                    effects = evaluate(sqlStatement, countFilter);
+                } else {
+                    TableState table = tableFor(tableName, columns);
+                    effects = new Effects(table);
+                    effects.puts.addAll(checkKeys(table, normalize(table, columns, rows), false));
+                }
+                affected = effects.counted(countFilter);
+                sequence = apply(effects.table, null, effects.puts, effects.deletes, statement);
+            } else {
+                if (preparedWrites.containsKey(transactionId)) {
+                    throw new SQLException("Transaction " + transactionId + " is already prepared");
+                }
+
+                // Validate now so the commit cannot fail, and reserve inserted keys against other writers
+                PreparedWrite write;
+                if (statement) {
+                    Effects effects = evaluate(sqlStatement, countFilter);
+                    affected = effects.counted(countFilter);
+                    write = new PreparedWrite(effects.table.name, sqlStatement, List.of());
+                } else {
+                    TableState table = tableFor(tableName, columns);
+                    Effects effects = new Effects(table);
+                    effects.puts.addAll(checkKeys(table, normalize(table, columns, rows), false));
+                    affected = effects.counted(countFilter);
+                    write = new PreparedWrite(table.name, null, effects.puts);
+                }
+                sequence = append(prepareRecord(transactionId, write));
+                prepare(transactionId, write);
+            }
+        }
+        sync(sequence);
+        return affected;
+    }
+
+    @Override
+    public boolean finishTransaction(String transactionId, boolean commit) throws SQLException {
+        long sequence;
+        synchronized (writeLock) {
+            PreparedWrite write = preparedWrites.get(transactionId);
+            if (write == null) {
+                return false;
+            }
+            if (!commit) {
+                sequence = append(LogRecords.encode(out -> {
+                    out.writeByte(ROLLBACK);
+                    out.writeUTF(transactionId);
+                }));
+                finish(transactionId);
+            } else if (write.sqlStatement == null) {
+                sequence = apply(requireTable(write.tableName), transactionId, write.rows, List.of(), false);
+            } else {
+                Effects effects = evaluate(write.sqlStatement);
+                sequence = apply(effects.table, transactionId, effects.puts, effects.deletes, true);
+            }
+        }
+        sync(sequence);
+        return true;
+    }
+
+    @Override
+    public List<String> listPreparedTransactions(String prefix) {
+        List<String> transactionIds = new ArrayList<>();
+        for (String transactionId : preparedWrites.keySet()) {
+            if (transactionId.startsWith(prefix)) {
+                transactionIds.add(transactionId);
+            }
+        }
+        return transactionIds;
+    }
+
+    @Override
+    public long copyRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        long sequence;
+        synchronized (writeLock) {
+            awaitFlushCapacity();
+            TableState table = tableFor(tableName, columns);
+            List<Row> accepted = checkKeys(table, normalize(table, columns, rows), false);
+            sequence = apply(table, null, accepted, List.of(), false);
+        }
+        sync(sequence);
+        return rows.size();
+    }
+
+    @Override
+    public int deleteShardRows(ShardFilter shard) throws SQLException {
+        List<String> deletes = new ArrayList<>();
+        long sequence;
+        synchronized (writeLock) {
+            awaitFlushCapacity();
+            TableState table = requireTable(shard.table);
+            int keyIndex = requireColumn(table, shard.keyColumn);
+            for (Row row : liveRows(snapshot(table))) {
+                if (shard.contains(row.getValues().get(keyIndex))) {
+                    deletes.add(row.getValues().get(0));
+                }
+            }
+            if (deletes.isEmpty()) {
+                return 0;
+            }
+            sequence = apply(table, null, List.of(), deletes, true);
+        }
+        sync(sequence);
+        return deletes.size();
+    }
+
+    @Override
+    public void createTable(String tableName, List<String> columns) throws SQLException {
+        if (columns.isEmpty()) {
+            throw new SQLException("Table " + tableName + " has no columns", UNSUPPORTED_SQL_STATE);
+        }
+        synchronized (writeLock) {
+            tableFor(tableName, columns);
+        }
+    }
+
+    /**
+     * Lists the index in the manifest, indexes the memtables' rows, then
+     * builds each segment's index so that the first lookups do not wait
+     */
+    @Override
+    public void createIndex(String tableName, String indexName, List<String> columns) throws SQLException {
+        String name = requireIdentifier(indexName).toLowerCase();
+        if (columns.isEmpty()) {
+            throw new SQLException("Index " + indexName + " has no columns", UNSUPPORTED_SQL_STATE);
+        }
+        TableState table;
+        synchronized (writeLock) {
+            table = tables.get(requireIdentifier(tableName).toLowerCase());
+            if (table == null) {
+                pendingIndexes.computeIfAbsent(tableName.toLowerCase(), t -> new ConcurrentHashMap<>())
+                        .putIfAbsent(name, List.copyOf(columns));
+                return;
+            }
+            for (String column : columns) {
+                requireColumn(table, column);
+            }
+            if (table.indexes.containsKey(name)) {
+                return;
+            }
+
+            int leading = requireColumn(table, columns.get(0));
+            memtableLock.writeLock().lock();
+            try {
+                Map<String, List<String>> indexes = new LinkedHashMap<>(table.indexes);
+                indexes.put(name, List.copyOf(columns));
+                table.indexes = Collections.unmodifiableMap(indexes);
+                writeManifest(table, table.version.segments, table.flushedLogId);
+                for (Memtable memtable : List.of(table.version.frozen, table.version.active)) {
+                    for (Map.Entry<String, Row> entry : memtable.rows.entrySet()) {
+                        if (entry.getValue() != TOMBSTONE) {
+                            memtable.index(leading, entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new SQLException("Failed to record index " + indexName, e);
+            } finally {
+                memtableLock.writeLock().unlock();
+            }
+        }
+
+        for (ColumnSegment segment : table.version.segments) {
+            buildIndexes(table, segment);
+        }
+        AppLogger.info("Created index {} on {} {}", indexName, table.name, columns);
+    }
+
+    @Override
+    public boolean healthCheck() {
+        return Files.isDirectory(dataDir) && Files.isWritable(dataDir);
+    }
+
+    @Override
+    public void shutdown() {
+        // Memtables are not flushed; the log brings them back on the next start
+        maintenance.shutdown();
+        try {
+            if (!maintenance.awaitTermination(30, TimeUnit.SECONDS)) {
+                AppLogger.warn("Columnar storage maintenance did not finish in time");
+                maintenance.shutdownNow();
+            }
+            log.close();
+        } catch (Exception e) {
+            AppLogger.error("Error shutting down columnar storage for worker {}", workerId, e);
+        }
+        AppLogger.info("Columnar storage for worker {} shutdown", workerId);
+    }
+
+    /**
+     * Freezes the memtables and waits until they are flushed to segments
+     */
+    void flush() throws SQLException {
+        synchronized (writeLock) {
+            awaitFlush(0);
+            if (memtableBytes > 0) {
+                try {
+                    freeze();
+                } catch (IOException e) {
+                    throw new SQLException("Failed to switch write-ahead log files", e);
+                }
+                awaitFlush(0);
+            }
+        }
+    }
+
+    /**
+     * Logs a write and applies it to the table's active memtable; with
+     * shadow set, puts replace rows of the same key in older data. Returns
+     * the log sequence number to sync before acknowledging the write.
+     */
+    private long apply(TableState table, String transactionId, List<Row> puts, List<String> deletes,
+            boolean shadow) throws SQLException {
+        long sequence = append(LogRecords.encode(out -> {
+            out.writeByte(APPLY);
+            out.writeUTF(transactionId != null ? transactionId : "");
+            out.writeUTF(table.name);
+            writeStrings(out, table.columns);
+            out.writeBoolean(shadow);
+            writeRows(out, puts);
+            writeStrings(out, deletes);
+        }));
+        if (transactionId != null) {
+            finish(transactionId);
+        }
+        applyToMemtable(table, puts, deletes, shadow);
+        try {
+            freezeIfFull();
+        } catch (IOException e) {
+            throw new SQLException("Failed to switch write-ahead log files", e);
+        }
+        return sequence;
+    }
+
+    private void applyToMemtable(TableState table, List<Row> puts, List<String> deletes, boolean shadow) {
+        memtableLock.writeLock().lock();
+        try {
+            Memtable memtable = table.version.active;
+            Set<Integer> indexedColumns = table.indexedColumns();
+            for (Row row : puts) {
+                String key = row.getValues().get(0);
+                memtable.put(key, row, indexedColumns);
+                if (shadow) {
+                    memtable.shadowedKeys.add(key);
+                }
+                table.keys.add(key);
+                memtableBytes += estimateBytes(row);
+            }
+            for (String key : deletes) {
+                memtable.rows.put(key, TOMBSTONE);
+                memtable.shadowedKeys.add(key);
+                table.keys.remove(key);
+                memtableBytes += 64 + key.length() * 2L;
+            }
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+    }
+
+    private void prepare(String transactionId, PreparedWrite write) {
+        preparedWrites.put(transactionId, write);
+        TableState table = tables.get(write.tableName.toLowerCase());
+        for (Row row : write.rows) {
+            table.reservedKeys.add(row.getValues().get(0));
+        }
+    }
+
+    private void finish(String transactionId) {
+        PreparedWrite write = preparedWrites.remove(transactionId);
+        if (write != null) {
+            TableState table = tables.get(write.tableName.toLowerCase());
+            for (Row row : write.rows) {
+                table.reservedKeys.remove(row.getValues().get(0));
+            }
+        }
+    }
+
+    private static byte[] prepareRecord(String transactionId, PreparedWrite write) {
+        return LogRecords.encode(out -> {
+            out.writeByte(PREPARE);
+            out.writeUTF(transactionId);
+            out.writeUTF(write.tableName);
+            out.writeUTF(write.sqlStatement != null ? write.sqlStatement : "");
+            writeRows(out, write.rows);
+        });
+    }
+
+    private long append(byte[] record) throws SQLException {
+        try {
+            return log.append(record);
+        } catch (IOException e) {
+            throw new SQLException("Failed to append to the write-ahead log", e);
+        }
+    }
+
+    private void sync(long sequence) throws SQLException {
+        try {
+            log.sync(sequence);
+        } catch (IOException e) {
+            throw new SQLException("Failed to sync the write-ahead log", e);
+        }
+    }
+
+    /**
+     * Applies one log record read back from the given log file
+     */
+    private void replay(long fileId, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String transactionId = in.readUTF();
+        switch (type) {
+            case APPLY: {
+                String tableName = in.readUTF();
+                List<String> columns = readStrings(in);
+                boolean shadow = in.readBoolean();
+                List<Row> puts = readRows(in);
+                List<String> deletes = readStrings(in);
+                finish(transactionId);
+                TableState table;
+                try {
+                    table = tableFor(tableName, columns);
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+                if (fileId > table.flushedLogId) {
+                    applyToMemtable(table, puts, deletes, shadow);
+                }
+                break;
+            }
+            case PREPARE: {
+                String tableName = in.readUTF();
+                String sqlStatement = in.readUTF();
+                prepare(transactionId, new PreparedWrite(tableName, sqlStatement.isEmpty() ? null : sqlStatement,
+                        readRows(in)));
+                break;
+            }
+            case ROLLBACK:
+                finish(transactionId);
+                break;
+            default:
+                throw new IOException("Unknown write-ahead log record type " + type);
+        }
+    }
+
+    /**
+     * Holds writers back while a flush is running and the active memtables
+     * have grown past twice their limit, so ingest cannot outrun flushing
+     */
+    private void awaitFlushCapacity() throws SQLException {
+        awaitFlush(2 * memtableLimitBytes);
+    }
+
+    /**
+     * Waits under the write lock until no flush is pending or the active
+     * memtables are smaller than allowedBytes
+     */
+    private void awaitFlush(long allowedBytes) throws SQLException {
+        while (flushPending && memtableBytes >= allowedBytes) {
+            try {
+                writeLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for a memtable flush", e);
+            }
+        }
+    }
+
+    private void freezeIfFull() throws IOException {
+        if (!flushPending && memtableBytes >= memtableLimitBytes) {
+            freeze();
+        }
+    }
+
+    /**
+     * Starts a new log file and new active memtables, and schedules a flush
+     * of the old ones. Runs under the write lock with no flush pending.
+     */
+    private void freeze() throws IOException {
+        long closedLogId = log.rollOver();
+        // Prepared transactions must outlive the log files dropped after the flush
+        for (Map.Entry<String, PreparedWrite> entry : preparedWrites.entrySet()) {
+            log.append(prepareRecord(entry.getKey(), entry.getValue()));
+        }
+
+        memtableLock.writeLock().lock();
+        try {
+            for (TableState table : tables.values()) {
+                TableVersion version = table.version;
+                table.version = new TableVersion(version.segments, version.active, new Memtable());
+            }
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        memtableBytes = 0;
+        flushPending = true;
+        maintenance.execute(() -> flushFrozen(closedLogId));
+    }
+
+    /**
+     * Writes every table's frozen memtable into segments, then drops the log
+     * files they came from. Retries later if it fails.
+     */
+    private void flushFrozen(long closedLogId) {
+        long startTime = System.currentTimeMillis();
+        long rows = 0;
+        try {
+            for (TableState table : tables.values()) {
+                rows += flushTable(table, closedLogId);
+            }
+            log.deleteUpTo(closedLogId);
+        } catch (Exception e) {
+            AppLogger.error("Failed to flush memtables of worker {}", workerId, e);
+            if (!maintenance.isShutdown()) {
+                maintenance.schedule(() -> flushFrozen(closedLogId), FLUSH_RETRY_SECONDS, TimeUnit.SECONDS);
+            }
+            return;
+        }
+
+        synchronized (writeLock) {
+            flushPending = false;
+            writeLock.notifyAll();
+        }
+        AppLogger.info("Flushed {} memtable rows of worker {} in {}ms", rows, workerId,
+                System.currentTimeMillis() - startTime);
+        compact();
+    }
+
+    /**
+     * Writes the table's frozen memtable as new segments in key order and
+     * rewrites the segments holding rows it replaces. Returns the number of
+     * rows written.
+     */
+    private int flushTable(TableState table, long closedLogId) throws IOException {
+        TableVersion version = table.version;
+        Memtable frozen = version.frozen;
+        if (frozen.rows.isEmpty()) {
+            return 0;
+        }
+
+        List<ColumnSegment> removed = new ArrayList<>();
+        List<ColumnSegment> added = new ArrayList<>();
+        if (!frozen.shadowedKeys.isEmpty()) {
+            // Footer key ranges tell which segments can hold a replaced key
+            TreeSet<String> shadowed = new TreeSet<>(frozen.shadowedKeys);
+            for (ColumnSegment segment : version.segments) {
+                ColumnSegment.ColumnStats keyStats = segment.columns.get(0);
+                String candidate = keyStats.min != null ? shadowed.ceiling(keyStats.min) : null;
+                if (candidate == null || candidate.compareTo(keyStats.max) > 0) {
+                    continue;
+                }
+                List<Row> kept = new ArrayList<>();
+                for (Row row : segment.readRows()) {
+                    if (!shadowed.contains(row.getValues().get(0))) {
+                        kept.add(row);
+                    }
+                }
+                if (kept.size() < segment.rowCount) {
+                    removed.add(segment);
+                    added.addAll(writeSegments(table, kept));
+                }
+            }
+        }
+        List<Row> rows = new ArrayList<>();
+        for (Row row : frozen.rows.values()) {
+            if (row != TOMBSTONE) {
+                rows.add(row);
+            }
+        }
+        added.addAll(writeSegments(table, rows));
+
+        memtableLock.writeLock().lock();
+        try {
+            List<ColumnSegment> segments = new ArrayList<>(version.segments);
+            segments.removeAll(removed);
+            segments.addAll(added);
+            writeManifest(table, segments, closedLogId);
+            table.flushedLogId = closedLogId;
+            table.version = new TableVersion(List.copyOf(segments), new Memtable(), table.version.active);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        deleteFiles(removed);
+        return rows.size();
+    }
+
+    /**
+     * Merges each table's small segments into full, key-sorted ones once
+     * there are too many
+     */
+    private void compact() {
+        for (TableState table : tables.values()) {
+            try {
+                compactTable(table);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                AppLogger.error("Failed to compact segments of {}", table.name, e);
+            }
+        }
+    }
+
+    private void compactTable(TableState table) throws IOException, InterruptedException {
+        List<ColumnSegment> small = new ArrayList<>();
+        for (ColumnSegment segment : table.version.segments) {
+            if (segment.rowCount < SEGMENT_ROWS / 4) {
+                small.add(segment);
+            }
+        }
+        if (small.size() < MERGE_THRESHOLD) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<Row> rows = new ArrayList<>();
+        for (ColumnSegment segment : small) {
+            rows.addAll(segment.readRows());
+        }
+        rows.sort(Comparator.comparing(row -> row.getValues().get(0), KEY_ORDER));
+
+        List<ColumnSegment> merged = new ArrayList<>();
+        long writtenBytes = 0;
+        for (int start = 0; start < rows.size(); start += SEGMENT_ROWS) {
+            ColumnSegment segment = writeSegment(table, rows.subList(start, Math.min(rows.size(),
+                    start + SEGMENT_ROWS)));
+            merged.add(segment);
+            writtenBytes += Files.size(segment.path);
+
+            // Throttle so merging never exceeds its bandwidth budget
+            long expectedElapsedMs = writtenBytes * 1000 / compactionBytesPerSecond;
+            long actualElapsedMs = System.currentTimeMillis() - startTime;
+            if (expectedElapsedMs > actualElapsedMs) {
+                Thread.sleep(expectedElapsedMs - actualElapsedMs);
+            }
+        }
+
+        memtableLock.writeLock().lock();
+        try {
+            TableVersion version = table.version;
+            List<ColumnSegment> segments = new ArrayList<>(version.segments);
+            segments.removeAll(small);
+            segments.addAll(merged);
+            writeManifest(table, segments, table.flushedLogId);
+            table.version = new TableVersion(List.copyOf(segments), version.frozen, version.active);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        deleteFiles(small);
+        AppLogger.debug("Merged {} small segments of {} in {}ms", small.size(), table.name,
+                System.currentTimeMillis() - startTime);
+    }
+
+    private Snapshot snapshot(TableState table) {
+        memtableLock.readLock().lock();
+        try {
+            TableVersion version = table.version;
+            if (version.frozen.rows.isEmpty() && version.active.rows.isEmpty()) {
+                return new Snapshot(version.segments, Set.of(), List.of(), Set.of());
+            }
+            Set<String> shadowedKeys = new HashSet<>(version.frozen.shadowedKeys);
+            shadowedKeys.addAll(version.active.shadowedKeys);
+            Map<String, Row> newest = new LinkedHashMap<>(version.frozen.rows);
+            newest.putAll(version.active.rows);
+            List<Row> rows = new ArrayList<>(newest.size());
+            for (Row row : newest.values()) {
+                if (row != TOMBSTONE) {
+                    rows.add(row);
+                }
+            }
+            Set<Integer> textColumns = new HashSet<>(version.frozen.textColumns);
+            textColumns.addAll(version.active.textColumns);
+            return new Snapshot(version.segments, shadowedKeys, rows, textColumns);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+    }
+
+    private static List<Row> liveRows(Snapshot snapshot) {
+        List<Row> rows = new ArrayList<>();
+        for (ColumnSegment segment : snapshot.segments) {
+            for (Row row : segment.readRows()) {
+                if (!snapshot.shadowedKeys.contains(row.getValues().get(0))) {
+                    rows.add(row);
+                }
+            }
+        }
+        rows.addAll(snapshot.rows);
+        return rows;
+    }
+
+    /**
+     * Returns a filter of the segment rows not replaced by memtable rows, or
+     * null if none are; the key column must be decoded
+     */
+    private static IntPredicate notShadowed(Snapshot snapshot, ColumnarTable data) {
+        if (snapshot.shadowedKeys.isEmpty()) {
+            return null;
+        }
+        ColumnVector keys = data.vectors[0];
+        return row -> !snapshot.shadowedKeys.contains(keys.value(row));
+    }
+
+    /**
+     * Works out what an UPDATE or DELETE statement writes, without applying it
+     */
+    private Effects evaluate(String sqlStatement) throws SQLException {
+        return evaluate(sqlStatement, null);
+    }
+
+    /**
+     * Evaluates a statement as above, also counting the deleted rows the count
+     * filter contains
+     */
+    private Effects evaluate(String sqlStatement, ShardFilter countFilter) throws SQLException {
+        Query query;
+        try {
+            query = new SQLParser().parse(sqlStatement);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(e.getMessage(), UNSUPPORTED_SQL_STATE, e);
+        }
+        List<String> parts = SQLParser.splitOutsideQuotes(sqlStatement.trim().replaceAll(";\\s*$", ""), "WHERE");
+        if (query.getQueryType() != QueryType.UPDATE && query.getQueryType() != QueryType.DELETE
+                || parts.size() > 2 || parts.size() == 2 && !ScanQuery.isSupportedWhere(parts.get(1))) {
+            throw new SQLException("Statement is not supported by the columnar storage engine: " + sqlStatement,
+                    UNSUPPORTED_SQL_STATE);
+        }
+
+        TableState table = requireTable(query.getFromTables().get(0));
+        Map<Integer, String> assignments = new HashMap<>();
+        for (Map.Entry<String, String> entry : query.getUpdateValues().entrySet()) {
+            int column = requireColumn(table, entry.getKey());
+            if (column == 0) {
+                throw new SQLException("Updating the key column is not supported", UNSUPPORTED_SQL_STATE);
+            }
+            assignments.put(column, parseLiteral(entry.getValue()));
+        }
+        List<Condition> conditions = query.getWhereConditions();
+        for (Condition condition : conditions) {
+            requireColumn(table, condition.getColumn());
+        }
+
+        Snapshot snapshot = snapshot(table);
+        boolean[] numeric = numericColumns(table, snapshot.segments, snapshot.textColumns, conditions);
+        boolean update = query.getQueryType() == QueryType.UPDATE;
+        int countColumn = countFilter != null && !update ? requireColumn(table, countFilter.keyColumn) : 0;
+        Effects effects = new Effects(table);
+        for (ColumnSegment segment : snapshot.segments) {
+            if (!mayMatch(table, segment, conditions, numeric)) {
+                continue;
+            }
+            ColumnarTable data = decode(table, segment, countColumn > 0 ? List.of(0, countColumn) : List.of(0),
+                    conditions, numeric, true);
+            IntPredicate include = notShadowed(snapshot, data);
+            BitSet matches = new BitSet(segment.rowCount);
+            data.forEachMatch(data.compile(conditions), new ColumnarTable.ScanStats(), row -> {
+                if (include == null || include.test(row)) {
+                    matches.set(row);
+                }
+            });
+            if (matches.isEmpty()) {
+                continue;
+            }
+            if (update) {
+                List<Row> rows = segment.readRows();
+                matches.stream().forEach(row -> effects.puts.add(assign(rows.get(row), assignments)));
+            } else {
+                matches.stream().forEach(row -> {
+                    effects.deletes.add(data.vectors[0].value(row));
+                    if (countFilter != null && countFilter.contains(data.vectors[countColumn].value(row))) {
+                        effects.deletesInShards++;
+                    }
+                });
+            }
+        }
+        if (!snapshot.rows.isEmpty()) {
+            ColumnarTable data = encode(table, snapshot.rows, List.of(), conditions, numeric);
+            data.forEachMatch(data.compile(conditions), new ColumnarTable.ScanStats(), row -> {
+                if (update) {
+                    effects.puts.add(assign(snapshot.rows.get(row), assignments));
+                } else {
+                    effects.deletes.add(snapshot.rows.get(row).getValues().get(0));
+                    if (countFilter != null && countFilter.contains(snapshot.rows.get(row).getValues()
+                            .get(countColumn))) {
+                        effects.deletesInShards++;
+                    }
+                }
+            });
+        }
+        return effects;
+    }
+
+    private static Row assign(Row row, Map<Integer, String> assignments) {
+        List<String> values = new ArrayList<>(row.getValues());
+        for (Map.Entry<Integer, String> assignment : assignments.entrySet()) {
+            values.set(assignment.getKey(), assignment.getValue());
+        }
+        return new Row(values);
+    }
+
+    /**
+     * Returns the table, creating it with the given columns if it does not exist yet
+     */
+    private TableState tableFor(String tableName, List<String> columns) throws SQLException {
+        TableState table = tables.get(requireIdentifier(tableName).toLowerCase());
+        if (table != null) {
+            return table;
+        }
+        for (String column : columns) {
+            requireIdentifier(column);
+        }
+        Path dir = dataDir.resolve(tableName.toLowerCase());
+        // An index may have been created before the first write
+        Map<String, List<String>> indexes = pendingIndexes.remove(tableName.toLowerCase());
+        table = new TableState(tableName, dir, List.copyOf(columns), List.of(), 1, 0,
+                indexes != null ? Map.copyOf(indexes) : Map.of());
+        try {
+            Files.createDirectories(dir);
+            writeManifest(table, List.of(), 0);
+        } catch (IOException e) {
+            throw new SQLException("Failed to create table " + tableName, e);
+        }
+        tables.put(tableName.toLowerCase(), table);
+        AppLogger.info("Created columnar table {} with columns {}", tableName, columns);
+        return table;
+    }
+
+    /**
+     * Reorders row values into the table's column order; omitted columns are null
+     */
+    private static List<Row> normalize(TableState table, List<String> columns, List<Row> rows)
+            throws SQLException {
+        int[] positions = new int[table.columns.size()];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < columns.size(); i++) {
+            positions[requireColumn(table, columns.get(i))] = i;
+        }
+        if (positions[0] < 0) {
+            throw new SQLException("Key column " + table.columns.get(0) + " of " + table.name + " is required",
+                    NOT_NULL_SQL_STATE);
+        }
+
+        List<Row> normalized = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            List<String> values = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                values.add(position < 0 ? null : row.getValues().get(position));
+            }
+            normalized.add(new Row(values));
+        }
+        return normalized;
+    }
+
+    /**
+     * Returns the rows whose keys are new. A duplicate or reserved key is
+     * skipped if skipDuplicates is set and fails the whole batch otherwise.
+     */
+    private static List<Row> checkKeys(TableState table, List<Row> rows, boolean skipDuplicates)
+            throws SQLException {
+        Set<String> seen = new HashSet<>();
+        List<Row> accepted = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            String key = row.getValues().get(0);
+            if (key == null) {
+                throw new SQLException("Null value in key column " + table.columns.get(0) + " of " + table.name,
+                        NOT_NULL_SQL_STATE);
+            }
+            if (table.keys.contains(key) || table.reservedKeys.contains(key) || !seen.add(key)) {
+                if (skipDuplicates) {
+                    continue;
+                }
+                throw new SQLException("Duplicate key " + key + " in " + table.name, DUPLICATE_KEY_SQL_STATE);
+            }
+            accepted.add(row);
+        }
+        return accepted;
+    }
+
+    /**
+     * Decides per column whether values compare as numbers: only if every
+     * segment holds numbers there, no memtable since the last flush was given
+     * text there and no condition on it needs text
+     */
+    private static boolean[] numericColumns(TableState table, List<ColumnSegment> segments,
+            Set<Integer> textColumns, List<Condition> conditions) {
+        boolean[] numeric = new boolean[table.columns.size()];
+        Arrays.fill(numeric, true);
+        for (ColumnSegment segment : segments) {
+            for (int i = 0; i < numeric.length; i++) {
+                ColumnSegment.ColumnStats stats = segment.columns.get(i);
+                numeric[i] &= stats.numeric || stats.min == null;
+            }
+        }
+        for (int column : textColumns) {
+            numeric[column] = false;
+        }
+        for (Condition condition : conditions) {
+            int column = ColumnarTable.indexOf(table.columns, condition.getColumn());
+            if (column >= 0 && ColumnPredicate.literals(condition, true) == null) {
+                numeric[column] = false;
+            }
+        }
+        return numeric;
+    }
+
+    private static boolean mayMatch(TableState table, ColumnSegment segment, List<Condition> conditions,
+            boolean[] numeric) {
+        for (Condition condition : conditions) {
+            int column = ColumnarTable.indexOf(table.columns, condition.getColumn());
+            if (!segment.mayMatch(column, condition, numeric[column])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the projected and filtered columns, plus the key column if withKey is set
+     */
+    private static Set<Integer> neededColumns(TableState table, List<Integer> projection,
+            List<Condition> conditions, boolean withKey) {
+        Set<Integer> columns = new TreeSet<>(projection);
+        for (Condition condition : conditions) {
+            columns.add(ColumnarTable.indexOf(table.columns, condition.getColumn()));
+        }
+        if (withKey) {
+            columns.add(0);
+        }
+        return columns;
+    }
+
+    /**
+     * Decodes the columns of a segment a scan needs, leaving the others null
+     */
+    private static ColumnarTable decode(TableState table, ColumnSegment segment, List<Integer> projection,
+            List<Condition> conditions, boolean[] numeric, boolean withKey) {
+        ColumnVector[] vectors = new ColumnVector[table.columns.size()];
+        for (int column : neededColumns(table, projection, conditions, withKey)) {
+            vectors[column] = segment.readColumn(column, numeric[column]);
+        }
+        return new ColumnarTable(table.columns, vectors, segment.rowCount);
+    }
+
+    /**
+     * Encodes the columns of memtable rows a scan needs, comparing values
+     * the same way as in the segments
+     */
+    private static ColumnarTable encode(TableState table, List<Row> rows, List<Integer> projection,
+            List<Condition> conditions, boolean[] numeric) {
+        ColumnVector[] vectors = new ColumnVector[table.columns.size()];
+        for (int column : neededColumns(table, projection, conditions, false)) {
+            ColumnVector vector = ColumnVector.encode(rows, column);
+            vectors[column] = ColumnVector.fromPacked(vector.dictionary, vector.packed, vector.bitWidth,
+                    vector.rowCount, numeric[column]);
+        }
+        return new ColumnarTable(table.columns, vectors, rows.size());
+    }
+
+    private List<ColumnSegment> writeSegments(TableState table, List<Row> rows) throws IOException {
+        List<ColumnSegment> segments = new ArrayList<>();
+        for (int start = 0; start < rows.size(); start += SEGMENT_ROWS) {
+            segments.add(writeSegment(table, rows.subList(start, Math.min(rows.size(), start + SEGMENT_ROWS))));
+        }
+        return segments;
+    }
+
+    private ColumnSegment writeSegment(TableState table, List<Row> rows) throws IOException {
+        Path path = table.dir.resolve(String.format("%08d%s", table.nextSegmentId++, SEGMENT_SUFFIX));
+        ColumnSegment segment = ColumnSegment.write(path, table.columns, rows);
+        buildIndexes(table, segment);
+        return segment;
+    }
+
+    private static void writeManifest(TableState table, List<ColumnSegment> segments, long flushedLogId)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MANIFEST_MAGIC);
+        out.writeUTF(table.name);
+        out.writeInt(table.columns.size());
+        for (String column : table.columns) {
+            out.writeUTF(column);
+        }
+        out.writeLong(table.nextSegmentId);
+        out.writeLong(flushedLogId);
+        out.writeInt(segments.size());
+        for (ColumnSegment segment : segments) {
+            out.writeUTF(segment.path.getFileName().toString());
+        }
+        out.writeInt(table.indexes.size());
+        for (Map.Entry<String, List<String>> index : table.indexes.entrySet()) {
+            out.writeUTF(index.getKey());
+            writeStrings(out, index.getValue());
+        }
+        out.flush();
+
+        Path temp = table.dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, table.dir.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a table's live segments and removes files a crash left behind
+     */
+    private static TableState loadTable(Path dir) throws IOException {
+        TableState table;
+        Set<Path> live = new HashSet<>();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(dir.resolve(MANIFEST)))) {
+            if (in.readInt() != MANIFEST_MAGIC) {
+                throw new IOException("Invalid manifest in " + dir);
+            }
+            String name = in.readUTF();
+            List<String> columns = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                columns.add(in.readUTF());
+            }
+            long nextSegmentId = in.readLong();
+            long flushedLogId = in.readLong();
+            List<ColumnSegment> segments = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                Path path = dir.resolve(in.readUTF());
+                segments.add(ColumnSegment.open(path));
+                live.add(path);
+            }
+            // Manifests written before indexes existed end here
+            Map<String, List<String>> indexes = new LinkedHashMap<>();
+            for (int i = in.available() > 0 ? in.readInt() : 0; i > 0; i--) {
+                indexes.put(in.readUTF(), List.copyOf(readStrings(in)));
+            }
+            table = new TableState(name, dir, List.copyOf(columns), List.copyOf(segments), nextSegmentId,
+                    flushedLogId, Collections.unmodifiableMap(indexes));
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (!live.contains(file) && (fileName.endsWith(SEGMENT_SUFFIX) || fileName.endsWith(".tmp"))) {
+                    Files.delete(file);
+                }
+            }
+        }
+        for (ColumnSegment segment : table.version.segments) {
+            ColumnVector keys = segment.readColumn(0, false);
+            for (int row = 0; row < segment.rowCount; row++) {
+                table.keys.add(keys.value(row));
+            }
+        }
+        return table;
+    }
+
+    private static void deleteFiles(List<ColumnSegment> segments) {
+        for (ColumnSegment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                AppLogger.warn("Could not delete replaced segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, List<Row> rows) throws IOException {
+        out.writeInt(rows.size());
+        for (Row row : rows) {
+            writeStrings(out, row.getValues());
+        }
+    }
+
+    private static List<Row> readRows(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new Row(readStrings(in)));
+        }
+        return rows;
+    }
+
+    /**
+     * Writes a count and the values, each as a byte length and UTF-8 bytes or -1 for null
+     */
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            if (value == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                values.add(null);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static long estimateBytes(Row row) {
+        long bytes = 64;
+        for (String value : row.getValues()) {
+            bytes += 16 + (value != null ? value.length() * 2L : 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the key as a long if it is an integer in canonical form (no
+     * leading zeros or "-0"), so that equal numbers are equal keys, else null
+     */
+    private static Long parseInteger(String key) {
+        int start = key.startsWith("-") ? 1 : 0;
+        int digits = key.length() - start;
+        if (digits == 0 || digits > 18 || key.charAt(start) == '0' && (digits > 1 || start == 1)) {
+            return null;
+        }
+        for (int i = start; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        return Long.parseLong(key);
+    }
+
+    private TableState requireTable(String tableName) throws SQLException {
+        TableState table = tables.get(tableName.toLowerCase());
+        if (table == null) {
+            throw new SQLException("Table " + tableName + " does not exist", UNDEFINED_TABLE_SQL_STATE);
+        }
+        return table;
+    }
+
+    private static int requireColumn(TableState table, String column) throws SQLException {
+        int index = ColumnarTable.indexOf(table.columns, column);
+        if (index < 0) {
+            throw new SQLException("Column " + column + " of " + table.name + " does not exist",
+                    UNDEFINED_COLUMN_SQL_STATE);
+        }
+        return index;
+    }
+
+    private static String requireIdentifier(String identifier) {
+        if (identifier == null || !identifier.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid SQL identifier: " + identifier);
+        }
+        return identifier;
+    }
+
+    /**
+     * Parses a SET value: a quoted string, a number or NULL
+     */
+    private static String parseLiteral(String text) throws SQLException {
+        String value = text.trim();
+        if (value.equalsIgnoreCase("NULL")) {
+            return null;
+        }
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        if (value.matches("-?\\d+(\\.\\d+)?")) {
+            return value;
+        }
+        throw new SQLException("Only literal SET values are supported: " + value, UNSUPPORTED_SQL_STATE);
+    }
+
+    /**
+     * Matches the coordinator's range semantics: numeric bounds compare
+     * numerically, string bounds compare case-insensitively against the key
+     * prefix of the bound's length
+     */
+    static boolean inRange(String key, String rangeStart, String rangeEnd) {
+        if (key == null) {
+            return false;
+        }
+        if (isNumericRange(rangeStart, rangeEnd)) {
+            long value;
+            try {
+                value = Long.parseLong(key);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return value >= Long.parseLong(rangeStart) && value <= Long.parseLong(rangeEnd);
+        }
+        String upper = key.toUpperCase();
+        return upper.substring(0, Math.min(upper.length(), rangeStart.length())).compareTo(rangeStart.toUpperCase()) >= 0
+                && upper.substring(0, Math.min(upper.length(), rangeEnd.length())).compareTo(rangeEnd.toUpperCase()) <= 0;
+    }
+
+    private static boolean isNumericRange(String rangeStart, String rangeEnd) {
+        return rangeStart.matches("-?\\d+") && rangeEnd.matches("-?\\d+");
+    }
+}
@@ -0,0 +1,191 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Rows held as one {@link ColumnVector} per column. Vectors of columns a
+ * scan does not need may be null.
+ */
+final class ColumnarTable {
+
+    final List<String> columns;
+    final ColumnVector[] vectors;
+    final int rowCount;
+    final long loadedAtMs;
+    final long bytes;
+
+    ColumnarTable(List<String> columns, ColumnVector[] vectors, int rowCount) {
+        this.columns = columns;
+        this.vectors = vectors;
+        this.rowCount = rowCount;
+        this.loadedAtMs = System.currentTimeMillis();
+        long size = 64;
+        for (ColumnVector vector : vectors) {
+            size += vector != null ? vector.estimateBytes() : 0;
+        }
+        this.bytes = size;
+    }
+
+    static ColumnarTable encode(ResultSet resultSet) {
+        List<String> columns = List.copyOf(resultSet.getColumns());
+        ColumnVector[] vectors = new ColumnVector[columns.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = ColumnVector.encode(resultSet.getRows(), i);
+        }
+        return new ColumnarTable(columns, vectors, resultSet.getRows().size());
+    }
+
+    int indexOf(String column) {
+        return indexOf(columns, column);
+    }
+
+    static int indexOf(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a SELECT list to column indexes, or returns null if a column is unknown
+     */
+    static List<Integer> resolve(List<String> columns, List<String> selectColumns) {
+        List<Integer> projection = new ArrayList<>();
+        for (String column : selectColumns) {
+            if (column.equals("*")) {
+                for (int i = 0; i < columns.size(); i++) {
+                    projection.add(i);
+                }
+                continue;
+            }
+            int index = indexOf(columns, column);
+            if (index < 0) {
+                return null;
+            }
+            projection.add(index);
+        }
+        return projection;
+    }
+
+    /**
+     * Compiles the conditions against this table's dictionaries, or returns
+     * null if one of them cannot be evaluated exactly
+     */
+    List<ColumnPredicate> compile(List<Condition> conditions) {
+        List<ColumnPredicate> predicates = new ArrayList<>();
+        for (Condition condition : conditions) {
+            int column = indexOf(condition.getColumn());
+            ColumnPredicate predicate = column < 0 ? null
+                    : ColumnPredicate.compile(column, vectors[column], condition);
+            if (predicate == null) {
+                return null;
+            }
+            predicates.add(predicate);
+        }
+        return predicates;
+    }
+
+    /**
+     * Adds the projected values of the rows matching every predicate to out,
+     * or only counts them if out is null
+     */
+    void scan(List<Integer> projection, List<ColumnPredicate> predicates, ScanStats stats, List<Row> out) {
+        scan(projection, predicates, stats, out, null);
+    }
+
+    /**
+     * Like {@link #scan(List, List, ScanStats, List)}, also skipping rows the
+     * filter rejects (null = none)
+     */
+    void scan(List<Integer> projection, List<ColumnPredicate> predicates, ScanStats stats, List<Row> out,
+            IntPredicate include) {
+        scan(projection, predicates, stats, out, include, null);
+    }
+
+    /**
+     * Like {@link #scan(List, List, ScanStats, List, IntPredicate)}, reading
+     * only the given blocks (null = all)
+     */
+    void scan(List<Integer> projection, List<ColumnPredicate> predicates, ScanStats stats, List<Row> out,
+            IntPredicate include, BitSet blocks) {
+        forEachMatch(predicates, stats, blocks, row -> {
+            if (include != null && !include.test(row)) {
+                return;
+            }
+            stats.rowsMatched++;
+            if (out != null) {
+                List<String> values = new ArrayList<>(projection.size());
+                for (int index : projection) {
+                    values.add(vectors[index].value(row));
+                }
+                out.add(new Row(values));
+            }
+        });
+    }
+
+    /**
+     * Calls the action with the index of each row matching every predicate,
+     * skipping blocks by zone map
+     */
+    void forEachMatch(List<ColumnPredicate> predicates, ScanStats stats, IntConsumer action) {
+        forEachMatch(predicates, stats, null, action);
+    }
+
+    /**
+     * Like {@link #forEachMatch(List, ScanStats, IntConsumer)}, also skipping
+     * blocks not in the given set (null = none skipped)
+     */
+    void forEachMatch(List<ColumnPredicate> predicates, ScanStats stats, BitSet blocks, IntConsumer action) {
+        int blockCount = (rowCount + ColumnVector.BLOCK_ROWS - 1) / ColumnVector.BLOCK_ROWS;
+        for (int block = 0; block < blockCount; block++) {
+            if (blocks != null && !blocks.get(block) || !mayMatch(predicates, block)) {
+                stats.blocksSkipped++;
+                continue;
+            }
+            stats.blocksScanned++;
+            int end = Math.min(rowCount, (block + 1) * ColumnVector.BLOCK_ROWS);
+            for (int row = block * ColumnVector.BLOCK_ROWS; row < end; row++) {
+                if (matches(predicates, row)) {
+                    action.accept(row);
+                }
+            }
+        }
+    }
+
+    private boolean mayMatch(List<ColumnPredicate> predicates, int block) {
+        for (ColumnPredicate predicate : predicates) {
+            if (!predicate.mayMatch(vectors[predicate.column], block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(List<ColumnPredicate> predicates, int row) {
+        for (ColumnPredicate predicate : predicates) {
+            if (!predicate.matches(vectors[predicate.column], row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counters of one scan, summed across the tables or segments it reads
+     */
+    static final class ScanStats {
+        long rowsMatched;
+        long blocksScanned;
+        long blocksSkipped;
+    }
+}
@@ -0,0 +1,173 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.utils.AppLogger;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Worker-local, memory-bounded columnar cache of whole tables. A table is
+ * loaded on the first cacheable scan and encoded column by column into
+ * dictionary-encoded, bit-packed {@link ColumnVector}s with per-block
+ * min/max zone maps. Predicates are evaluated once per dictionary entry,
+ * zone maps skip blocks that cannot match, and only the remaining codes
+ * are checked. Entries expire after a TTL and are dropped as soon as the
+ * DataStore reports a write to their table; the least recently used tables
+ * are evicted to stay under the byte budget.
+ *
+ * Only {@link ScanQuery} scans are served; everything else returns null so
+ * the caller falls back to the storage engine.
+ */
+class ColumnarTableCache {
+
+    private final long maxBytes;
+    private final long ttlMs;
+
+    // Access-ordered, so iteration starts at the least recently used table
+    private final LinkedHashMap<String, ColumnarTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> generations = new HashMap<>();
+    private long epoch;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long blocksScanned;
+    private long blocksSkipped;
+
+    ColumnarTableCache(long maxBytes, long ttlMs) {
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Answers a scan from the cache, loading the table with the loader on a
+     * miss. Returns null if the query is not a scan the cache can answer.
+     */
+    ResultSet execute(String sqlQuery, Function<String, ResultSet> loader) {
+        return execute(sqlQuery, Map.of(), loader);
+    }
+
+    /**
+     * Like {@link #execute(String, Function)}, reading only the rows the
+     * table's shard filter (by lower-cased name, none = every row) contains
+     */
+    ResultSet execute(String sqlQuery, Map<String, ShardFilter> shardFilters, Function<String, ResultSet> loader) {
+        ScanQuery scan = ScanQuery.parse(sqlQuery);
+        if (scan == null) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        ColumnarTable cached = get(scan.table, loader);
+        if (cached == null) {
+            return null;
+        }
+
+        List<Integer> projection = ColumnarTable.resolve(cached.columns, scan.columns);
+        List<ColumnPredicate> predicates = cached.compile(scan.conditions);
+        ShardFilter filter = shardFilters.get(scan.table.toLowerCase());
+        int keyColumn = filter != null ? cached.indexOf(filter.keyColumn) : -1;
+        if (projection == null || predicates == null || filter != null && keyColumn < 0) {
+            return null;
+        }
+
+        List<Row> rows = scan.count ? null : new ArrayList<>();
+        ColumnarTable.ScanStats stats = new ColumnarTable.ScanStats();
+        cached.scan(projection, predicates, stats, rows,
+                filter != null ? row -> filter.contains(cached.vectors[keyColumn].value(row)) : null);
+        synchronized (this) {
+            blocksScanned += stats.blocksScanned;
+            blocksSkipped += stats.blocksSkipped;
+        }
+
+        List<String> projectedColumns = new ArrayList<>();
+        for (int index : projection) {
+            projectedColumns.add(cached.columns.get(index));
+        }
+        ResultSet resultSet = scan.toResultSet(projectedColumns, rows, stats.rowsMatched);
+        resultSet.setExecutionTimeMs(System.currentTimeMillis() - start);
+        return resultSet;
+    }
+
+    /**
+     * Drops a table after a write to it, or every table if the name is null
+     */
+    synchronized void invalidate(String table) {
+        if (table == null) {
+            epoch++;
+            tables.clear();
+            bytes = 0;
+            return;
+        }
+        String key = table.toLowerCase();
+        generations.merge(key, 1L, Long::sum);
+        ColumnarTable removed = tables.remove(key);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    synchronized long getBlocksScanned() {
+        return blocksScanned;
+    }
+
+    private ColumnarTable get(String table, Function<String, ResultSet> loader) {
+        String key = table.toLowerCase();
+        long generation;
+        long loadEpoch;
+        synchronized (this) {
+            ColumnarTable cached = tables.get(key);
+            if (cached != null && (ttlMs <= 0 || System.currentTimeMillis() - cached.loadedAtMs < ttlMs)) {
+                hits++;
+                return cached;
+            }
+            if (cached != null) {
+                tables.remove(key);
+                bytes -= cached.bytes;
+            }
+            misses++;
+            generation = generations.getOrDefault(key, 0L);
+            loadEpoch = epoch;
+        }
+
+        ResultSet loaded = loader.apply(table);
+        if (loaded == null || !"COMPLETED".equals(loaded.getStatus())) {
+            return null;
+        }
+        ColumnarTable cached = ColumnarTable.encode(loaded);
+
+        synchronized (this) {
+            // A write that landed while loading makes the snapshot stale, so serve it once but do not keep it
+            if (epoch != loadEpoch || generations.getOrDefault(key, 0L) != generation || cached.bytes > maxBytes) {
+                return cached;
+            }
+            ColumnarTable previous = tables.put(key, cached);
+            bytes += cached.bytes - (previous != null ? previous.bytes : 0);
+            Iterator<Map.Entry<String, ColumnarTable>> eldest = tables.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, ColumnarTable> entry = eldest.next();
+                if (entry.getValue() != cached) {
+                    bytes -= entry.getValue().bytes;
+                    eldest.remove();
+                    AppLogger.debug("Evicted table {} from the columnar cache", entry.getKey());
+                }
+            }
+        }
+        AppLogger.info("Cached table {} as {} rows in {} bytes", table, cached.rowCount, cached.bytes);
+        return cached;
+    }
+}
@@ -1,104 +1,95 @@
 package com.distributed.sql.worker;
 
 import com.distributed.sql.common.models.*;
-import com.distributed.sql.common.utils.AppLogger;
-import com.distributed.sql.common.utils.Tracer;
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+import com.distributed.sql.common.utils.SQLParser;
 
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
- * DataStore implementation with PostgreSQL integration and connection pooling
+ * A worker's data access, delegating storage to a pluggable
+ * {@link StorageEngine}: PostgreSQL by default, or the embedded
+ * {@link ColumnarStorageEngine}. Writes that commit are reported to change
+ * listeners whatever the engine.
  */
 public class DataStore {
 
-    private final HikariDataSource dataSource;
+    private final StorageEngine engine;
     private final String workerId;
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+    // Table written by each prepared transaction, reported once it commits
+    private final Map<String, String> preparedTables = new ConcurrentHashMap<>();
 
     public DataStore(String workerId, String databaseUrl, String username, String password) {
+        this(workerId, new PostgresStorageEngine(workerId, databaseUrl, username, password));
+    }
+
+    public DataStore(String workerId, StorageEngine engine) {
         this.workerId = workerId;
+        this.engine = engine;
+    }
 
-        // Configure HikariCP connection pool
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(databaseUrl);
-        config.setUsername(username);
-        config.setPassword(password);
-        config.setMaximumPoolSize(10);
-        config.setMinimumIdle(2);
-        config.setConnectionTimeout(30000);
-        config.setIdleTimeout(600000);
-        config.setMaxLifetime(1800000);
-        config.setLeakDetectionThreshold(60000);
+    public com.distributed.sql.common.models.ResultSet executeQuery(String sqlQuery) {
+        return executeQuery(sqlQuery, 0);
+    }
 
-        this.dataSource = new HikariDataSource(config);
+    /**
+     * Registers a listener called with the table name after a write to it
+     * commits, or with null if the table is not known
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
 
-        AppLogger.info("Initialized DataStore for worker {} with database: {}", workerId, databaseUrl);
+    private void notifyChanged(String tableName) {
+        for (Consumer<String> listener : changeListeners) {
+            listener.accept(tableName);
+        }
     }
 
-    public java.sql.ResultSet executeQuery(String sqlQuery) {
-        String traceId = Tracer.startTrace("execute_query");
+    /**
+     * Executes a query that must finish before the given deadline (epoch millis,
+     * 0 = none). Work whose deadline has already passed is rejected up front.
+     */
+    public com.distributed.sql.common.models.ResultSet executeQuery(String sqlQuery, long deadlineMs) {
+        return executeQuery(sqlQuery, Map.of(), deadlineMs);
+    }
 
+    /**
+     * Executes a query like {@link #executeQuery(String, long)}, reading only
+     * the rows of each filtered table that its shard filter contains
+     */
+    public com.distributed.sql.common.models.ResultSet executeQuery(String sqlQuery,
+            Map<String, ShardFilter> shardFilters, long deadlineMs) {
         try {
-            AppLogger.info("Executing query on worker {}: {}", workerId, sqlQuery);
-
-            // For demo purposes, return mock data based on query content
-            return convertToResultSet(generateMockResults(sqlQuery));
-
-        } finally {
-            Tracer.endTrace("execute_query");
+            return engine.executeQuery(sqlQuery, shardFilters, deadlineMs);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Query failed: " + e.getMessage(), e);
         }
     }
 
-    private com.distributed.sql.common.models.ResultSet generateMockResults(String sqlQuery) {
-        com.distributed.sql.common.models.ResultSet resultSet = new com.distributed.sql.common.models.ResultSet();
-        resultSet.setQueryId("query_" + System.currentTimeMillis());
-        resultSet.setStatus("COMPLETED");
-        resultSet.setExecutionTimeMs(50 + (long) (Math.random() * 100)); // 50-150ms
-
-        String lowerQuery = sqlQuery.toLowerCase();
-
-        if (lowerQuery.contains("users")) {
-            if (lowerQuery.contains("count")) {
-                resultSet.setColumns(Arrays.asList("count"));
-                resultSet.addRow(new Row(Arrays.asList("26")));
-                resultSet.setTotalRows(1);
-            } else if (lowerQuery.contains("where") && lowerQuery.contains("age")) {
-                resultSet.setColumns(Arrays.asList("name", "age"));
-                resultSet.addRow(new Row(Arrays.asList("John Doe", "30")));
-                resultSet.addRow(new Row(Arrays.asList("Bob Johnson", "35")));
-                resultSet.addRow(new Row(Arrays.asList("Alice Smith", "32")));
-                resultSet.setTotalRows(3);
-            } else {
-                resultSet.setColumns(Arrays.asList("name", "age", "email", "location"));
-                resultSet.addRow(new Row(Arrays.asList("John Doe", "30", "john.doe@email.com", "New York")));
-                resultSet.addRow(new Row(Arrays.asList("Jane Smith", "25", "jane.smith@email.com", "California")));
-                resultSet.addRow(new Row(Arrays.asList("Bob Johnson", "35", "bob.johnson@email.com", "Texas")));
-                resultSet.setTotalRows(3);
-            }
-        } else if (lowerQuery.contains("orders")) {
-            resultSet.setColumns(Arrays.asList("order_id", "user_id", "product_name", "amount", "order_date"));
-            resultSet.addRow(new Row(Arrays.asList("ORD001", "1", "Laptop Pro", "1299.99", "2024-01-15")));
-            resultSet.addRow(new Row(Arrays.asList("ORD002", "2", "Wireless Mouse", "29.99", "2024-01-16")));
-            resultSet.addRow(new Row(Arrays.asList("ORD003", "3", "Mechanical Keyboard", "89.99", "2024-01-17")));
-            resultSet.setTotalRows(3);
-        } else if (lowerQuery.contains("products")) {
-            resultSet.setColumns(Arrays.asList("product_id", "name", "price", "category"));
-            resultSet.addRow(new Row(Arrays.asList("1", "Laptop Pro", "1299.99", "Electronics")));
-            resultSet.addRow(new Row(Arrays.asList("2", "Wireless Mouse", "29.99", "Electronics")));
-            resultSet.addRow(new Row(Arrays.asList("3", "Mechanical Keyboard", "89.99", "Electronics")));
-            resultSet.setTotalRows(3);
-        } else {
-            // Generic result
-            resultSet.setColumns(Arrays.asList("result"));
-            resultSet.addRow(new Row(Arrays.asList("Sample Result 1")));
-            resultSet.addRow(new Row(Arrays.asList("Sample Result 2")));
-            resultSet.addRow(new Row(Arrays.asList("Sample Result 3")));
-            resultSet.setTotalRows(3);
-        }
+    /**
+     * Hands the query's rows within the shard filters, or a sample of them
+     * (null = all), to the sink in batches as the engine reads them, in a
+     * random order if shuffled
+     */
+    public void streamQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, StorageEngine.RowSink sink) throws SQLException {
+        engine.streamQuery(sqlQuery, shardFilters, sample, shuffled, deadlineMs, sink);
+    }
 
-        return resultSet;
+    /**
+     * Returns the query's rows within the shard filters as column batches if
+     * the engine can send its stored bytes as they are, else null
+     */
+    public QueryResult scanColumnBatches(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs)
+            throws SQLException {
+        return engine.scanColumnBatches(sqlQuery, shardFilters, deadlineMs);
     }
 
     public List<ShardInfo> getShardInfo() {
@@ -106,14 +97,15 @@ public class DataStore {
 
         // Return shard information for this worker
         if (workerId.equals("worker1")) {
-            shards.add(new ShardInfo("users_shard_1", "worker1", "users", "A", "M", 1000));
+            shards.add(new ShardInfo("users_shard_1", "worker1", "users", "1", "5000", 1000));
             shards.add(new ShardInfo("orders_shard_1", "worker1", "orders", "1", "5000", 5000));
             shards.add(new ShardInfo("products_shard_1", "worker1", "products", "Electronics", "Electronics", 5));
         } else if (workerId.equals("worker2")) {
-            shards.add(new ShardInfo("users_shard_2", "worker2", "users", "N", "Z", 1200));
+            shards.add(new ShardInfo("users_shard_2", "worker2", "users", "5001", "10000", 1200));
             shards.add(new ShardInfo("orders_shard_2", "worker2", "orders", "5001", "10000", 5000));
             shards.add(new ShardInfo("products_shard_2", "worker2", "products", "Appliances", "Appliances", 3));
         } else if (workerId.equals("worker3")) {
+            shards.add(new ShardInfo("users_shard_3", "worker3", "users", "10001", "15000", 800));
             shards.add(new ShardInfo("orders_shard_3", "worker3", "orders", "10001", "15000", 5000));
             shards.add(new ShardInfo("products_shard_3", "worker3", "products", "Sports", "Accessories", 7));
         }
@@ -121,26 +113,107 @@ public class DataStore {
         return shards;
     }
 
-    public boolean healthCheck() {
-        try (Connection connection = dataSource.getConnection()) {
-            return connection.isValid(5);
-        } catch (SQLException e) {
-            AppLogger.error("Health check failed for worker {}", workerId, e);
-            return false;
+    /**
+     * Returns the time left before the deadline (epoch millis, 0 = none),
+     * failing if it has already passed
+     */
+    static long checkDeadline(long deadlineMs) {
+        if (deadlineMs <= 0) {
+            return Long.MAX_VALUE;
         }
+        long remainingMs = deadlineMs - System.currentTimeMillis();
+        if (remainingMs <= 0) {
+            throw new IllegalStateException("Query deadline exceeded");
+        }
+        return remainingMs;
     }
 
-    public void shutdown() {
-        if (dataSource != null) {
-            dataSource.close();
-            AppLogger.info("DataStore for worker {} shutdown", workerId);
+    public long countShardRows(ShardFilter shard) throws SQLException {
+        return engine.countShardRows(shard);
+    }
+
+    public com.distributed.sql.common.models.ResultSet readShardRows(ShardFilter shard, String afterKey,
+            int batchSize) throws SQLException {
+        return engine.readShardRows(shard, afterKey, batchSize);
+    }
+
+    public int writeRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        int written = engine.writeRows(tableName, columns, rows);
+        notifyChanged(tableName);
+        return written;
+    }
+
+    /**
+     * Runs a write and returns the affected rows in the count filter of the
+     * written table, or all of them if it has none
+     */
+    public long executeWrite(String transactionId, boolean onePhase, String sqlStatement, String tableName,
+            List<String> columns, List<Row> rows, Map<String, ShardFilter> countFilters, long deadlineMs)
+            throws SQLException {
+        String writtenTable = writtenTable(sqlStatement, tableName);
+        ShardFilter countFilter = writtenTable != null ? countFilters.get(writtenTable.toLowerCase()) : null;
+        long affected = engine.executeWrite(transactionId, onePhase, sqlStatement, tableName, columns, rows,
+                countFilter, deadlineMs);
+        if (onePhase) {
+            notifyChanged(writtenTable);
+        } else if (writtenTable != null) {
+            preparedTables.put(transactionId, writtenTable);
         }
+        return affected;
     }
 
-    private java.sql.ResultSet convertToResultSet(com.distributed.sql.common.models.ResultSet resultSet) {
-        // For demo purposes, return null as we're not actually executing SQL
-        // In a real implementation, this would convert our ResultSet to
-        // java.sql.ResultSet
-        return null;
+    public boolean finishTransaction(String transactionId, boolean commit) throws SQLException {
+        boolean found = engine.finishTransaction(transactionId, commit);
+        String tableName = preparedTables.remove(transactionId);
+        if (found && commit) {
+            notifyChanged(tableName);
+        }
+        return found;
+    }
+
+    public List<String> listPreparedTransactions(String prefix) throws SQLException {
+        return engine.listPreparedTransactions(prefix);
+    }
+
+    public long copyRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        long copied = engine.copyRows(tableName, columns, rows);
+        notifyChanged(tableName);
+        return copied;
+    }
+
+    public int deleteShardRows(ShardFilter shard) throws SQLException {
+        int deleted = engine.deleteShardRows(shard);
+        notifyChanged(shard.table);
+        return deleted;
+    }
+
+    public void createIndex(String tableName, String indexName, List<String> columns) throws SQLException {
+        engine.createIndex(tableName, indexName, columns);
+    }
+
+    public void createTable(String tableName, List<String> columns) throws SQLException {
+        engine.createTable(tableName, columns);
+    }
+
+    /**
+     * Returns the table a write goes to, or null if its statement cannot be parsed
+     */
+    private static String writtenTable(String sqlStatement, String tableName) {
+        if (sqlStatement == null || sqlStatement.isEmpty()) {
+            return tableName;
+        }
+        try {
+            return new SQLParser().parse(sqlStatement).getFromTables().get(0);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public boolean healthCheck() {
+        return engine.healthCheck();
+    }
+
+    public void shutdown() {
+        engine.shutdown();
     }
 }
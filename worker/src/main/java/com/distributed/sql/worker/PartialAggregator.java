@@ -0,0 +1,100 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.AggregateGroup;
+import com.distributed.sql.common.proto.QueryProto.Aggregation;
+import com.distributed.sql.common.utils.AggregateState;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds the rows of a scan into the partial states of the aggregation the
+ * coordinator asked for, one set per group, so the worker sends a state per
+ * group rather than its rows. Memory grows with the number of groups, not
+ * rows.
+ */
+class PartialAggregator {
+
+    private final Aggregation aggregation;
+    private final int[] groupIndexes;
+    private final int[] aggregateIndexes;
+    private final Map<List<String>, GroupState> groups = new LinkedHashMap<>();
+
+    /**
+     * Throws IllegalArgumentException if the scan lacks a column the aggregation needs
+     */
+    PartialAggregator(Aggregation aggregation, List<String> columns) {
+        this.aggregation = aggregation;
+        this.groupIndexes = new int[aggregation.getGroupByCount()];
+        for (int i = 0; i < groupIndexes.length; i++) {
+            groupIndexes[i] = indexOf(columns, aggregation.getGroupBy(i));
+        }
+        this.aggregateIndexes = new int[aggregation.getAggregatesCount()];
+        for (int i = 0; i < aggregateIndexes.length; i++) {
+            aggregateIndexes[i] = indexOf(columns, aggregation.getAggregates(i).getColumn());
+        }
+    }
+
+    void add(Row row) {
+        List<String> values = row.getValues();
+        List<String> key = new ArrayList<>(groupIndexes.length);
+        for (int index : groupIndexes) {
+            key.add(values.get(index));
+        }
+        GroupState group = groups.computeIfAbsent(key, k -> new GroupState());
+        group.rows++;
+        for (int i = 0; i < aggregateIndexes.length; i++) {
+            String value = values.get(aggregateIndexes[i]);
+            if (value != null) {
+                group.states[i].add(value);
+            }
+        }
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    List<AggregateGroup> toGroups() {
+        List<AggregateGroup> result = new ArrayList<>(groups.size());
+        for (Map.Entry<List<String>, GroupState> entry : groups.entrySet()) {
+            AggregateGroup.Builder group = AggregateGroup.newBuilder().setRowCount(entry.getValue().rows);
+            for (int i = 0; i < entry.getKey().size(); i++) {
+                String key = entry.getKey().get(i);
+                if (key == null) {
+                    group.addNullKeys(i);
+                }
+                group.addKeys(key != null ? key : "");
+            }
+            for (AggregateState state : entry.getValue().states) {
+                group.addStates(ByteString.copyFrom(state.toByteArray()));
+            }
+            result.add(group.build());
+        }
+        return result;
+    }
+
+    private static int indexOf(List<String> columns, String column) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " is not in the scan " + columns);
+    }
+
+    private class GroupState {
+        long rows;
+        final AggregateState[] states = new AggregateState[aggregation.getAggregatesCount()];
+
+        GroupState() {
+            for (int i = 0; i < states.length; i++) {
+                states[i] = AggregateState.create(aggregation.getAggregates(i));
+            }
+        }
+    }
+}
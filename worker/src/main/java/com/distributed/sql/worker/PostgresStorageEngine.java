@@ -0,0 +1,791 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.*;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.SQLParser;
+import com.distributed.sql.common.utils.Tracer;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.grpc.Context;
+import org.postgresql.PGConnection;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Storage engine backed by PostgreSQL with connection pooling
+ */
+public class PostgresStorageEngine implements StorageEngine {
+
+    // SQLSTATE for COMMIT/ROLLBACK PREPARED of an unknown transaction id
+    private static final String UNDEFINED_OBJECT_SQL_STATE = "42704";
+    // Rows a streamed query fetches from its cursor at a time
+    static final int FETCH_ROWS = 1024;
+    // Column a shuffled query's rows carry its row count in
+    private static final String ROWS_TOTAL_COLUMN = "dsql_rows_total";
+    // Hashing.hash64 in SQL, so hash-sharded tables are filtered by ring position inside PostgreSQL
+    static final String RING_HASH_FUNCTION = "dsql_ring_hash";
+    private static final List<String> RING_HASH_DDL = List.of(
+            // Multiplies modulo 2^64 like Java's long arithmetic; bigint would raise an overflow error
+            "CREATE OR REPLACE FUNCTION dsql_mul64(a bigint, b bigint) RETURNS bigint AS $$"
+                    + " SELECT (CASE WHEN p >= 9223372036854775808 THEN p - 18446744073709551616 ELSE p END)::bigint"
+                    + " FROM (SELECT mod((CASE WHEN a < 0 THEN a + 18446744073709551616 ELSE a END)::numeric"
+                    + " * (CASE WHEN b < 0 THEN b + 18446744073709551616 ELSE b END)::numeric,"
+                    + " 18446744073709551616) AS p) product"
+                    + " $$ LANGUAGE SQL IMMUTABLE STRICT PARALLEL SAFE",
+            "CREATE OR REPLACE FUNCTION " + RING_HASH_FUNCTION + "(key text) RETURNS bigint AS $$"
+                    + " DECLARE bytes bytea := convert_to(key, 'UTF8'); h bigint := -3750763034362895579;"
+                    + " BEGIN"
+                    + " FOR i IN 0 .. length(bytes) - 1 LOOP"
+                    + " h := dsql_mul64(h # get_byte(bytes, i), 1099511628211);"
+                    + " END LOOP;"
+                    + " h := h # (h::bit(64) >> 33)::bigint;"
+                    + " h := dsql_mul64(h, -49064778989728563);"
+                    + " h := h # (h::bit(64) >> 33)::bigint;"
+                    + " h := dsql_mul64(h, -4265267296055464877);"
+                    + " RETURN h # (h::bit(64) >> 33)::bigint;"
+                    + " END"
+                    + " $$ LANGUAGE plpgsql IMMUTABLE STRICT PARALLEL SAFE");
+
+    // WITH, optionally RECURSIVE, at the start of a query
+    private static final Pattern LEADING_WITH = Pattern.compile("WITH\\s+(RECURSIVE\\s+)?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final HikariDataSource dataSource;
+    private final String workerId;
+    // Schema the tables are created in; CTEs read the table through it, since under WITH RECURSIVE the
+    // unqualified name would refer to the CTE itself
+    private final String schema;
+    // Tables whose ring hash index was built or is being built, as table.column
+    private final Set<String> ringHashIndexes = ConcurrentHashMap.newKeySet();
+    private final ExecutorService indexBuilder = Executors.newSingleThreadExecutor();
+
+    public PostgresStorageEngine(String workerId, String databaseUrl, String username, String password) {
+        this.workerId = workerId;
+
+        // Configure HikariCP connection pool
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(databaseUrl);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(10);
+        config.setMinimumIdle(2);
+        config.setConnectionTimeout(30000);
+        config.setIdleTimeout(600000);
+        config.setMaxLifetime(1800000);
+        config.setLeakDetectionThreshold(60000);
+        // Let PostgreSQL infer parameter types so string values bind to any column type
+        config.addDataSourceProperty("stringtype", "unspecified");
+        // Send batched inserts as multi-row INSERT statements
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        this.dataSource = new HikariDataSource(config);
+        this.schema = prepareDatabase();
+
+        AppLogger.info("Initialized PostgreSQL storage for worker {} with database: {}", workerId, databaseUrl);
+    }
+
+    /**
+     * Runs the query under a JDBC timeout derived from the deadline, and cancels
+     * it on PostgreSQL if the caller's gRPC call is cancelled first. Tables with
+     * a shard filter are read only within it. Null column values stay null in
+     * the returned rows.
+     */
+    @Override
+    public com.distributed.sql.common.models.ResultSet executeQuery(String sqlQuery,
+            Map<String, ShardFilter> shardFilters, long deadlineMs) throws SQLException {
+        long start = System.currentTimeMillis();
+        com.distributed.sql.common.models.ResultSet resultSet = new com.distributed.sql.common.models.ResultSet();
+        streamQuery(sqlQuery, shardFilters, null, false, deadlineMs, new RowSink() {
+            @Override
+            public void columns(List<String> columns) {
+                resultSet.setColumns(new ArrayList<>(columns));
+            }
+
+            @Override
+            public boolean rows(List<Row> rows, double fractionRead) {
+                resultSet.getRows().addAll(rows);
+                return true;
+            }
+        });
+        resultSet.setTotalRows(resultSet.getRows().size());
+        resultSet.setStatus("COMPLETED");
+        resultSet.setExecutionTimeMs(System.currentTimeMillis() - start);
+        return resultSet;
+    }
+
+    /**
+     * Runs the query as {@link #executeQuery(String, Map, long)} does, but
+     * fetches its result through a cursor FETCH_ROWS rows at a time, handing
+     * each batch to the sink before the next is fetched. A sample is taken by
+     * PostgreSQL's own TABLESAMPLE on the table, so unsampled rows are never
+     * read. Shuffled, PostgreSQL orders the rows by random() and counts them
+     * for the fraction each batch reports.
+     */
+    @Override
+    public void streamQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, RowSink sink) throws SQLException {
+        String traceId = Tracer.startTrace("execute_query");
+
+        try (Connection connection = dataSource.getConnection()) {
+            List<Object> parameters = new ArrayList<>();
+            String sql = withShardFilters(sqlQuery, schema, shardFilters, sample, parameters);
+            if (shuffled) {
+                sql = inRandomOrder(sql);
+            }
+            for (ShardFilter filter : shardFilters.values()) {
+                if (filter.isHash()) {
+                    buildRingHashIndex(filter.table, filter.keyColumn);
+                }
+            }
+            AppLogger.info("Executing query on worker {}: {}", workerId, sql);
+
+            // The driver only fetches a result in batches inside a transaction
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement statement = withQueryTimeout(connection.prepareStatement(sql), deadlineMs)) {
+                    statement.setFetchSize(FETCH_ROWS);
+                    bind(statement, parameters);
+                    Context.CancellationListener cancelStatement = context -> {
+                        try {
+                            statement.cancel();
+                        } catch (SQLException e) {
+                            AppLogger.warn("Failed to cancel query on worker {}: {}", workerId, e.getMessage());
+                        }
+                    };
+                    Context.current().addListener(cancelStatement, Runnable::run);
+                    try (java.sql.ResultSet rs = statement.executeQuery()) {
+                        fetch(rs, shuffled, sink);
+                    } finally {
+                        Context.current().removeListener(cancelStatement);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            Tracer.endTrace("execute_query");
+        }
+    }
+
+    /**
+     * Returns the query with its rows in a random order, each carrying the
+     * count of all of them in a last column
+     */
+    static String inRandomOrder(String sqlQuery) {
+        return "SELECT *, COUNT(*) OVER () AS " + ROWS_TOTAL_COLUMN + " FROM ("
+                + sqlQuery.trim().replaceAll(";\\s*$", "") + ") AS shuffled ORDER BY random()";
+    }
+
+    /**
+     * Hands a result's columns and then its rows, FETCH_ROWS at a time, to the
+     * sink, until it has them all or stops. A shuffled result's last column
+     * is its row count, which is left out of the rows.
+     */
+    private static void fetch(java.sql.ResultSet rs, boolean shuffled, RowSink sink) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        List<String> columns = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount() - (shuffled ? 1 : 0); i++) {
+            columns.add(metaData.getColumnLabel(i));
+        }
+        sink.columns(columns);
+
+        List<Row> batch = new ArrayList<>();
+        long rowsRead = 0;
+        long rowsTotal = 0;
+        while (rs.next()) {
+            batch.add(toRow(rs, columns.size()));
+            rowsRead++;
+            if (batch.size() == FETCH_ROWS) {
+                if (shuffled && rowsTotal == 0) {
+                    rowsTotal = rs.getLong(columns.size() + 1);
+                }
+                if (!sink.rows(batch, rowsTotal > 0 ? (double) rowsRead / rowsTotal : 0)) {
+                    return;
+                }
+                batch = new ArrayList<>();
+            }
+        }
+        sink.rows(batch, 1);
+    }
+
+    /**
+     * Restricts the query to the rows in the shard filters by putting a CTE
+     * named after each filtered table in front of it, so the query reads the
+     * table's rows in the requested shards wherever it names the table.
+     * Hash-sharded tables are filtered on the ring hash of the key, which
+     * PostgreSQL computes itself. With a sample (null = none) the query's
+     * tables get a CTE either way, reading the table with TABLESAMPLE, which
+     * a CTE reference could not take. Adds the values to bind, in order, to
+     * parameters.
+     */
+    static String withShardFilters(String sqlQuery, String schema, Map<String, ShardFilter> shardFilters,
+            TableSample sample, List<Object> parameters) {
+        // Each table to read through a CTE, with its shard filter or null
+        Map<String, ShardFilter> tables = new LinkedHashMap<>();
+        for (ShardFilter filter : shardFilters.values()) {
+            tables.put(filter.table.toLowerCase(), filter);
+        }
+        if (sample != null) {
+            for (String table : new SQLParser().parse(sqlQuery).getFromTables()) {
+                tables.putIfAbsent(table.toLowerCase(), null);
+            }
+        }
+        if (tables.isEmpty()) {
+            return sqlQuery;
+        }
+
+        StringJoiner ctes = new StringJoiner(", ");
+        for (Map.Entry<String, ShardFilter> entry : tables.entrySet()) {
+            ShardFilter filter = entry.getValue();
+            String table = requireIdentifier(filter != null ? filter.table : entry.getKey());
+            StringBuilder cte = new StringBuilder(table).append(" AS (SELECT * FROM ")
+                    .append(requireIdentifier(schema)).append('.').append(table);
+            if (sample != null) {
+                cte.append(" TABLESAMPLE ").append(sample.getMethod().name()).append(" (")
+                        .append(BigDecimal.valueOf(sample.getFraction() * 100).toPlainString()).append(')');
+            }
+            if (filter != null) {
+                cte.append(" WHERE ").append(shardPredicate(filter, parameters));
+            }
+            ctes.add(cte.append(')'));
+        }
+
+        // The query's own CTEs follow ours in the same WITH, which keeps a RECURSIVE marker in front
+        String query = sqlQuery.trim();
+        Matcher with = LEADING_WITH.matcher(query);
+        if (with.lookingAt()) {
+            return "WITH " + (with.group(1) != null ? "RECURSIVE " : "") + ctes + ", " + query.substring(with.end());
+        }
+        return "WITH " + ctes + " " + query;
+    }
+
+    /**
+     * Returns the condition selecting the filter's rows, adding the values it binds to parameters
+     */
+    private static String shardPredicate(ShardFilter filter, List<Object> parameters) {
+        String column = requireIdentifier(filter.keyColumn);
+        StringJoiner predicates = new StringJoiner(" OR ");
+        if (filter.isHash()) {
+            for (long[] range : filter.hashRanges()) {
+                predicates.add("(" + ringHash(column) + " BETWEEN ? AND ?)");
+                parameters.add(range[0]);
+                parameters.add(range[1]);
+            }
+        } else {
+            for (ShardRange shard : filter.shards) {
+                String rangeStart = shard.getKeyRangeStart();
+                String rangeEnd = shard.getKeyRangeEnd();
+                boolean numeric = isNumericRange(rangeStart, rangeEnd);
+                predicates.add("(" + rangePredicate(column, rangeStart, rangeEnd) + ")");
+                parameters.add(numeric ? (Object) Long.parseLong(rangeStart) : rangeStart.toUpperCase());
+                parameters.add(numeric ? (Object) Long.parseLong(rangeEnd) : rangeEnd.toUpperCase());
+            }
+        }
+        return predicates.length() > 0 ? predicates.toString() : "FALSE";
+    }
+
+    private static String ringHash(String column) {
+        return RING_HASH_FUNCTION + "(CAST(" + column + " AS TEXT))";
+    }
+
+    /**
+     * Installs the ring hash function and returns the schema tables are
+     * created in, falling back to public if the database cannot be reached
+     */
+    private String prepareDatabase() {
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            for (String ddl : RING_HASH_DDL) {
+                statement.execute(ddl);
+            }
+            try (java.sql.ResultSet rs = statement.executeQuery("SELECT current_schema()")) {
+                return rs.next() && rs.getString(1) != null ? rs.getString(1) : "public";
+            }
+        } catch (SQLException e) {
+            AppLogger.warn("Could not prepare the database of worker {}: {}", workerId, e.getMessage());
+            return "public";
+        }
+    }
+
+    /**
+     * Builds an index on the ring hash of a hash-sharded table's key the
+     * first time the table is read by shard, in the background, so the
+     * shard filter's hash ranges become index range scans. Queries before
+     * it is ready filter the hash on the fly.
+     */
+    private void buildRingHashIndex(String tableName, String keyColumn) {
+        if (!ringHashIndexes.add(tableName.toLowerCase() + "." + keyColumn.toLowerCase())) {
+            return;
+        }
+        String indexName = requireIdentifier(tableName) + "_" + requireIdentifier(keyColumn) + "_ring_hash";
+        String sql = "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName + " ON " + tableName
+                + " (" + ringHash(keyColumn) + ")";
+        indexBuilder.execute(() -> {
+            try (Connection connection = dataSource.getConnection();
+                    Statement statement = connection.createStatement()) {
+                try {
+                    statement.execute(sql);
+                    AppLogger.info("Created ring hash index {} on worker {}", indexName, workerId);
+                } catch (SQLException e) {
+                    // A failed concurrent build leaves an invalid index behind; a restart tries again
+                    statement.execute("DROP INDEX IF EXISTS " + indexName);
+                    throw e;
+                }
+            } catch (SQLException e) {
+                AppLogger.warn("Could not build ring hash index {} on worker {}: {}",
+                        indexName, workerId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Creates a statement whose JDBC query timeout is derived from the deadline,
+     * so PostgreSQL cancels the statement server-side once the deadline passes.
+     */
+    public Statement createStatement(Connection connection, long deadlineMs) throws SQLException {
+        return withQueryTimeout(connection.createStatement(), deadlineMs);
+    }
+
+    private static <T extends Statement> T withQueryTimeout(T statement, long deadlineMs) throws SQLException {
+        int timeoutSeconds;
+        try {
+            timeoutSeconds = toQueryTimeoutSeconds(deadlineMs);
+        } catch (IllegalStateException e) {
+            statement.close();
+            throw e;
+        }
+        if (timeoutSeconds > 0) {
+            statement.setQueryTimeout(timeoutSeconds);
+        }
+        return statement;
+    }
+
+    /**
+     * Converts an absolute deadline to a JDBC query timeout, rounding up so a
+     * sub-second remainder still gets a timeout. Returns 0 when there is no deadline.
+     */
+    static int toQueryTimeoutSeconds(long deadlineMs) {
+        if (deadlineMs <= 0) {
+            return 0;
+        }
+        long remainingMs = DataStore.checkDeadline(deadlineMs);
+        return (int) Math.max(1, (remainingMs + 999) / 1000);
+    }
+
+    /**
+     * Counts the rows of the filter's shard
+     */
+    @Override
+    public long countShardRows(ShardFilter shard) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM " + requireIdentifier(shard.table)
+                + " WHERE " + shardPredicate(shard, parameters);
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            try (java.sql.ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Reads up to batchSize rows of the filter's shard in key order, starting
+     * after the given key (null or empty = start of range). The keys of a
+     * hash-sharded table are ordered as text, since the cursor cannot tell
+     * their type. Null column values stay null in the returned rows.
+     */
+    @Override
+    public com.distributed.sql.common.models.ResultSet readShardRows(ShardFilter shard, String afterKey,
+            int batchSize) throws SQLException {
+        ShardRange range = shard.shards.get(0);
+        boolean numeric = !shard.isHash() && isNumericRange(range.getKeyRangeStart(), range.getKeyRangeEnd());
+        if (shard.isHash()) {
+            buildRingHashIndex(shard.table, shard.keyColumn);
+        }
+        String key = shard.isHash()
+                ? "CAST(" + requireIdentifier(shard.keyColumn) + " AS TEXT)"
+                : requireIdentifier(shard.keyColumn);
+        boolean hasCursor = afterKey != null && !afterKey.isEmpty();
+
+        List<Object> parameters = new ArrayList<>();
+        String sql = "SELECT * FROM " + requireIdentifier(shard.table)
+                + " WHERE (" + shardPredicate(shard, parameters) + ")"
+                + (hasCursor ? " AND " + key + " > ?" : "")
+                + " ORDER BY " + key + " LIMIT ?";
+        if (hasCursor) {
+            parameters.add(numeric ? (Object) Long.parseLong(afterKey) : afterKey);
+        }
+        parameters.add(batchSize);
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            try (java.sql.ResultSet rs = statement.executeQuery()) {
+                return toResultSet(rs);
+            }
+        }
+    }
+
+    /**
+     * Copies a JDBC result into the row model, using column labels so
+     * aliases such as COUNT(*) AS total keep their names
+     */
+    private static com.distributed.sql.common.models.ResultSet toResultSet(java.sql.ResultSet rs)
+            throws SQLException {
+        com.distributed.sql.common.models.ResultSet resultSet = new com.distributed.sql.common.models.ResultSet();
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            resultSet.addColumn(metaData.getColumnLabel(i));
+        }
+        while (rs.next()) {
+            resultSet.addRow(toRow(rs, metaData.getColumnCount()));
+        }
+        resultSet.setTotalRows(resultSet.getRows().size());
+        resultSet.setStatus("COMPLETED");
+        return resultSet;
+    }
+
+    private static Row toRow(java.sql.ResultSet rs, int columnCount) throws SQLException {
+        Row row = new Row();
+        for (int i = 1; i <= columnCount; i++) {
+            row.addValue(rs.getString(i));
+        }
+        return row;
+    }
+
+    /**
+     * Inserts rows in a single JDBC batch and transaction. Rows whose key already
+     * exists are skipped, so a shard copy can be retried or overlap with writes
+     * that were already sent to the target.
+     */
+    @Override
+    public int writeRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        String sql = insertSql(tableName, columns) + " ON CONFLICT DO NOTHING";
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                addRowBatches(statement, columns, rows);
+                statement.executeBatch();
+                connection.commit();
+                return rows.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Runs a write as a local transaction: either the given UPDATE/DELETE
+     * statement or an insert of the given rows. A one-phase write commits
+     * right away; otherwise the transaction is prepared with PREPARE
+     * TRANSACTION under the coordinator's transaction id, keeping its locks
+     * until {@link #finishTransaction} commits or rolls it back. Returns the
+     * number of affected rows the count filter contains; a statement returns
+     * the shard keys of the rows it changed so they can be counted.
+     */
+    @Override
+    public long executeWrite(String transactionId, boolean onePhase, String sqlStatement, String tableName,
+            List<String> columns, List<Row> rows, ShardFilter countFilter, long deadlineMs) throws SQLException {
+        String gid = requireTransactionId(transactionId);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                long affected;
+                if (sqlStatement != null && !sqlStatement.isEmpty() && countFilter != null) {
+                    String returning = sqlStatement.trim().replaceAll(";\\s*$", "")
+                            + " RETURNING CAST(" + requireIdentifier(countFilter.keyColumn) + " AS TEXT)";
+                    affected = 0;
+                    try (Statement statement = createStatement(connection, deadlineMs);
+                            java.sql.ResultSet rs = statement.executeQuery(returning)) {
+                        while (rs.next()) {
+                            if (countFilter.contains(rs.getString(1))) {
+                                affected++;
+                            }
+                        }
+                    }
+                } else if (sqlStatement != null && !sqlStatement.isEmpty()) {
+                    try (Statement statement = createStatement(connection, deadlineMs)) {
+                        affected = statement.executeUpdate(sqlStatement);
+                    }
+                } else {
+                    try (PreparedStatement statement = connection.prepareStatement(insertSql(tableName, columns))) {
+                        int timeoutSeconds = toQueryTimeoutSeconds(deadlineMs);
+                        if (timeoutSeconds > 0) {
+                            statement.setQueryTimeout(timeoutSeconds);
+                        }
+                        addRowBatches(statement, columns, rows);
+                        statement.executeBatch();
+                        affected = countInserted(columns, rows, countFilter);
+                    }
+                }
+
+                if (onePhase) {
+                    connection.commit();
+                } else {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("PREPARE TRANSACTION '" + gid + "'");
+                    }
+                }
+                return affected;
+
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static long countInserted(List<String> columns, List<Row> rows, ShardFilter countFilter) {
+        if (countFilter == null) {
+            return rows.size();
+        }
+        int keyIndex = -1;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(countFilter.keyColumn)) {
+                keyIndex = i;
+            }
+        }
+        long counted = 0;
+        for (Row row : rows) {
+            if (keyIndex >= 0 && countFilter.contains(row.getValues().get(keyIndex))) {
+                counted++;
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * Commits or rolls back a prepared transaction. Returns false if no
+     * prepared transaction has the id, e.g. because it was already finished.
+     */
+    @Override
+    public boolean finishTransaction(String transactionId, boolean commit) throws SQLException {
+        String gid = requireTransactionId(transactionId);
+
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute((commit ? "COMMIT PREPARED '" : "ROLLBACK PREPARED '") + gid + "'");
+            return true;
+        } catch (SQLException e) {
+            if (UNDEFINED_OBJECT_SQL_STATE.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Lists the ids of prepared transactions in this database starting with the prefix
+     */
+    @Override
+    public List<String> listPreparedTransactions(String prefix) throws SQLException {
+        String sql = "SELECT gid FROM pg_prepared_xacts WHERE database = current_database() AND gid LIKE ?";
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, prefix.replace("_", "\\_") + "%");
+            List<String> transactionIds = new ArrayList<>();
+            try (java.sql.ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    transactionIds.add(rs.getString(1));
+                }
+            }
+            return transactionIds;
+        }
+    }
+
+    /**
+     * Loads rows with PostgreSQL COPY, the fastest path for bulk ingest. Unlike
+     * {@link #writeRows} a duplicate key fails the whole batch.
+     */
+    @Override
+    public long copyRows(String tableName, List<String> columns, List<Row> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder("COPY ").append(requireIdentifier(tableName)).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(requireIdentifier(columns.get(i)));
+        }
+        sql.append(") FROM STDIN WITH (FORMAT csv)");
+
+        // Quote every value so an empty string stays distinct from an unquoted NULL
+        StringBuilder csv = new StringBuilder(rows.size() * columns.size() * 16);
+        for (Row row : rows) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                String value = row.getValues().get(i);
+                if (value != null) {
+                    csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+                }
+            }
+            csv.append('\n');
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn(sql.toString(), new StringReader(csv.toString()));
+        } catch (IOException e) {
+            throw new SQLException("Failed to stream rows to COPY", e);
+        }
+    }
+
+    /**
+     * Deletes the rows of the filter's shard
+     */
+    @Override
+    public int deleteShardRows(ShardFilter shard) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = "DELETE FROM " + requireIdentifier(shard.table) + " WHERE " + shardPredicate(shard, parameters);
+
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Builds the index with CREATE INDEX CONCURRENTLY, so writes to the
+     * table go on meanwhile. A failed build leaves an invalid index behind,
+     * which is dropped so that a retry builds it again.
+     */
+    @Override
+    public void createIndex(String tableName, String indexName, List<String> columns) throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE INDEX CONCURRENTLY IF NOT EXISTS ")
+                .append(requireIdentifier(indexName)).append(" ON ").append(requireIdentifier(tableName)).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(requireIdentifier(columns.get(i)));
+        }
+        sql.append(")");
+
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            try {
+                statement.execute(sql.toString());
+            } catch (SQLException e) {
+                statement.execute("DROP INDEX IF EXISTS " + indexName);
+                throw e;
+            }
+        }
+        AppLogger.info("Created index {} on {} {}", indexName, tableName, columns);
+    }
+
+    @Override
+    public void createTable(String tableName, List<String> columns) throws SQLException {
+        StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(requireIdentifier(tableName))
+                .append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(requireIdentifier(columns.get(i)))
+                    .append(i == 0 ? " TEXT PRIMARY KEY" : " TEXT");
+        }
+        sql.append(")");
+
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute(sql.toString());
+        }
+        AppLogger.info("Created table {} {}", tableName, columns);
+    }
+
+    /**
+     * Builds the WHERE predicate matching the coordinator's range semantics:
+     * numeric bounds compare numerically, string bounds compare
+     * case-insensitively against the key prefix of the bound's length
+     */
+    private static String rangePredicate(String keyColumn, String rangeStart, String rangeEnd) {
+        String column = requireIdentifier(keyColumn);
+        if (isNumericRange(rangeStart, rangeEnd)) {
+            return column + " BETWEEN ? AND ?";
+        }
+        return "UPPER(SUBSTR(" + column + ", 1, " + rangeStart.length() + ")) >= ? AND UPPER(SUBSTR("
+                + column + ", 1, " + rangeEnd.length() + ")) <= ?";
+    }
+
+    private static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+
+    private static boolean isNumericRange(String rangeStart, String rangeEnd) {
+        return rangeStart.matches("-?\\d+") && rangeEnd.matches("-?\\d+");
+    }
+
+    private static String insertSql(String tableName, List<String> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(requireIdentifier(tableName)).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(requireIdentifier(columns.get(i)));
+        }
+        return sql.append(") VALUES (").append(String.join(", ", Collections.nCopies(columns.size(), "?")))
+                .append(")").toString();
+    }
+
+    private static void addRowBatches(PreparedStatement statement, List<String> columns, List<Row> rows)
+            throws SQLException {
+        for (Row row : rows) {
+            for (int i = 0; i < columns.size(); i++) {
+                statement.setString(i + 1, row.getValues().get(i));
+            }
+            statement.addBatch();
+        }
+    }
+
+    // Transaction ids are embedded in PREPARE TRANSACTION, which takes no bind parameters
+    private static String requireTransactionId(String transactionId) {
+        if (transactionId == null || !transactionId.matches("[A-Za-z0-9_]{1,200}")) {
+            throw new IllegalArgumentException("Invalid transaction id: " + transactionId);
+        }
+        return transactionId;
+    }
+
+    private static String requireIdentifier(String identifier) {
+        if (identifier == null || !identifier.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid SQL identifier: " + identifier);
+        }
+        return identifier;
+    }
+
+    @Override
+    public boolean healthCheck() {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.isValid(5);
+        } catch (SQLException e) {
+            AppLogger.error("Health check failed for worker {}", workerId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        indexBuilder.shutdownNow();
+        if (dataSource != null) {
+            dataSource.close();
+            AppLogger.info("PostgreSQL storage for worker {} shutdown", workerId);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.distributed.sql.worker;
 
 import com.distributed.sql.common.models.*;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
 import com.distributed.sql.common.utils.AppLogger;
 import com.distributed.sql.common.utils.Tracer;
 
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Query executor that executes plan nodes on local PostgreSQL shard
@@ -13,21 +17,76 @@ public class QueryExecutor {
 
     private final DataStore dataStore;
     private final String workerId;
+    private final ColumnarTableCache tableCache;
 
     public QueryExecutor(String workerId, DataStore dataStore) {
+        this(workerId, dataStore, null);
+    }
+
+    /**
+     * Creates an executor that answers repeated scans from the given table
+     * cache (null = no cache), invalidating it on every local write
+     */
+    QueryExecutor(String workerId, DataStore dataStore, ColumnarTableCache tableCache) {
         this.workerId = workerId;
         this.dataStore = dataStore;
+        this.tableCache = tableCache;
+        if (tableCache != null) {
+            dataStore.addChangeListener(tableCache::invalidate);
+        }
+    }
+
+    ColumnarTableCache getTableCache() {
+        return tableCache;
     }
 
     public ResultSet executeQuery(String sqlQuery) {
+        return executeQuery(sqlQuery, 0);
+    }
+
+    /**
+     * Returns the query's rows within the shard filters as column batches
+     * sliced from storage, or null if it has to go through
+     * {@link #executeQuery(String, Map, long)}
+     */
+    public QueryResult scanColumnBatches(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs) {
+        try {
+            QueryResult result = dataStore.scanColumnBatches(sqlQuery, shardFilters, deadlineMs);
+            if (result != null) {
+                AppLogger.info("Query on worker {} sent {} column batches without decoding",
+                        workerId, result.getColumnBatchesCount());
+            }
+            return result;
+        } catch (Exception e) {
+            AppLogger.warn("Column batch scan failed on worker {}, running the query instead", workerId, e);
+            return null;
+        }
+    }
+
+    public ResultSet executeQuery(String sqlQuery, long deadlineMs) {
+        return executeQuery(sqlQuery, Map.of(), deadlineMs);
+    }
+
+    /**
+     * Executes a query that reads, of each table with a shard filter (by
+     * lower-cased name), only the rows of the shards it was asked for
+     */
+    public ResultSet executeQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs) {
         String traceId = Tracer.startTrace("execute_query");
 
         try {
             AppLogger.info("Executing query on worker {}: {}", workerId, sqlQuery);
 
-            // Execute the query using DataStore
-            java.sql.ResultSet sqlResultSet = dataStore.executeQuery(sqlQuery);
-            ResultSet resultSet = convertFromSqlResultSet(sqlResultSet);
+            // Serve the scan from the table cache if it can answer it, otherwise from the DataStore
+            ResultSet resultSet = null;
+            if (tableCache != null) {
+                // The cache holds every local row of a table and applies the shard filter as it scans
+                resultSet = tableCache.execute(sqlQuery, shardFilters,
+                        table -> dataStore.executeQuery("SELECT * FROM " + table, deadlineMs));
+            }
+            if (resultSet == null) {
+                resultSet = dataStore.executeQuery(sqlQuery, shardFilters, deadlineMs);
+            }
 
             Tracer.addTimestamp("query_executed");
             AppLogger.info("Query executed successfully on worker {} in {}ms",
@@ -51,6 +110,33 @@ public class QueryExecutor {
         }
     }
 
+    /**
+     * Hands the query's rows within the shard filters, or a sample of them
+     * (null = all), to the sink as the storage engine reads them, in a
+     * random order if shuffled. A scan the table cache answers is sent from
+     * memory. Unlike executeQuery, a failure is thrown to the caller.
+     */
+    public void streamQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, StorageEngine.RowSink sink) throws SQLException {
+        String traceId = Tracer.startTrace("stream_query");
+
+        try {
+            AppLogger.info("Streaming query on worker {}: {}", workerId, sqlQuery);
+            ResultSet cached = tableCache != null
+                    ? tableCache.execute(sqlQuery, shardFilters,
+                            table -> dataStore.executeQuery("SELECT * FROM " + table, deadlineMs))
+                    : null;
+            if (cached != null) {
+                StorageEngine.sendRows(cached, sample, shuffled, sink);
+            } else {
+                dataStore.streamQuery(sqlQuery, shardFilters, sample, shuffled, deadlineMs, sink);
+            }
+            Tracer.addTimestamp("query_executed");
+        } finally {
+            Tracer.endTrace("stream_query");
+        }
+    }
+
     public ResultSet executePlanNode(PlanNode planNode) {
         String traceId = Tracer.startTrace("execute_plan_node");
 
@@ -61,6 +147,8 @@ public class QueryExecutor {
                 case SCAN:
                     return executeScanNode(planNode);
                 case FILTER:
+                case INDEX_LOOKUP:
+                    // The storage engine reads through the index for the lookup's conditions
                     return executeFilterNode(planNode);
                 case PROJECT:
                     return executeProjectNode(planNode);
@@ -86,7 +174,7 @@ public class QueryExecutor {
         String tableName = planNode.getTableName();
         String sqlQuery = String.format("SELECT * FROM %s", tableName);
 
-        ResultSet resultSet = convertFromSqlResultSet(dataStore.executeQuery(sqlQuery));
+        ResultSet resultSet = dataStore.executeQuery(sqlQuery);
         resultSet.setQueryId("scan_" + planNode.getNodeId());
 
         return resultSet;
@@ -113,7 +201,7 @@ public class QueryExecutor {
             }
         }
 
-        ResultSet resultSet = convertFromSqlResultSet(dataStore.executeQuery(sqlQuery.toString()));
+        ResultSet resultSet = dataStore.executeQuery(sqlQuery.toString());
         resultSet.setQueryId("filter_" + planNode.getNodeId());
 
         return resultSet;
@@ -136,7 +224,7 @@ public class QueryExecutor {
 
         sqlQuery.append(" FROM ").append(tableName);
 
-        ResultSet resultSet = convertFromSqlResultSet(dataStore.executeQuery(sqlQuery.toString()));
+        ResultSet resultSet = dataStore.executeQuery(sqlQuery.toString());
         resultSet.setQueryId("project_" + planNode.getNodeId());
 
         return resultSet;
@@ -200,23 +288,4 @@ public class QueryExecutor {
         resultSet.setTotalRows(0);
         return resultSet;
     }
-
-    private ResultSet convertFromSqlResultSet(java.sql.ResultSet sqlResultSet) {
-        // For demo purposes, return mock data since we're not actually executing SQL
-        // In a real implementation, this would convert java.sql.ResultSet to our
-        // ResultSet
-        ResultSet resultSet = new ResultSet();
-        resultSet.setQueryId("query_" + System.currentTimeMillis());
-        resultSet.setStatus("SUCCESS");
-        resultSet.setExecutionTimeMs(150);
-        resultSet.setTotalRows(3);
-
-        // Add mock columns and rows
-        resultSet.setColumns(List.of("id", "name", "value"));
-        resultSet.addRow(new Row(List.of("1", "Sample Data 1", "100")));
-        resultSet.addRow(new Row(List.of("2", "Sample Data 2", "200")));
-        resultSet.addRow(new Row(List.of("3", "Sample Data 3", "300")));
-
-        return resultSet;
-    }
 }
@@ -0,0 +1,65 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.proto.QueryProto.SampleMethod;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Chooses the rows of a sampled query as the worker reads them: each row
+ * with the probability of the sample fraction (BERNOULLI), or whole blocks
+ * of {@link ColumnVector#BLOCK_ROWS} consecutive rows (SYSTEM), drawing once
+ * per block. A columnar scan asks up front which of a table's blocks a
+ * SYSTEM sample keeps, so it skips the others without reading them.
+ */
+class RowSampler {
+
+    private final double fraction;
+    private final int blockRows;
+    private final Random random;
+    private long position;
+    private boolean chosen;
+
+    RowSampler(TableSample sample, Random random) {
+        this.fraction = sample.getFraction();
+        this.blockRows = sample.getMethod() == SampleMethod.SYSTEM ? ColumnVector.BLOCK_ROWS : 1;
+        this.random = random;
+    }
+
+    /**
+     * Returns the blocks of a table of rowCount rows a SYSTEM sample keeps,
+     * or null if the sample chooses rows
+     */
+    BitSet chooseBlocks(int rowCount) {
+        if (blockRows == 1) {
+            return null;
+        }
+        BitSet blocks = new BitSet();
+        for (int block = 0; block * blockRows < rowCount; block++) {
+            if (random.nextDouble() < fraction) {
+                blocks.set(block);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns a filter keeping each row it is asked about with the sample's
+     * probability, or null if the sample chooses blocks
+     */
+    IntPredicate chooseRows() {
+        return blockRows == 1 ? row -> next() : null;
+    }
+
+    /**
+     * Returns true if the next row is in the sample
+     */
+    boolean next() {
+        if (position++ % blockRows == 0) {
+            chosen = random.nextDouble() < fraction;
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,79 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.RuntimeFilter;
+import com.distributed.sql.common.proto.QueryProto.RuntimeFilterStats;
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.BloomFilter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies a runtime filter pushed down by the coordinator to the rows of a
+ * scan, counting the rows it checks and prunes. A row whose join key is NULL
+ * can never match and is pruned. If the scan has no such column the filter
+ * passes every row, so a bad filter can cost speed but never results.
+ */
+class RuntimeFilterProbe {
+
+    private final RuntimeFilter filter;
+    private final int columnIndex;
+    private final Set<String> keys;
+    private final BloomFilter bloomFilter;
+    private long rowsChecked;
+    private long rowsPruned;
+
+    RuntimeFilterProbe(RuntimeFilter filter, List<String> columns) {
+        this.filter = filter;
+        this.columnIndex = indexOfIgnoreCase(columns, filter.getColumn());
+        if (filter.getBloomBits().isEmpty()) {
+            this.keys = new HashSet<>(filter.getKeysList());
+            this.bloomFilter = null;
+        } else {
+            this.keys = null;
+            this.bloomFilter = BloomFilter.fromBytes(filter.getBloomBits().toByteArray(), filter.getBloomHashCount());
+        }
+
+        if (columnIndex < 0) {
+            AppLogger.warn("Runtime filter {} column {} is not in the scan {}, not applying it",
+                    filter.getFilterId(), filter.getColumn(), columns);
+        }
+    }
+
+    /**
+     * Returns true if the row may have a match on the build side
+     */
+    boolean test(Row row) {
+        if (columnIndex < 0) {
+            return true;
+        }
+
+        rowsChecked++;
+        String key = row.getValues().get(columnIndex);
+        boolean pass = key != null && (keys != null ? keys.contains(key) : bloomFilter.mightContain(key));
+        if (!pass) {
+            rowsPruned++;
+        }
+        return pass;
+    }
+
+    RuntimeFilterStats toStats() {
+        return RuntimeFilterStats.newBuilder()
+                .setFilterId(filter.getFilterId())
+                .setColumn(filter.getColumn())
+                .setRowsChecked(rowsChecked)
+                .setRowsPruned(rowsPruned)
+                .build();
+    }
+
+    private static int indexOfIgnoreCase(List<String> values, String value) {
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i).equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,101 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Condition;
+import com.distributed.sql.common.models.Query;
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.utils.SQLParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single-table scan simple enough to answer without a database: plain
+ * columns or COUNT(*), filtered by ANDed comparisons of columns with
+ * literals. Anything else is left to the storage engine's SQL path.
+ */
+final class ScanQuery {
+
+    private static final Pattern SCAN_PATTERN = Pattern.compile(
+            "SELECT\\s+(\\*|COUNT\\s*\\(\\s*\\*\\s*\\)|\\w+(?:\\s*,\\s*\\w+)*)\\s+FROM\\s+(\\w+)"
+                    + "(?:\\s+WHERE\\s+(.+?))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // A condition compares a column with a quoted string, a number or an IN list
+    private static final Pattern LITERAL_CONDITION_PATTERN = Pattern.compile(
+            "\\w+\\s*(?:<=|>=|!=|<>|=|<|>|\\bLIKE\\b)\\s*(?:'[^']*'|-?\\d+(?:\\.\\d+)?)"
+                    + "|\\w+\\s+IN\\s*\\(\\s*(?:'[^',]*'|-?\\d+(?:\\.\\d+)?)(?:\\s*,\\s*(?:'[^',]*'|-?\\d+(?:\\.\\d+)?))*\\s*\\)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final List<String> UNSUPPORTED_KEYWORDS = List.of(
+            "OR", "NOT", "IS", "BETWEEN", "GROUP", "ORDER", "LIMIT", "HAVING");
+
+    final String table;
+    // Empty for COUNT(*)
+    final List<String> columns;
+    final boolean count;
+    final List<Condition> conditions;
+
+    private ScanQuery(String table, List<String> columns, boolean count, List<Condition> conditions) {
+        this.table = table;
+        this.columns = columns;
+        this.count = count;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Returns null if the query is not such a scan
+     */
+    static ScanQuery parse(String sqlQuery) {
+        Matcher matcher = SCAN_PATTERN.matcher(sqlQuery.trim());
+        if (!matcher.matches() || !isSupportedWhere(matcher.group(3))) {
+            return null;
+        }
+
+        Query query = new SQLParser().parse(sqlQuery);
+        boolean count = matcher.group(1).regionMatches(true, 0, "COUNT", 0, 5);
+        return new ScanQuery(matcher.group(2), count ? List.of() : query.getSelectColumns(), count,
+                query.getWhereConditions());
+    }
+
+    /**
+     * Returns true if every condition of the WHERE clause (null = none) is an
+     * ANDed comparison the columnar scan evaluates exactly
+     */
+    static boolean isSupportedWhere(String whereClause) {
+        if (whereClause == null) {
+            return true;
+        }
+        for (String keyword : UNSUPPORTED_KEYWORDS) {
+            if (SQLParser.splitOutsideQuotes(whereClause, keyword).size() > 1) {
+                return false;
+            }
+        }
+        for (String part : SQLParser.splitOutsideQuotes(whereClause, "AND")) {
+            if (!LITERAL_CONDITION_PATTERN.matcher(part.trim()).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the result from the rows that matched, or just their count for COUNT(*)
+     */
+    ResultSet toResultSet(List<String> projectedColumns, List<Row> rows, long rowsMatched) {
+        ResultSet resultSet = new ResultSet();
+        resultSet.setQueryId("scan_" + System.currentTimeMillis());
+        resultSet.setStatus("COMPLETED");
+        if (count) {
+            resultSet.addColumn("count");
+            resultSet.addRow(new Row(new ArrayList<>(List.of(Long.toString(rowsMatched)))));
+        } else {
+            resultSet.setColumns(new ArrayList<>(projectedColumns));
+            resultSet.setRows(rows);
+        }
+        resultSet.setTotalRows(resultSet.getRows().size());
+        return resultSet;
+    }
+}
@@ -0,0 +1,146 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Operator;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A secondary index over one column of an immutable {@link ColumnSegment}:
+ * the segment's row numbers sorted by value, with the distinct values in the
+ * same order, so an equality, IN or range condition is answered with binary
+ * searches instead of a scan. Nulls are not indexed.
+ */
+final class SegmentIndex {
+
+    // Distinct values in column order; the rows of values[i] are rows[starts[i]..starts[i + 1])
+    private final Comparable<Object>[] values;
+    private final int[] starts;
+    private final int[] rows;
+
+    private SegmentIndex(Comparable<Object>[] values, int[] starts, int[] rows) {
+        this.values = values;
+        this.starts = starts;
+        this.rows = rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    static SegmentIndex build(ColumnVector vector) {
+        int distinct = vector.dictionary.length - 1;
+        Integer[] order = new Integer[distinct];
+        for (int i = 0; i < distinct; i++) {
+            order[i] = i + 1;
+        }
+        Arrays.sort(order, (left, right) -> vector.comparable(left).compareTo(vector.comparable(right)));
+
+        int[] positions = new int[vector.dictionary.length];
+        Comparable<Object>[] values = new Comparable[distinct];
+        for (int i = 0; i < distinct; i++) {
+            positions[order[i]] = i;
+            values[i] = vector.comparable(order[i]);
+        }
+
+        // Counting sort of the rows by value position, keeping row order within a value
+        int[] starts = new int[distinct + 1];
+        for (int row = 0; row < vector.rowCount; row++) {
+            int code = vector.code(row);
+            if (code != 0) {
+                starts[positions[code] + 1]++;
+            }
+        }
+        for (int i = 0; i < distinct; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] next = Arrays.copyOf(starts, distinct);
+        int[] rows = new int[starts[distinct]];
+        for (int row = 0; row < vector.rowCount; row++) {
+            int code = vector.code(row);
+            if (code != 0) {
+                rows[next[positions[code]]++] = row;
+            }
+        }
+        return new SegmentIndex(values, starts, rows);
+    }
+
+    static boolean supports(Operator operator) {
+        return switch (operator) {
+            case EQUALS, IN, GREATER_THAN, GREATER_THAN_EQUALS, LESS_THAN, LESS_THAN_EQUALS -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Returns the rows whose value satisfies the operator for the literals,
+     * in row order, or null if the operator cannot use the index
+     */
+    int[] lookup(Operator operator, List<Comparable<Object>> bounds) {
+        if (!supports(operator) || bounds.isEmpty()) {
+            return null;
+        }
+        Comparable<Object> bound = bounds.get(0);
+        int[] matches = switch (operator) {
+            case EQUALS -> slice(lower(bound), upper(bound));
+            case GREATER_THAN -> slice(upper(bound), values.length);
+            case GREATER_THAN_EQUALS -> slice(lower(bound), values.length);
+            case LESS_THAN -> slice(0, lower(bound));
+            case LESS_THAN_EQUALS -> slice(0, upper(bound));
+            default -> inList(bounds);
+        };
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    long estimateBytes() {
+        return 64 + values.length * 40L + starts.length * 4L + rows.length * 4L;
+    }
+
+    private int[] inList(List<Comparable<Object>> bounds) {
+        int[] matches = new int[0];
+        for (Comparable<Object> value : new LinkedHashSet<>(bounds)) {
+            int[] slice = slice(lower(value), upper(value));
+            int length = matches.length;
+            matches = Arrays.copyOf(matches, length + slice.length);
+            System.arraycopy(slice, 0, matches, length, slice.length);
+        }
+        return matches;
+    }
+
+    private int[] slice(int from, int to) {
+        return from >= to ? new int[0] : Arrays.copyOfRange(rows, starts[from], starts[to]);
+    }
+
+    /**
+     * Returns the position of the first value not below the bound
+     */
+    private int lower(Comparable<Object> bound) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid].compareTo(bound) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the first value above the bound
+     */
+    private int upper(Comparable<Object> bound) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid].compareTo(bound) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,99 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ShardInfo;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import com.distributed.sql.common.utils.ConsistentHashRing;
+
+import java.util.*;
+
+/**
+ * The rows of one table a query may read: those whose shard key falls in one
+ * of the requested shards. A worker also holds replicas of shards another
+ * worker was asked for, and rows of shards moved away until they are cleaned
+ * up, so every scan of a fanned-out query is restricted to its filter.
+ */
+final class ShardFilter {
+
+    final String table;
+    final String keyColumn;
+    final List<ShardRange> shards;
+    // Hash-sharded tables route keys on the table's ring; null for range sharding
+    private final ConsistentHashRing ring;
+    private final Set<String> shardIds = new HashSet<>();
+
+    private ShardFilter(ShardScope scope) {
+        this.table = scope.getTableName();
+        this.keyColumn = scope.getKeyColumn();
+        this.shards = scope.getShardsList();
+        for (ShardRange shard : shards) {
+            shardIds.add(shard.getShardId());
+        }
+
+        if (scope.getRingShardIdsCount() > 0) {
+            List<ShardInfo> ringShards = new ArrayList<>();
+            for (String shardId : scope.getRingShardIdsList()) {
+                ringShards.add(new ShardInfo(shardId, null, table, null, null, 0));
+            }
+            this.ring = new ConsistentHashRing(ringShards);
+        } else {
+            this.ring = null;
+        }
+    }
+
+    /**
+     * Returns the filters of a request by lower-cased table name; tables
+     * without one are read in full
+     */
+    static Map<String, ShardFilter> byTable(List<ShardScope> scopes) {
+        Map<String, ShardFilter> filters = new HashMap<>();
+        for (ShardScope scope : scopes) {
+            filters.put(scope.getTableName().toLowerCase(), new ShardFilter(scope));
+        }
+        return filters;
+    }
+
+    /**
+     * Returns the filter of a single shard, as the rebalancer names it when
+     * counting, copying or deleting the shard's rows
+     */
+    static ShardFilter of(ShardRange shard) {
+        return new ShardFilter(ShardScope.newBuilder()
+                .setTableName(shard.getTableName())
+                .setKeyColumn(shard.getKeyColumn())
+                .addShards(shard)
+                .addAllRingShardIds(shard.getRingShardIdsList())
+                .build());
+    }
+
+    boolean isHash() {
+        return ring != null;
+    }
+
+    /**
+     * Returns the inclusive key hash ranges of the requested shards of a
+     * hash-sharded table, as {@link ConsistentHashRing#hashRanges} does
+     */
+    List<long[]> hashRanges() {
+        return ring.hashRanges(shardIds);
+    }
+
+    /**
+     * Returns true if a row with this shard key belongs to a requested shard
+     */
+    boolean contains(String key) {
+        if (key == null) {
+            return false;
+        }
+        if (ring != null) {
+            ShardInfo owner = ring.route(key);
+            return owner != null && shardIds.contains(owner.getShardId());
+        }
+        for (ShardRange shard : shards) {
+            if (ColumnarStorageEngine.inRange(key, shard.getKeyRangeStart(), shard.getKeyRangeEnd())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+package com.distributed.sql.worker;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Shares segment reads between concurrent scans of the same table. Scans of
+ * one list of segments attach to a single circular scan: a scan arriving
+ * while others run starts at the segment the cursor is on and wraps around
+ * to the ones it missed, so each segment read is decoded once for every
+ * scan attached at the time. The attached scans' threads take turns
+ * reading the next segment, and each evaluates its own predicates on the
+ * decoded columns it is handed. Reading pauses while a slow scan has
+ * MAX_PENDING_SEGMENTS segments waiting, bounding the memory they hold.
+ */
+final class SharedScanScheduler {
+
+    static final int MAX_PENDING_SEGMENTS = 4;
+
+    /**
+     * What one scan needs from the segments it reads
+     */
+    interface Reader {
+
+        /**
+         * Returns false if no row of the segment can match, so it is not decoded for this scan
+         */
+        boolean mayMatch(ColumnSegment segment);
+
+        /**
+         * Indexes of the columns to decode
+         */
+        Set<Integer> columns();
+
+        /**
+         * Whether the column's values compare as numbers
+         */
+        boolean isNumeric(int column);
+
+        /**
+         * Evaluates the scan on a segment's decoded columns, the others null.
+         * Called on the scan's own thread, with the segment's position in the
+         * list; positions come in circular order from where the scan attached.
+         */
+        void read(int position, ColumnVector[] vectors, int rowCount);
+    }
+
+    // Scans in progress by the segment list they read, so each table version has its own
+    private final Map<List<ColumnSegment>, CircularScan> scans = new IdentityHashMap<>();
+    private long segmentsRead;
+    private long segmentsShared;
+
+    /**
+     * Reads every segment of the list once for the reader, attaching to the
+     * scan of the same segments in progress if there is one. Returns the
+     * number of segments skipped because the reader ruled them out.
+     */
+    int scan(List<ColumnSegment> segments, Reader reader, long deadlineMs) throws SQLException {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Attachment attachment = new Attachment(reader);
+        CircularScan scan;
+        synchronized (scans) {
+            scan = scans.computeIfAbsent(segments, CircularScan::new);
+            synchronized (scan) {
+                scan.attachments.add(attachment);
+            }
+        }
+
+        try {
+            while (true) {
+                DataStore.checkDeadline(deadlineMs);
+                Batch batch;
+                int position = -1;
+                List<Attachment> recipients = null;
+                synchronized (scan) {
+                    while (attachment.pending.isEmpty() && !attachment.isComplete(segments.size())
+                            && (scan.reading || scan.isBackedUp())) {
+                        await(scan, deadlineMs);
+                    }
+                    batch = attachment.pending.poll();
+                    if (batch != null) {
+                        scan.notifyAll();
+                    } else if (attachment.isComplete(segments.size())) {
+                        return attachment.skipped;
+                    } else {
+                        position = scan.position;
+                        scan.position = (position + 1) % segments.size();
+                        scan.reading = true;
+                        recipients = new ArrayList<>();
+                        for (Attachment other : scan.attachments) {
+                            if (!other.seen.get(position)) {
+                                recipients.add(other);
+                            }
+                        }
+                    }
+                }
+                if (batch != null) {
+                    reader.read(batch.position, batch.vectors, batch.rowCount);
+                } else {
+                    read(scan, position, recipients);
+                }
+            }
+        } finally {
+            synchronized (scans) {
+                synchronized (scan) {
+                    scan.attachments.remove(attachment);
+                    scan.notifyAll();
+                    if (scan.attachments.isEmpty()) {
+                        scans.remove(segments);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the segment at the position once for every recipient that may
+     * match it and hands each its columns
+     */
+    private void read(CircularScan scan, int position, List<Attachment> recipients) {
+        ColumnSegment segment = scan.segments.get(position);
+        Map<Attachment, ColumnVector[]> decoded = null;
+        try {
+            decoded = decode(segment, recipients);
+        } finally {
+            synchronized (scan) {
+                scan.reading = false;
+                if (decoded != null) {
+                    for (Attachment recipient : recipients) {
+                        // A scan that failed or missed its deadline has left
+                        if (!scan.attachments.contains(recipient)) {
+                            continue;
+                        }
+                        recipient.seen.set(position);
+                        ColumnVector[] vectors = decoded.get(recipient);
+                        if (vectors != null) {
+                            recipient.pending.add(new Batch(position, vectors, segment.rowCount));
+                        } else {
+                            recipient.skipped++;
+                        }
+                    }
+                }
+                scan.notifyAll();
+            }
+        }
+    }
+
+    private Map<Attachment, ColumnVector[]> decode(ColumnSegment segment, List<Attachment> recipients) {
+        Map<Attachment, ColumnVector[]> result = new HashMap<>();
+        // Vectors by column, twice: compared as text, then as numbers
+        Map<Integer, ColumnVector> vectors = new HashMap<>();
+        for (Attachment recipient : recipients) {
+            if (!recipient.reader.mayMatch(segment)) {
+                continue;
+            }
+            ColumnVector[] columns = new ColumnVector[segment.columns.size()];
+            for (int column : recipient.reader.columns()) {
+                boolean numeric = recipient.reader.isNumeric(column);
+                columns[column] = vectors.computeIfAbsent(2 * column + (numeric ? 1 : 0),
+                        key -> segment.readColumn(column, numeric));
+            }
+            result.put(recipient, columns);
+        }
+        synchronized (this) {
+            segmentsRead += result.isEmpty() ? 0 : 1;
+            segmentsShared += result.size() > 1 ? 1 : 0;
+        }
+        return result;
+    }
+
+    private static void await(Object monitor, long deadlineMs) throws SQLException {
+        try {
+            monitor.wait(DataStore.checkDeadline(deadlineMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a shared scan", e);
+        }
+    }
+
+    /**
+     * Segments decoded for at least one scan
+     */
+    synchronized long getSegmentsRead() {
+        return segmentsRead;
+    }
+
+    /**
+     * Segments decoded once for more than one scan
+     */
+    synchronized long getSegmentsShared() {
+        return segmentsShared;
+    }
+
+    /**
+     * The cursor over one list of segments and the scans attached to it,
+     * guarded by its own monitor
+     */
+    private static final class CircularScan {
+        final List<ColumnSegment> segments;
+        final List<Attachment> attachments = new ArrayList<>();
+        // Next segment to read
+        int position;
+        // Whether a thread is reading a segment for the attached scans
+        boolean reading;
+
+        CircularScan(List<ColumnSegment> segments) {
+            this.segments = segments;
+        }
+
+        boolean isBackedUp() {
+            for (Attachment attachment : attachments) {
+                if (attachment.pending.size() >= MAX_PENDING_SEGMENTS) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * One scan's progress: the positions read for it and the decoded
+     * segments it has yet to evaluate
+     */
+    private static final class Attachment {
+        final Reader reader;
+        final BitSet seen = new BitSet();
+        final Queue<Batch> pending = new ArrayDeque<>();
+        int skipped;
+
+        Attachment(Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean isComplete(int segmentCount) {
+            return pending.isEmpty() && seen.cardinality() == segmentCount;
+        }
+    }
+
+    private static final class Batch {
+        final int position;
+        final ColumnVector[] vectors;
+        final int rowCount;
+
+        Batch(int position, ColumnVector[] vectors, int rowCount) {
+            this.position = position;
+            this.vectors = vectors;
+            this.rowCount = rowCount;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Where a worker keeps its shard data. {@link DataStore} fronts one engine
+ * and adds what every engine shares, such as change notifications.
+ *
+ * Shard ranges follow the coordinator's semantics: numeric bounds compare
+ * numerically, string bounds compare case-insensitively against the key
+ * prefix of the bound's length.
+ */
+public interface StorageEngine {
+
+    // Rows a shuffled stream of rows that were read in full hands over at a time
+    int SHUFFLED_BATCH_ROWS = 1024;
+
+    /**
+     * Executes a query over every local row that must finish before the
+     * given deadline (epoch millis, 0 = none)
+     */
+    default ResultSet executeQuery(String sqlQuery, long deadlineMs) throws SQLException {
+        return executeQuery(sqlQuery, Map.of(), deadlineMs);
+    }
+
+    /**
+     * Executes a query that reads, of each table with a shard filter (by
+     * lower-cased name), only the rows the filter contains
+     */
+    ResultSet executeQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs)
+            throws SQLException;
+
+    /**
+     * Receives a query's rows in batches while the engine reads them
+     */
+    interface RowSink {
+
+        /**
+         * Called once with the query's columns, before any rows
+         */
+        void columns(List<String> columns);
+
+        /**
+         * Called with each batch of rows and the fraction (0 to 1) of the
+         * query's input read so far, or 0 until the last batch if the engine
+         * cannot tell. Returns false to stop reading.
+         */
+        boolean rows(List<Row> rows, double fractionRead);
+    }
+
+    /**
+     * Reads the query's rows within the shard filters like
+     * {@link #executeQuery(String, Map, long)}, handing them to the sink as
+     * they are read instead of collecting them. With a sample (null = none)
+     * the engine reads only that sample of the query's table. Shuffled, the
+     * rows come in a random order, so those handed over so far are a sample
+     * of the rest, and every batch reports the fraction read. Engines that
+     * cannot read in batches run the query and sample its rows.
+     */
+    default void streamQuery(String sqlQuery, Map<String, ShardFilter> shardFilters, TableSample sample,
+            boolean shuffled, long deadlineMs, RowSink sink) throws SQLException {
+        sendRows(executeQuery(sqlQuery, shardFilters, deadlineMs), sample, shuffled, sink);
+    }
+
+    /**
+     * Hands rows that were read in full to the sink, keeping only a sample of
+     * them if one is given (null = all): as one batch, or shuffled in batches
+     * of SHUFFLED_BATCH_ROWS
+     */
+    static void sendRows(ResultSet resultSet, TableSample sample, boolean shuffled, RowSink sink) {
+        sink.columns(resultSet.getColumns());
+        Random random = new Random();
+        List<Row> rows = resultSet.getRows();
+        if (sample != null) {
+            RowSampler sampler = new RowSampler(sample, random);
+            rows = new ArrayList<>();
+            for (Row row : resultSet.getRows()) {
+                if (sampler.next()) {
+                    rows.add(row);
+                }
+            }
+        }
+        if (!shuffled) {
+            sink.rows(rows, 1);
+            return;
+        }
+
+        rows = new ArrayList<>(rows);
+        Collections.shuffle(rows, random);
+        for (int start = 0; start < rows.size(); start += SHUFFLED_BATCH_ROWS) {
+            int end = Math.min(rows.size(), start + SHUFFLED_BATCH_ROWS);
+            if (!sink.rows(rows.subList(start, end), (double) end / rows.size()) || end == rows.size()) {
+                return;
+            }
+        }
+        sink.rows(List.of(), 1);
+    }
+
+    /**
+     * Returns every local row of a query as column batches, or null; see
+     * {@link #scanColumnBatches(String, Map, long)}
+     */
+    default QueryResult scanColumnBatches(String sqlQuery, long deadlineMs) throws SQLException {
+        return scanColumnBatches(sqlQuery, Map.of(), deadlineMs);
+    }
+
+    /**
+     * Returns the columns and rows of a query, restricted to the shard
+     * filters, as column batches holding the engine's stored bytes, or null
+     * if the query has to be decoded and run by {@link #executeQuery}
+     */
+    default QueryResult scanColumnBatches(String sqlQuery, Map<String, ShardFilter> shardFilters, long deadlineMs)
+            throws SQLException {
+        return null;
+    }
+
+    /**
+     * Counts the rows of the filter's shard
+     */
+    long countShardRows(ShardFilter shard) throws SQLException;
+
+    /**
+     * Reads up to batchSize rows of the filter's shard in key order, starting
+     * after the given key (null or empty = start of range). The keys of a
+     * hash-sharded table are ordered as text.
+     */
+    ResultSet readShardRows(ShardFilter shard, String afterKey, int batchSize) throws SQLException;
+
+    /**
+     * Inserts rows in one transaction, skipping rows whose key already exists
+     */
+    int writeRows(String tableName, List<String> columns, List<Row> rows) throws SQLException;
+
+    /**
+     * Runs an UPDATE/DELETE statement or an insert of rows as a local
+     * transaction that either commits right away or is prepared under the
+     * transaction id until {@link #finishTransaction}. Returns the number of
+     * rows affected.
+     */
+    default long executeWrite(String transactionId, boolean onePhase, String sqlStatement, String tableName,
+            List<String> columns, List<Row> rows, long deadlineMs) throws SQLException {
+        return executeWrite(transactionId, onePhase, sqlStatement, tableName, columns, rows, null, deadlineMs);
+    }
+
+    /**
+     * Runs a write as above, returning the number of affected rows the count
+     * filter contains (all of them if it is null). The write applies to every
+     * matching row either way.
+     */
+    long executeWrite(String transactionId, boolean onePhase, String sqlStatement, String tableName,
+            List<String> columns, List<Row> rows, ShardFilter countFilter, long deadlineMs) throws SQLException;
+
+    /**
+     * Commits or rolls back a prepared transaction. Returns false if no
+     * prepared transaction has the id.
+     */
+    boolean finishTransaction(String transactionId, boolean commit) throws SQLException;
+
+    /**
+     * Lists the ids of prepared transactions starting with the prefix
+     */
+    List<String> listPreparedTransactions(String prefix) throws SQLException;
+
+    /**
+     * Bulk-loads rows; unlike {@link #writeRows} a duplicate key fails the whole batch
+     */
+    long copyRows(String tableName, List<String> columns, List<Row> rows) throws SQLException;
+
+    /**
+     * Deletes the rows of the filter's shard
+     */
+    int deleteShardRows(ShardFilter shard) throws SQLException;
+
+    /**
+     * Creates a secondary index on the table's columns unless one of that
+     * name exists; a table that does not exist yet gets it when created
+     */
+    void createIndex(String tableName, String indexName, List<String> columns) throws SQLException;
+
+    /**
+     * Creates an empty table of text columns keyed by the first column, unless
+     * a table of that name exists
+     */
+    void createTable(String tableName, List<String> columns) throws SQLException;
+
+    boolean healthCheck();
+
+    void shutdown();
+}
@@ -9,6 +9,8 @@ import io.grpc.Server;
 import io.grpc.ServerBuilder;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,6 +23,10 @@ public class WorkerMain {
     private static final String DEFAULT_DB_URL = "jdbc:postgresql://localhost:5432/worker1_db";
     private static final String DEFAULT_DB_USER = "postgres";
     private static final String DEFAULT_DB_PASSWORD = "postgres";
+    // The columnar table cache is off unless given a size
+    private static final long DEFAULT_CACHE_MB = 0;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 60;
+    private static final String DEFAULT_STORAGE = "postgres";
 
     private Server server;
     private WorkerServiceImpl workerService;
@@ -34,6 +40,10 @@ public class WorkerMain {
         String dbUrl = DEFAULT_DB_URL;
         String dbUser = DEFAULT_DB_USER;
         String dbPassword = DEFAULT_DB_PASSWORD;
+        long cacheMb = DEFAULT_CACHE_MB;
+        long cacheTtlSeconds = DEFAULT_CACHE_TTL_SECONDS;
+        String storage = DEFAULT_STORAGE;
+        String dataDir = null;
 
         // Parse command line arguments
         for (int i = 0; i < args.length; i += 2) {
@@ -54,16 +64,31 @@ public class WorkerMain {
                     case "--db-password":
                         dbPassword = args[i + 1];
                         break;
+                    case "--cache-mb":
+                        cacheMb = Long.parseLong(args[i + 1]);
+                        break;
+                    case "--cache-ttl-seconds":
+                        cacheTtlSeconds = Long.parseLong(args[i + 1]);
+                        break;
+                    case "--storage":
+                        storage = args[i + 1];
+                        break;
+                    case "--data-dir":
+                        dataDir = args[i + 1];
+                        break;
                 }
             }
         }
 
         AppLogger.info("Starting worker {} on port: {}", workerId, port);
-        AppLogger.info("Database URL: {}", dbUrl);
+        if (dataDir == null) {
+            dataDir = Paths.get("data", workerId).toString();
+        }
 
         try {
             WorkerMain worker = new WorkerMain();
-            worker.start(workerId, port, dbUrl, dbUser, dbPassword);
+            worker.start(workerId, port, createStorageEngine(workerId, storage, dbUrl, dbUser, dbPassword,
+                    Paths.get(dataDir)), cacheMb, cacheTtlSeconds);
             worker.blockUntilShutdown();
         } catch (Exception e) {
             AppLogger.error("Failed to start worker server", e);
@@ -71,12 +96,32 @@ public class WorkerMain {
         }
     }
 
-    private void start(String workerId, int port, String dbUrl, String dbUser, String dbPassword) throws IOException {
+    private static StorageEngine createStorageEngine(String workerId, String storage, String dbUrl, String dbUser,
+            String dbPassword, Path dataDir) throws IOException {
+        switch (storage) {
+            case "postgres":
+                AppLogger.info("Database URL: {}", dbUrl);
+                return new PostgresStorageEngine(workerId, dbUrl, dbUser, dbPassword);
+            case "columnar":
+                AppLogger.info("Columnar data directory: {}", dataDir.toAbsolutePath());
+                return new ColumnarStorageEngine(workerId, dataDir);
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + storage);
+        }
+    }
+
+    private void start(String workerId, int port, StorageEngine storageEngine, long cacheMb, long cacheTtlSeconds)
+            throws IOException {
         // Initialize DataStore
-        dataStore = new DataStore(workerId, dbUrl, dbUser, dbPassword);
+        dataStore = new DataStore(workerId, storageEngine);
 
-        // Initialize QueryExecutor
-        queryExecutor = new QueryExecutor(workerId, dataStore);
+        // Initialize QueryExecutor, with a columnar table cache if one is configured
+        ColumnarTableCache tableCache = null;
+        if (cacheMb > 0) {
+            tableCache = new ColumnarTableCache(cacheMb * 1024 * 1024, cacheTtlSeconds * 1000);
+            AppLogger.info("Columnar table cache enabled: {} MB, TTL {}s", cacheMb, cacheTtlSeconds);
+        }
+        queryExecutor = new QueryExecutor(workerId, dataStore, tableCache);
 
         // Initialize WorkerService
         workerService = new WorkerServiceImpl(workerId, queryExecutor, dataStore);
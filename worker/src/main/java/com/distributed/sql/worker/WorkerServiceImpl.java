@@ -4,12 +4,23 @@ import com.distributed.sql.common.models.*;
 import com.distributed.sql.common.proto.WorkerServiceGrpc;
 import com.distributed.sql.common.proto.QueryProto.*;
 import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.ColumnChunks;
 import com.distributed.sql.common.utils.Tracer;
+import com.distributed.sql.common.utils.WindowOperator;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +30,15 @@ import java.util.concurrent.TimeUnit;
  */
 public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
 
+    static final String NULLS_METADATA_KEY = ColumnChunks.NULLS_METADATA_KEY;
+    // How often a progressive query sends its partial states
+    static final long REFINE_INTERVAL_MS = 250;
+    // Result rows per response of a streamed query
+    static final int STREAM_CHUNK_ROWS = 1024;
+    // Rows a window evaluation's sort keeps in memory before spilling a run to disk
+    static final int WINDOW_ROWS_IN_MEMORY = 100_000;
+    static final Path WINDOW_SPILL_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"));
+
     private final String workerId;
     private final QueryExecutor queryExecutor;
     private final DataStore dataStore;
@@ -53,6 +73,23 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
 
     @Override
     public void executeQuery(ExecuteQueryRequest request, StreamObserver<ExecuteQueryResponse> responseObserver) {
+        executeQuery(request, responseObserver, false);
+    }
+
+    /**
+     * Runs a query like executeQuery, but sends its result rows, or a window
+     * evaluation's output, in chunks of STREAM_CHUNK_ROWS as they are
+     * produced rather than collecting them into one response. The chunks are
+     * EXECUTING; the final COMPLETED response carries the rows left over and
+     * the result's totals.
+     */
+    @Override
+    public void streamQuery(ExecuteQueryRequest request, StreamObserver<ExecuteQueryResponse> responseObserver) {
+        executeQuery(request, responseObserver, true);
+    }
+
+    private void executeQuery(ExecuteQueryRequest request, StreamObserver<ExecuteQueryResponse> responseObserver,
+            boolean streamed) {
         String traceId = Tracer.startTrace("execute_query");
         activeQueries++;
 
@@ -61,38 +98,71 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
             String queryId = request.getQueryId();
 
             AppLogger.info("Worker {} executing query: {} with ID: {}", workerId, sqlQuery, queryId);
+            if (request.getShardIdsCount() > 0) {
+                AppLogger.debug("Worker {} reading shards {} for query {}", workerId, request.getShardIdsList(), queryId);
+            }
 
-            // Execute the query
-            ResultSet resultSet = queryExecutor.executeQuery(sqlQuery);
+            // Execute the query within the tighter of the request and gRPC deadlines
+            long deadlineMs = effectiveDeadline(request.getDeadlineMs());
+            // Read only the rows of the shards this worker was asked for, not its replicas of others
+            Map<String, ShardFilter> shardFilters = ShardFilter.byTable(request.getShardScopesList());
+
+            // A plain scan the storage engine can send as stored skips decoding into rows
+            QueryResult columnBatches = !streamed && request.getRuntimeFiltersCount() == 0
+                    && !request.hasAggregation() && !request.hasSample() && !request.hasWindow()
+                    ? queryExecutor.scanColumnBatches(sqlQuery, shardFilters, deadlineMs)
+                    : null;
+            if (columnBatches != null) {
+                QueryResult queryResult = columnBatches.toBuilder()
+                        .setQueryId(queryId)
+                        .setSqlQuery(sqlQuery)
+                        .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                                .setSeconds(System.currentTimeMillis() / 1000)
+                                .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                                .build())
+                        .build();
+                responseObserver.onNext(ExecuteQueryResponse.newBuilder()
+                        .setSuccess(true)
+                        .setResult(queryResult)
+                        .setMessage("Query executed successfully")
+                        .build());
+                responseObserver.onCompleted();
+
+                totalQueries++;
+                AppLogger.info("Worker {} completed query {} in {}ms",
+                        workerId, queryId, queryResult.getExecutionTimeMs());
+                return;
+            }
 
-            // Convert ResultSet to QueryResult
             QueryResult.Builder resultBuilder = QueryResult.newBuilder()
                     .setQueryId(queryId)
                     .setSqlQuery(sqlQuery)
-                    .setExecutionTimeMs(resultSet.getExecutionTimeMs())
-                    .setRowsReturned(resultSet.getTotalRows())
-                    .setStatus(mapStatus(resultSet.getStatus()))
+                    .setStatus(QueryStatus.COMPLETED)
                     .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
                             .setSeconds(System.currentTimeMillis() / 1000)
                             .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
                             .build());
+            // Approximate mode reads only a sample of the rows, which the storage engine takes as it reads
+            if (request.hasSample()) {
+                resultBuilder.setSampleFraction(request.getSample().getFraction());
+            }
 
-            // Add rows to result
-            for (com.distributed.sql.common.models.Row row : resultSet.getRows()) {
-                com.distributed.sql.common.proto.QueryProto.Row.Builder rowBuilder = com.distributed.sql.common.proto.QueryProto.Row
-                        .newBuilder();
-
-                for (String value : row.getValues()) {
-                    rowBuilder.addValues(value);
-                }
-
-                // Add metadata
-                for (var entry : row.getMetadata().entrySet()) {
-                    rowBuilder.putMetadata(entry.getKey(), entry.getValue());
+            // The rows are filtered and folded as the storage engine reads them, not once it has them all
+            long start = System.currentTimeMillis();
+            RowFolder folder = new RowFolder(request, resultBuilder, streamed ? responseObserver : null);
+            try {
+                queryExecutor.streamQuery(sqlQuery, shardFilters, request.hasSample() ? request.getSample() : null,
+                        false, deadlineMs, folder);
+                if (Context.current().isCancelled()) {
+                    AppLogger.warn("Worker {} abandoning query {}: caller cancelled or deadline passed",
+                            workerId, queryId);
+                    return;
                 }
-
-                resultBuilder.addResults(rowBuilder.build());
+                folder.finish();
+            } finally {
+                folder.close();
             }
+            resultBuilder.setExecutionTimeMs(System.currentTimeMillis() - start);
 
             QueryResult queryResult = resultBuilder.build();
 
@@ -107,7 +177,7 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
 
             totalQueries++;
             AppLogger.info("Worker {} completed query {} in {}ms",
-                    workerId, queryId, resultSet.getExecutionTimeMs());
+                    workerId, queryId, queryResult.getExecutionTimeMs());
 
         } catch (Exception e) {
             AppLogger.error("Error executing query on worker {}", workerId, e);
@@ -139,11 +209,127 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
         }
     }
 
+    /**
+     * Runs an aggregation like executeQuery, but has the storage engine read
+     * the rows in a random order and, while it reads, sends the partial
+     * states every REFINE_INTERVAL_MS, each covering a uniform sample of the
+     * rows whose fraction it reports, before the final states over every
+     * row. Other queries get one response.
+     */
+    @Override
+    public void executeQueryProgressive(ExecuteQueryRequest request,
+            StreamObserver<ExecuteQueryResponse> responseObserver) {
+        if (!request.hasAggregation()) {
+            executeQuery(request, responseObserver);
+            return;
+        }
+        String traceId = Tracer.startTrace("execute_query_progressive");
+        activeQueries++;
+
+        try {
+            String sqlQuery = request.getSqlQuery();
+            String queryId = request.getQueryId();
+            AppLogger.info("Worker {} executing query progressively: {} with ID: {}", workerId, sqlQuery, queryId);
+
+            long deadlineMs = effectiveDeadline(request.getDeadlineMs());
+            double sampleFraction = request.hasSample() ? request.getSample().getFraction() : 1;
+            long start = System.currentTimeMillis();
+            RowFolder folder = new RowFolder(request, QueryResult.newBuilder(), null);
+
+            // The storage engine hands the rows over in a random order, so those folded so far are a
+            // uniform sample of all of them, and refinements go out while it is still reading
+            StorageEngine.RowSink progress = new StorageEngine.RowSink() {
+                private long nextRefineMs = start + REFINE_INTERVAL_MS;
+
+                @Override
+                public void columns(List<String> columns) {
+                    folder.columns(columns);
+                }
+
+                @Override
+                public boolean rows(List<com.distributed.sql.common.models.Row> rows, double fractionRead) {
+                    if (!folder.rows(rows, fractionRead)) {
+                        return false;
+                    }
+                    if (fractionRead > 0 && fractionRead < 1 && System.currentTimeMillis() >= nextRefineMs) {
+                        long rowsTotal = Math.round(folder.getRowsRead() / fractionRead);
+                        responseObserver.onNext(progressResponse(request, folder.getAggregator(),
+                                sampleFraction * fractionRead, folder.getRowsRead(), rowsTotal, false,
+                                System.currentTimeMillis() - start));
+                        nextRefineMs = System.currentTimeMillis() + REFINE_INTERVAL_MS;
+                    }
+                    return true;
+                }
+            };
+            queryExecutor.streamQuery(sqlQuery, ShardFilter.byTable(request.getShardScopesList()),
+                    request.hasSample() ? request.getSample() : null, true, deadlineMs, progress);
+            if (Context.current().isCancelled()) {
+                AppLogger.warn("Worker {} abandoning query {}: caller cancelled or deadline passed", workerId, queryId);
+                return;
+            }
+            responseObserver.onNext(progressResponse(request, folder.getAggregator(),
+                    request.hasSample() ? sampleFraction : 0, folder.getRowsRead(), folder.getRowsRead(), true,
+                    System.currentTimeMillis() - start));
+            responseObserver.onCompleted();
+
+            totalQueries++;
+            AppLogger.info("Worker {} completed query {} progressively over {} rows", workerId, queryId,
+                    folder.getRowsRead());
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing query progressively on worker {}", workerId, e);
+            responseObserver.onNext(ExecuteQueryResponse.newBuilder()
+                    .setSuccess(false)
+                    .setResult(QueryResult.newBuilder()
+                            .setQueryId(request.getQueryId())
+                            .setSqlQuery(request.getSqlQuery())
+                            .setStatus(QueryStatus.FAILED)
+                            .build())
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+
+        } finally {
+            activeQueries--;
+            Tracer.endTrace("execute_query_progressive");
+        }
+    }
+
+    /**
+     * Response carrying the aggregator's states over the given fraction (0 =
+     * all) of the rows, the last one once done
+     */
+    private static ExecuteQueryResponse progressResponse(ExecuteQueryRequest request, PartialAggregator aggregator,
+            double sampleFraction, long rowsProcessed, long rowsTotal, boolean done, long executionTimeMs) {
+        QueryResult result = QueryResult.newBuilder()
+                .setQueryId(request.getQueryId())
+                .setSqlQuery(request.getSqlQuery())
+                .setExecutionTimeMs(executionTimeMs)
+                .setStatus(done ? QueryStatus.COMPLETED : QueryStatus.EXECUTING)
+                .addAllAggregateGroups(aggregator.toGroups())
+                .setRowsReturned(aggregator.getGroupCount())
+                .setSampleFraction(sampleFraction)
+                .setProgress(QueryProgress.newBuilder()
+                        .setRowsProcessed(rowsProcessed)
+                        .setRowsTotal(rowsTotal)
+                        .build())
+                .setTimestamp(com.google.protobuf.Timestamp.newBuilder()
+                        .setSeconds(System.currentTimeMillis() / 1000)
+                        .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
+                        .build())
+                .build();
+        return ExecuteQueryResponse.newBuilder()
+                .setSuccess(true)
+                .setResult(result)
+                .setMessage(done ? "Query executed successfully" : "Query in progress")
+                .build();
+    }
+
     @Override
     public void getWorkerStatus(GetWorkerStatusRequest request,
             StreamObserver<GetWorkerStatusResponse> responseObserver) {
         try {
-            WorkerStatus status = WorkerStatus.newBuilder()
+            WorkerStatus.Builder status = WorkerStatus.newBuilder()
                     .setWorkerId(workerId)
                     .setStatus("HEALTHY")
                     .setCpuUsage(cpuUsage)
@@ -156,8 +342,13 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
                     .setLastHeartbeat(com.google.protobuf.Timestamp.newBuilder()
                             .setSeconds(System.currentTimeMillis() / 1000)
                             .setNanos((int) ((System.currentTimeMillis() % 1000) * 1000000))
-                            .build())
-                    .build();
+                            .build());
+
+            ColumnarTableCache tableCache = queryExecutor.getTableCache();
+            if (tableCache != null) {
+                status.setCacheHitRatio(tableCache.getHitRatio())
+                        .setCacheBytes(tableCache.getBytes());
+            }
 
             GetWorkerStatusResponse response = GetWorkerStatusResponse.newBuilder()
                     .setSuccess(true)
@@ -211,21 +402,446 @@ public class WorkerServiceImpl extends WorkerServiceGrpc.WorkerServiceImplBase {
         }
     }
 
-    private QueryStatus mapStatus(String status) {
-        switch (status.toUpperCase()) {
-            case "COMPLETED":
-                return QueryStatus.COMPLETED;
-            case "FAILED":
-                return QueryStatus.FAILED;
-            case "PENDING":
-                return QueryStatus.PENDING;
-            case "EXECUTING":
-                return QueryStatus.EXECUTING;
-            case "CANCELLED":
-                return QueryStatus.CANCELLED;
-            default:
-                return QueryStatus.COMPLETED;
+    @Override
+    public void getShardStats(GetShardStatsRequest request, StreamObserver<GetShardStatsResponse> responseObserver) {
+        try {
+            GetShardStatsResponse.Builder response = GetShardStatsResponse.newBuilder().setSuccess(true);
+            for (ShardRange shard : request.getShardsList()) {
+                long rows = dataStore.countShardRows(ShardFilter.of(shard));
+                response.putRowCounts(shard.getShardId(), rows);
+            }
+
+            responseObserver.onNext(response.setMessage("Shard stats retrieved successfully").build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error getting shard stats on worker {}", workerId, e);
+
+            responseObserver.onNext(GetShardStatsResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void readShardRows(ReadShardRowsRequest request, StreamObserver<ReadShardRowsResponse> responseObserver) {
+        try {
+            ShardRange shard = request.getShard();
+            ResultSet batch = dataStore.readShardRows(ShardFilter.of(shard), request.getAfterKey(),
+                    request.getBatchSize());
+
+            ReadShardRowsResponse.Builder response = ReadShardRowsResponse.newBuilder()
+                    .setSuccess(true)
+                    .addAllColumns(batch.getColumns())
+                    .setDone(batch.getRows().size() < request.getBatchSize());
+
+            int keyIndex = batch.getColumns().indexOf(shard.getKeyColumn());
+            for (com.distributed.sql.common.models.Row row : batch.getRows()) {
+                response.addRows(toProtoRow(row));
+            }
+            if (!batch.getRows().isEmpty() && keyIndex >= 0) {
+                response.setLastKey(batch.getRows().get(batch.getRows().size() - 1).getValues().get(keyIndex));
+            }
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error reading shard rows on worker {}", workerId, e);
+
+            responseObserver.onNext(ReadShardRowsResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void writeShardRows(WriteShardRowsRequest request, StreamObserver<WriteShardRowsResponse> responseObserver) {
+        try {
+            List<com.distributed.sql.common.models.Row> rows = new ArrayList<>();
+            for (com.distributed.sql.common.proto.QueryProto.Row row : request.getRowsList()) {
+                rows.add(fromProtoRow(row));
+            }
+            long written = request.getBulk()
+                    ? dataStore.copyRows(request.getTableName(), request.getColumnsList(), rows)
+                    : dataStore.writeRows(request.getTableName(), request.getColumnsList(), rows);
+
+            responseObserver.onNext(WriteShardRowsResponse.newBuilder()
+                    .setSuccess(true)
+                    .setRowsWritten(written)
+                    .setMessage("Rows written successfully")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error writing shard rows on worker {}", workerId, e);
+
+            responseObserver.onNext(WriteShardRowsResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void executeWrite(ExecuteWriteRequest request, StreamObserver<ExecuteWriteResponse> responseObserver) {
+        try {
+            List<com.distributed.sql.common.models.Row> rows = new ArrayList<>();
+            for (com.distributed.sql.common.proto.QueryProto.Row row : request.getRowsList()) {
+                rows.add(fromProtoRow(row));
+            }
+            long affected = dataStore.executeWrite(request.getTransactionId(), request.getOnePhase(),
+                    request.getSqlStatement(), request.getTableName(), request.getColumnsList(), rows,
+                    ShardFilter.byTable(request.getCountScopesList()), effectiveDeadline(request.getDeadlineMs()));
+            AppLogger.info("Worker {} {} transaction {} ({} rows)", workerId,
+                    request.getOnePhase() ? "committed" : "prepared", request.getTransactionId(), affected);
+
+            responseObserver.onNext(ExecuteWriteResponse.newBuilder()
+                    .setSuccess(true)
+                    .setRowsAffected(affected)
+                    .setMessage(request.getOnePhase() ? "Write committed" : "Write prepared")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error executing write for transaction {} on worker {}",
+                    request.getTransactionId(), workerId, e);
+
+            responseObserver.onNext(ExecuteWriteResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void finishTransaction(FinishTransactionRequest request,
+            StreamObserver<FinishTransactionResponse> responseObserver) {
+        try {
+            boolean found = dataStore.finishTransaction(request.getTransactionId(), request.getCommit());
+            AppLogger.info("Worker {} {} transaction {}{}", workerId,
+                    request.getCommit() ? "committed" : "rolled back", request.getTransactionId(),
+                    found ? "" : " (not prepared here)");
+
+            responseObserver.onNext(FinishTransactionResponse.newBuilder()
+                    .setSuccess(true)
+                    .setFound(found)
+                    .setMessage("Transaction finished")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error finishing transaction {} on worker {}", request.getTransactionId(), workerId, e);
+
+            responseObserver.onNext(FinishTransactionResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void listPreparedTransactions(ListPreparedTransactionsRequest request,
+            StreamObserver<ListPreparedTransactionsResponse> responseObserver) {
+        try {
+            responseObserver.onNext(ListPreparedTransactionsResponse.newBuilder()
+                    .setSuccess(true)
+                    .addAllTransactionIds(dataStore.listPreparedTransactions(request.getPrefix()))
+                    .setMessage("Prepared transactions listed")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error listing prepared transactions on worker {}", workerId, e);
+
+            responseObserver.onNext(ListPreparedTransactionsResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void createIndex(CreateIndexRequest request, StreamObserver<CreateIndexResponse> responseObserver) {
+        try {
+            dataStore.createIndex(request.getTableName(), request.getIndexName(), request.getColumnsList());
+            AppLogger.info("Worker {} created index {} on {}", workerId, request.getIndexName(),
+                    request.getTableName());
+
+            responseObserver.onNext(CreateIndexResponse.newBuilder()
+                    .setSuccess(true)
+                    .setMessage("Index created successfully")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error creating index {} on worker {}", request.getIndexName(), workerId, e);
+
+            responseObserver.onNext(CreateIndexResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void createTable(CreateTableRequest request, StreamObserver<CreateTableResponse> responseObserver) {
+        try {
+            dataStore.createTable(request.getTableName(), request.getColumnsList());
+            AppLogger.info("Worker {} created table {}", workerId, request.getTableName());
+
+            responseObserver.onNext(CreateTableResponse.newBuilder()
+                    .setSuccess(true)
+                    .setMessage("Table created successfully")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error creating table {} on worker {}", request.getTableName(), workerId, e);
+
+            responseObserver.onNext(CreateTableResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    @Override
+    public void deleteShardRows(DeleteShardRowsRequest request,
+            StreamObserver<DeleteShardRowsResponse> responseObserver) {
+        try {
+            ShardRange shard = request.getShard();
+            int deleted = dataStore.deleteShardRows(ShardFilter.of(shard));
+            AppLogger.info("Worker {} deleted {} rows of shard {}", workerId, deleted, shard.getShardId());
+
+            responseObserver.onNext(DeleteShardRowsResponse.newBuilder()
+                    .setSuccess(true)
+                    .setRowsDeleted(deleted)
+                    .setMessage("Rows deleted successfully")
+                    .build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            AppLogger.error("Error deleting shard rows on worker {}", workerId, e);
+
+            responseObserver.onNext(DeleteShardRowsResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage("Error: " + e.getMessage())
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    /**
+     * Takes a query's rows from the storage engine as it reads them. Drops
+     * the rows the runtime filters reject, then folds the rest into partial
+     * aggregates, feeds them to the window operator or adds them to the
+     * result, as the request asks.
+     */
+    private static final class RowFolder implements StorageEngine.RowSink {
+        private final ExecuteQueryRequest request;
+        private final QueryResult.Builder result;
+        // Where full chunks of result rows go as they are produced, null to keep them all in result
+        private final StreamObserver<ExecuteQueryResponse> chunks;
+        private final List<RuntimeFilterProbe> probes = new ArrayList<>();
+        private PartialAggregator aggregator;
+        private WindowOperator window;
+        private long rowsRead;
+        private int rowsReturned;
+
+        RowFolder(ExecuteQueryRequest request, QueryResult.Builder result,
+                StreamObserver<ExecuteQueryResponse> chunks) {
+            this.request = request;
+            this.result = result;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void columns(List<String> columns) {
+            result.addAllColumns(columns);
+            // Runtime filters from the other side of a join drop rows before they leave the worker
+            for (RuntimeFilter filter : request.getRuntimeFiltersList()) {
+                probes.add(new RuntimeFilterProbe(filter, columns));
+            }
+            if (request.hasAggregation()) {
+                aggregator = new PartialAggregator(request.getAggregation(), columns);
+            }
+            // Window functions sort the rows, spilling them past a memory budget, and append their values
+            if (request.hasWindow()) {
+                window = new WindowOperator(request.getWindow(), columns, WINDOW_SPILL_DIRECTORY,
+                        WINDOW_ROWS_IN_MEMORY);
+                result.clearColumns().addAllColumns(window.getColumns());
+            }
+        }
+
+        @Override
+        public boolean rows(List<com.distributed.sql.common.models.Row> rows, double fractionRead) {
+            for (com.distributed.sql.common.models.Row row : rows) {
+                rowsRead++;
+                if (!passesRuntimeFilters(probes, row)) {
+                    continue;
+                }
+                if (aggregator != null) {
+                    aggregator.add(row);
+                } else if (window != null) {
+                    try {
+                        window.add(row.getValues());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else {
+                    com.distributed.sql.common.proto.QueryProto.Row.Builder rowBuilder = toProtoRow(row).toBuilder();
+                    for (var entry : row.getMetadata().entrySet()) {
+                        rowBuilder.putMetadata(entry.getKey(), entry.getValue());
+                    }
+                    addResult(rowBuilder.build());
+                }
+            }
+            return !Context.current().isCancelled();
+        }
+
+        /**
+         * Rows read so far, before the runtime filters
+         */
+        long getRowsRead() {
+            return rowsRead;
+        }
+
+        PartialAggregator getAggregator() {
+            return aggregator;
+        }
+
+        /**
+         * Adds what the rows were folded into to the result
+         */
+        void finish() throws IOException {
+            if (window != null) {
+                window.finish(values -> addResult(toProtoRow(new com.distributed.sql.common.models.Row(values))));
+                result.setSpilledRuns(window.getSpilledRuns());
+            }
+            if (aggregator != null) {
+                result.addAllAggregateGroups(aggregator.toGroups())
+                        .setRowsReturned(aggregator.getGroupCount());
+            } else {
+                result.setRowsReturned(rowsReturned);
+            }
+            for (RuntimeFilterProbe probe : probes) {
+                result.addRuntimeFilterStats(probe.toStats());
+            }
+        }
+
+        void close() throws IOException {
+            if (window != null) {
+                window.close();
+            }
+        }
+
+        private void addResult(com.distributed.sql.common.proto.QueryProto.Row row) {
+            result.addResults(row);
+            rowsReturned++;
+            if (chunks != null && result.getResultsCount() >= STREAM_CHUNK_ROWS) {
+                sendChunk();
+            }
+        }
+
+        /**
+         * Sends the result rows so far and drops them, once the caller has
+         * taken the earlier chunks so they do not pile up in gRPC's buffers
+         */
+        private void sendChunk() {
+            if (chunks instanceof ServerCallStreamObserver<?> call) {
+                while (!call.isReady() && !Context.current().isCancelled()) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted streaming query " + request.getQueryId(), e);
+                    }
+                }
+            }
+            if (Context.current().isCancelled()) {
+                // Nobody is listening any more; the read stops at the next batch
+                result.clearResults();
+                return;
+            }
+            chunks.onNext(ExecuteQueryResponse.newBuilder()
+                    .setSuccess(true)
+                    .setResult(QueryResult.newBuilder()
+                            .setQueryId(request.getQueryId())
+                            .setSqlQuery(request.getSqlQuery())
+                            .setStatus(QueryStatus.EXECUTING)
+                            .addAllColumns(result.getColumnsList())
+                            .addAllResults(result.getResultsList())
+                            .setRowsReturned(result.getResultsCount()))
+                    .setMessage("Query in progress")
+                    .build());
+            result.clearResults();
+        }
+    }
+
+    /**
+     * Returns true if the row passes every runtime filter pushed down from a join's build side
+     */
+    private static boolean passesRuntimeFilters(List<RuntimeFilterProbe> probes,
+            com.distributed.sql.common.models.Row row) {
+        for (RuntimeFilterProbe probe : probes) {
+            if (!probe.test(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Proto rows cannot hold nulls, so null values are sent as empty strings and
+     * their positions listed in the "nulls" metadata entry
+     */
+    static com.distributed.sql.common.proto.QueryProto.Row toProtoRow(com.distributed.sql.common.models.Row row) {
+        com.distributed.sql.common.proto.QueryProto.Row.Builder builder = com.distributed.sql.common.proto.QueryProto.Row
+                .newBuilder();
+        StringJoiner nulls = new StringJoiner(",");
+        for (int i = 0; i < row.getValues().size(); i++) {
+            String value = row.getValues().get(i);
+            if (value == null) {
+                nulls.add(String.valueOf(i));
+            }
+            builder.addValues(value != null ? value : "");
+        }
+        if (nulls.length() > 0) {
+            builder.putMetadata(NULLS_METADATA_KEY, nulls.toString());
+        }
+        return builder.build();
+    }
+
+    static com.distributed.sql.common.models.Row fromProtoRow(com.distributed.sql.common.proto.QueryProto.Row row) {
+        List<String> values = new ArrayList<>(row.getValuesList());
+        String nulls = row.getMetadataOrDefault(NULLS_METADATA_KEY, "");
+        if (!nulls.isEmpty()) {
+            for (String index : nulls.split(",")) {
+                values.set(Integer.parseInt(index), null);
+            }
+        }
+        return new com.distributed.sql.common.models.Row(values);
+    }
+
+    private long effectiveDeadline(long requestDeadlineMs) {
+        long deadlineMs = requestDeadlineMs;
+        Deadline grpcDeadline = Context.current().getDeadline();
+        if (grpcDeadline != null) {
+            long grpcDeadlineMs = System.currentTimeMillis() + grpcDeadline.timeRemaining(TimeUnit.MILLISECONDS);
+            deadlineMs = deadlineMs > 0 ? Math.min(deadlineMs, grpcDeadlineMs) : grpcDeadlineMs;
         }
+        return deadlineMs;
     }
 
     public void shutdown() {
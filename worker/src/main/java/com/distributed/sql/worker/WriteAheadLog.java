@@ -0,0 +1,203 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.utils.AppLogger;
+import com.distributed.sql.common.utils.LogRecords;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A worker's write-ahead log: numbered files of {@link LogRecords} records.
+ * Appends only write; {@link #sync} makes them durable with group commit,
+ * so concurrent writers waiting for their records share one fsync. The log
+ * rolls over to a new file when the memtable it covers is frozen, and files
+ * are deleted once everything in them has been flushed to segments.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final String SUFFIX = ".wal";
+
+    private final Path directory;
+    private FileChannel channel;
+    private long fileId;
+    // Records appended and records known to be on disk, counted across files
+    private long appendedSequence;
+    private long syncedSequence;
+    private boolean syncing;
+    private long syncs;
+    private long syncNanos;
+
+    interface ReplayHandler {
+        void apply(long fileId, byte[] payload) throws IOException;
+    }
+
+    WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Passes every record of the existing files to the handler, oldest file
+     * first, then starts a new file for appending
+     */
+    synchronized void replay(ReplayHandler handler) throws IOException {
+        List<Long> fileIds = fileIds();
+        int records = 0;
+        for (long id : fileIds) {
+            records += LogRecords.replay(file(id), payload -> handler.apply(id, payload)).records;
+        }
+        fileId = fileIds.isEmpty() ? 1 : fileIds.get(fileIds.size() - 1) + 1;
+        channel = open(fileId);
+        AppLogger.info("Replayed {} write-ahead log records from {} files in {}", records, fileIds.size(), directory);
+    }
+
+    /**
+     * Appends a record without waiting for it to reach the disk. Returns the
+     * sequence number to pass to {@link #sync}.
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("Write-ahead log must be replayed before appending");
+        }
+        LogRecords.appendWithoutSync(channel, payload);
+        return ++appendedSequence;
+    }
+
+    /**
+     * Waits until the record with the sequence number is on disk. One caller
+     * fsyncs everything appended so far while the others wait for it.
+     */
+    void sync(long sequence) throws IOException {
+        FileChannel target;
+        long upTo;
+        synchronized (this) {
+            while (syncedSequence < sequence && syncing) {
+                awaitSync();
+            }
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            syncing = true;
+            target = channel;
+            upTo = appendedSequence;
+        }
+
+        boolean synced = false;
+        long startTime = System.nanoTime();
+        try {
+            target.force(false);
+            synced = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (synced) {
+                    syncedSequence = Math.max(syncedSequence, upTo);
+                    syncs++;
+                    syncNanos += System.nanoTime() - startTime;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Syncs the current file and starts a new one. Returns the id of the
+     * file that was closed; it covers everything appended before the call.
+     */
+    synchronized long rollOver() throws IOException {
+        while (syncing) {
+            awaitSync();
+        }
+        channel.force(false);
+        channel.close();
+        syncedSequence = appendedSequence;
+        long closedFileId = fileId;
+        fileId++;
+        channel = open(fileId);
+        return closedFileId;
+    }
+
+    /**
+     * Deletes the files up to and including the given id
+     */
+    synchronized void deleteUpTo(long lastFileId) throws IOException {
+        for (long id : fileIds()) {
+            if (id <= lastFileId) {
+                Files.deleteIfExists(file(id));
+            }
+        }
+    }
+
+    synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    synchronized long getAppendCount() {
+        return appendedSequence;
+    }
+
+    /**
+     * Returns the mean fsync time in microseconds
+     */
+    synchronized double getMeanSyncMicros() {
+        return syncs == 0 ? 0 : syncNanos / 1000.0 / syncs;
+    }
+
+    private void awaitSync() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the write-ahead log");
+        }
+    }
+
+    private List<Long> fileIds() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path file(long id) {
+        return directory.resolve(String.format("%016d%s", id, SUFFIX));
+    }
+
+    private FileChannel open(long id) throws IOException {
+        FileChannel opened = FileChannel.open(file(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        // Make the new file's directory entry durable too
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            AppLogger.debug("Could not fsync directory {}", directory);
+        }
+        return opened;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            while (syncing) {
+                awaitSync();
+            }
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+}
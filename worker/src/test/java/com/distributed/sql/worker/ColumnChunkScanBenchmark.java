@@ -0,0 +1,104 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures result bytes shipped per CPU-second for SELECT amount FROM orders
+ * on the columnar engine, building the response row by row versus sending
+ * the stored column chunks.
+ *
+ * Not a unit test; run the main method against the worker test classpath.
+ */
+public class ColumnChunkScanBenchmark {
+
+    private static final int ROWS = 2_000_000;
+    private static final String QUERY = "SELECT amount FROM orders";
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("chunk-benchmark");
+        try {
+            ColumnarStorageEngine engine = new ColumnarStorageEngine("benchmark", directory);
+            List<String> columns = List.of("order_id", "user_id", "amount", "status");
+            for (int start = 0; start < ROWS; start += ColumnarStorageEngine.SEGMENT_ROWS) {
+                List<Row> rows = new ArrayList<>();
+                for (int id = start; id < Math.min(ROWS, start + ColumnarStorageEngine.SEGMENT_ROWS); id++) {
+                    rows.add(new Row(Arrays.asList(Integer.toString(id), Integer.toString(id % 50_000),
+                            Integer.toString(id * 7 % 100_000), id % 4 == 0 ? "shipped" : "pending")));
+                }
+                engine.copyRows("orders", columns, rows);
+            }
+            engine.flush();
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            for (int run = 1; run <= RUNS; run++) {
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                long rowBytes = ship(rowResult(engine));
+                double rowSeconds = (threads.getCurrentThreadCpuTime() - cpuStart) / 1e9;
+
+                cpuStart = threads.getCurrentThreadCpuTime();
+                long chunkBytes = ship(engine.scanColumnBatches(QUERY, 0));
+                double chunkSeconds = (threads.getCurrentThreadCpuTime() - cpuStart) / 1e9;
+
+                // The chunks are smaller than the rows, so rows per second compares the two fairly
+                System.out.printf("run %d: rows %.1f MB in %.3f cpu-s (%.1f MB/s, %.1fM rows/s per core), "
+                        + "chunks %.1f MB in %.3f cpu-s (%.1f MB/s, %.1fM rows/s per core)%n", run,
+                        rowBytes / 1e6, rowSeconds, rowBytes / 1e6 / rowSeconds, ROWS / 1e6 / rowSeconds,
+                        chunkBytes / 1e6, chunkSeconds, chunkBytes / 1e6 / chunkSeconds, ROWS / 1e6 / chunkSeconds);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Builds the response the way WorkerServiceImpl does for decoded results
+     */
+    private static QueryResult rowResult(ColumnarStorageEngine engine) throws Exception {
+        ResultSet resultSet = engine.executeQuery(QUERY, 0);
+        QueryResult.Builder result = QueryResult.newBuilder().addAllColumns(resultSet.getColumns());
+        for (Row row : resultSet.getRows()) {
+            result.addResults(WorkerServiceImpl.toProtoRow(row));
+        }
+        return result.setRowsReturned(resultSet.getTotalRows()).build();
+    }
+
+    /**
+     * Serializes the result as gRPC would, discarding the bytes
+     */
+    private static long ship(QueryResult result) throws IOException {
+        CountingStream out = new CountingStream();
+        result.writeTo(out);
+        return out.count;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
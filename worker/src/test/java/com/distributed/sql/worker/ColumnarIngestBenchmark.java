@@ -0,0 +1,106 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Row;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the fsync latency of the write-ahead log and the ingest
+ * throughput of the columnar engine with concurrent writers, where group
+ * commit lets one fsync acknowledge the writes of many threads.
+ *
+ * Not a unit test; run the main method against the worker test classpath.
+ */
+public class ColumnarIngestBenchmark {
+
+    private static final int SYNC_SAMPLES = 500;
+    private static final int WRITES_PER_THREAD = 2_000;
+    private static final int ROWS_PER_WRITE = 10;
+    private static final int[] THREADS = {1, 4, 16, 64};
+    private static final List<String> COLUMNS = List.of("order_id", "user_id", "amount", "status");
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ingest-benchmark");
+        try {
+            measureSyncLatency(directory.resolve("sync"));
+            for (int threads : THREADS) {
+                measureIngest(directory.resolve("ingest-" + threads), threads);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Appends and syncs one small record at a time, as a log without group commit would
+     */
+    private static void measureSyncLatency(Path directory) throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory)) {
+            log.replay((fileId, payload) -> { });
+            long[] micros = new long[SYNC_SAMPLES];
+            byte[] record = new byte[200];
+            for (int i = 0; i < SYNC_SAMPLES; i++) {
+                long start = System.nanoTime();
+                log.sync(log.append(record));
+                micros[i] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+            System.out.printf("fsync latency: mean %.0f us, p50 %d us, p99 %d us over %d syncs%n",
+                    log.getMeanSyncMicros(), micros[SYNC_SAMPLES / 2], micros[SYNC_SAMPLES * 99 / 100],
+                    SYNC_SAMPLES);
+        }
+    }
+
+    private static void measureIngest(Path directory, int threads) throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("benchmark", directory);
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int first = thread * WRITES_PER_THREAD * ROWS_PER_WRITE;
+                futures.add(writers.submit(() -> {
+                    for (int write = 0; write < WRITES_PER_THREAD; write++) {
+                        engine.copyRows("orders", COLUMNS, rows(first + write * ROWS_PER_WRITE));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            WriteAheadLog log = engine.getLog();
+            long writes = (long) threads * WRITES_PER_THREAD;
+            System.out.printf("%d writers: %.0f writes/s, %.0f rows/s, %.2f writes per fsync, "
+                    + "mean fsync %.0f us%n", threads, writes / seconds, writes * ROWS_PER_WRITE / seconds,
+                    (double) writes / log.getSyncCount(), log.getMeanSyncMicros());
+        } finally {
+            writers.shutdown();
+            writers.awaitTermination(1, TimeUnit.MINUTES);
+            engine.shutdown();
+        }
+    }
+
+    private static List<Row> rows(int firstId) {
+        List<Row> rows = new ArrayList<>(ROWS_PER_WRITE);
+        for (int id = firstId; id < firstId + ROWS_PER_WRITE; id++) {
+            rows.add(new Row(Arrays.asList(Integer.toString(id), Integer.toString(id % 50_000),
+                    Integer.toString(id * 7 % 100_000), id % 4 == 0 ? "shipped" : "pending")));
+        }
+        return rows;
+    }
+}
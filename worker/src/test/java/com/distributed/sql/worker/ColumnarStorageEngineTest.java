@@ -0,0 +1,563 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto;
+import com.distributed.sql.common.proto.QueryProto.ColumnEncoding;
+import com.distributed.sql.common.proto.QueryProto.QueryResult;
+import com.distributed.sql.common.proto.QueryProto.SampleMethod;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+import com.distributed.sql.common.utils.ColumnChunks;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ColumnarStorageEngineTest {
+
+    private static final List<String> COLUMNS = List.of("order_id", "status", "amount", "note");
+
+    @TempDir
+    Path dataDir;
+
+    private static List<Row> orders(int from, int to) {
+        List<Row> rows = new ArrayList<>();
+        for (int id = from; id <= to; id++) {
+            rows.add(new Row(Arrays.asList(Integer.toString(id), id % 3 == 0 ? "shipped" : "pending",
+                    Integer.toString(id % 100), id % 10 == 0 ? null : "note " + id)));
+        }
+        return rows;
+    }
+
+    @Test
+    void testSegmentEncodingsRoundTrip() throws Exception {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            rows.add(new Row(Arrays.asList(Integer.toString(1000 + i), i < 2000 ? "a" : "b",
+                    i % 5 == 0 ? null : "v" + i % 40, Integer.toString(-i))));
+        }
+        ColumnSegment segment = ColumnSegment.write(dataDir.resolve("test.seg"),
+                List.of("id", "flag", "code", "neg"), rows);
+
+        assertEquals(ColumnEncoding.BIT_PACKED, segment.columns.get(0).encoding);
+        assertEquals(ColumnEncoding.RLE, segment.columns.get(1).encoding);
+        assertEquals(ColumnEncoding.DICTIONARY, segment.columns.get(2).encoding);
+        assertEquals(600, segment.columns.get(2).nullCount);
+        assertEquals(List.of("id", "flag", "code", "neg"), ColumnSegment.open(segment.path).columnNames());
+        assertEquals(values(rows), values(ColumnSegment.open(segment.path).readRows()));
+        // Single rows are read straight from each encoding
+        for (int row : new int[] {0, 5, 1999, 2000, 2999}) {
+            assertEquals(rows.get(row).getValues(), segment.readRow(row).getValues());
+        }
+    }
+
+    @Test
+    void testScansPruneSegmentsAndMatchRowEvaluation() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        for (int start = 1; start <= 4000; start += 1000) {
+            assertEquals(1000, engine.copyRows("orders", COLUMNS, orders(start, start + 999)));
+            engine.flush();
+        }
+
+        ResultSet result = engine.executeQuery("SELECT order_id, note FROM orders WHERE order_id > 3990 "
+                + "AND status = 'shipped'", 0);
+        List<List<String>> expected = new ArrayList<>();
+        for (Row row : orders(3991, 4000)) {
+            if (row.getValues().get(1).equals("shipped")) {
+                expected.add(Arrays.asList(row.getValues().get(0), row.getValues().get(3)));
+            }
+        }
+        assertEquals(List.of("order_id", "note"), result.getColumns());
+        assertEquals(expected, values(result.getRows()));
+        // Footer statistics rule out the first three segments
+        assertEquals(3, engine.getSegmentsSkipped());
+
+        ResultSet count = engine.executeQuery("SELECT COUNT(*) FROM orders WHERE note LIKE 'note 1%'", 0);
+        long notes = orders(1, 4000).stream()
+                .filter(row -> row.getValues().get(3) != null && row.getValues().get(3).startsWith("note 1")).count();
+        assertEquals(List.of(List.of(Long.toString(notes))), values(count.getRows()));
+
+        SQLException unsupported = assertThrows(SQLException.class,
+                () -> engine.executeQuery("SELECT status, COUNT(*) FROM orders GROUP BY status", 0));
+        assertEquals("0A000", unsupported.getSQLState());
+    }
+
+    @Test
+    void testPlainScansSendStoredColumnChunks() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        engine.copyRows("orders", COLUMNS, orders(1, 1500));
+        engine.flush();
+        engine.copyRows("orders", COLUMNS, orders(1501, 2000));
+        engine.flush();
+
+        QueryResult result = engine.scanColumnBatches("SELECT note, order_id FROM orders", 0);
+        assertEquals(List.of("note", "order_id"), result.getColumnsList());
+        assertEquals(2, result.getColumnBatchesCount());
+        assertEquals(2000, result.getRowsReturned());
+        // Chunks point into the mapped segment files instead of copies on the heap
+        assertTrue(result.getColumnBatches(0).getColumns(0).getData().asReadOnlyByteBuffer().isDirect());
+
+        List<List<String>> expanded = new ArrayList<>();
+        for (QueryProto.Row row : ColumnChunks.expand(result).getResultsList()) {
+            expanded.add(WorkerServiceImpl.fromProtoRow(row).getValues());
+        }
+        assertEquals(values(engine.executeQuery("SELECT note, order_id FROM orders", 0).getRows()), expanded);
+
+        assertNull(engine.scanColumnBatches("SELECT note FROM orders WHERE order_id = 5", 0));
+        assertNull(engine.scanColumnBatches("SELECT COUNT(*) FROM orders", 0));
+    }
+
+    @Test
+    void testStreamedScansHandOverEachSegmentAndSampleWholeBlocks() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        for (int start = 1; start <= 4 * 4096; start += 4096) {
+            engine.copyRows("orders", COLUMNS, orders(start, start + 4095));
+            engine.flush();
+        }
+
+        List<List<Row>> batches = new ArrayList<>();
+        List<Double> fractions = new ArrayList<>();
+        StorageEngine.RowSink sink = new StorageEngine.RowSink() {
+            @Override
+            public void columns(List<String> columns) {
+                assertEquals(List.of("order_id", "amount"), columns);
+            }
+
+            @Override
+            public boolean rows(List<Row> rows, double fractionRead) {
+                batches.add(rows);
+                fractions.add(fractionRead);
+                return true;
+            }
+        };
+        engine.streamQuery("SELECT order_id, amount FROM orders", Map.of(), null, false, 0, sink);
+        // One batch per segment as it is read, then the (empty) memtable
+        assertEquals(5, batches.size());
+        assertEquals(List.of(0.25, 0.5, 0.75, 1.0, 1.0), fractions);
+        List<String> streamed = new ArrayList<>();
+        batches.forEach(batch -> batch.forEach(row -> streamed.add(row.getValues().get(0))));
+        assertEquals(values(engine.executeQuery("SELECT order_id FROM orders", 0).getRows()).stream()
+                .map(values -> values.get(0)).sorted().toList(), streamed.stream().sorted().toList());
+
+        batches.clear();
+        fractions.clear();
+        engine.streamQuery("SELECT order_id, amount FROM orders", Map.of(), TableSample.newBuilder()
+                .setFraction(0.5).setMethod(SampleMethod.SYSTEM).build(), false, 0, sink);
+        List<Integer> sampled = new ArrayList<>();
+        batches.forEach(batch -> batch.forEach(row -> sampled.add(Integer.parseInt(row.getValues().get(0)))));
+        // Whole blocks of consecutive rows, each kept or skipped together
+        assertEquals(0, sampled.size() % ColumnVector.BLOCK_ROWS);
+        for (int i = 0; i < sampled.size(); i += ColumnVector.BLOCK_ROWS) {
+            assertEquals(0, (sampled.get(i) - 1) % ColumnVector.BLOCK_ROWS);
+            assertEquals(sampled.get(i) + ColumnVector.BLOCK_ROWS - 1,
+                    sampled.get(i + ColumnVector.BLOCK_ROWS - 1).intValue());
+        }
+        assertEquals(1.0, fractions.get(fractions.size() - 1));
+
+        batches.clear();
+        engine.streamQuery("SELECT order_id, amount FROM orders", Map.of(), TableSample.newBuilder()
+                .setFraction(0.25).setMethod(SampleMethod.BERNOULLI).build(), false, 0, sink);
+        int rows = batches.stream().mapToInt(List::size).sum();
+        // 4096 expected, within about ten standard deviations
+        assertTrue(rows > 3500 && rows < 4700, "sampled " + rows + " rows");
+
+        // Shuffled, every row still comes once, and the batches report how far the read has got
+        batches.clear();
+        fractions.clear();
+        engine.copyRows("orders", COLUMNS, orders(4 * 4096 + 1, 4 * 4096 + 10));
+        engine.streamQuery("SELECT order_id, amount FROM orders", Map.of(), null, true, 0, sink);
+        assertEquals(5, fractions.size());
+        assertEquals(4096.0 / (4 * 4096 + 10), fractions.get(0), 1e-9);
+        assertEquals(1.0, fractions.get(4));
+        List<String> shuffled = new ArrayList<>();
+        batches.forEach(batch -> batch.forEach(row -> shuffled.add(row.getValues().get(0))));
+        assertEquals(4 * 4096 + 10, new HashSet<>(shuffled).size());
+        assertNotEquals(sorted(shuffled), shuffled);
+        engine.shutdown();
+    }
+
+    @Test
+    void testWritesSurviveReopen() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        engine.copyRows("orders", COLUMNS, orders(1, 100));
+
+        SQLException duplicate = assertThrows(SQLException.class,
+                () -> engine.copyRows("orders", COLUMNS, orders(100, 101)));
+        assertEquals("23505", duplicate.getSQLState());
+        assertEquals(1, engine.writeRows("orders", COLUMNS, orders(100, 101)));
+
+        assertEquals(33, engine.executeWrite("tx1", true, "UPDATE orders SET status = 'done' "
+                + "WHERE status = 'shipped'", null, null, null, 0));
+        assertEquals(11, engine.executeWrite("tx2", true, "DELETE FROM orders WHERE amount < 10", null,
+                null, null, 0));
+
+        // A prepared insert holds its keys until it commits
+        assertEquals(1, engine.executeWrite("tx3", false, null, "orders", COLUMNS, orders(200, 200), 0));
+        assertThrows(SQLException.class, () -> engine.copyRows("orders", COLUMNS, orders(200, 200)));
+        assertEquals(List.of("tx3"), engine.listPreparedTransactions("tx"));
+        assertTrue(engine.finishTransaction("tx3", true));
+        assertEquals(1, engine.deleteShardRows(ordersShard("10", "10")));
+        engine.shutdown();
+
+        ColumnarStorageEngine reopened = new ColumnarStorageEngine("worker1", dataDir);
+        assertEquals(90, reopened.countShardRows(ordersShard("1", "1000")));
+        assertEquals(List.of(List.of("30")), values(reopened.executeQuery(
+                "SELECT COUNT(*) FROM orders WHERE status = 'done'", 0).getRows()));
+
+        ResultSet batch = reopened.readShardRows(ordersShard("1", "1000"), "98", 10);
+        assertEquals(List.of("99", "200"), batch.getRows().stream().map(row -> row.getValues().get(0)).toList());
+    }
+
+    @Test
+    void testFlushesMemtablesIntoSortedSegments() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        List<Row> rows = orders(1, 3000);
+        Collections.shuffle(rows, new Random(7));
+        engine.copyRows("orders", COLUMNS, rows);
+        engine.flush();
+        assertEquals(1, engine.getSegmentCount("orders"));
+
+        // Unflushed updates and deletes hide the rows they replace in the segments
+        engine.executeWrite("tx1", true, "UPDATE orders SET note = 'changed' WHERE order_id <= 10", null, null,
+                null, 0);
+        engine.executeWrite("tx2", true, "DELETE FROM orders WHERE order_id > 2990", null, null, null, 0);
+        engine.copyRows("orders", COLUMNS, orders(3001, 3005));
+        assertNull(engine.scanColumnBatches("SELECT * FROM orders", 0));
+        assertEquals(2995, engine.countShardRows(ordersShard("1", "10000")));
+        assertEquals(List.of(List.of("10")), values(engine.executeQuery(
+                "SELECT COUNT(*) FROM orders WHERE note = 'changed'", 0).getRows()));
+
+        engine.flush();
+        // The flush rewrote the segment holding replaced rows and added one for the memtable
+        assertEquals(2, engine.getSegmentCount("orders"));
+        ResultSet scan = engine.executeQuery("SELECT order_id FROM orders", 0);
+        assertEquals(2995, scan.getRows().size());
+        // Kept rows stay in key order, followed by the flushed memtable in key order
+        assertEquals("11", scan.getRows().get(0).getValues().get(0));
+        assertEquals("2990", scan.getRows().get(2979).getValues().get(0));
+        assertEquals("1", scan.getRows().get(2980).getValues().get(0));
+        assertEquals("3005", scan.getRows().get(2994).getValues().get(0));
+        assertEquals(List.of(List.of("10")), values(engine.executeQuery(
+                "SELECT COUNT(*) FROM orders WHERE note = 'changed'", 0).getRows()));
+        assertEquals(2995, engine.scanColumnBatches("SELECT * FROM orders", 0).getRowsReturned());
+    }
+
+    @Test
+    void testUnflushedWritesAreReplayedFromTheLog() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        engine.copyRows("orders", COLUMNS, orders(1, 50));
+        engine.flush();
+        engine.copyRows("orders", COLUMNS, orders(51, 100));
+        engine.executeWrite("tx1", true, "DELETE FROM orders WHERE order_id <= 20", null, null, null, 0);
+        engine.executeWrite("tx2", false, "UPDATE orders SET status = 'held' WHERE order_id > 90", null, null,
+                null, 0);
+        engine.executeWrite("tx3", false, null, "orders", COLUMNS, orders(101, 102), 0);
+        assertTrue(engine.finishTransaction("tx3", false));
+        assertTrue(engine.getLog().getSyncCount() > 0);
+        engine.shutdown();
+
+        ColumnarStorageEngine reopened = new ColumnarStorageEngine("worker1", dataDir);
+        assertEquals(80, reopened.countShardRows(ordersShard("1", "1000")));
+        // The prepared update survives the restart and can still commit
+        assertEquals(List.of("tx2"), reopened.listPreparedTransactions("tx"));
+        assertTrue(reopened.finishTransaction("tx2", true));
+        assertEquals(List.of(List.of("10")), values(reopened.executeQuery(
+                "SELECT COUNT(*) FROM orders WHERE status = 'held'", 0).getRows()));
+
+        reopened.flush();
+        reopened.shutdown();
+        ColumnarStorageEngine flushed = new ColumnarStorageEngine("worker1", dataDir);
+        assertEquals(80, flushed.countShardRows(ordersShard("1", "1000")));
+        assertEquals(List.of(), flushed.listPreparedTransactions("tx"));
+        assertEquals(2, flushed.getSegmentCount("orders"));
+        flushed.shutdown();
+    }
+
+    @Test
+    void testIndexLookupsMatchScans() throws Exception {
+        ColumnarStorageEngine indexed = new ColumnarStorageEngine("worker1", dataDir.resolve("indexed"));
+        ColumnarStorageEngine plain = new ColumnarStorageEngine("worker2", dataDir.resolve("plain"));
+        for (ColumnarStorageEngine engine : List.of(indexed, plain)) {
+            engine.copyRows("orders", COLUMNS, orders(1, 3000));
+            engine.flush();
+        }
+        indexed.createIndex("orders", "orders_amount", List.of("amount"));
+        indexed.createIndex("orders", "orders_status", List.of("status", "amount"));
+
+        // Unflushed writes change indexed values, delete rows and add new ones
+        for (ColumnarStorageEngine engine : List.of(indexed, plain)) {
+            engine.executeWrite("tx1", true, "UPDATE orders SET amount = 7 WHERE order_id <= 5", null, null,
+                    null, 0);
+            engine.executeWrite("tx2", true, "DELETE FROM orders WHERE order_id > 2990", null, null, null, 0);
+            engine.copyRows("orders", COLUMNS, orders(3001, 3010));
+        }
+
+        List<String> queries = List.of(
+                "SELECT order_id, note FROM orders WHERE amount = 7",
+                "SELECT COUNT(*) FROM orders WHERE amount >= 95 AND status = 'shipped'",
+                "SELECT order_id FROM orders WHERE status = 'pending' AND amount < 3");
+        for (String query : queries) {
+            assertEquals(values(plain.executeQuery(query, 0).getRows()),
+                    values(indexed.executeQuery(query, 0).getRows()), query);
+        }
+        assertEquals(3, indexed.getIndexLookups());
+        assertEquals(36, indexed.executeQuery(queries.get(0), 0).getRows().size());
+
+        indexed.flush();
+        plain.flush();
+        indexed.shutdown();
+
+        // The indexes are kept in the manifest
+        ColumnarStorageEngine reopened = new ColumnarStorageEngine("worker1", dataDir.resolve("indexed"));
+        for (String query : queries) {
+            assertEquals(values(plain.executeQuery(query, 0).getRows()),
+                    values(reopened.executeQuery(query, 0).getRows()), query);
+        }
+        assertEquals(3, reopened.getIndexLookups());
+        reopened.shutdown();
+        plain.shutdown();
+    }
+
+    @Test
+    void testConcurrentScansMatchSoloScans() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        for (int start = 1; start <= 4000; start += 1000) {
+            engine.copyRows("orders", COLUMNS, orders(start, start + 999));
+            engine.flush();
+        }
+        // Unflushed updates hide segment rows from every scan
+        engine.executeWrite("tx1", true, "UPDATE orders SET status = 'held' WHERE order_id <= 50", null, null,
+                null, 0);
+
+        List<String> queries = List.of(
+                "SELECT order_id, note FROM orders WHERE status = 'shipped'",
+                "SELECT COUNT(*) FROM orders WHERE amount >= 90",
+                "SELECT * FROM orders WHERE order_id > 3500 AND status = 'pending'",
+                "SELECT order_id FROM orders WHERE status = 'held'");
+        List<List<List<String>>> expected = new ArrayList<>();
+        for (String query : queries) {
+            expected.add(values(engine.executeQuery(query, 0).getRows()));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<List<String>>>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                String query = queries.get(i % queries.size());
+                results.add(threads.submit(() -> values(engine.executeQuery(query, 0).getRows())));
+            }
+            // Rows come out in segment order wherever a scan joined the shared pass
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(expected.get(i % queries.size()), results.get(i).get(30, TimeUnit.SECONDS),
+                        queries.get(i % queries.size()));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertTrue(engine.getSharedScans().getSegmentsRead() > 0);
+        engine.shutdown();
+    }
+
+    @Test
+    void testFanOutOverReplicatedShardsReadsEachRowOnce() throws Exception {
+        String[][] shards = {{"orders_shard_1", "1", "1000"}, {"orders_shard_2", "1001", "2000"},
+                {"orders_shard_3", "2001", "3000"}};
+        List<ColumnarStorageEngine> engines = new ArrayList<>();
+        for (int worker = 0; worker < 3; worker++) {
+            ColumnarStorageEngine engine = new ColumnarStorageEngine("worker" + (worker + 1),
+                    dataDir.resolve("worker" + (worker + 1)));
+            // Each worker holds its primary shard and a replica of the one before it
+            for (int shard : new int[] {worker, (worker + 2) % 3}) {
+                int start = Integer.parseInt(shards[shard][1]);
+                engine.copyRows("orders", COLUMNS, orders(start, start + 899));
+                engine.flush();
+                engine.copyRows("orders", COLUMNS, orders(start + 900, start + 999));
+            }
+            // Every worker also holds a full copy of a hash-sharded table
+            engine.copyRows("items", COLUMNS, orders(1, 3000));
+            engine.flush();
+            engine.createIndex("orders", "orders_amount", List.of("amount"));
+            engines.add(engine);
+        }
+        // Unscoped, a worker reads its replica too
+        assertEquals(List.of(List.of("2000")),
+                values(engines.get(0).executeQuery("SELECT COUNT(*) FROM orders", 0).getRows()));
+
+        List<String> scanned = new ArrayList<>();
+        List<String> batched = new ArrayList<>();
+        List<String> looked = new ArrayList<>();
+        List<String> hashed = new ArrayList<>();
+        List<String> hashedBatches = new ArrayList<>();
+        long count = 0;
+        for (int worker = 0; worker < 3; worker++) {
+            ColumnarStorageEngine engine = engines.get(worker);
+            // The coordinator reads each shard from one of its replicas
+            Map<String, ShardFilter> filters = ShardFilter.byTable(List.of(
+                    ShardScope.newBuilder()
+                            .setTableName("orders")
+                            .setKeyColumn("order_id")
+                            .addShards(ShardRange.newBuilder()
+                                    .setShardId(shards[worker][0])
+                                    .setKeyRangeStart(shards[worker][1])
+                                    .setKeyRangeEnd(shards[worker][2]))
+                            .build(),
+                    ShardScope.newBuilder()
+                            .setTableName("items")
+                            .setKeyColumn("order_id")
+                            .addShards(ShardRange.newBuilder().setShardId("items_shard_" + (worker + 1)))
+                            .addAllRingShardIds(List.of("items_shard_1", "items_shard_2", "items_shard_3"))
+                            .build()));
+
+            for (Row row : engine.executeQuery("SELECT order_id FROM orders", filters, 0).getRows()) {
+                scanned.add(row.getValues().get(0));
+            }
+            count += Long.parseLong(engine.executeQuery("SELECT COUNT(*) FROM orders", filters, 0).getRows()
+                    .get(0).getValues().get(0));
+            for (Row row : engine.executeQuery("SELECT order_id FROM orders WHERE amount = 7", filters, 0)
+                    .getRows()) {
+                looked.add(row.getValues().get(0));
+            }
+            QueryResult batches = engine.scanColumnBatches("SELECT order_id, note FROM orders", filters, 0);
+            for (QueryProto.Row row : ColumnChunks.expand(batches).getResultsList()) {
+                batched.add(row.getValues(0));
+            }
+            assertEquals(1000, batches.getRowsReturned());
+            for (Row row : engine.executeQuery("SELECT order_id FROM items", filters, 0).getRows()) {
+                hashed.add(row.getValues().get(0));
+            }
+            // A segment holding rows of several shards is sent whole with a selection of the requested ones
+            QueryResult items = engine.scanColumnBatches("SELECT order_id FROM items", filters, 0);
+            assertFalse(items.getColumnBatches(0).getSelection().isEmpty());
+            for (QueryProto.Row row : ColumnChunks.expand(items).getResultsList()) {
+                hashedBatches.add(row.getValues(0));
+            }
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int id = 1; id <= 3000; id++) {
+            expected.add(Integer.toString(id));
+        }
+        assertEquals(expected, sorted(scanned));
+        assertEquals(expected, sorted(batched));
+        assertEquals(expected, sorted(hashed));
+        assertEquals(expected, sorted(hashedBatches));
+        assertEquals(3000, count);
+        assertEquals(30, looked.size());
+        assertEquals(30, new HashSet<>(looked).size());
+        assertEquals(3, engines.stream().mapToLong(ColumnarStorageEngine::getIndexLookups).sum());
+        for (ColumnarStorageEngine engine : engines) {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void testWritesCountOnlyRowsInTheCountFilter() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        engine.copyRows("orders", COLUMNS, orders(1, 1500));
+        engine.flush();
+        engine.copyRows("orders", COLUMNS, orders(1501, 2000));
+        // The worker holds 1..1000 as primary and 1001..2000 as a replica it does not count
+        ShardFilter countFilter = ShardFilter.byTable(List.of(ShardScope.newBuilder()
+                .setTableName("orders")
+                .setKeyColumn("order_id")
+                .addShards(ShardRange.newBuilder().setShardId("orders_shard_1").setKeyRangeStart("1")
+                        .setKeyRangeEnd("1000"))
+                .build())).get("orders");
+
+        assertEquals(10, engine.executeWrite("tx1", true, "UPDATE orders SET status = 'held' WHERE amount = 7",
+                null, null, null, countFilter, 0));
+        assertEquals(10, engine.executeWrite("tx2", false, "DELETE FROM orders WHERE amount = 8", null, null,
+                null, countFilter, 0));
+        assertEquals(0, engine.executeWrite("tx3", false, null, "orders", COLUMNS, orders(2001, 2005),
+                countFilter, 0));
+        // Every matching row is written all the same
+        assertTrue(engine.finishTransaction("tx2", true));
+        assertEquals(List.of(List.of("20")),
+                values(engine.executeQuery("SELECT COUNT(*) FROM orders WHERE status = 'held'", 0).getRows()));
+        assertEquals(List.of(List.of("0")),
+                values(engine.executeQuery("SELECT COUNT(*) FROM orders WHERE amount = 8", 0).getRows()));
+        engine.shutdown();
+    }
+
+    @Test
+    void testHashShardRowsAreTheKeysTheRingRoutesToTheShard() throws Exception {
+        ColumnarStorageEngine engine = new ColumnarStorageEngine("worker1", dataDir);
+        engine.copyRows("orders", COLUMNS, orders(1, 2000));
+        engine.flush();
+        engine.copyRows("orders", COLUMNS, orders(2001, 2400));
+        // A fourth shard joining a ring of three takes about a quarter of the keys
+        ShardFilter joining = ShardFilter.of(ShardRange.newBuilder()
+                .setShardId("orders_shard_4")
+                .setTableName("orders")
+                .setKeyColumn("order_id")
+                .addAllRingShardIds(List.of("orders_shard_1", "orders_shard_2", "orders_shard_3", "orders_shard_4"))
+                .build());
+
+        long count = engine.countShardRows(joining);
+        assertTrue(count > 400 && count < 800, "shard 4 holds " + count + " of 2400 keys");
+
+        // Batches follow the keys in text order and return exactly the shard's rows
+        List<String> read = new ArrayList<>();
+        String cursor = "";
+        while (true) {
+            ResultSet batch = engine.readShardRows(joining, cursor, 100);
+            for (Row row : batch.getRows()) {
+                read.add(row.getValues().get(0));
+            }
+            if (batch.getRows().size() < 100) {
+                break;
+            }
+            cursor = read.get(read.size() - 1);
+        }
+        assertEquals(count, read.size());
+        assertEquals(new ArrayList<>(new TreeSet<>(read)), read);
+        assertTrue(read.stream().allMatch(joining::contains));
+
+        assertEquals(count, engine.deleteShardRows(joining));
+        assertEquals(0, engine.countShardRows(joining));
+        assertEquals(List.of(List.of(Long.toString(2400 - count))),
+                values(engine.executeQuery("SELECT COUNT(*) FROM orders", 0).getRows()));
+        engine.shutdown();
+    }
+
+    private static ShardFilter ordersShard(String rangeStart, String rangeEnd) {
+        return ShardFilter.of(ShardRange.newBuilder()
+                .setShardId("orders_shard_1")
+                .setTableName("orders")
+                .setKeyColumn("order_id")
+                .setKeyRangeStart(rangeStart)
+                .setKeyRangeEnd(rangeEnd)
+                .build());
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        List<String> sorted = new ArrayList<>(keys);
+        sorted.sort(Comparator.comparingInt(Integer::parseInt));
+        return sorted;
+    }
+
+    private static List<List<String>> values(List<Row> rows) {
+        List<List<String>> values = new ArrayList<>();
+        for (Row row : rows) {
+            values.add(row.getValues());
+        }
+        return values;
+    }
+}
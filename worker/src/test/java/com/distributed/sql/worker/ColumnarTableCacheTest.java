@@ -0,0 +1,132 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.ResultSet;
+import com.distributed.sql.common.models.Row;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class ColumnarTableCacheTest {
+
+    private static final String[] CITIES = {"Austin", "Boston", "Chicago", "Denver"};
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Function<String, ResultSet> loader = table -> {
+        loads.incrementAndGet();
+        ResultSet resultSet = new ResultSet();
+        resultSet.setStatus("COMPLETED");
+        resultSet.setColumns(List.of("user_id", "name", "age", "city"));
+        for (int id = 1; id <= 5000; id++) {
+            resultSet.addRow(new Row(Arrays.asList(Integer.toString(id), "user_" + id,
+                    id % 7 == 0 ? null : Integer.toString(20 + id % 50), CITIES[id % CITIES.length])));
+        }
+        return resultSet;
+    };
+
+    @Test
+    void testFiltersMatchRowByRowEvaluationAndSkipBlocks() {
+        ColumnarTableCache cache = new ColumnarTableCache(64L * 1024 * 1024, 0);
+
+        ResultSet result = cache.execute("SELECT user_id, city FROM users WHERE user_id <= 100 AND age >= 60 "
+                + "AND city IN ('Austin', 'Denver')", loader);
+
+        List<List<String>> expected = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            String city = CITIES[id % CITIES.length];
+            if (id % 7 != 0 && 20 + id % 50 >= 60 && (city.equals("Austin") || city.equals("Denver"))) {
+                expected.add(List.of(Integer.toString(id), city));
+            }
+        }
+        assertEquals(List.of("user_id", "city"), result.getColumns());
+        assertEquals(expected, values(result));
+        // Only the first block can hold user_id <= 100
+        assertEquals(1, cache.getBlocksScanned());
+        assertEquals(4, cache.getBlocksSkipped());
+
+        ResultSet like = cache.execute("SELECT name FROM users WHERE name LIKE 'user_4999%'", loader);
+        assertEquals(List.of(List.of("user_4999")), values(like));
+
+        ResultSet count = cache.execute("SELECT COUNT(*) FROM users WHERE city = 'Boston'", loader);
+        assertEquals(List.of(List.of("1250")), values(count));
+    }
+
+    @Test
+    void testHitsUntilTableIsInvalidated() {
+        ColumnarTableCache cache = new ColumnarTableCache(64L * 1024 * 1024, 0);
+
+        cache.execute("SELECT * FROM users WHERE user_id = 42", loader);
+        ResultSet result = cache.execute("SELECT * FROM users WHERE user_id = 42", loader);
+
+        assertEquals(1, loads.get());
+        assertEquals(0.5, cache.getHitRatio());
+        assertTrue(cache.getBytes() > 0);
+        assertEquals(List.of(Arrays.asList("42", "user_42", null, "Chicago")), values(result));
+
+        cache.invalidate("users");
+        assertEquals(0, cache.getBytes());
+        cache.execute("SELECT * FROM users WHERE user_id = 42", loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testUnsupportedQueriesFallBack() {
+        ColumnarTableCache cache = new ColumnarTableCache(64L * 1024 * 1024, 0);
+
+        assertNull(cache.execute("SELECT MAX(age) FROM users", loader));
+        assertNull(cache.execute("SELECT * FROM users WHERE age > 30 OR city = 'Boston'", loader));
+        assertNull(cache.execute("SELECT * FROM users WHERE age > 30 ORDER BY name", loader));
+        assertNull(cache.execute("SELECT * FROM users u JOIN orders o ON u.user_id = o.user_id", loader));
+        assertEquals(0, loads.get());
+
+        // Numeric columns do not take LIKE, and unknown columns go to the database for the error
+        assertNull(cache.execute("SELECT * FROM users WHERE age LIKE '3%'", loader));
+        assertNull(cache.execute("SELECT missing FROM users", loader));
+    }
+
+    @Test
+    void testShardFilterKeepsOnlyRequestedShards() {
+        ColumnarTableCache cache = new ColumnarTableCache(64L * 1024 * 1024, 0);
+        // The cached table also holds a replica of 1001..2000, which this worker was not asked for
+        Map<String, ShardFilter> filters = ShardFilter.byTable(List.of(ShardScope.newBuilder()
+                .setTableName("users")
+                .setKeyColumn("user_id")
+                .addShards(ShardRange.newBuilder().setShardId("users_shard_1").setKeyRangeStart("1")
+                        .setKeyRangeEnd("1000"))
+                .addShards(ShardRange.newBuilder().setShardId("users_shard_3").setKeyRangeStart("2001")
+                        .setKeyRangeEnd("5000"))
+                .build()));
+
+        ResultSet count = cache.execute("SELECT COUNT(*) FROM users", filters, loader);
+        assertEquals(List.of(List.of("4000")), values(count));
+
+        ResultSet rows = cache.execute("SELECT user_id FROM users WHERE user_id >= 990 AND user_id <= 2010",
+                filters, loader);
+        List<List<String>> expected = new ArrayList<>();
+        for (int id = 990; id <= 2010; id++) {
+            if (id <= 1000 || id >= 2001) {
+                expected.add(List.of(Integer.toString(id)));
+            }
+        }
+        assertEquals(expected, values(rows));
+        // The same cached table serves unscoped queries in full
+        assertEquals(List.of(List.of("5000")), values(cache.execute("SELECT COUNT(*) FROM users", loader)));
+        assertEquals(1, loads.get());
+    }
+
+    private static List<List<String>> values(ResultSet resultSet) {
+        List<List<String>> values = new ArrayList<>();
+        for (Row row : resultSet.getRows()) {
+            values.add(row.getValues());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,110 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.proto.QueryProto.SampleMethod;
+import com.distributed.sql.common.proto.QueryProto.ShardRange;
+import com.distributed.sql.common.proto.QueryProto.ShardScope;
+import com.distributed.sql.common.proto.QueryProto.TableSample;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class PostgresStorageEngineTest {
+
+    @Test
+    void testNoDeadlineMeansNoQueryTimeout() {
+        assertEquals(0, PostgresStorageEngine.toQueryTimeoutSeconds(0));
+    }
+
+    @Test
+    void testQueryTimeoutRoundsTheRemainingTimeUp() {
+        assertEquals(2, PostgresStorageEngine.toQueryTimeoutSeconds(System.currentTimeMillis() + 1500));
+        // A sub-second remainder still gets a timeout rather than none
+        assertEquals(1, PostgresStorageEngine.toQueryTimeoutSeconds(System.currentTimeMillis() + 200));
+    }
+
+    @Test
+    void testPassedDeadlineIsRejectedBeforeTheQueryRuns() {
+        assertThrows(IllegalStateException.class,
+                () -> PostgresStorageEngine.toQueryTimeoutSeconds(System.currentTimeMillis() - 1));
+    }
+
+    @Test
+    void testShardFilterKeepsARecursiveQueryRecursive() {
+        List<Object> parameters = new ArrayList<>();
+        String sql = PostgresStorageEngine.withShardFilters(
+                "with  recursive chain AS (SELECT user_id FROM users UNION SELECT user_id FROM chain) "
+                        + "SELECT * FROM chain",
+                "public", ShardFilter.byTable(List.of(ShardScope.newBuilder()
+                        .setTableName("users")
+                        .setKeyColumn("user_id")
+                        .addShards(range("users_shard_1", "1", "5000"))
+                        .build())), null, parameters);
+
+        assertEquals("WITH RECURSIVE users AS (SELECT * FROM public.users WHERE (user_id BETWEEN ? AND ?)), "
+                + "chain AS (SELECT user_id FROM users UNION SELECT user_id FROM chain) SELECT * FROM chain", sql);
+        assertEquals(List.of(1L, 5000L), parameters);
+    }
+
+    @Test
+    void testHashShardFilterIsARingHashRangePredicate() {
+        ShardFilter filter = ShardFilter.byTable(List.of(ShardScope.newBuilder()
+                .setTableName("products")
+                .setKeyColumn("product_id")
+                .addShards(range("products_shard_2", "", ""))
+                .addAllRingShardIds(List.of("products_shard_1", "products_shard_2", "products_shard_3"))
+                .build())).get("products");
+        List<Object> parameters = new ArrayList<>();
+
+        String sql = PostgresStorageEngine.withShardFilters("SELECT COUNT(*) FROM products", "public",
+                Map.of("products", filter), null, parameters);
+
+        // One bound range per run of the shard's virtual nodes, and no read of the keys beforehand
+        List<long[]> ranges = filter.hashRanges();
+        assertFalse(ranges.isEmpty());
+        assertEquals(2 * ranges.size(), parameters.size());
+        assertTrue(sql.startsWith("WITH products AS (SELECT * FROM public.products WHERE "
+                + "(dsql_ring_hash(CAST(product_id AS TEXT)) BETWEEN ? AND ?) OR "), sql);
+        assertTrue(sql.endsWith(") SELECT COUNT(*) FROM products"), sql);
+        assertEquals(ranges.get(0)[0], parameters.get(0));
+    }
+
+    @Test
+    void testSampleIsReadByTableSampleInsideTheShardScope() {
+        TableSample sample = TableSample.newBuilder().setFraction(0.1).setMethod(SampleMethod.BERNOULLI).build();
+        List<Object> parameters = new ArrayList<>();
+        String sql = PostgresStorageEngine.withShardFilters("SELECT user_id, age FROM users WHERE age > 30",
+                "public", ShardFilter.byTable(List.of(ShardScope.newBuilder()
+                        .setTableName("users")
+                        .setKeyColumn("user_id")
+                        .addShards(range("users_shard_2", "5001", "10000"))
+                        .build())), sample, parameters);
+
+        assertEquals("WITH users AS (SELECT * FROM public.users TABLESAMPLE BERNOULLI (10.0) "
+                + "WHERE (user_id BETWEEN ? AND ?)) SELECT user_id, age FROM users WHERE age > 30", sql);
+        assertEquals(List.of(5001L, 10000L), parameters);
+
+        // A table read without a shard filter is still sampled at its source
+        sql = PostgresStorageEngine.withShardFilters("SELECT * FROM orders",
+                "public", Map.of(), sample.toBuilder().setMethod(SampleMethod.SYSTEM).setFraction(0.005).build(),
+                parameters);
+        assertEquals("WITH orders AS (SELECT * FROM public.orders TABLESAMPLE SYSTEM (0.5)) SELECT * FROM orders",
+                sql);
+    }
+
+    @Test
+    void testRandomOrderCountsTheRowsAlongside() {
+        assertEquals("SELECT *, COUNT(*) OVER () AS dsql_rows_total FROM (WITH users AS (SELECT * FROM public.users "
+                + "WHERE (user_id BETWEEN ? AND ?)) SELECT age FROM users) AS shuffled ORDER BY random()",
+                PostgresStorageEngine.inRandomOrder("WITH users AS (SELECT * FROM public.users "
+                        + "WHERE (user_id BETWEEN ? AND ?)) SELECT age FROM users;"));
+    }
+
+    private static ShardRange range(String shardId, String start, String end) {
+        return ShardRange.newBuilder()
+                .setShardId(shardId)
+                .setKeyRangeStart(start)
+                .setKeyRangeEnd(end)
+                .build();
+    }
+}
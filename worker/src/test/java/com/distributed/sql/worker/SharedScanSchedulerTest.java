@@ -0,0 +1,112 @@
+package com.distributed.sql.worker;
+
+import com.distributed.sql.common.models.Row;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SharedScanSchedulerTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void testLateScanAttachesMidwayAndWrapsAround() throws Exception {
+        List<ColumnSegment> segments = new ArrayList<>();
+        for (int segment = 0; segment < 6; segment++) {
+            List<Row> rows = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                rows.add(new Row(List.of(Integer.toString(segment * 10 + i), "v")));
+            }
+            segments.add(ColumnSegment.write(dataDir.resolve(segment + ".seg"), List.of("id", "value"), rows));
+        }
+
+        SharedScanScheduler scheduler = new SharedScanScheduler();
+        CountDownLatch firstRead = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingReader first = new RecordingReader(() -> {
+            firstRead.countDown();
+            release.await();
+        });
+        RecordingReader second = new RecordingReader(null);
+
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> firstScan = threads.submit(() -> scheduler.scan(segments, first, 0));
+            assertTrue(firstRead.await(10, TimeUnit.SECONDS));
+            // The first scan holds segment 0, so the second starts at segment 1
+            Future<Integer> secondScan = threads.submit(() -> scheduler.scan(segments, second, 0));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (scheduler.getSegmentsShared() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            assertEquals(0, firstScan.get(10, TimeUnit.SECONDS));
+            assertEquals(0, secondScan.get(10, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), first.positions);
+        assertEquals(List.of(1, 2, 3, 4, 5, 0), second.positions);
+        assertEquals(60, first.rows);
+        assertEquals(60, second.rows);
+        // Segments 1 to 5 were decoded once for both scans; only segment 0 twice
+        assertEquals(7, scheduler.getSegmentsRead());
+        assertEquals(5, scheduler.getSegmentsShared());
+    }
+
+    private interface Action {
+        void run() throws InterruptedException;
+    }
+
+    private static final class RecordingReader implements SharedScanScheduler.Reader {
+        final List<Integer> positions = new ArrayList<>();
+        final Action onFirstRead;
+        int rows;
+
+        RecordingReader(Action onFirstRead) {
+            this.onFirstRead = onFirstRead;
+        }
+
+        @Override
+        public boolean mayMatch(ColumnSegment segment) {
+            return true;
+        }
+
+        @Override
+        public Set<Integer> columns() {
+            return Set.of(0);
+        }
+
+        @Override
+        public boolean isNumeric(int column) {
+            return true;
+        }
+
+        @Override
+        public void read(int position, ColumnVector[] vectors, int rowCount) {
+            positions.add(position);
+            rows += rowCount;
+            assertNull(vectors[1]);
+            assertEquals(Integer.toString(position * 10), vectors[0].value(0));
+            if (positions.size() == 1 && onFirstRead != null) {
+                try {
+                    onFirstRead.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}